@@ -0,0 +1,99 @@
+package cc.soham.timberutils.benchmark;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+
+import cc.soham.timberutils.output.file.TimberService;
+
+/**
+ * An in-process Context rooted in a temporary directory
+ * Intents for the {@link TimberService} are handled right away on the calling thread, broadcasts are ignored
+ */
+class BenchmarkContext extends Context {
+    private final File directory;
+    private BenchmarkTimberService timberService;
+
+    BenchmarkContext(File directory) {
+        this.directory = directory;
+    }
+
+    static BenchmarkContext createTemporary() throws IOException {
+        File directory = File.createTempFile("timberutils-benchmark", "");
+        if (!directory.delete() || !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        return new BenchmarkContext(directory);
+    }
+
+    /**
+     * Delete everything written below the directory
+     */
+    void deleteAll() {
+        deleteAll(directory);
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteAll(child);
+        }
+        file.delete();
+    }
+
+    synchronized BenchmarkTimberService getTimberService() {
+        if (timberService == null)
+            timberService = new BenchmarkTimberService(this);
+        return timberService;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return directory;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return directory;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public ComponentName startService(Intent service) {
+        if (service.getComponent() == null || !TimberService.class.getName().equals(service.getComponent().getClassName()))
+            throw new IllegalArgumentException("Only the TimberService can be started in benchmarks");
+        getTimberService().onStartCommand(service, 0, 0);
+        return service.getComponent();
+    }
+
+    @Override
+    public void sendBroadcast(Intent intent) {
+    }
+
+    @Override
+    public String getPackageName() {
+        return "cc.soham.timberutils.benchmark";
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        throw new UnsupportedOperationException("SharedPreferences are not used in benchmarks");
+    }
+
+    /**
+     * The real {@link TimberService}, attached to the benchmark Context
+     */
+    static class BenchmarkTimberService extends TimberService {
+        BenchmarkTimberService(Context base) {
+            attachBaseContext(base);
+        }
+    }
+}
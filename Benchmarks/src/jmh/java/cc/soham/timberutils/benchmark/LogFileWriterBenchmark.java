@@ -0,0 +1,68 @@
+package cc.soham.timberutils.benchmark;
+
+import android.util.Log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import cc.soham.timberutils.output.file.FileWriterWrapper;
+import cc.soham.timberutils.output.file.FlushPolicy;
+import cc.soham.timberutils.output.file.LogFileWriter;
+import cc.soham.timberutils.output.file.RotationPolicy;
+
+/**
+ * {@link LogFileWriter#write(android.content.Context, FileWriterWrapper, long, int, String, String, Throwable)}
+ * into a temporary directory, for every writer type, record format and flush policy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogFileWriterBenchmark {
+    @Param({"" + FileWriterWrapper.WRITER_TYPE_FILE, "" + FileWriterWrapper.WRITER_TYPE_MAPPED})
+    public int writerType;
+
+    @Param({"" + FileWriterWrapper.FORMAT_TEXT, "" + FileWriterWrapper.FORMAT_BINARY})
+    public int recordFormat;
+
+    @Param({"everyRecord", "groupCommit"})
+    public String flushPolicy;
+
+    private BenchmarkContext context;
+    private FileWriterWrapper fileWriterWrapper;
+    private long timestamp = System.currentTimeMillis();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = BenchmarkContext.createTemporary();
+        FileWriterWrapper.setWriterType(writerType);
+        FileWriterWrapper.setRecordFormat(recordFormat);
+        FileWriterWrapper.setFlushPolicy("groupCommit".equals(flushPolicy) ? FlushPolicy.groupCommit() : FlushPolicy.FLUSH_EVERY_RECORD);
+        // keeps the temporary directory from growing for the whole run
+        FileWriterWrapper.setRotationPolicy(RotationPolicy.defaults());
+        fileWriterWrapper = FileWriterWrapper.getFileWriterWrapper(context);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileWriterWrapper.flushAndCloseFileWriter();
+        FileWriterWrapper.fileWriterWrapper = null;
+        context.deleteAll();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        LogFileWriter.write(context, fileWriterWrapper, timestamp++, Log.DEBUG, "MainActivity:42",
+                "Loaded 25 items from the cache in 12ms", null);
+    }
+}
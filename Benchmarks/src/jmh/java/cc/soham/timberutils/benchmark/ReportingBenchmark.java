@@ -0,0 +1,36 @@
+package cc.soham.timberutils.benchmark;
+
+import android.util.Log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import cc.soham.timberutils.reporting.Reporting;
+
+/**
+ * {@link Reporting#format(int, String, String, Throwable)}, the text line of every record
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReportingBenchmark {
+    private final String tag = "MainActivity:42";
+    private final String message = "Loaded 25 items from the cache in 12ms";
+    private final Throwable throwable = new IllegalStateException("Cache corrupted");
+
+    @Benchmark
+    public String formatWithoutThrowable() {
+        return Reporting.format(Log.DEBUG, tag, message, null);
+    }
+
+    @Benchmark
+    public String formatWithThrowable() {
+        return Reporting.format(Log.ERROR, tag, message, throwable);
+    }
+}
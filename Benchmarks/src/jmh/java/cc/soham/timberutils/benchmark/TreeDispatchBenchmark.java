@@ -0,0 +1,105 @@
+package cc.soham.timberutils.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import cc.soham.timberutils.output.crashreporting.CrashReporter;
+import cc.soham.timberutils.output.crashreporting.CrashReporterTimberTree;
+import cc.soham.timberutils.output.file.AsyncLogWriter;
+import cc.soham.timberutils.output.file.FileTimberTree;
+import cc.soham.timberutils.output.file.FileWriterWrapper;
+import cc.soham.timberutils.output.file.RotationPolicy;
+import timber.log.Timber;
+
+/**
+ * A Timber call through a planted tree, as seen by the logging thread
+ * - crashReporter: {@link CrashReporterTimberTree} with a crash reporter that only consumes its input
+ * - fileService: {@link FileTimberTree#MODE_SERVICE}, the stubbed service writes on the calling thread
+ * - fileAsync: {@link FileTimberTree#MODE_ASYNC}, only the hand over to the writer thread is measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TreeDispatchBenchmark {
+    @Param({"crashReporter", "fileService", "fileAsync"})
+    public String tree;
+
+    private BenchmarkContext context;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setUp(final Blackhole blackhole) throws IOException {
+        context = BenchmarkContext.createTemporary();
+        FileWriterWrapper.setRotationPolicy(RotationPolicy.defaults());
+        Timber.uprootAll();
+        switch (tree) {
+            case "crashReporter":
+                Timber.plant(new CrashReporterTimberTree(new CrashReporter() {
+                    @Override
+                    public void logException(Exception exception) {
+                        blackhole.consume(exception);
+                    }
+
+                    @Override
+                    public void log(int priority, String tag, String msg) {
+                        blackhole.consume(msg);
+                    }
+
+                    @Override
+                    public void logException(Throwable throwable) {
+                        blackhole.consume(throwable);
+                    }
+
+                    @Override
+                    public void set(String key, boolean value) {
+                    }
+                }));
+                break;
+            case "fileService":
+                Timber.plant(new FileTimberTree(context, FileTimberTree.MODE_SERVICE));
+                break;
+            case "fileAsync":
+                Timber.plant(new FileTimberTree(context, FileTimberTree.MODE_ASYNC));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tree " + tree);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        Timber.uprootAll();
+        // the AsyncLogWriter is bound to this context for the whole fork, let it write what is queued
+        if ("fileAsync".equals(tree)) {
+            while (AsyncLogWriter.getAsyncLogWriter(context).getQueueSize() > 0)
+                Thread.sleep(10);
+        }
+        if (FileWriterWrapper.fileWriterWrapper != null) {
+            FileWriterWrapper.fileWriterWrapper.flushAndCloseFileWriter();
+            FileWriterWrapper.fileWriterWrapper = null;
+        }
+        context.deleteAll();
+    }
+
+    @Benchmark
+    public void logMessage() {
+        Timber.d("Loaded %d items from the cache", counter++);
+    }
+
+    @Benchmark
+    public void logThrowable() {
+        Timber.e(new IllegalStateException("Cache corrupted"), "Could not load item %d", counter++);
+    }
+}
@@ -0,0 +1,73 @@
+package cc.soham.timberutils.benchmark;
+
+import android.util.Log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import cc.soham.timberutils.output.file.FileWriterWrapper;
+import cc.soham.timberutils.output.file.FlushPolicy;
+import cc.soham.timberutils.output.file.LogFileWriter;
+import cc.soham.timberutils.output.file.RotationPolicy;
+
+/**
+ * {@link LogFileWriter#handleZip(cc.soham.timberutils.output.file.TimberService)} over log folders of
+ * segmentCount segments of segmentBytes each
+ * Every export seals the active segment, so the folder gains one small segment per invocation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ZipExportBenchmark {
+    @Param({"1", "8", "32"})
+    public int segmentCount;
+
+    @Param({"65536", "524288"})
+    public int segmentBytes;
+
+    @Param({"" + FileWriterWrapper.FORMAT_TEXT, "" + FileWriterWrapper.FORMAT_BINARY})
+    public int recordFormat;
+
+    private BenchmarkContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = BenchmarkContext.createTemporary();
+        FileWriterWrapper.setWriterType(FileWriterWrapper.WRITER_TYPE_FILE);
+        FileWriterWrapper.setRecordFormat(recordFormat);
+        FileWriterWrapper.setFlushPolicy(FlushPolicy.groupCommit());
+        FileWriterWrapper.setRotationPolicy(new RotationPolicy(segmentBytes, 0, 0, 0));
+        FileWriterWrapper fileWriterWrapper = FileWriterWrapper.getFileWriterWrapper(context);
+        long timestamp = System.currentTimeMillis();
+        while (fileWriterWrapper.getRotationCount() < segmentCount) {
+            LogFileWriter.write(context, fileWriterWrapper, timestamp++, Log.DEBUG, "MainActivity:42",
+                    "Loaded 25 items from the cache in 12ms", null);
+        }
+        fileWriterWrapper.flush();
+        // the export thread of exportAsync is not used, handleZip writes the archive on the calling thread
+        FileWriterWrapper.setRotationPolicy(RotationPolicy.NONE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileWriterWrapper.fileWriterWrapper.flushAndCloseFileWriter();
+        FileWriterWrapper.fileWriterWrapper = null;
+        context.deleteAll();
+    }
+
+    @Benchmark
+    public String export() {
+        return LogFileWriter.handleZip(context.getTimberService());
+    }
+}
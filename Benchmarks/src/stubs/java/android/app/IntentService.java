@@ -0,0 +1,18 @@
+package android.app;
+
+import android.content.Intent;
+
+/**
+ * Benchmark stub of android.app.IntentService, Intents are handled synchronously on the calling thread
+ */
+public abstract class IntentService extends Service {
+    public IntentService(String name) {
+    }
+
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        onHandleIntent(intent);
+        return 0;
+    }
+
+    protected abstract void onHandleIntent(Intent intent);
+}
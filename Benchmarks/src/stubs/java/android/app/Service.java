@@ -0,0 +1,18 @@
+package android.app;
+
+import android.content.ContextWrapper;
+
+/**
+ * Benchmark stub of android.app.Service, the base Context is attached by whoever creates it
+ */
+public abstract class Service extends ContextWrapper {
+    public Service() {
+        super(null);
+    }
+
+    public void onCreate() {
+    }
+
+    public void onDestroy() {
+    }
+}
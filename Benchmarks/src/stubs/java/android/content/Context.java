@@ -0,0 +1,24 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Benchmark stub of the parts of android.content.Context used by the Library
+ */
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract File getCacheDir();
+
+    public abstract File getFilesDir();
+
+    public abstract Context getApplicationContext();
+
+    public abstract ComponentName startService(Intent service);
+
+    public abstract void sendBroadcast(Intent intent);
+
+    public abstract String getPackageName();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+}
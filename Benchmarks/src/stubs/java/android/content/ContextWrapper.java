@@ -0,0 +1,57 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Benchmark stub of android.content.ContextWrapper, delegates to the base Context
+ */
+public class ContextWrapper extends Context {
+    private Context base;
+
+    public ContextWrapper(Context base) {
+        this.base = base;
+    }
+
+    protected void attachBaseContext(Context base) {
+        this.base = base;
+    }
+
+    public Context getBaseContext() {
+        return base;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return base.getCacheDir();
+    }
+
+    @Override
+    public File getFilesDir() {
+        return base.getFilesDir();
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return base.getApplicationContext();
+    }
+
+    @Override
+    public ComponentName startService(Intent service) {
+        return base.startService(service);
+    }
+
+    @Override
+    public void sendBroadcast(Intent intent) {
+        base.sendBroadcast(intent);
+    }
+
+    @Override
+    public String getPackageName() {
+        return base.getPackageName();
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return base.getSharedPreferences(name, mode);
+    }
+}
@@ -0,0 +1,79 @@
+package android.content;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+/**
+ * Benchmark stub of android.content.Intent, extras are kept in a map
+ */
+public class Intent {
+    private final HashMap<String, Object> extras = new HashMap<>();
+    private String action;
+    private ComponentName component;
+    private String packageName;
+
+    public Intent(Context context, Class<?> cls) {
+        this.component = new ComponentName(context.getPackageName(), cls.getName());
+    }
+
+    public Intent(String action) {
+        this.action = action;
+    }
+
+    public Intent putExtra(String name, int value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, long value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, String value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, Serializable value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public int getIntExtra(String name, int defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public long getLongExtra(String name, long defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    public String getStringExtra(String name) {
+        Object value = extras.get(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public Serializable getSerializableExtra(String name) {
+        Object value = extras.get(name);
+        return value instanceof Serializable ? (Serializable) value : null;
+    }
+
+    public Intent setPackage(String packageName) {
+        this.packageName = packageName;
+        return this;
+    }
+
+    public String getPackage() {
+        return packageName;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public ComponentName getComponent() {
+        return component;
+    }
+}
@@ -0,0 +1,32 @@
+package android.content;
+
+import java.util.Map;
+
+/**
+ * Benchmark stub of android.content.SharedPreferences
+ */
+public interface SharedPreferences {
+    Map<String, ?> getAll();
+
+    boolean getBoolean(String key, boolean defValue);
+
+    String getString(String key, String defValue);
+
+    int getInt(String key, int defValue);
+
+    Editor edit();
+
+    interface Editor {
+        Editor putBoolean(String key, boolean value);
+
+        Editor putString(String key, String value);
+
+        Editor putInt(String key, int value);
+
+        Editor remove(String key);
+
+        boolean commit();
+
+        void apply();
+    }
+}
@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Benchmark stub of android.os.Build
+ */
+public class Build {
+    public static class VERSION {
+        public static final int SDK_INT = 25;
+    }
+
+    public static class VERSION_CODES {
+        public static final int LOLLIPOP = 21;
+        public static final int N = 24;
+    }
+}
@@ -0,0 +1,27 @@
+package android.os;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Benchmark stub of android.os.Process
+ */
+public class Process {
+    private static final int PID = readPid();
+
+    public static int myPid() {
+        return PID;
+    }
+
+    /**
+     * @return the pid of the JVM, from its "pid@host" name
+     */
+    private static int readPid() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        try {
+            return Integer.parseInt(at > 0 ? name.substring(0, at) : name);
+        } catch (NumberFormatException exception) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * Benchmark stub of android.os.SystemClock
+ */
+public final class SystemClock {
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000L;
+    }
+}
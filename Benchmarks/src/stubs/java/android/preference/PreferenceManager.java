@@ -0,0 +1,13 @@
+package android.preference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Benchmark stub of android.preference.PreferenceManager
+ */
+public class PreferenceManager {
+    public static SharedPreferences getDefaultSharedPreferences(Context context) {
+        return context.getSharedPreferences(context.getPackageName() + "_preferences", Context.MODE_PRIVATE);
+    }
+}
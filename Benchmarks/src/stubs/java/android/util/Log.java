@@ -0,0 +1,34 @@
+package android.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Benchmark stub of android.util.Log, nothing is printed so that logcat output is not part of the measurements
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    public static int println(int priority, String tag, String msg) {
+        return msg.length();
+    }
+
+    public static int wtf(String tag, String msg) {
+        return msg.length();
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return true;
+    }
+
+    public static String getStackTraceString(Throwable tr) {
+        StringWriter stringWriter = new StringWriter();
+        tr.printStackTrace(new PrintWriter(stringWriter));
+        return stringWriter.toString();
+    }
+}
@@ -5,22 +5,58 @@ import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
 import java.io.IOException;
+import java.util.List;
 
+import cc.soham.timberutils.callsite.CallSiteTimberTree;
+import cc.soham.timberutils.filter.LogInterest;
+import cc.soham.timberutils.filter.LogRule;
+import cc.soham.timberutils.filter.LogRules;
+import cc.soham.timberutils.filter.LogStormSuppressor;
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.metrics.MetricsSnapshot;
+
+import cc.soham.timberutils.output.crashreporting.BreadcrumbBuffer;
 import cc.soham.timberutils.output.crashreporting.CrashReporter;
+import cc.soham.timberutils.output.crashreporting.CrashReporterSink;
 import cc.soham.timberutils.output.crashreporting.CrashReporterTimberTree;
+import cc.soham.timberutils.output.file.AsyncLogWriter;
+import cc.soham.timberutils.output.file.BoundedLogQueue;
+import cc.soham.timberutils.output.file.CrashLogHandler;
+import cc.soham.timberutils.output.file.FileSink;
 import cc.soham.timberutils.output.file.FileTimberTree;
 import cc.soham.timberutils.output.file.FileWriterWrapper;
+import cc.soham.timberutils.output.logcat.LogcatSink;
+import cc.soham.timberutils.output.logcat.LogcatTimberTree;
+import cc.soham.timberutils.output.tail.LogTail;
+import cc.soham.timberutils.output.tail.LogTailSink;
+import cc.soham.timberutils.output.tail.LogTailTimberTree;
+import cc.soham.timberutils.output.tail.TailListener;
+import cc.soham.timberutils.output.tail.TailSubscription;
+import cc.soham.timberutils.reporting.Reporting;
+import cc.soham.timberutils.sink.FanOutTimberTree;
+import cc.soham.timberutils.startup.PreInitTimberTree;
 import timber.log.Timber;
 
 /**
  * Created by sohammondal on 21/08/16.
  * Manages various Timber related activities
  * - Stores/Retrieves/Manages the state of debug and file logging (two types of logging currently)
- * - Handles initialisation (and re-initialisation) of Timber (planting the right trees)
+ * - Handles initialisation (and re-initialisation) of Timber (planting the right trees, or the sinks of a single
+ * {@link FanOutTimberTree} with {@link TimberWrapperConfig#TREE_MODE_FAN_OUT})
  * - Handles calls from Settings/Preferences to store and update the individual (debug:on/off + file:on/off)
  * states
+ * - Stores/Applies the {@link LogRules} (minimum priority per sink and tag/tag prefix)
+ * - Exposes the {@link LoggingMetrics} of the logging pipeline
+ * - Keeps {@link LogInterest} up to date with the planted sinks, for {@link cc.soham.timberutils.lazy.LazyLog}
+ * - Installs the {@link CrashLogHandler} while file logging is on, if enabled in the {@link TimberWrapperConfig},
+ * and while the crash reporter has a {@link BreadcrumbBuffer}
+ * - Delivers records live to the subscriptions of an in-app console through a {@link LogTail}, planted while
+ * there is at least one subscription
+ * - Initialises on a background thread with {@link TimberWrapperConfig#INIT_MODE_BACKGROUND}, statements made
+ * in the meantime are buffered by a {@link PreInitTimberTree} and replayed to the trees once they are planted
  */
 public class TimberWrapper {
     // by default this product flavor + build type will log to file
@@ -36,10 +72,44 @@ public class TimberWrapper {
     public static final String PREF_USER_EXPLICIT = "logging_user_explicit_decision_made";
     public static final String KEY_BOOLEAN_CRASH_REPORTING_LOGGING_ENABLED = "crash_reporting_logging";
 
-    public static Timber.DebugTree debugTree;
+    // the options used when planting trees
+    public static TimberWrapperConfig config = new TimberWrapperConfig();
+
+    /**
+     * The tree planted for debug logging, null while debug logging is off (and in fan-out mode, where logcat is a
+     * {@link LogcatSink} of the {@link #fanOutTimberTree})
+     *
+     * @deprecated the same tree as {@link #logcatTimberTree}, which is no longer a {@link Timber.DebugTree}: it shares
+     * the call site resolved for the other trees instead of walking the stack on its own
+     */
+    @Deprecated
+    public static Timber.Tree debugTree;
+    public static LogcatTimberTree logcatTimberTree;
     public static FileTimberTree fileTimberTree;
     public static CrashReporterTimberTree crashReporterTimberTree;
 
+    // used instead of the trees above with TimberWrapperConfig.TREE_MODE_FAN_OUT
+    public static FanOutTimberTree fanOutTimberTree;
+    public static LogcatSink logcatSink;
+    public static FileSink fileSink;
+    public static CrashReporterSink crashReporterSink;
+
+    // installed along with file logging, see TimberWrapperConfig.setCrashDrainTimeoutMillis
+    public static CrashLogHandler crashLogHandler;
+
+    // the live tail, created on the first subscription and planted while there are subscriptions
+    public static LogTail logTail;
+    public static LogTailTimberTree logTailTimberTree;
+    public static LogTailSink logTailSink;
+    // planted until a background initialisation is done
+    public static PreInitTimberTree preInitTimberTree;
+    // the latest initialisation, a background one that is not the latest leaves the work to it
+    private static int initGeneration;
+    // set while the trees of a handoff are created, the PreInitTimberTree plants them (guarded by the class lock,
+    // like every change to the trees)
+    private static boolean plantingDeferred;
+    private static final String INIT_THREAD_NAME = "TimberWrapper-init";
+
     /**
      * Changes the state of debugging to the one in sharedPreferences
      * Typically called by InitUtils to initialise Timber with a stored logging level
@@ -48,7 +118,7 @@ public class TimberWrapper {
      * @param defaultDebugLoggingLevel this is the default debug logging state for this product_flavor+build_type
      */
     public static void initTimberLoggingLevel(@NonNull final Context context, boolean defaultDebugLoggingLevel) {
-        initTimberLoggingLevel(context, PreferenceManager.getDefaultSharedPreferences(context), null, defaultDebugLoggingLevel, defaultFileLoggingStateForFlavorBuild);
+        startInitialisation(context, null, defaultDebugLoggingLevel, defaultFileLoggingStateForFlavorBuild);
     }
 
     /**
@@ -59,7 +129,7 @@ public class TimberWrapper {
      * @param defaultDebugLoggingLevel this is the default debug logging state for this product_flavor+build_type
      */
     public static void initTimberLoggingLevel(@NonNull final Context context, @Nullable CrashReporter crashReporter, boolean defaultDebugLoggingLevel) {
-        initTimberLoggingLevel(context, PreferenceManager.getDefaultSharedPreferences(context), crashReporter, defaultDebugLoggingLevel, DEFAULT_LOGGING_LEVEL_FILE);
+        startInitialisation(context, crashReporter, defaultDebugLoggingLevel, DEFAULT_LOGGING_LEVEL_FILE);
     }
 
     /**
@@ -71,7 +141,7 @@ public class TimberWrapper {
      * @param defaultFileLoggingLevel  this is the default file logging state for this product_flavor+build_type
      */
     public static void initTimberLoggingLevel(@NonNull final Context context, boolean defaultDebugLoggingLevel, boolean defaultFileLoggingLevel) {
-        initTimberLoggingLevel(context, PreferenceManager.getDefaultSharedPreferences(context), null, defaultDebugLoggingLevel, defaultFileLoggingLevel);
+        startInitialisation(context, null, defaultDebugLoggingLevel, defaultFileLoggingLevel);
     }
 
     /**
@@ -84,7 +154,22 @@ public class TimberWrapper {
      * @param defaultFileLoggingLevel  this is the default file logging state for this product_flavor+build_type
      */
     public static void initTimberLoggingLevel(@NonNull final Context context, @Nullable CrashReporter crashReporter, boolean defaultDebugLoggingLevel, boolean defaultFileLoggingLevel) {
-        initTimberLoggingLevel(context, PreferenceManager.getDefaultSharedPreferences(context), crashReporter, defaultDebugLoggingLevel, defaultFileLoggingLevel);
+        startInitialisation(context, crashReporter, defaultDebugLoggingLevel, defaultFileLoggingLevel);
+    }
+
+    /**
+     * Changes the state of debugging to the one in sharedPreferences
+     * Typically called by InitUtils to initialise Timber with a stored logging level
+     *
+     * @param context
+     * @param crashReporter            a {@link CrashReporter} (OPTIONAL)
+     * @param defaultDebugLoggingLevel this is the default debug logging state for this product_flavor+build_type
+     * @param defaultFileLoggingLevel  this is the default file logging state for this product_flavor+build_type
+     * @param timberWrapperConfig      the options used when planting trees
+     */
+    public static void initTimberLoggingLevel(@NonNull final Context context, @Nullable CrashReporter crashReporter, boolean defaultDebugLoggingLevel, boolean defaultFileLoggingLevel, @NonNull TimberWrapperConfig timberWrapperConfig) {
+        config = timberWrapperConfig;
+        startInitialisation(context, crashReporter, defaultDebugLoggingLevel, defaultFileLoggingLevel);
     }
 
     /**
@@ -94,7 +179,7 @@ public class TimberWrapper {
      * @param context
      */
     public static void initTimberLoggingLevel(@NonNull final Context context,  @Nullable CrashReporter crashReporter) {
-        initTimberLoggingLevel(context, PreferenceManager.getDefaultSharedPreferences(context), crashReporter, DEFAULT_LOGGING_LEVEL_DEBUG, DEFAULT_LOGGING_LEVEL_FILE);
+        startInitialisation(context, crashReporter, DEFAULT_LOGGING_LEVEL_DEBUG, DEFAULT_LOGGING_LEVEL_FILE);
     }
 
     /**
@@ -104,7 +189,86 @@ public class TimberWrapper {
      * @param context
      */
     public static void initTimberLoggingLevel(@NonNull final Context context) {
-        initTimberLoggingLevel(context, PreferenceManager.getDefaultSharedPreferences(context), null, DEFAULT_LOGGING_LEVEL_DEBUG, DEFAULT_LOGGING_LEVEL_FILE);
+        startInitialisation(context, null, DEFAULT_LOGGING_LEVEL_DEBUG, DEFAULT_LOGGING_LEVEL_FILE);
+    }
+
+    /**
+     * Initialises right away, or on a background thread with {@link TimberWrapperConfig#INIT_MODE_BACKGROUND}
+     *
+     * @param context
+     * @param crashReporter            a {@link CrashReporter} (OPTIONAL)
+     * @param defaultDebugLoggingLevel this is the default debug logging state for this product_flavor+build_type
+     * @param defaultFileLoggingLevel  this is the default file logging state for this product_flavor+build_type
+     */
+    private static synchronized void startInitialisation(@NonNull final Context context, @Nullable final CrashReporter crashReporter, final boolean defaultDebugLoggingLevel, final boolean defaultFileLoggingLevel) {
+        final int generation = ++initGeneration;
+        if (config.getInitMode() != TimberWrapperConfig.INIT_MODE_BACKGROUND) {
+            initTimberLoggingLevel(context, PreferenceManager.getDefaultSharedPreferences(context), crashReporter, defaultDebugLoggingLevel, defaultFileLoggingLevel);
+            return;
+        }
+        // buffer until the trees are planted, everything is of interest meanwhile
+        // the current trees would get the buffered statements twice, the file writer is closed in the background
+        uprootAllTimberWrapperTrees();
+        if (preInitTimberTree == null) {
+            preInitTimberTree = new PreInitTimberTree(config.getPreInitBufferCapacity());
+            Timber.plant(preInitTimberTree);
+        }
+        LogInterest.reset();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                completeInitialisation(generation, context, crashReporter, defaultDebugLoggingLevel, defaultFileLoggingLevel);
+            }
+        }, INIT_THREAD_NAME).start();
+    }
+
+    /**
+     * The part of a background initialisation that reads from disk: preferences, rules and the log file
+     *
+     * @param generation               the initialisation this was started for
+     * @param context
+     * @param crashReporter            a {@link CrashReporter} (OPTIONAL)
+     * @param defaultDebugLoggingLevel this is the default debug logging state for this product_flavor+build_type
+     * @param defaultFileLoggingLevel  this is the default file logging state for this product_flavor+build_type
+     */
+    private static void completeInitialisation(int generation, @NonNull final Context context, @Nullable CrashReporter crashReporter, boolean defaultDebugLoggingLevel, boolean defaultFileLoggingLevel) {
+        boolean fileState = false;
+        try {
+            SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+            // waits for the preferences to load from disk before taking the lock, so that other calls to this
+            // class do not wait for the disk
+            sharedPreferences.getAll();
+            synchronized (TimberWrapper.class) {
+                if (generation != initGeneration)
+                    return;
+                initTimberLoggingLevel(context, sharedPreferences, crashReporter, defaultDebugLoggingLevel, defaultFileLoggingLevel);
+                fileState = fileTimberTree != null || fileSink != null;
+            }
+            // open the log file here rather than on the thread of the first record
+            if (fileState)
+                FileWriterWrapper.getFileWriterWrapper(context);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            // also when the initialisation failed, so that statements are not buffered forever
+            synchronized (TimberWrapper.class) {
+                if (generation == initGeneration)
+                    closePreInitTimberTree();
+            }
+        }
+    }
+
+    /**
+     * Hands the statements buffered by the {@link PreInitTimberTree} to the trees planted (unless done already),
+     * and uproots it
+     */
+    private static synchronized void closePreInitTimberTree() {
+        if (preInitTimberTree == null)
+            return;
+        preInitTimberTree.close(getTimberWrapperTrees());
+        Timber.uproot(preInitTimberTree);
+        preInitTimberTree = null;
+        updateLogInterest();
     }
 
     /**
@@ -117,18 +281,55 @@ public class TimberWrapper {
      * @param defaultDebugLoggingLevel this is the default debug logging state for this product_flavor+build_type
      * @param defaultFileLoggingLevel  this is the default file logging state for this product_flavor+build_type
      */
-    private static void initTimberLoggingLevel(@NonNull final Context context, @NonNull final SharedPreferences sharedPreferences, @Nullable CrashReporter crashReporter, boolean defaultDebugLoggingLevel, boolean defaultFileLoggingLevel) {
+    private static void initTimberLoggingLevel(@NonNull final Context context, @NonNull final SharedPreferences sharedPreferences, @Nullable final CrashReporter crashReporter, boolean defaultDebugLoggingLevel, boolean defaultFileLoggingLevel) {
         // store the default logging level
         defaultDebugLoggingStateForFlavorBuild = defaultDebugLoggingLevel;
         defaultFileLoggingStateForFlavorBuild = defaultFileLoggingLevel;
         // remove the current trees in Timber if added
         removeAllTimberWrapperTrees(context);
-        // get the state
-        boolean debugState = getCurrentDebugLoggingState(sharedPreferences);
-        boolean fileState = getCurrentFileLoggingState(sharedPreferences);
+        // get the stored filter rules and state, before statements are held back by a handoff
+        final LogRules logRules = LogRules.load(sharedPreferences);
+        final boolean debugState = getCurrentDebugLoggingState(sharedPreferences);
+        final boolean fileState = getCurrentFileLoggingState(sharedPreferences);
+        if (preInitTimberTree == null) {
+            plantTimberWrapperTrees(context, crashReporter, logRules, debugState, fileState);
+            return;
+        }
+        preInitTimberTree.handOff(new PreInitTimberTree.Handoff() {
+            @Override
+            public CallSiteTimberTree[] createTrees() {
+                plantingDeferred = true;
+                try {
+                    plantTimberWrapperTrees(context, crashReporter, logRules, debugState, fileState);
+                } catch (Exception e) {
+                    // the trees created so far are still planted
+                    e.printStackTrace();
+                } finally {
+                    plantingDeferred = false;
+                }
+                return getTimberWrapperTrees();
+            }
+        });
+        closePreInitTimberTree();
+    }
+
+    /**
+     * Applies the filter rules and plants the trees for the logging state
+     *
+     * @param context
+     * @param crashReporter a {@link CrashReporter} (OPTIONAL)
+     * @param logRules
+     * @param debugState
+     * @param fileState
+     */
+    private static void plantTimberWrapperTrees(@NonNull final Context context, @Nullable CrashReporter crashReporter, @NonNull LogRules logRules, boolean debugState, boolean fileState) {
+        // apply the stored filter rules
+        LogRules.setCurrent(logRules);
         updateTimberDebugLoggingLevel(debugState);
         updateTimberFileLoggingLevel(context, fileState);
-        updateTimberCrashReportingLoggingLevel(fileState, crashReporter);
+        updateTimberCrashReportingLoggingLevel(context, fileState, crashReporter);
+        plantLogTailTree();
+        updateLogInterest();
     }
 
     /**
@@ -190,20 +391,27 @@ public class TimberWrapper {
     /**
      * Changes the state of file logging to the one in params
      *
+     * @param context
      * @param fileLoggingLevel
      * @param crashReporter
      */
-    private static void updateTimberCrashReportingLoggingLevel(boolean fileLoggingLevel, final CrashReporter crashReporter) {
+    private static void updateTimberCrashReportingLoggingLevel(@NonNull Context context, boolean fileLoggingLevel, final CrashReporter crashReporter) {
         if (fileLoggingLevel)
-            plantCrashReportingTree(crashReporter);
+            plantCrashReportingTree(context, crashReporter);
     }
 
     /**
      * Plant a debug tree
      */
     private static void plantDebugTree() {
-        debugTree = new Timber.DebugTree();
-        Timber.plant(debugTree);
+        if (isFanOutMode()) {
+            logcatSink = new LogcatSink();
+            getFanOutTimberTree().addSink(logcatSink, LogRules.SINK_LOGCAT, config.getLogcatMinPriority());
+            return;
+        }
+        logcatTimberTree = new LogcatTimberTree();
+        debugTree = logcatTimberTree;
+        plantTree(logcatTimberTree);
     }
 
     /**
@@ -212,51 +420,342 @@ public class TimberWrapper {
      * @param context
      */
     private static void plantFileTree(@NonNull final Context context) {
-        fileTimberTree = new FileTimberTree(context);
-        Timber.plant(fileTimberTree);
+        FileWriterWrapper.setFlushPolicy(config.getFlushPolicy());
+        FileWriterWrapper.setWriterType(config.getFileWriterType());
+        FileWriterWrapper.setRotationPolicy(config.getRotationPolicy());
+        FileWriterWrapper.setRecordFormat(config.getRecordFormat());
+        FileWriterWrapper.setCompressionLevel(config.getCompressionLevel());
+        FileWriterWrapper.setStackTracePolicy(config.getStackTracePolicy());
+        FileWriterWrapper.setIndexInterval(config.getSegmentIndexInterval());
+        BoundedLogQueue.setOverflowPolicy(config.getOverflowPolicy());
+        Reporting.setFormatter(config.getLogFormatter());
+        if (isFanOutMode()) {
+            fileSink = new FileSink(context, config.getFileLoggingMode());
+            fileSink.setStormSuppressor(createStormSuppressor());
+            getFanOutTimberTree().addSink(fileSink, LogRules.SINK_FILE, config.getFileMinPriority());
+            installCrashLogHandler(context);
+            return;
+        }
+        fileTimberTree = new FileTimberTree(context, config.getFileLoggingMode());
+        fileTimberTree.setStormSuppressor(createStormSuppressor());
+        plantTree(fileTimberTree);
+        installCrashLogHandler(context);
+    }
+
+    /**
+     * Install the {@link CrashLogHandler} if there is something for it to save on a crash
+     *
+     * @param context
+     */
+    private static void installCrashLogHandler(@NonNull final Context context) {
+        if (getCrashLogFileSink() == null && getBreadcrumbBuffer() == null)
+            return;
+        long timeoutMillis = config.getCrashDrainTimeoutMillis();
+        crashLogHandler = CrashLogHandler.install(context, timeoutMillis > 0 ? timeoutMillis : CrashLogHandler.DEFAULT_TIMEOUT_MILLIS);
+        updateCrashLogHandler();
+    }
+
+    /**
+     * Hand the {@link CrashLogHandler} what it saves on a crash, uninstall it once there is nothing left
+     */
+    private static void updateCrashLogHandler() {
+        if (crashLogHandler == null)
+            return;
+        FileSink sink = getCrashLogFileSink();
+        BreadcrumbBuffer breadcrumbBuffer = getBreadcrumbBuffer();
+        if (sink == null && breadcrumbBuffer == null) {
+            uninstallCrashLogHandler();
+            return;
+        }
+        crashLogHandler.setFileSink(sink);
+        crashLogHandler.setSaveLogFile(sink != null);
+        crashLogHandler.setBreadcrumbBuffer(breadcrumbBuffer);
+    }
+
+    /**
+     * @return the sink file logging goes through if the config asks for the log file to be saved on a crash,
+     * null otherwise
+     */
+    private static FileSink getCrashLogFileSink() {
+        if (config.getCrashDrainTimeoutMillis() <= 0)
+            return null;
+        if (fileSink != null)
+            return fileSink;
+        return fileTimberTree != null ? fileTimberTree.getFileSink() : null;
+    }
+
+    /**
+     * @return the {@link BreadcrumbBuffer} of the planted crash reporter, null if there is none
+     */
+    private static BreadcrumbBuffer getBreadcrumbBuffer() {
+        if (crashReporterSink != null)
+            return crashReporterSink.getBreadcrumbBuffer();
+        return crashReporterTimberTree != null ? crashReporterTimberTree.getBreadcrumbBuffer() : null;
+    }
+
+    /**
+     * Restore the uncaught exception handler that was there before the {@link CrashLogHandler}
+     */
+    private static void uninstallCrashLogHandler() {
+        if (crashLogHandler != null) {
+            CrashLogHandler.uninstall(crashLogHandler);
+            crashLogHandler = null;
+        }
     }
 
     /**
      * Plant a crash reporting tree
      *
+     * @param context
      * @param crashReporter
      */
-    private static void plantCrashReportingTree(@Nullable final CrashReporter crashReporter) {
+    private static void plantCrashReportingTree(@NonNull final Context context, @Nullable final CrashReporter crashReporter) {
         if (crashReporter != null) {
-            crashReporterTimberTree = new CrashReporterTimberTree(crashReporter);
-            Timber.plant(crashReporterTimberTree);
+            if (isFanOutMode()) {
+                crashReporterSink = new CrashReporterSink(crashReporter);
+                crashReporterSink.setStormSuppressor(createStormSuppressor());
+                crashReporterSink.setBreadcrumbBuffer(createBreadcrumbBuffer(crashReporter));
+                getFanOutTimberTree().addSink(crashReporterSink, LogRules.SINK_CRASH_REPORTER, config.getCrashReporterMinPriority());
+            } else {
+                crashReporterTimberTree = new CrashReporterTimberTree(crashReporter);
+                crashReporterTimberTree.setStormSuppressor(createStormSuppressor());
+                crashReporterTimberTree.setBreadcrumbBuffer(createBreadcrumbBuffer(crashReporter));
+                plantTree(crashReporterTimberTree);
+            }
             crashReporter.set(KEY_BOOLEAN_CRASH_REPORTING_LOGGING_ENABLED, true);
+            installCrashLogHandler(context);
+        }
+    }
+
+    /**
+     * @return a {@link LogStormSuppressor} for a destination, null if the config suppresses nothing
+     */
+    private static LogStormSuppressor createStormSuppressor() {
+        if (config.getSuppressionPolicy().suppressesNothing())
+            return null;
+        return new LogStormSuppressor(config.getSuppressionPolicy());
+    }
+
+    /**
+     * @param crashReporter
+     * @return a {@link BreadcrumbBuffer} as per the config, null to report on the logging thread
+     */
+    private static BreadcrumbBuffer createBreadcrumbBuffer(@NonNull CrashReporter crashReporter) {
+        if (config.getBreadcrumbPolicy().isSynchronous())
+            return null;
+        return new BreadcrumbBuffer(crashReporter, config.getBreadcrumbPolicy());
+    }
+
+    /**
+     * Report what is left in a {@link BreadcrumbBuffer} that is no longer used and stop its thread
+     *
+     * @param breadcrumbBuffer (OPTIONAL)
+     */
+    private static void closeBreadcrumbBuffer(@Nullable BreadcrumbBuffer breadcrumbBuffer) {
+        if (breadcrumbBuffer != null)
+            breadcrumbBuffer.close();
+    }
+
+    /**
+     * Deliver the records logged from now on to a listener, e.g. an in-app debug console
+     * - works whether debug or file logging is on or not, the records are taken before any {@link LogRules}
+     * - the listener is called on a thread of the subscription, a slow listener skips ahead (see
+     * {@link TailListener#onRecordsMissed(long)}) instead of slowing down logging
+     *
+     * @param tailListener
+     * @param minPriority  the lowest priority delivered, e.g. {@link Log#INFO}
+     * @param tagPrefix    only records whose tag starts with it are delivered (OPTIONAL)
+     * @return the subscription, to be passed to {@link #unsubscribe(TailSubscription)} once done
+     */
+    public static synchronized TailSubscription subscribe(@NonNull TailListener tailListener, int minPriority, @Nullable String tagPrefix) {
+        if (logTail == null) {
+            logTail = new LogTail(config.getLogTailCapacity());
+            // TailSubscription.close() goes through here as well
+            logTail.setUnsubscribeListener(new LogTail.UnsubscribeListener() {
+                @Override
+                public void onUnsubscribed(@NonNull LogTail logTail) {
+                    updateLogTailTree();
+                }
+            });
+        }
+        TailSubscription subscription = logTail.subscribe(tailListener, minPriority, tagPrefix);
+        plantLogTailTree();
+        updateLogInterest();
+        return subscription;
+    }
+
+    /**
+     * Stop a subscription, the live tail is uprooted with the last one
+     * Same as {@link TailSubscription#close()}
+     *
+     * @param subscription
+     */
+    public static void unsubscribe(@NonNull TailSubscription subscription) {
+        subscription.close();
+    }
+
+    /**
+     * Update the tree of the live tail to the subscriptions left, uproot it after the last one
+     */
+    private static synchronized void updateLogTailTree() {
+        if (logTail != null && logTail.hasSubscriptions())
+            plantLogTailTree();
+        else
+            uprootLogTailTree();
+        updateLogInterest();
+    }
+
+    /**
+     * Plant the tree (or add the {@link LogTailSink}) of the live tail if there are subscriptions, or update
+     * the minimum priority of the sink
+     */
+    private static synchronized void plantLogTailTree() {
+        // planted with the other trees once a background initialisation is done
+        if (logTail == null || !logTail.hasSubscriptions() || preInitTimberTree != null && !plantingDeferred)
+            return;
+        if (isFanOutMode()) {
+            if (logTailSink == null)
+                logTailSink = new LogTailSink(logTail);
+            getFanOutTimberTree().addSink(logTailSink, logTail.getMinPriority());
+            return;
+        }
+        if (logTailTimberTree == null) {
+            logTailTimberTree = new LogTailTimberTree(logTail);
+            plantTree(logTailTimberTree);
+        }
+    }
+
+    /**
+     * Uproots the tree of the live tail (or removes the {@link LogTailSink}), the subscriptions stay open
+     */
+    private static synchronized void uprootLogTailTree() {
+        if (logTailSink != null && fanOutTimberTree != null) {
+            fanOutTimberTree.removeSink(logTailSink);
+            logTailSink = null;
         }
+        if (logTailTimberTree != null) {
+            Timber.uproot(logTailTimberTree);
+            logTailTimberTree = null;
+        }
+    }
+
+    /**
+     * Report the planted sinks and their minimum priorities to {@link LogInterest}
+     */
+    private static synchronized void updateLogInterest() {
+        int[] minPriorities = new int[LogRules.SINK_COUNT];
+        minPriorities[LogRules.SINK_LOGCAT] = logcatTimberTree != null ? Log.VERBOSE : logcatSink != null ? config.getLogcatMinPriority() : LogInterest.NOT_ACTIVE;
+        minPriorities[LogRules.SINK_FILE] = fileTimberTree != null ? Log.VERBOSE : fileSink != null ? config.getFileMinPriority() : LogInterest.NOT_ACTIVE;
+        minPriorities[LogRules.SINK_CRASH_REPORTER] = crashReporterTimberTree != null ? Log.VERBOSE : crashReporterSink != null ? config.getCrashReporterMinPriority() : LogInterest.NOT_ACTIVE;
+        int tailMinPriority = logTailTimberTree != null || logTailSink != null ? logTail.getMinPriority() : LogInterest.NOT_ACTIVE;
+        int treeCount = 0;
+        for (Timber.Tree tree : getTimberWrapperTrees()) {
+            if (tree != null)
+                treeCount++;
+        }
+        LogInterest.update(minPriorities, tailMinPriority, treeCount);
+    }
+
+    /**
+     * Plant a tree, unless the {@link PreInitTimberTree} plants it with the others of a handoff
+     *
+     * @param tree
+     */
+    private static void plantTree(@NonNull CallSiteTimberTree tree) {
+        if (!plantingDeferred)
+            Timber.plant(tree);
     }
 
     /**
-     * Uproots a debug tree
+     * @return the trees planted by this class, null where a tree is not planted
+     */
+    private static CallSiteTimberTree[] getTimberWrapperTrees() {
+        return new CallSiteTimberTree[]{logcatTimberTree, fileTimberTree, crashReporterTimberTree, fanOutTimberTree, logTailTimberTree};
+    }
+
+    private static boolean isFanOutMode() {
+        return config.getTreeMode() == TimberWrapperConfig.TREE_MODE_FAN_OUT;
+    }
+
+    /**
+     * Get the {@link FanOutTimberTree}, planting it the first time
+     *
+     * @return
+     */
+    private static synchronized FanOutTimberTree getFanOutTimberTree() {
+        if (fanOutTimberTree == null) {
+            fanOutTimberTree = new FanOutTimberTree();
+            plantTree(fanOutTimberTree);
+        }
+        return fanOutTimberTree;
+    }
+
+    /**
+     * Uproots the {@link FanOutTimberTree} with all its sinks
+     */
+    private static synchronized void uprootFanOutTimberTree() {
+        if (fanOutTimberTree != null) {
+            Timber.uproot(fanOutTimberTree);
+            fanOutTimberTree = null;
+            logcatSink = null;
+            fileSink = null;
+            logTailSink = null;
+            if (crashReporterSink != null) {
+                closeBreadcrumbBuffer(crashReporterSink.getBreadcrumbBuffer());
+                crashReporterSink = null;
+            }
+            updateCrashLogHandler();
+        }
+    }
+
+    /**
+     * Uproots a debug tree (or removes the {@link LogcatSink})
      */
     private static void uprootDebugTree() {
-        if (debugTree != null) {
-            Timber.uproot(debugTree);
+        if (logcatSink != null && fanOutTimberTree != null) {
+            fanOutTimberTree.removeSink(logcatSink);
+            logcatSink = null;
+        }
+        if (logcatTimberTree != null) {
+            Timber.uproot(logcatTimberTree);
+            logcatTimberTree = null;
             debugTree = null;
         }
     }
 
     /**
-     * Uproots a {@link FileTimberTree}
+     * Uproots a {@link FileTimberTree} (or removes the {@link FileSink})
      */
     private static void uprootFileTimberTree() {
+        if (fileSink != null && fanOutTimberTree != null) {
+            fanOutTimberTree.removeSink(fileSink);
+            // the summary lines go into the file before it is closed
+            fileSink.flushSuppressed();
+            fileSink = null;
+        }
         if (fileTimberTree != null) {
             Timber.uproot(fileTimberTree);
+            fileTimberTree.getFileSink().flushSuppressed();
             fileTimberTree = null;
         }
+        updateCrashLogHandler();
     }
 
     /**
-     * Uproots a {@link CrashReporterTimberTree}
+     * Uproots a {@link CrashReporterTimberTree} (or removes the {@link CrashReporterSink})
      */
     private static void uprootCrashReporterTimberTree() {
+        if (crashReporterSink != null && fanOutTimberTree != null) {
+            fanOutTimberTree.removeSink(crashReporterSink);
+            closeBreadcrumbBuffer(crashReporterSink.getBreadcrumbBuffer());
+            crashReporterSink = null;
+        }
         if (crashReporterTimberTree != null) {
             Timber.uproot(crashReporterTimberTree);
+            closeBreadcrumbBuffer(crashReporterTimberTree.getBreadcrumbBuffer());
             crashReporterTimberTree = null;
         }
+        updateCrashLogHandler();
     }
 
     /**
@@ -266,12 +765,22 @@ public class TimberWrapper {
      */
     private static void removeAllTimberWrapperTrees(@NonNull final Context context) {
         if (Timber.treeCount() > 0) {
-            uprootDebugTree();
-            uprootFileTimberTree();
+            uprootAllTimberWrapperTrees();
             clearFileWriterWrapperWhenApplicable(context);
         }
     }
 
+    /**
+     * Uproot all current trees (the {@link PreInitTimberTree} stays)
+     */
+    private static void uprootAllTimberWrapperTrees() {
+        uprootDebugTree();
+        uprootFileTimberTree();
+        uprootCrashReporterTimberTree();
+        uprootLogTailTree();
+        uprootFanOutTimberTree();
+    }
+
     /**
      * Clears FileWriterWrapper in certain conditions
      *
@@ -281,7 +790,8 @@ public class TimberWrapper {
         try {
             // flush and close only when it has never been initialized before
             if (FileWriterWrapper.fileWriterWrapper != null) {
-                FileWriterWrapper.getFileWriterWrapper(context).flushAndCloseFileWriter();
+                // the records queued for the writer thread are written first, it would reopen the file for them
+                AsyncLogWriter.drainAndCloseFileWriter(context);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -336,6 +846,36 @@ public class TimberWrapper {
         editor.commit();
     }
 
+    /**
+     * Returns the counters and latency histograms of the logging pipeline, can be called from any thread
+     *
+     * @return
+     */
+    public static MetricsSnapshot getMetricsSnapshot() {
+        return LoggingMetrics.snapshot();
+    }
+
+    /**
+     * Stores the filter rules and applies them right away
+     *
+     * @param context
+     * @param rules
+     */
+    public static synchronized void storeLoggingRules(@NonNull final Context context, @NonNull List<LogRule> rules) {
+        LogRules.store(PreferenceManager.getDefaultSharedPreferences(context), rules);
+        LogRules.setCurrent(new LogRules(rules));
+    }
+
+    /**
+     * Returns the stored filter rules
+     *
+     * @param context
+     * @return
+     */
+    public static List<LogRule> getLoggingRules(@NonNull final Context context) {
+        return LogRules.load(PreferenceManager.getDefaultSharedPreferences(context)).getRules();
+    }
+
     /**
      * Returns the current state of Debug Timber Logging
      *
@@ -429,7 +969,7 @@ public class TimberWrapper {
      * @param context
      * @param debugLoggingEnabled the new state of Debug logging (is debug logging enabled or not)
      */
-    public static void updateDebugLoggingState(@NonNull final Context context, boolean debugLoggingEnabled) {
+    public static synchronized void updateDebugLoggingState(@NonNull final Context context, boolean debugLoggingEnabled) {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         updateDebugLoggingState(sharedPreferences, debugLoggingEnabled);
     }
@@ -463,6 +1003,7 @@ public class TimberWrapper {
                 plantDebugTree();
             }
         }
+        updateLogInterest();
     }
 
     /**
@@ -476,7 +1017,7 @@ public class TimberWrapper {
      * @param crashReporter
      * @param fileLoggingEnabled the new state of File logging (is file logging enabled or not)
      */
-    public static void updateFileLoggingState(@NonNull final Context context, final CrashReporter crashReporter, boolean fileLoggingEnabled) {
+    public static synchronized void updateFileLoggingState(@NonNull final Context context, final CrashReporter crashReporter, boolean fileLoggingEnabled) {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         updateFileLoggingState(context, sharedPreferences, crashReporter, fileLoggingEnabled);
     }
@@ -491,7 +1032,7 @@ public class TimberWrapper {
      * @param context
      * @param fileLoggingEnabled the new state of File logging (is file logging enabled or not)
      */
-    public static void updateFileLoggingState(@NonNull final Context context, boolean fileLoggingEnabled) {
+    public static synchronized void updateFileLoggingState(@NonNull final Context context, boolean fileLoggingEnabled) {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         updateFileLoggingState(context, sharedPreferences, null, fileLoggingEnabled);
     }
@@ -527,8 +1068,9 @@ public class TimberWrapper {
                 // plant the file tree
                 plantFileTree(context);
                 // plant the crash reporting tree
-                plantCrashReportingTree(crashReporter);
+                plantCrashReportingTree(context, crashReporter);
             }
         }
+        updateLogInterest();
     }
 }
\ No newline at end of file
@@ -0,0 +1,454 @@
+package cc.soham.timberutils;
+
+import android.util.Log;
+
+import java.util.zip.Deflater;
+
+import cc.soham.timberutils.filter.SuppressionPolicy;
+import cc.soham.timberutils.output.crashreporting.BreadcrumbPolicy;
+import cc.soham.timberutils.output.file.CrashLogHandler;
+import cc.soham.timberutils.output.file.FileTimberTree;
+import cc.soham.timberutils.output.file.FileWriterWrapper;
+import cc.soham.timberutils.output.file.FlushPolicy;
+import cc.soham.timberutils.output.file.OverflowPolicy;
+import cc.soham.timberutils.output.file.RotationPolicy;
+import cc.soham.timberutils.output.file.SegmentCompressor;
+import cc.soham.timberutils.output.file.SegmentIndex;
+import cc.soham.timberutils.output.tail.LogTail;
+import cc.soham.timberutils.reporting.DefaultLogFormatter;
+import cc.soham.timberutils.reporting.LogFormatter;
+import cc.soham.timberutils.reporting.StackTracePolicy;
+import cc.soham.timberutils.startup.PreInitTimberTree;
+
+/**
+ * Options used by {@link TimberWrapper} when (re)planting trees
+ * - all setters return the same object so that options can be chained
+ * - a default instance reproduces the behaviour of {@link TimberWrapper} before these options existed
+ */
+public class TimberWrapperConfig {
+    // one tree is planted per destination (logcat, file, crash reporter)
+    public static final int TREE_MODE_SEPARATE = 0;
+    // a single FanOutTimberTree is planted, destinations are LogSinks on it
+    public static final int TREE_MODE_FAN_OUT = 1;
+    // TimberWrapper#initTimberLoggingLevel plants the trees before it returns
+    public static final int INIT_MODE_BLOCKING = 0;
+    // TimberWrapper#initTimberLoggingLevel returns right away, statements are buffered until the trees are planted
+    public static final int INIT_MODE_BACKGROUND = 1;
+
+    private int treeMode = TREE_MODE_SEPARATE;
+    private int logcatMinPriority = Log.VERBOSE;
+    private int fileMinPriority = Log.VERBOSE;
+    private int crashReporterMinPriority = Log.VERBOSE;
+    private int fileLoggingMode = FileTimberTree.MODE_SERVICE;
+    private FlushPolicy flushPolicy = FlushPolicy.FLUSH_EVERY_RECORD;
+    private int fileWriterType = FileWriterWrapper.WRITER_TYPE_FILE;
+    private RotationPolicy rotationPolicy = RotationPolicy.NONE;
+    private int recordFormat = FileWriterWrapper.FORMAT_TEXT;
+    private LogFormatter logFormatter = new DefaultLogFormatter();
+    private int compressionLevel = Deflater.NO_COMPRESSION;
+    private SuppressionPolicy suppressionPolicy = SuppressionPolicy.NONE;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.defaults();
+    private long crashDrainTimeoutMillis = 0;
+    private BreadcrumbPolicy breadcrumbPolicy = BreadcrumbPolicy.NONE;
+    private StackTracePolicy stackTracePolicy = StackTracePolicy.NONE;
+    private int segmentIndexInterval = 0;
+    private int logTailCapacity = LogTail.DEFAULT_CAPACITY;
+    private int initMode = INIT_MODE_BLOCKING;
+    private int preInitBufferCapacity = PreInitTimberTree.DEFAULT_CAPACITY;
+
+    /**
+     * @return how destinations are planted in Timber
+     */
+    public int getTreeMode() {
+        return treeMode;
+    }
+
+    /**
+     * Sets how destinations are planted in Timber
+     * With {@link #TREE_MODE_FAN_OUT} switching a destination on or off adds/removes a
+     * {@link cc.soham.timberutils.sink.LogSink} of the {@link cc.soham.timberutils.sink.FanOutTimberTree}
+     *
+     * @param treeMode {@link #TREE_MODE_SEPARATE} or {@link #TREE_MODE_FAN_OUT}
+     * @return
+     */
+    public TimberWrapperConfig setTreeMode(int treeMode) {
+        this.treeMode = treeMode;
+        return this;
+    }
+
+    public int getLogcatMinPriority() {
+        return logcatMinPriority;
+    }
+
+    /**
+     * Sets the lowest priority written to logcat, only used with {@link #TREE_MODE_FAN_OUT}
+     *
+     * @param logcatMinPriority e.g. {@link Log#DEBUG}
+     * @return
+     */
+    public TimberWrapperConfig setLogcatMinPriority(int logcatMinPriority) {
+        this.logcatMinPriority = logcatMinPriority;
+        return this;
+    }
+
+    public int getFileMinPriority() {
+        return fileMinPriority;
+    }
+
+    /**
+     * Sets the lowest priority written to the log file, only used with {@link #TREE_MODE_FAN_OUT}
+     *
+     * @param fileMinPriority e.g. {@link Log#INFO}
+     * @return
+     */
+    public TimberWrapperConfig setFileMinPriority(int fileMinPriority) {
+        this.fileMinPriority = fileMinPriority;
+        return this;
+    }
+
+    public int getCrashReporterMinPriority() {
+        return crashReporterMinPriority;
+    }
+
+    /**
+     * Sets the lowest priority sent to the {@link cc.soham.timberutils.output.crashreporting.CrashReporter},
+     * only used with {@link #TREE_MODE_FAN_OUT}
+     *
+     * @param crashReporterMinPriority e.g. {@link Log#WARN}
+     * @return
+     */
+    public TimberWrapperConfig setCrashReporterMinPriority(int crashReporterMinPriority) {
+        this.crashReporterMinPriority = crashReporterMinPriority;
+        return this;
+    }
+
+    /**
+     * @return the mode passed to every {@link FileTimberTree} planted by {@link TimberWrapper}
+     */
+    public int getFileLoggingMode() {
+        return fileLoggingMode;
+    }
+
+    /**
+     * Sets the mode passed to every {@link FileTimberTree} planted by {@link TimberWrapper}
+     *
+     * @param fileLoggingMode {@link FileTimberTree#MODE_SERVICE} or {@link FileTimberTree#MODE_ASYNC}
+     * @return
+     */
+    public TimberWrapperConfig setFileLoggingMode(int fileLoggingMode) {
+        this.fileLoggingMode = fileLoggingMode;
+        return this;
+    }
+
+    /**
+     * @return the {@link FlushPolicy} used when writing to the log file
+     */
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * Sets the {@link FlushPolicy} used when writing to the log file
+     *
+     * @param flushPolicy e.g. {@link FlushPolicy#groupCommit()}
+     * @return
+     */
+    public TimberWrapperConfig setFlushPolicy(FlushPolicy flushPolicy) {
+        if (flushPolicy == null)
+            throw new IllegalArgumentException("FlushPolicy cannot be null");
+        this.flushPolicy = flushPolicy;
+        return this;
+    }
+
+    /**
+     * @return the type of {@link FileWriterWrapper} used for the log file
+     */
+    public int getFileWriterType() {
+        return fileWriterType;
+    }
+
+    /**
+     * Sets the type of {@link FileWriterWrapper} used for the log file
+     *
+     * @param fileWriterType {@link FileWriterWrapper#WRITER_TYPE_FILE} or {@link FileWriterWrapper#WRITER_TYPE_MAPPED}
+     * @return
+     */
+    public TimberWrapperConfig setFileWriterType(int fileWriterType) {
+        this.fileWriterType = fileWriterType;
+        return this;
+    }
+
+    /**
+     * @return the {@link RotationPolicy} used for the log files
+     */
+    public RotationPolicy getRotationPolicy() {
+        return rotationPolicy;
+    }
+
+    /**
+     * Sets the {@link RotationPolicy} used for the log files
+     *
+     * @param rotationPolicy e.g. {@link RotationPolicy#defaults()}
+     * @return
+     */
+    public TimberWrapperConfig setRotationPolicy(RotationPolicy rotationPolicy) {
+        if (rotationPolicy == null)
+            throw new IllegalArgumentException("RotationPolicy cannot be null");
+        this.rotationPolicy = rotationPolicy;
+        return this;
+    }
+
+    /**
+     * @return the format records are written to the log file in
+     */
+    public int getRecordFormat() {
+        return recordFormat;
+    }
+
+    /**
+     * Sets the format records are written to the log file in, binary segments are decoded back
+     * to text when zipped
+     *
+     * @param recordFormat {@link FileWriterWrapper#FORMAT_TEXT} or {@link FileWriterWrapper#FORMAT_BINARY}
+     * @return
+     */
+    public TimberWrapperConfig setRecordFormat(int recordFormat) {
+        this.recordFormat = recordFormat;
+        return this;
+    }
+
+    /**
+     * @return the {@link LogFormatter} used for text log lines
+     */
+    public LogFormatter getLogFormatter() {
+        return logFormatter;
+    }
+
+    /**
+     * Sets the {@link LogFormatter} used for text log lines
+     *
+     * @param logFormatter
+     * @return
+     */
+    public TimberWrapperConfig setLogFormatter(LogFormatter logFormatter) {
+        if (logFormatter == null)
+            throw new IllegalArgumentException("LogFormatter cannot be null");
+        this.logFormatter = logFormatter;
+        return this;
+    }
+
+    /**
+     * @return the {@link Deflater} level sealed log segments are compressed with
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the {@link Deflater} level sealed log segments are compressed with in the background
+     * (see {@link SegmentCompressor}), compressed segments are stored as they are when zipped
+     *
+     * @param compressionLevel {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION},
+     *                         or {@link Deflater#NO_COMPRESSION} (default) to keep them uncompressed
+     * @return
+     */
+    public TimberWrapperConfig setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    /**
+     * @return the {@link SuppressionPolicy} of the file and crash reporter destinations
+     */
+    public SuppressionPolicy getSuppressionPolicy() {
+        return suppressionPolicy;
+    }
+
+    /**
+     * Sets how log storms are thinned out before they reach the file and the crash reporter
+     * (logcat always gets every record)
+     *
+     * @param suppressionPolicy e.g. {@link SuppressionPolicy#defaults()}
+     * @return
+     */
+    public TimberWrapperConfig setSuppressionPolicy(SuppressionPolicy suppressionPolicy) {
+        if (suppressionPolicy == null)
+            throw new IllegalArgumentException("SuppressionPolicy cannot be null");
+        this.suppressionPolicy = suppressionPolicy;
+        return this;
+    }
+
+    /**
+     * @return the {@link OverflowPolicy} of the queue in front of the log file
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets what happens to records once the queue in front of the log file is full
+     * (in both {@link FileTimberTree#MODE_SERVICE} and {@link FileTimberTree#MODE_ASYNC})
+     *
+     * @param overflowPolicy e.g. {@link OverflowPolicy#defaults()}
+     * @return
+     */
+    public TimberWrapperConfig setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null)
+            throw new IllegalArgumentException("OverflowPolicy cannot be null");
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * @return the time the {@link CrashLogHandler} gets to save the log file on a crash, 0 if it does not save it
+     */
+    public long getCrashDrainTimeoutMillis() {
+        return crashDrainTimeoutMillis;
+    }
+
+    /**
+     * Installs a {@link CrashLogHandler} while file logging is on: on an uncaught exception the records
+     * still queued and the fatal throwable are written and synced to the log file before the previous
+     * handler gets the exception
+     * This makes a large {@link FlushPolicy} safe to use as far as crashes are concerned
+     * The handler is installed regardless while the crash reporter has a BreadcrumbBuffer (see
+     * {@link #setBreadcrumbPolicy(BreadcrumbPolicy)}), to report the buffered breadcrumbs
+     *
+     * @param crashDrainTimeoutMillis e.g. {@link CrashLogHandler#DEFAULT_TIMEOUT_MILLIS}, or 0 (default) to not
+     *                                save the log file on a crash
+     * @return
+     */
+    public TimberWrapperConfig setCrashDrainTimeoutMillis(long crashDrainTimeoutMillis) {
+        if (crashDrainTimeoutMillis < 0)
+            throw new IllegalArgumentException("The crash drain timeout cannot be negative");
+        this.crashDrainTimeoutMillis = crashDrainTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return the {@link BreadcrumbPolicy} of the crash reporter destination
+     */
+    public BreadcrumbPolicy getBreadcrumbPolicy() {
+        return breadcrumbPolicy;
+    }
+
+    /**
+     * Sets how messages are handed to the {@link cc.soham.timberutils.output.crashreporting.CrashReporter}:
+     * on the logging thread, or in batches from a background thread
+     *
+     * @param breadcrumbPolicy e.g. {@link BreadcrumbPolicy#defaults()}
+     * @return
+     */
+    public TimberWrapperConfig setBreadcrumbPolicy(BreadcrumbPolicy breadcrumbPolicy) {
+        if (breadcrumbPolicy == null)
+            throw new IllegalArgumentException("BreadcrumbPolicy cannot be null");
+        this.breadcrumbPolicy = breadcrumbPolicy;
+        return this;
+    }
+
+    /**
+     * @return the {@link StackTracePolicy} of the log file
+     */
+    public StackTracePolicy getStackTracePolicy() {
+        return stackTracePolicy;
+    }
+
+    /**
+     * Sets how the stack traces of logged throwables are written to the log file: as Timber appends them to
+     * the message, or trimmed and deduplicated per segment
+     *
+     * @param stackTracePolicy e.g. {@link StackTracePolicy#defaults()}
+     * @return
+     */
+    public TimberWrapperConfig setStackTracePolicy(StackTracePolicy stackTracePolicy) {
+        if (stackTracePolicy == null)
+            throw new IllegalArgumentException("StackTracePolicy cannot be null");
+        this.stackTracePolicy = stackTracePolicy;
+        return this;
+    }
+
+    /**
+     * @return the number of records per block of the {@link SegmentIndex} kept for every segment, 0 if
+     * segments are not indexed
+     */
+    public int getSegmentIndexInterval() {
+        return segmentIndexInterval;
+    }
+
+    /**
+     * Index the segments of the log file, so that {@link cc.soham.timberutils.output.file.LogReader} can
+     * seek straight to the records of a query
+     *
+     * @param segmentIndexInterval e.g. {@link SegmentIndex#DEFAULT_INTERVAL}, 0 to not index segments
+     * @return
+     */
+    public TimberWrapperConfig setSegmentIndexInterval(int segmentIndexInterval) {
+        if (segmentIndexInterval < 0)
+            throw new IllegalArgumentException("The segment index interval cannot be negative");
+        this.segmentIndexInterval = segmentIndexInterval;
+        return this;
+    }
+
+    /**
+     * @return the number of records the {@link LogTail} keeps for subscriptions that fall behind
+     */
+    public int getLogTailCapacity() {
+        return logTailCapacity;
+    }
+
+    /**
+     * Sets the number of records the {@link LogTail} keeps for subscriptions that fall behind, applies
+     * when the first subscription is made through {@link TimberWrapper#subscribe}
+     *
+     * @param logTailCapacity
+     * @return
+     */
+    public TimberWrapperConfig setLogTailCapacity(int logTailCapacity) {
+        if (logTailCapacity <= 0)
+            throw new IllegalArgumentException("The log tail capacity must be positive");
+        this.logTailCapacity = logTailCapacity;
+        return this;
+    }
+
+    /**
+     * @return how {@link TimberWrapper#initTimberLoggingLevel} initialises
+     */
+    public int getInitMode() {
+        return initMode;
+    }
+
+    /**
+     * Sets how {@link TimberWrapper#initTimberLoggingLevel} initialises
+     * With {@link #INIT_MODE_BACKGROUND} only a {@link PreInitTimberTree} is planted on the calling thread, the
+     * preferences, rules and log file are loaded on a background thread, and the statements made in the meantime
+     * are replayed to the trees once they are planted
+     *
+     * @param initMode {@link #INIT_MODE_BLOCKING} or {@link #INIT_MODE_BACKGROUND}
+     * @return
+     */
+    public TimberWrapperConfig setInitMode(int initMode) {
+        this.initMode = initMode;
+        return this;
+    }
+
+    /**
+     * @return the number of statements kept until a background initialisation is done
+     */
+    public int getPreInitBufferCapacity() {
+        return preInitBufferCapacity;
+    }
+
+    /**
+     * Sets the number of statements kept until a background initialisation is done, the oldest are dropped
+     * beyond it
+     *
+     * @param preInitBufferCapacity e.g. {@link PreInitTimberTree#DEFAULT_CAPACITY}
+     * @return
+     */
+    public TimberWrapperConfig setPreInitBufferCapacity(int preInitBufferCapacity) {
+        if (preInitBufferCapacity <= 0)
+            throw new IllegalArgumentException("The pre-init buffer capacity must be positive");
+        this.preInitBufferCapacity = preInitBufferCapacity;
+        return this;
+    }
+}
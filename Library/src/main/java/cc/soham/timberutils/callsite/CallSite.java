@@ -0,0 +1,41 @@
+package cc.soham.timberutils.callsite;
+
+/**
+ * The place a log statement was made from, with its tags computed once
+ * Instances are cached by {@link CallSiteTagResolver} and shared by all trees
+ */
+public class CallSite {
+    private final String className;
+    private final int lineNumber;
+    private final String tag;
+    private final String tagWithLineNumber;
+
+    CallSite(String className, int lineNumber, String tag) {
+        this.className = className;
+        this.lineNumber = lineNumber;
+        this.tag = tag;
+        this.tagWithLineNumber = tag + ":" + lineNumber;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the tag {@link timber.log.Timber.DebugTree} would use (simple class name)
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @return the tag followed by ":" and the line number
+     */
+    public String getTagWithLineNumber() {
+        return tagWithLineNumber;
+    }
+}
@@ -0,0 +1,241 @@
+package cc.soham.timberutils.callsite;
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the tag of a log statement from its call site, once per Timber call for all trees
+ * - an explicit tag given through {@link timber.log.Timber#tag(String)} is used as it is, without a stack walk
+ * - otherwise the stack is walked once, the first frame outside of Timber, this library and the prefixes
+ * added through {@link #addIgnoredClassPrefix(String)} is the call site
+ * - every {@link CallSiteTimberTree} tells the resolver which Timber call it is handling, the trees
+ * after the first one reuse the call site resolved for the same call
+ * - tags are computed once per call site (without regular expressions) and cached
+ * - a tree that hands a call on to other trees (through {@link CallSiteTimberTree#replay}) reports it, those trees skip the call when Timber
+ * hands it to them as well
+ * <p>
+ * Timber hands a call to every planted tree in turn, and every tree handles it once: the call ends as soon as a
+ * tree that handled it is handed another one (the next call on the thread). Two calls are never taken for the
+ * same one, even with the same message and argument array, a call with a different message or argument array
+ * starts a new one right away
+ */
+public class CallSiteTagResolver {
+    // logcat tags are limited to 23 characters before API 24
+    private static final int MAX_TAG_LENGTH = 23;
+    private static final int MAX_CACHED_CALL_SITES = 1024;
+
+    private static volatile String[] ignoredClassPrefixes = {"timber.log.", "cc.soham.timberutils."};
+    private static final ConcurrentHashMap<StackTraceElement, CallSite> callSites = new ConcurrentHashMap<>();
+    private static final AtomicLong stackWalkCount = new AtomicLong();
+
+    private static final ThreadLocal<CallState> callState = new ThreadLocal<CallState>() {
+        @Override
+        protected CallState initialValue() {
+            return new CallState();
+        }
+    };
+
+    /**
+     * The Timber call the trees on this thread are handling, and the call site resolved last
+     */
+    private static class CallState {
+        long callId;
+        String message;
+        int argsIdentity;
+        int argsLength;
+        // the trees that handled the current call
+        CallSiteTimberTree[] trees = new CallSiteTimberTree[8];
+        int treeCount;
+        // the trees a tree handed the current call on to
+        CallSiteTimberTree[] forwardedTo;
+        long resolvedCallId = -1;
+        CallSite callSite;
+
+        boolean isHandledBy(CallSiteTimberTree tree) {
+            for (int i = 0; i < treeCount; i++) {
+                if (trees[i] == tree)
+                    return true;
+            }
+            return false;
+        }
+
+        boolean isForwardedTo(CallSiteTimberTree tree) {
+            if (forwardedTo == null)
+                return false;
+            for (CallSiteTimberTree forwardedTree : forwardedTo) {
+                if (forwardedTree == tree)
+                    return true;
+            }
+            return false;
+        }
+
+        void addTree(CallSiteTimberTree tree) {
+            if (treeCount == trees.length)
+                trees = Arrays.copyOf(trees, treeCount * 2);
+            trees[treeCount++] = tree;
+        }
+
+        void startCall(String message, int argsIdentity, int argsLength) {
+            callId++;
+            this.message = message;
+            this.argsIdentity = argsIdentity;
+            this.argsLength = argsLength;
+            // cleared, so that an uprooted tree is not kept beyond the next call
+            Arrays.fill(trees, 0, treeCount, null);
+            treeCount = 0;
+            forwardedTo = null;
+        }
+    }
+
+    /**
+     * Skip frames of classes starting with the prefix when looking for the call site, e.g. for a logging
+     * facade of the app that calls Timber
+     *
+     * @param classPrefix e.g. "com.example.logging."
+     */
+    public static synchronized void addIgnoredClassPrefix(@NonNull String classPrefix) {
+        String[] prefixes = new String[ignoredClassPrefixes.length + 1];
+        System.arraycopy(ignoredClassPrefixes, 0, prefixes, 0, ignoredClassPrefixes.length);
+        prefixes[prefixes.length - 1] = classPrefix;
+        ignoredClassPrefixes = prefixes;
+    }
+
+    /**
+     * Called by a tree when Timber hands it a log statement, before Timber resolves the tag
+     *
+     * @param tree    the tree handed the statement
+     * @param message the message as passed to Timber (OPTIONAL)
+     * @param args    the argument array as passed to Timber, null for the overloads without one
+     * @return false if the statement was handed on to the tree already, it skips it then
+     */
+    public static boolean onCall(@NonNull CallSiteTimberTree tree, @Nullable String message, @Nullable Object[] args) {
+        CallState state = callState.get();
+        int argsIdentity = args == null ? 0 : System.identityHashCode(args);
+        int argsLength = args == null ? -1 : args.length;
+        if (state.isHandledBy(tree) || message != state.message || argsIdentity != state.argsIdentity || argsLength != state.argsLength)
+            state.startCall(message, argsIdentity, argsLength);
+        state.addTree(tree);
+        return !state.isForwardedTo(tree);
+    }
+
+    /**
+     * Called by a tree that handed the log statement currently handled on this thread on to other trees, they
+     * skip it if Timber hands it to them later in the same call
+     *
+     * @param trees null elements are skipped
+     */
+    public static void onForward(@NonNull CallSiteTimberTree[] trees) {
+        callState.get().forwardedTo = trees;
+    }
+
+    /**
+     * Resolve the tag of the log statement currently handled on this thread
+     *
+     * @param explicitTag    the tag Timber passed to the tree, null if none was given
+     * @param withLineNumber whether to append ":" and the line number to a resolved tag
+     * @return
+     */
+    public static String resolve(@Nullable String explicitTag, boolean withLineNumber) {
+        if (explicitTag != null)
+            return explicitTag;
+        CallState state = callState.get();
+        CallSite callSite = state.callSite;
+        // resolved at most once per call, even when both isLoggable and log of a tree need the tag
+        if (callSite == null || state.resolvedCallId != state.callId) {
+            callSite = findCallSite();
+            state.callSite = callSite;
+            state.resolvedCallId = state.callId;
+        }
+        return withLineNumber ? callSite.getTagWithLineNumber() : callSite.getTag();
+    }
+
+    /**
+     * @return the call site resolved for the log statement currently handled on this thread, null if it
+     * had an explicit tag (or was not resolved through {@link #resolve(String, boolean)})
+     */
+    public static CallSite getResolvedCallSite() {
+        CallState state = callState.get();
+        return state.resolvedCallId == state.callId ? state.callSite : null;
+    }
+
+    /**
+     * @return the number of stack walks done so far
+     */
+    public static long getStackWalkCount() {
+        return stackWalkCount.get();
+    }
+
+    /**
+     * @return the number of call sites whose tags are cached
+     */
+    public static int getCachedCallSiteCount() {
+        return callSites.size();
+    }
+
+    /**
+     * Walk the stack of the calling thread
+     *
+     * @return the call site of the log statement
+     */
+    private static CallSite findCallSite() {
+        stackWalkCount.incrementAndGet();
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        String[] prefixes = ignoredClassPrefixes;
+        for (StackTraceElement element : stackTrace) {
+            if (!isIgnored(element.getClassName(), prefixes))
+                return getCallSite(element);
+        }
+        if (stackTrace.length == 0)
+            throw new IllegalStateException("Synthetic stacktrace didn't have enough elements: are you using proguard?");
+        // logged from within an ignored package, use the outermost frame
+        return getCallSite(stackTrace[stackTrace.length - 1]);
+    }
+
+    private static boolean isIgnored(String className, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (className.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    private static CallSite getCallSite(StackTraceElement element) {
+        CallSite callSite = callSites.get(element);
+        if (callSite == null) {
+            callSite = new CallSite(element.getClassName(), element.getLineNumber(), createTag(element.getClassName()));
+            if (callSites.size() >= MAX_CACHED_CALL_SITES)
+                callSites.clear();
+            callSites.put(element, callSite);
+        }
+        return callSite;
+    }
+
+    /**
+     * Same result as {@link timber.log.Timber.DebugTree#createStackElementTag(StackTraceElement)}:
+     * the simple class name without anonymous class suffixes ("$1$2"), truncated before API 24
+     *
+     * @param className
+     * @return
+     */
+    static String createTag(String className) {
+        int end = className.length();
+        while (true) {
+            int start = end;
+            while (start > 0 && Character.isDigit(className.charAt(start - 1)))
+                start--;
+            if (start < end && start > 0 && className.charAt(start - 1) == '$')
+                end = start - 1;
+            else
+                break;
+        }
+        String tag = className.substring(className.lastIndexOf('.', end - 1) + 1, end);
+        if (tag.length() <= MAX_TAG_LENGTH || Build.VERSION.SDK_INT >= 24)
+            return tag;
+        return tag.substring(0, MAX_TAG_LENGTH);
+    }
+}
@@ -0,0 +1,191 @@
+package cc.soham.timberutils.callsite;
+
+import android.support.annotation.NonNull;
+
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.record.LogEntry;
+import timber.log.Timber;
+
+/**
+ * Base of the trees of this library, replaces {@link Timber.DebugTree} which walks the stack in every tree
+ * - every logging method tells the {@link CallSiteTagResolver} which Timber call is being handled,
+ * so that the call site is resolved once per call for all trees
+ * - subclasses implement {@link #onLog(int, String, String, Throwable)} which receives the resolved tag
+ * - statements captured earlier as a {@link LogEntry} can be handed in through {@link #replay(LogEntry)}
+ * - a call another tree forwarded to this one already ({@link CallSiteTagResolver#onForward(CallSiteTimberTree[])})
+ * is skipped
+ */
+public abstract class CallSiteTimberTree extends Timber.Tree {
+    private final boolean appendLineNumber;
+
+    /**
+     * @param appendLineNumber whether resolved tags end with ":" and the line number
+     */
+    protected CallSiteTimberTree(boolean appendLineNumber) {
+        this.appendLineNumber = appendLineNumber;
+    }
+
+    @Override
+    public void v(String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.v(message, args);
+    }
+
+    @Override
+    public void v(Throwable t, String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.v(t, message, args);
+    }
+
+    @Override
+    public void v(Throwable t) {
+        if (CallSiteTagResolver.onCall(this, null, null))
+            super.v(t);
+    }
+
+    @Override
+    public void d(String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.d(message, args);
+    }
+
+    @Override
+    public void d(Throwable t, String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.d(t, message, args);
+    }
+
+    @Override
+    public void d(Throwable t) {
+        if (CallSiteTagResolver.onCall(this, null, null))
+            super.d(t);
+    }
+
+    @Override
+    public void i(String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.i(message, args);
+    }
+
+    @Override
+    public void i(Throwable t, String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.i(t, message, args);
+    }
+
+    @Override
+    public void i(Throwable t) {
+        if (CallSiteTagResolver.onCall(this, null, null))
+            super.i(t);
+    }
+
+    @Override
+    public void w(String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.w(message, args);
+    }
+
+    @Override
+    public void w(Throwable t, String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.w(t, message, args);
+    }
+
+    @Override
+    public void w(Throwable t) {
+        if (CallSiteTagResolver.onCall(this, null, null))
+            super.w(t);
+    }
+
+    @Override
+    public void e(String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.e(message, args);
+    }
+
+    @Override
+    public void e(Throwable t, String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.e(t, message, args);
+    }
+
+    @Override
+    public void e(Throwable t) {
+        if (CallSiteTagResolver.onCall(this, null, null))
+            super.e(t);
+    }
+
+    @Override
+    public void wtf(String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.wtf(message, args);
+    }
+
+    @Override
+    public void wtf(Throwable t, String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.wtf(t, message, args);
+    }
+
+    @Override
+    public void wtf(Throwable t) {
+        if (CallSiteTagResolver.onCall(this, null, null))
+            super.wtf(t);
+    }
+
+    @Override
+    public void log(int priority, String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.log(priority, message, args);
+    }
+
+    @Override
+    public void log(int priority, Throwable t, String message, Object... args) {
+        if (CallSiteTagResolver.onCall(this, message, args))
+            super.log(priority, t, message, args);
+    }
+
+    @Override
+    public void log(int priority, Throwable t) {
+        if (CallSiteTagResolver.onCall(this, null, null))
+            super.log(priority, t);
+    }
+
+    @Override
+    protected final void log(int priority, String tag, String message, Throwable t) {
+        long start = System.nanoTime();
+        onLog(priority, CallSiteTagResolver.resolve(tag, appendLineNumber), message, t);
+        LoggingMetrics.onLogLatency(System.nanoTime() - start);
+    }
+
+    /**
+     * Log a statement captured earlier (e.g. before initialisation was done), keeping its timestamp, call site
+     * and fields, filtered through {@link #isLoggable(String, int)} like a Timber call
+     *
+     * @param logEntry
+     */
+    public final void replay(@NonNull LogEntry logEntry) {
+        if (isLoggable(logEntry.tag, logEntry.priority))
+            onLog(logEntry);
+    }
+
+    /**
+     * Write a statement handed to {@link #replay(LogEntry)}, by default like a statement logged now
+     * Trees that keep timestamps or fields override this
+     *
+     * @param logEntry
+     */
+    protected void onLog(@NonNull LogEntry logEntry) {
+        onLog(logEntry.priority, appendLineNumber ? logEntry.tagWithLineNumber : logEntry.tag, logEntry.message, logEntry.throwable);
+    }
+
+    /**
+     * Write a log statement
+     *
+     * @param priority
+     * @param tag      the explicit tag, or the one resolved from the call site
+     * @param message
+     * @param t
+     */
+    protected abstract void onLog(int priority, String tag, String message, Throwable t);
+}
@@ -0,0 +1,146 @@
+package cc.soham.timberutils.filter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import timber.log.Timber;
+
+/**
+ * Whether any active sink could take a log statement, answered before its message is built
+ * (see {@link cc.soham.timberutils.lazy.LazyLog})
+ * - {@link cc.soham.timberutils.TimberWrapper} reports the sinks it planted and their minimum priority through
+ * {@link #update(int[], int)}, combined with the current {@link LogRules} into a bitmask of the priorities
+ * at least one sink may accept (recomputed only when either changes)
+ * - with an explicit tag the {@link LogRules} of every active sink are consulted as well, without a tag the
+ * bitmask alone decides (the call site is only resolved by the trees, once the message exists)
+ * - destinations that are not filtered through {@link LogRules} (the live tail of an in-app console) are
+ * reported by their lowest priority only
+ * - trees planted outside of {@link cc.soham.timberutils.TimberWrapper} are unknown, if Timber holds more trees
+ * than reported everything is considered interesting
+ * Timber is only asked for its tree count on {@link #update(int[], int, int)} and {@link #refresh()} (it takes
+ * a lock), an app that plants or uproots trees of its own afterwards calls {@link #refresh()}
+ */
+public class LogInterest {
+    // minimum priority of a sink that is not planted
+    public static final int NOT_ACTIVE = Integer.MAX_VALUE;
+
+    // null until TimberWrapper reports its sinks: everything is interesting
+    private static final AtomicReference<Interest> interest = new AtomicReference<>();
+
+    /**
+     * The sinks reported by {@link cc.soham.timberutils.TimberWrapper}, and the bitmask for one set of rules
+     */
+    private static class Interest {
+        final int[] minPriorities;
+        final int otherMinPriority;
+        final int treeCount;
+        // Timber held trees other than the reported ones when last counted
+        final boolean foreignTrees;
+        final LogRules logRules;
+        final int priorityMask;
+
+        Interest(int[] minPriorities, int otherMinPriority, int treeCount, boolean foreignTrees, LogRules logRules) {
+            this.minPriorities = minPriorities;
+            this.otherMinPriority = otherMinPriority;
+            this.treeCount = treeCount;
+            this.foreignTrees = foreignTrees;
+            this.logRules = logRules;
+            int mask = 0;
+            for (int priority = Log.VERBOSE; priority <= Log.ASSERT; priority++) {
+                if (priority >= otherMinPriority)
+                    mask |= 1 << priority;
+                for (int sink = 0; sink < LogRules.SINK_COUNT; sink++) {
+                    if (priority >= minPriorities[sink] && priority >= logRules.getLowestMinPriority(sink))
+                        mask |= 1 << priority;
+                }
+            }
+            this.priorityMask = mask;
+        }
+    }
+
+    /**
+     * Called by {@link cc.soham.timberutils.TimberWrapper} whenever it plants or uproots a tree or a sink
+     *
+     * @param minPriorities minimum priority per {@link LogRules} sink, {@link #NOT_ACTIVE} if not planted
+     * @param treeCount     the number of trees planted by {@link cc.soham.timberutils.TimberWrapper}
+     */
+    public static void update(@NonNull int[] minPriorities, int treeCount) {
+        update(minPriorities, NOT_ACTIVE, treeCount);
+    }
+
+    /**
+     * Called by {@link cc.soham.timberutils.TimberWrapper} whenever it plants or uproots a tree or a sink
+     *
+     * @param minPriorities    minimum priority per {@link LogRules} sink, {@link #NOT_ACTIVE} if not planted
+     * @param otherMinPriority lowest priority taken by destinations without {@link LogRules}, {@link #NOT_ACTIVE} if none
+     * @param treeCount        the number of trees planted by {@link cc.soham.timberutils.TimberWrapper}
+     */
+    public static void update(@NonNull int[] minPriorities, int otherMinPriority, int treeCount) {
+        if (minPriorities.length != LogRules.SINK_COUNT)
+            throw new IllegalArgumentException("One minimum priority per sink is needed");
+        interest.set(new Interest(minPriorities.clone(), otherMinPriority, treeCount, Timber.treeCount() != treeCount,
+                LogRules.getCurrent()));
+    }
+
+    /**
+     * Count the trees of Timber again, to be called after planting or uprooting a tree outside of
+     * {@link cc.soham.timberutils.TimberWrapper}
+     */
+    public static void refresh() {
+        Interest current;
+        Interest refreshed;
+        do {
+            current = interest.get();
+            if (current == null)
+                return;
+            refreshed = new Interest(current.minPriorities, current.otherMinPriority, current.treeCount,
+                    Timber.treeCount() != current.treeCount, current.logRules);
+        } while (!interest.compareAndSet(current, refreshed));
+    }
+
+    /**
+     * Forget the reported sinks, everything is interesting again
+     */
+    public static void reset() {
+        interest.set(null);
+    }
+
+    /**
+     * @param priority
+     * @return false only if no planted tree can log the priority, whatever the tag
+     */
+    public static boolean isInterested(int priority) {
+        return isInterested(null, priority);
+    }
+
+    /**
+     * @param tag      the explicit tag, null if it is resolved from the call site
+     * @param priority
+     * @return false only if no planted tree can log the priority for the tag
+     */
+    public static boolean isInterested(@Nullable String tag, int priority) {
+        Interest current = interest.get();
+        if (current == null || current.foreignTrees)
+            return true;
+        LogRules logRules = LogRules.getCurrent();
+        if (current.logRules != logRules) {
+            Interest recomputed = new Interest(current.minPriorities, current.otherMinPriority, current.treeCount,
+                    current.foreignTrees, logRules);
+            // unless TimberWrapper reported other sinks in the meantime
+            interest.compareAndSet(current, recomputed);
+            current = recomputed;
+        }
+        if (priority < Log.VERBOSE || priority > Log.ASSERT || (current.priorityMask & (1 << priority)) != 0) {
+            if (tag == null || priority >= current.otherMinPriority)
+                return true;
+            for (int sink = 0; sink < LogRules.SINK_COUNT; sink++) {
+                if (priority >= current.minPriorities[sink] && logRules.isLoggable(sink, tag, priority))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,84 @@
+package cc.soham.timberutils.filter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A single filter rule: the minimum priority a sink accepts for a tag, a tag prefix, or all tags
+ * Stored as text, e.g.
+ * - "file:*=4" the file only gets INFO and above
+ * - "crash:OkHttp*=5" tags starting with "OkHttp" only reach the crash reporter from WARN on
+ * - "*:MainActivity=3" no VERBOSE lines of the tag "MainActivity" anywhere
+ */
+public class LogRule {
+    public static final String ALL = "*";
+
+    private final String sink;
+    private final String tag;
+    private final boolean prefix;
+    private final int minPriority;
+
+    /**
+     * @param sink        {@link LogRules#SINK_NAME_LOGCAT}, {@link LogRules#SINK_NAME_FILE},
+     *                    {@link LogRules#SINK_NAME_CRASH_REPORTER} or {@link #ALL}
+     * @param tag         a tag, a tag prefix ending with "*", or {@link #ALL}
+     * @param minPriority e.g. {@link android.util.Log#INFO}
+     */
+    public LogRule(@NonNull String sink, @NonNull String tag, int minPriority) {
+        if (sink == null || tag == null || tag.length() == 0)
+            throw new IllegalArgumentException("LogRule needs a sink and a tag");
+        this.sink = sink;
+        this.prefix = tag.endsWith(ALL);
+        this.tag = prefix ? tag.substring(0, tag.length() - 1) : tag;
+        this.minPriority = minPriority;
+    }
+
+    /**
+     * @param rule a rule as written by {@link #toString()}
+     * @return null if the rule cannot be parsed
+     */
+    @Nullable
+    public static LogRule parse(@NonNull String rule) {
+        int colon = rule.indexOf(':');
+        int equals = rule.lastIndexOf('=');
+        if (colon <= 0 || equals <= colon + 1)
+            return null;
+        try {
+            return new LogRule(rule.substring(0, colon).trim(), rule.substring(colon + 1, equals).trim(),
+                    Integer.parseInt(rule.substring(equals + 1).trim()));
+        } catch (IllegalArgumentException exception) {
+            return null;
+        }
+    }
+
+    public String getSink() {
+        return sink;
+    }
+
+    /**
+     * @return the tag, or the prefix without the "*" for prefix rules (empty for rules on all tags)
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    public boolean isPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return true for a rule on all tags of the sink
+     */
+    public boolean isDefault() {
+        return prefix && tag.length() == 0;
+    }
+
+    public int getMinPriority() {
+        return minPriority;
+    }
+
+    @Override
+    public String toString() {
+        return sink + ":" + tag + (prefix ? ALL : "") + "=" + minPriority;
+    }
+}
@@ -0,0 +1,245 @@
+package cc.soham.timberutils.filter;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cc.soham.timberutils.callsite.CallSiteTagResolver;
+
+/**
+ * {@link LogRule}s compiled into lookup tables, consulted by the trees and sinks in isLoggable
+ * - per sink the lowest and highest minimum priority of all its rules are precomputed: a priority at or
+ * above the highest is accepted and one below the lowest is rejected without looking at the tag
+ * - otherwise the tag (the explicit one, or the call site resolved once for all trees) is looked up in a
+ * per tag decision cache holding the minimum priority of every sink
+ * - on a cache miss: exact tag rule, else longest prefix rule, else the rule on all tags of the sink
+ * (rules of a sink win over rules for {@link LogRule#ALL} sinks)
+ * - immutable, replaced as a whole through {@link #setCurrent(LogRules)}; stored in SharedPreferences
+ * next to the on/off states of {@link cc.soham.timberutils.TimberWrapper}
+ */
+public class LogRules {
+    public static final String PREF_TIMBER_LOGGING_RULES = "logging_rules";
+
+    public static final int SINK_LOGCAT = 0;
+    public static final int SINK_FILE = 1;
+    public static final int SINK_CRASH_REPORTER = 2;
+    public static final int SINK_COUNT = 3;
+
+    public static final String SINK_NAME_LOGCAT = "logcat";
+    public static final String SINK_NAME_FILE = "file";
+    public static final String SINK_NAME_CRASH_REPORTER = "crash";
+    private static final String[] SINK_NAMES = {SINK_NAME_LOGCAT, SINK_NAME_FILE, SINK_NAME_CRASH_REPORTER};
+
+    private static final String RULE_SEPARATOR = "\n";
+    private static final int MAX_CACHED_TAGS = 2048;
+
+    /**
+     * No rules, everything is accepted
+     */
+    public static final LogRules NONE = new LogRules(Collections.<LogRule>emptyList());
+
+    private static volatile LogRules current = NONE;
+
+    private final List<LogRule> rules;
+    private final int[] lowestMinPriority = new int[SINK_COUNT];
+    private final int[] highestMinPriority = new int[SINK_COUNT];
+    private final int[] defaultMinPriority = new int[SINK_COUNT];
+    private final List<HashMap<String, Integer>> exactRules = new ArrayList<>(SINK_COUNT);
+    // longest prefix first
+    private final List<List<LogRule>> prefixRules = new ArrayList<>(SINK_COUNT);
+    private final ConcurrentHashMap<String, int[]> decisions = new ConcurrentHashMap<>();
+
+    public LogRules(@NonNull List<LogRule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        for (int sink = 0; sink < SINK_COUNT; sink++)
+            compile(sink);
+    }
+
+    public static LogRules getCurrent() {
+        return current;
+    }
+
+    public static void setCurrent(@NonNull LogRules logRules) {
+        if (logRules == null)
+            throw new IllegalArgumentException("LogRules cannot be null");
+        current = logRules;
+    }
+
+    /**
+     * @param sinkName
+     * @return the sink constant for a name, -1 if unknown
+     */
+    public static int getSink(@Nullable String sinkName) {
+        for (int sink = 0; sink < SINK_COUNT; sink++) {
+            if (SINK_NAMES[sink].equals(sinkName))
+                return sink;
+        }
+        return -1;
+    }
+
+    public List<LogRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * @param sink
+     * @return the lowest priority any tag may log to the sink with
+     */
+    public int getLowestMinPriority(int sink) {
+        return lowestMinPriority[sink];
+    }
+
+    /**
+     * @param sink     {@link #SINK_LOGCAT}, {@link #SINK_FILE} or {@link #SINK_CRASH_REPORTER}
+     * @param tag      the explicit tag, null to use the tag of the call site (only resolved if a tag rule matters)
+     * @param priority
+     * @return
+     */
+    public boolean isLoggable(int sink, @Nullable String tag, int priority) {
+        if (priority >= highestMinPriority[sink])
+            return true;
+        if (priority < lowestMinPriority[sink])
+            return false;
+        if (tag == null)
+            tag = CallSiteTagResolver.resolve(null, false);
+        return priority >= getMinPriorities(tag)[sink];
+    }
+
+    /**
+     * Whether any sink accepts the priority for the tag
+     *
+     * @param tag      the explicit tag, null to use the tag of the call site (only resolved if a tag rule matters)
+     * @param priority
+     * @return
+     */
+    public boolean isLoggableAnywhere(@Nullable String tag, int priority) {
+        boolean undecided = false;
+        for (int sink = 0; sink < SINK_COUNT; sink++) {
+            if (priority >= highestMinPriority[sink])
+                return true;
+            if (priority >= lowestMinPriority[sink])
+                undecided = true;
+        }
+        if (!undecided)
+            return false;
+        if (tag == null)
+            tag = CallSiteTagResolver.resolve(null, false);
+        int[] minPriorities = getMinPriorities(tag);
+        for (int sink = 0; sink < SINK_COUNT; sink++) {
+            if (priority >= minPriorities[sink])
+                return true;
+        }
+        return false;
+    }
+
+    private int[] getMinPriorities(String tag) {
+        int[] minPriorities = decisions.get(tag);
+        if (minPriorities == null) {
+            minPriorities = new int[SINK_COUNT];
+            for (int sink = 0; sink < SINK_COUNT; sink++)
+                minPriorities[sink] = lookup(sink, tag);
+            if (decisions.size() >= MAX_CACHED_TAGS)
+                decisions.clear();
+            decisions.put(tag, minPriorities);
+        }
+        return minPriorities;
+    }
+
+    private int lookup(int sink, String tag) {
+        Integer exact = exactRules.get(sink).get(tag);
+        if (exact != null)
+            return exact;
+        for (LogRule rule : prefixRules.get(sink)) {
+            if (tag.startsWith(rule.getTag()))
+                return rule.getMinPriority();
+        }
+        return defaultMinPriority[sink];
+    }
+
+    private void compile(int sink) {
+        HashMap<String, Integer> exact = new HashMap<>();
+        HashMap<String, LogRule> prefixes = new HashMap<>();
+        int defaultPriority = Log.VERBOSE;
+        // rules for all sinks first, so that the rules of this sink override them
+        for (int pass = 0; pass < 2; pass++) {
+            for (LogRule rule : rules) {
+                boolean forAll = LogRule.ALL.equals(rule.getSink());
+                if (pass == 0 ? !forAll : getSink(rule.getSink()) != sink)
+                    continue;
+                if (rule.isDefault())
+                    defaultPriority = rule.getMinPriority();
+                else if (rule.isPrefix())
+                    prefixes.put(rule.getTag(), rule);
+                else
+                    exact.put(rule.getTag(), rule.getMinPriority());
+            }
+        }
+        List<LogRule> sortedPrefixes = new ArrayList<>(prefixes.values());
+        Collections.sort(sortedPrefixes, new Comparator<LogRule>() {
+            @Override
+            public int compare(LogRule lhs, LogRule rhs) {
+                return rhs.getTag().length() - lhs.getTag().length();
+            }
+        });
+        int lowest = defaultPriority;
+        int highest = defaultPriority;
+        for (int priority : exact.values()) {
+            lowest = Math.min(lowest, priority);
+            highest = Math.max(highest, priority);
+        }
+        for (LogRule rule : sortedPrefixes) {
+            lowest = Math.min(lowest, rule.getMinPriority());
+            highest = Math.max(highest, rule.getMinPriority());
+        }
+        exactRules.add(exact);
+        prefixRules.add(sortedPrefixes);
+        defaultMinPriority[sink] = defaultPriority;
+        lowestMinPriority[sink] = lowest;
+        highestMinPriority[sink] = highest;
+    }
+
+    /**
+     * Load the rules stored with {@link #store(SharedPreferences, List)}, unparseable rules are skipped
+     *
+     * @param sharedPreferences
+     * @return
+     */
+    public static LogRules load(@NonNull SharedPreferences sharedPreferences) {
+        String stored = sharedPreferences.getString(PREF_TIMBER_LOGGING_RULES, null);
+        if (stored == null || stored.length() == 0)
+            return NONE;
+        List<LogRule> rules = new ArrayList<>();
+        for (String line : stored.split(RULE_SEPARATOR)) {
+            LogRule rule = LogRule.parse(line);
+            if (rule != null)
+                rules.add(rule);
+        }
+        return new LogRules(rules);
+    }
+
+    /**
+     * Store the rules, they are applied on the next {@link #load(SharedPreferences)}
+     *
+     * @param sharedPreferences
+     * @param rules
+     */
+    public static void store(@NonNull SharedPreferences sharedPreferences, @NonNull List<LogRule> rules) {
+        StringBuilder builder = new StringBuilder();
+        for (LogRule rule : rules) {
+            if (builder.length() > 0)
+                builder.append(RULE_SEPARATOR);
+            builder.append(rule);
+        }
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putString(PREF_TIMBER_LOGGING_RULES, builder.toString());
+        editor.apply();
+    }
+}
@@ -0,0 +1,319 @@
+package cc.soham.timberutils.filter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cc.soham.timberutils.record.LogFields;
+
+/**
+ * Thins out log storms before they reach a sink, according to a {@link SuppressionPolicy}
+ * - a record identical to the previous one (same priority, tag and message, no throwable, no fields) is only counted,
+ * the count is written as "last message repeated N times" (priority/tag of the run) before the next
+ * different record
+ * - records of a tag beyond its token bucket are dropped (ERROR and ASSERT never are), the next record
+ * of the tag that gets through carries the number dropped, {@link #flush(Emitter)} writes it as a line of its own
+ * for tags that went quiet
+ * - decisions are made under a lock, records are handed to the {@link Emitter} outside of it
+ * One instance per sink, so that every sink reports what it left out
+ */
+public class LogStormSuppressor {
+    /**
+     * Receives the records that get through, and the summary lines
+     */
+    public interface Emitter {
+        void emit(long timestamp, int priority, String tag, String message, Throwable t);
+    }
+
+    /**
+     * An {@link Emitter} that also receives the fields of {@link cc.soham.timberutils.structured.StructuredLog}
+     * statements, a plain Emitter only gets the message
+     */
+    public interface FieldsEmitter extends Emitter {
+        /**
+         * @param fields null for plain records and summary lines
+         */
+        void emit(long timestamp, int priority, String tag, String message, Throwable t, LogFields fields);
+    }
+
+    private static final int MAX_TRACKED_TAGS = 512;
+
+    private final SuppressionPolicy suppressionPolicy;
+    private final HashMap<String, TokenBucket> tokenBuckets = new HashMap<>();
+    private final AtomicLong collapsedCount = new AtomicLong();
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+
+    // the last record handed out, and how often it was repeated since
+    private long lastTimestamp;
+    private int lastPriority;
+    private String lastTag;
+    private String lastMessage;
+    private int repeatCount;
+
+    public LogStormSuppressor(@NonNull SuppressionPolicy suppressionPolicy) {
+        if (suppressionPolicy == null)
+            throw new IllegalArgumentException("SuppressionPolicy cannot be null");
+        this.suppressionPolicy = suppressionPolicy;
+    }
+
+    public SuppressionPolicy getSuppressionPolicy() {
+        return suppressionPolicy;
+    }
+
+    /**
+     * @param timestamp
+     * @param priority
+     * @param tag       the tag written with the record
+     * @param rateKey   the tag the rate limit applies to (e.g. without the line number), null to use the tag
+     * @param message
+     * @param t
+     * @param emitter
+     * @return true if the record was handed to the emitter, false if it was collapsed or rate limited
+     */
+    public boolean log(long timestamp, int priority, String tag, @Nullable String rateKey, String message, Throwable t, @NonNull Emitter emitter) {
+        return log(timestamp, priority, tag, rateKey, message, t, null, emitter);
+    }
+
+    /**
+     * @param timestamp
+     * @param priority
+     * @param tag       the tag written with the record
+     * @param rateKey   the tag the rate limit applies to (e.g. without the line number), null to use the tag
+     * @param message
+     * @param t
+     * @param fields    (OPTIONAL) handed to a {@link FieldsEmitter}, a record with fields is never collapsed
+     * @param emitter
+     * @return true if the record was handed to the emitter, false if it was collapsed or rate limited
+     */
+    public boolean log(long timestamp, int priority, String tag, @Nullable String rateKey, String message, Throwable t,
+                       @Nullable LogFields fields, @NonNull Emitter emitter) {
+        if (suppressionPolicy.suppressesNothing()) {
+            emit(emitter, timestamp, priority, tag, message, t, fields);
+            return true;
+        }
+        long summaryTimestamp = 0;
+        int summaryPriority = 0;
+        String summaryTag = null;
+        String summaryMessage = null;
+        int suppressed = 0;
+        boolean dropped = false;
+        synchronized (this) {
+            if (suppressionPolicy.isCollapseRepeats() && t == null && fields == null && repeatCount < Integer.MAX_VALUE && isRepeat(priority, tag, message)) {
+                repeatCount++;
+                lastTimestamp = timestamp;
+                collapsedCount.incrementAndGet();
+                return false;
+            }
+            if (repeatCount > 0) {
+                summaryTimestamp = lastTimestamp;
+                summaryPriority = lastPriority;
+                summaryTag = lastTag;
+                summaryMessage = "last message repeated " + repeatCount + " times";
+                repeatCount = 0;
+            }
+            String key = rateKey != null ? rateKey : tag;
+            if (suppressionPolicy.hasRateLimit() && priority < Log.ERROR && key != null) {
+                TokenBucket tokenBucket = getTokenBucket(key, timestamp);
+                if (tokenBucket.tryAcquire(timestamp)) {
+                    suppressed = tokenBucket.suppressed;
+                    tokenBucket.suppressed = 0;
+                } else {
+                    tokenBucket.suppressed++;
+                    tokenBucket.lastSuppressedTimestamp = timestamp;
+                    tokenBucket.maxSuppressedPriority = Math.max(tokenBucket.maxSuppressedPriority, priority);
+                    rateLimitedCount.incrementAndGet();
+                    dropped = true;
+                }
+            }
+            if (!dropped) {
+                lastTimestamp = timestamp;
+                lastPriority = priority;
+                lastTag = tag;
+                // nothing is collapsed into a record with fields
+                lastMessage = fields == null ? message : null;
+            } else {
+                // a dropped record ends the run, so that repeats are never counted against a line nobody saw
+                lastMessage = null;
+            }
+        }
+        if (summaryMessage != null)
+            emitter.emit(summaryTimestamp, summaryPriority, summaryTag, summaryMessage, null);
+        if (dropped)
+            return false;
+        if (suppressed > 0)
+            message = message + " (" + suppressed + " earlier records of this tag suppressed)";
+        emit(emitter, timestamp, priority, tag, message, t, fields);
+        return true;
+    }
+
+    /**
+     * Hands out the "repeated N times" line of a run still in progress, and a line with the number of records
+     * dropped for every tag that had no record get through since, e.g. before the logs are exported
+     *
+     * @param emitter
+     */
+    public void flush(@NonNull Emitter emitter) {
+        long timestamp = 0;
+        int priority = 0;
+        String tag = null;
+        int count = 0;
+        List<SuppressedCount> suppressedCounts = null;
+        synchronized (this) {
+            if (repeatCount > 0) {
+                timestamp = lastTimestamp;
+                priority = lastPriority;
+                tag = lastTag;
+                count = repeatCount;
+                repeatCount = 0;
+                lastMessage = null;
+            }
+            for (Map.Entry<String, TokenBucket> entry : tokenBuckets.entrySet()) {
+                TokenBucket tokenBucket = entry.getValue();
+                if (tokenBucket.suppressed == 0)
+                    continue;
+                if (suppressedCounts == null)
+                    suppressedCounts = new ArrayList<>();
+                suppressedCounts.add(new SuppressedCount(tokenBucket.lastSuppressedTimestamp, tokenBucket.maxSuppressedPriority,
+                        entry.getKey(), tokenBucket.suppressed));
+                tokenBucket.suppressed = 0;
+                tokenBucket.maxSuppressedPriority = 0;
+            }
+        }
+        if (count > 0)
+            emitter.emit(timestamp, priority, tag, "last message repeated " + count + " times", null);
+        if (suppressedCounts == null)
+            return;
+        Collections.sort(suppressedCounts, OLDEST_FIRST);
+        for (SuppressedCount suppressedCount : suppressedCounts) {
+            emitter.emit(suppressedCount.timestamp, suppressedCount.priority, suppressedCount.tag,
+                    suppressedCount.count + " records of this tag suppressed", null);
+        }
+    }
+
+    /**
+     * @return records folded into a "repeated N times" line so far
+     */
+    public long getCollapsedCount() {
+        return collapsedCount.get();
+    }
+
+    /**
+     * @return records dropped by the rate limit so far
+     */
+    public long getRateLimitedCount() {
+        return rateLimitedCount.get();
+    }
+
+    private static void emit(Emitter emitter, long timestamp, int priority, String tag, String message, Throwable t, LogFields fields) {
+        if (fields != null && emitter instanceof FieldsEmitter)
+            ((FieldsEmitter) emitter).emit(timestamp, priority, tag, message, t, fields);
+        else
+            emitter.emit(timestamp, priority, tag, message, t);
+    }
+
+    private boolean isRepeat(int priority, String tag, String message) {
+        return lastMessage != null && priority == lastPriority && lastMessage.equals(message)
+                && (lastTag == null ? tag == null : lastTag.equals(tag));
+    }
+
+    private TokenBucket getTokenBucket(String key, long now) {
+        TokenBucket tokenBucket = tokenBuckets.get(key);
+        if (tokenBucket == null) {
+            if (tokenBuckets.size() >= MAX_TRACKED_TAGS)
+                evictIdleTokenBuckets(now);
+            tokenBucket = new TokenBucket(suppressionPolicy, now);
+            tokenBuckets.put(key, tokenBucket);
+        }
+        return tokenBucket;
+    }
+
+    /**
+     * Forgets the buckets that are full again and have nothing to report, they would behave the same when recreated
+     */
+    private void evictIdleTokenBuckets(long now) {
+        Iterator<TokenBucket> iterator = tokenBuckets.values().iterator();
+        while (iterator.hasNext()) {
+            TokenBucket tokenBucket = iterator.next();
+            if (tokenBucket.suppressed == 0 && tokenBucket.isFull(now))
+                iterator.remove();
+        }
+    }
+
+    /**
+     * The records of a tag dropped since the last one that got through
+     */
+    private static class SuppressedCount {
+        final long timestamp;
+        final int priority;
+        final String tag;
+        final int count;
+
+        SuppressedCount(long timestamp, int priority, String tag, int count) {
+            this.timestamp = timestamp;
+            this.priority = priority;
+            this.tag = tag;
+            this.count = count;
+        }
+    }
+
+    private static final Comparator<SuppressedCount> OLDEST_FIRST = new Comparator<SuppressedCount>() {
+        @Override
+        public int compare(SuppressedCount first, SuppressedCount second) {
+            return first.timestamp < second.timestamp ? -1 : first.timestamp == second.timestamp ? 0 : 1;
+        }
+    };
+
+    /**
+     * Token bucket in thousandths of a record, so that it refills smoothly at rates below 1000 per second
+     */
+    private static class TokenBucket {
+        private static final long COST = 1000;
+
+        private final long capacity;
+        private final long refillPerMillis;
+        private long tokens;
+        private long lastRefill;
+        int suppressed;
+        // of the records counted in suppressed
+        long lastSuppressedTimestamp;
+        int maxSuppressedPriority;
+
+        TokenBucket(SuppressionPolicy suppressionPolicy, long now) {
+            this.capacity = suppressionPolicy.getTagBurst() * COST;
+            this.refillPerMillis = suppressionPolicy.getTagRatePerSecond();
+            this.tokens = capacity;
+            this.lastRefill = now;
+        }
+
+        boolean tryAcquire(long now) {
+            refill(now);
+            if (tokens < COST)
+                return false;
+            tokens -= COST;
+            return true;
+        }
+
+        boolean isFull(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+
+        private void refill(long now) {
+            long elapsed = now - lastRefill;
+            if (elapsed <= 0)
+                return;
+            // clamped so that a long quiet period cannot overflow
+            tokens = elapsed >= capacity / refillPerMillis + 1 ? capacity : Math.min(capacity, tokens + elapsed * refillPerMillis);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package cc.soham.timberutils.filter;
+
+/**
+ * Decides how a {@link LogStormSuppressor} thins out log storms
+ * - collapseRepeats: consecutive identical (priority, tag, message) records are written once, followed by a
+ * "last message repeated N times" line when the run ends
+ * - tagRatePerSecond/tagBurst: a token bucket per tag, records below {@link android.util.Log#ERROR} beyond
+ * the rate are dropped and their count is reported in the next record of the tag that gets through
+ * A rate of 0 disables the rate limit
+ */
+public class SuppressionPolicy {
+    /**
+     * Suppresses nothing (the behaviour before suppression policies existed)
+     */
+    public static final SuppressionPolicy NONE = new SuppressionPolicy(false, 0, 0);
+
+    public static final int DEFAULT_TAG_RATE_PER_SECOND = 50;
+    public static final int DEFAULT_TAG_BURST = 200;
+
+    private final boolean collapseRepeats;
+    private final int tagRatePerSecond;
+    private final int tagBurst;
+
+    /**
+     * @param collapseRepeats  collapse consecutive identical records
+     * @param tagRatePerSecond records per second a tag may log in the long run (0 to disable)
+     * @param tagBurst         records a tag may log at once after being quiet
+     */
+    public SuppressionPolicy(boolean collapseRepeats, int tagRatePerSecond, int tagBurst) {
+        if (tagRatePerSecond < 0 || tagBurst < 0)
+            throw new IllegalArgumentException("SuppressionPolicy limits cannot be negative");
+        if (tagRatePerSecond > 0 && tagBurst == 0)
+            throw new IllegalArgumentException("SuppressionPolicy needs a burst of at least 1 with a rate limit");
+        this.collapseRepeats = collapseRepeats;
+        this.tagRatePerSecond = tagRatePerSecond;
+        this.tagBurst = tagBurst;
+    }
+
+    /**
+     * A policy collapsing repeats, with the default rate limit per tag
+     *
+     * @return
+     */
+    public static SuppressionPolicy defaults() {
+        return new SuppressionPolicy(true, DEFAULT_TAG_RATE_PER_SECOND, DEFAULT_TAG_BURST);
+    }
+
+    public boolean isCollapseRepeats() {
+        return collapseRepeats;
+    }
+
+    public int getTagRatePerSecond() {
+        return tagRatePerSecond;
+    }
+
+    public int getTagBurst() {
+        return tagBurst;
+    }
+
+    public boolean hasRateLimit() {
+        return tagRatePerSecond > 0;
+    }
+
+    public boolean suppressesNothing() {
+        return !collapseRepeats && !hasRateLimit();
+    }
+}
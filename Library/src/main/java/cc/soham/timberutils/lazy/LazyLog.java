@@ -0,0 +1,123 @@
+package cc.soham.timberutils.lazy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import cc.soham.timberutils.filter.LogInterest;
+import timber.log.Timber;
+
+/**
+ * Logging through {@link Timber} with messages that are only built if a planted tree is going to take them
+ * - the {@link MessageSupplier} is only called if {@link LogInterest} says a sink of
+ * {@link cc.soham.timberutils.TimberWrapper} (or a tree of the app, see {@link LogInterest#refresh()}) may accept
+ * the priority (and tag)
+ * - {@link #isLoggable(int)} and the isXEnabled guards allow the same check around any code, e.g.
+ * {@code if (LazyLog.isVerboseEnabled()) Timber.v("state: %s", dump(state));}
+ * A statement that is turned off costs a couple of volatile reads, so verbose instrumentation can stay in
+ * release builds
+ * The message is passed to Timber without arguments (it is not formatted again), the call site is still
+ * the caller of LazyLog
+ */
+public class LazyLog {
+    private LazyLog() {
+    }
+
+    /**
+     * @param priority
+     * @return false if no planted tree takes the priority
+     */
+    public static boolean isLoggable(int priority) {
+        return LogInterest.isInterested(priority);
+    }
+
+    /**
+     * @param tag      explicit tag
+     * @param priority
+     * @return false if no planted tree takes the priority for the tag
+     */
+    public static boolean isLoggable(@Nullable String tag, int priority) {
+        return LogInterest.isInterested(tag, priority);
+    }
+
+    public static boolean isVerboseEnabled() {
+        return isLoggable(Log.VERBOSE);
+    }
+
+    public static boolean isDebugEnabled() {
+        return isLoggable(Log.DEBUG);
+    }
+
+    public static boolean isInfoEnabled() {
+        return isLoggable(Log.INFO);
+    }
+
+    public static boolean isWarnEnabled() {
+        return isLoggable(Log.WARN);
+    }
+
+    public static void v(@NonNull MessageSupplier supplier) {
+        log(Log.VERBOSE, null, null, supplier);
+    }
+
+    public static void v(Throwable t, @NonNull MessageSupplier supplier) {
+        log(Log.VERBOSE, null, t, supplier);
+    }
+
+    public static void d(@NonNull MessageSupplier supplier) {
+        log(Log.DEBUG, null, null, supplier);
+    }
+
+    public static void d(Throwable t, @NonNull MessageSupplier supplier) {
+        log(Log.DEBUG, null, t, supplier);
+    }
+
+    public static void i(@NonNull MessageSupplier supplier) {
+        log(Log.INFO, null, null, supplier);
+    }
+
+    public static void i(Throwable t, @NonNull MessageSupplier supplier) {
+        log(Log.INFO, null, t, supplier);
+    }
+
+    public static void w(@NonNull MessageSupplier supplier) {
+        log(Log.WARN, null, null, supplier);
+    }
+
+    public static void w(Throwable t, @NonNull MessageSupplier supplier) {
+        log(Log.WARN, null, t, supplier);
+    }
+
+    public static void e(@NonNull MessageSupplier supplier) {
+        log(Log.ERROR, null, null, supplier);
+    }
+
+    public static void e(Throwable t, @NonNull MessageSupplier supplier) {
+        log(Log.ERROR, null, t, supplier);
+    }
+
+    public static void wtf(@NonNull MessageSupplier supplier) {
+        log(Log.ASSERT, null, null, supplier);
+    }
+
+    public static void wtf(Throwable t, @NonNull MessageSupplier supplier) {
+        log(Log.ASSERT, null, t, supplier);
+    }
+
+    /**
+     * Log a message built on demand
+     *
+     * @param priority
+     * @param tag      explicit tag, null to use the call site
+     * @param t        (OPTIONAL)
+     * @param supplier called at most once, on the calling thread
+     */
+    public static void log(int priority, @Nullable String tag, @Nullable Throwable t, @NonNull MessageSupplier supplier) {
+        if (!LogInterest.isInterested(tag, priority))
+            return;
+        String message = supplier.get();
+        if (tag != null)
+            Timber.tag(tag);
+        Timber.log(priority, t, message);
+    }
+}
@@ -0,0 +1,12 @@
+package cc.soham.timberutils.lazy;
+
+/**
+ * Builds a log message, only called by {@link LazyLog} once a planted tree is going to take it
+ * An interface of its own since java.util.function is not available at the minSdk of this library
+ */
+public interface MessageSupplier {
+    /**
+     * @return the message, may be expensive to build
+     */
+    String get();
+}
@@ -0,0 +1,73 @@
+package cc.soham.timberutils.metrics;
+
+/**
+ * The counts of a {@link LatencyHistogram} at one point in time
+ * Percentiles are reported as the upper bound of their bucket (so at most twice the real value),
+ * capped at the largest value recorded
+ */
+public class HistogramSnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sumNanos;
+    private final long maxNanos;
+
+    HistogramSnapshot(long[] counts, long sumNanos, long maxNanos) {
+        this.counts = counts;
+        long total = 0;
+        for (long bucketCount : counts)
+            total += bucketCount;
+        this.count = total;
+        this.sumNanos = sumNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sumNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : sumNanos / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99
+     * @return the upper bound of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank && counts[bucket] > 0)
+                return Math.min(maxNanos, upperBound(bucket));
+        }
+        return maxNanos;
+    }
+
+    /**
+     * @return a copy of the bucket counts, bucket i holds [2^(i-1), 2^i) nanoseconds
+     */
+    public long[] getBucketCounts() {
+        return counts.clone();
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + getMeanNanos() + "ns p50=" + getPercentileNanos(50) + "ns p99="
+                + getPercentileNanos(99) + "ns max=" + maxNanos + "ns";
+    }
+}
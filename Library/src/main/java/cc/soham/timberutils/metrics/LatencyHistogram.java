@@ -0,0 +1,43 @@
+package cc.soham.timberutils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with fixed power of two buckets
+ * - bucket 0 holds 0, bucket i holds [2^(i-1), 2^i), so recording is a leading zero count and an add
+ * - striped like {@link StripedCounter} so that concurrent loggers do not contend on the same bucket
+ */
+public class LatencyHistogram {
+    public static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(StripedCounter.STRIPES * BUCKET_COUNT);
+    private final StripedCounter sum = new StripedCounter();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos a duration, negative values (clock adjustments) are recorded as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets.getAndIncrement(StripedCounter.stripeIndex() * BUCKET_COUNT + bucketOf(nanos));
+        sum.add(nanos);
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos))
+            currentMax = max.get();
+    }
+
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+                counts[bucket] += buckets.get(stripe * BUCKET_COUNT + bucket);
+        }
+        return new HistogramSnapshot(counts, sum.sum(), max.get());
+    }
+
+    static int bucketOf(long nanos) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+}
@@ -0,0 +1,125 @@
+package cc.soham.timberutils.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cc.soham.timberutils.filter.LogRules;
+
+/**
+ * Counters and histograms of the logging pipeline, always on
+ * - recorded from the logging threads and the writer thread through the static on... methods, which only
+ * touch striped counters/histograms and never lock
+ * - read from any thread through {@link #snapshot()} (e.g. {@link cc.soham.timberutils.TimberWrapper#getMetricsSnapshot()})
+ * Sinks are identified by the {@link LogRules} sink constants
+ */
+public class LoggingMetrics {
+    private static final StripedCounter[] accepted = createCounters();
+    private static final StripedCounter[] filtered = createCounters();
+    private static final StripedCounter[] suppressed = createCounters();
+    private static final StripedCounter[] dropped = createCounters();
+    private static final StripedCounter bytesWritten = new StripedCounter();
+    private static final StripedCounter recordsWritten = new StripedCounter();
+    private static final StripedCounter flushCount = new StripedCounter();
+    private static final AtomicInteger queueDepth = new AtomicInteger();
+    private static final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private static final LatencyHistogram logLatency = new LatencyHistogram();
+    private static final LatencyHistogram writeLatency = new LatencyHistogram();
+    private static final LatencyHistogram flushLatency = new LatencyHistogram();
+    private static final LatencyHistogram exportDuration = new LatencyHistogram();
+
+    /**
+     * A record was handed to the sink
+     */
+    public static void onAccepted(int sink) {
+        accepted[sink].increment();
+    }
+
+    /**
+     * A record was left out by the level or the {@link LogRules} of the sink
+     */
+    public static void onFiltered(int sink) {
+        filtered[sink].increment();
+    }
+
+    /**
+     * A record was collapsed or rate limited by the {@link cc.soham.timberutils.filter.LogStormSuppressor} of the sink
+     */
+    public static void onSuppressed(int sink) {
+        suppressed[sink].increment();
+    }
+
+    /**
+     * A record accepted by the sink was lost on the way (e.g. a full queue)
+     */
+    public static void onDropped(int sink) {
+        dropped[sink].increment();
+    }
+
+    /**
+     * @param bytes bytes (binary segments) or characters (text segments) written for a record or line
+     */
+    public static void onWritten(int bytes) {
+        recordsWritten.increment();
+        bytesWritten.add(bytes);
+    }
+
+    public static void onWriteLatency(long nanos) {
+        writeLatency.record(nanos);
+    }
+
+    public static void onFlush(long nanos) {
+        flushCount.increment();
+        flushLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos time spent on the logging thread handing a record to the sinks
+     */
+    public static void onLogLatency(long nanos) {
+        logLatency.record(nanos);
+    }
+
+    public static void onExport(long millis) {
+        exportDuration.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * @param depth records currently queued for the writer
+     */
+    public static void onQueueDepth(int depth) {
+        queueDepth.lazySet(depth);
+        int peak = peakQueueDepth.get();
+        while (depth > peak && !peakQueueDepth.compareAndSet(peak, depth))
+            peak = peakQueueDepth.get();
+    }
+
+    /**
+     * @return the current values, readable from any thread
+     */
+    public static MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(sums(accepted), sums(filtered), sums(suppressed), sums(dropped),
+                recordsWritten.sum(), bytesWritten.sum(), flushCount.sum(), queueDepth.get(), peakQueueDepth.get(),
+                logLatency.snapshot(), writeLatency.snapshot(), flushLatency.snapshot(), exportDuration.snapshot());
+    }
+
+    /**
+     * Start measuring the peak queue depth from the current depth again
+     */
+    public static void resetPeakQueueDepth() {
+        peakQueueDepth.set(queueDepth.get());
+    }
+
+    private static StripedCounter[] createCounters() {
+        StripedCounter[] counters = new StripedCounter[LogRules.SINK_COUNT];
+        for (int sink = 0; sink < counters.length; sink++)
+            counters[sink] = new StripedCounter();
+        return counters;
+    }
+
+    private static long[] sums(StripedCounter[] counters) {
+        long[] sums = new long[counters.length];
+        for (int sink = 0; sink < counters.length; sink++)
+            sums[sink] = counters[sink].sum();
+        return sums;
+    }
+}
@@ -0,0 +1,136 @@
+package cc.soham.timberutils.metrics;
+
+import cc.soham.timberutils.filter.LogRules;
+
+/**
+ * The values of {@link LoggingMetrics} at one point in time
+ * Per sink values are read with the {@link LogRules} sink constants
+ */
+public class MetricsSnapshot {
+    private final long[] accepted;
+    private final long[] filtered;
+    private final long[] suppressed;
+    private final long[] dropped;
+    private final long recordsWritten;
+    private final long bytesWritten;
+    private final long flushCount;
+    private final int queueDepth;
+    private final int peakQueueDepth;
+    private final HistogramSnapshot logLatency;
+    private final HistogramSnapshot writeLatency;
+    private final HistogramSnapshot flushLatency;
+    private final HistogramSnapshot exportDuration;
+
+    MetricsSnapshot(long[] accepted, long[] filtered, long[] suppressed, long[] dropped, long recordsWritten,
+                    long bytesWritten, long flushCount, int queueDepth, int peakQueueDepth, HistogramSnapshot logLatency,
+                    HistogramSnapshot writeLatency, HistogramSnapshot flushLatency, HistogramSnapshot exportDuration) {
+        this.accepted = accepted;
+        this.filtered = filtered;
+        this.suppressed = suppressed;
+        this.dropped = dropped;
+        this.recordsWritten = recordsWritten;
+        this.bytesWritten = bytesWritten;
+        this.flushCount = flushCount;
+        this.queueDepth = queueDepth;
+        this.peakQueueDepth = peakQueueDepth;
+        this.logLatency = logLatency;
+        this.writeLatency = writeLatency;
+        this.flushLatency = flushLatency;
+        this.exportDuration = exportDuration;
+    }
+
+    /**
+     * @param sink e.g. {@link LogRules#SINK_FILE}
+     * @return records handed to the sink
+     */
+    public long getAccepted(int sink) {
+        return accepted[sink];
+    }
+
+    /**
+     * @param sink
+     * @return records left out by the level or rules of the sink
+     */
+    public long getFiltered(int sink) {
+        return filtered[sink];
+    }
+
+    /**
+     * @param sink
+     * @return records collapsed or rate limited by the storm suppression of the sink
+     */
+    public long getSuppressed(int sink) {
+        return suppressed[sink];
+    }
+
+    /**
+     * @param sink
+     * @return records accepted by the sink but lost on the way (e.g. a full queue)
+     */
+    public long getDropped(int sink) {
+        return dropped[sink];
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    /**
+     * @return bytes written to binary segments plus characters written to text segments
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getPeakQueueDepth() {
+        return peakQueueDepth;
+    }
+
+    /**
+     * @return time spent on the logging thread handing a record to the sinks
+     */
+    public HistogramSnapshot getLogLatency() {
+        return logLatency;
+    }
+
+    /**
+     * @return time the writer spent writing a record (including a flush due after it)
+     */
+    public HistogramSnapshot getWriteLatency() {
+        return writeLatency;
+    }
+
+    public HistogramSnapshot getFlushLatency() {
+        return flushLatency;
+    }
+
+    public HistogramSnapshot getExportDuration() {
+        return exportDuration;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(512);
+        String[] names = {LogRules.SINK_NAME_LOGCAT, LogRules.SINK_NAME_FILE, LogRules.SINK_NAME_CRASH_REPORTER};
+        for (int sink = 0; sink < names.length; sink++) {
+            builder.append(names[sink]).append(": accepted=").append(accepted[sink]).append(" filtered=").append(filtered[sink])
+                    .append(" suppressed=").append(suppressed[sink]).append(" dropped=").append(dropped[sink]).append('\n');
+        }
+        builder.append("written: records=").append(recordsWritten).append(" bytes=").append(bytesWritten)
+                .append(" flushes=").append(flushCount).append('\n');
+        builder.append("queue: depth=").append(queueDepth).append(" peak=").append(peakQueueDepth).append('\n');
+        builder.append("log: ").append(logLatency).append('\n');
+        builder.append("write: ").append(writeLatency).append('\n');
+        builder.append("flush: ").append(flushLatency).append('\n');
+        builder.append("export: ").append(exportDuration);
+        return builder.toString();
+    }
+}
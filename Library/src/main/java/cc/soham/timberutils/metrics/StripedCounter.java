@@ -0,0 +1,49 @@
+package cc.soham.timberutils.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment without contending on a single memory location
+ * - every thread adds to one of a power of two number of stripes (picked by thread id), each on its
+ * own cache line
+ * - reads add up all stripes, so they are slower than writes and not an atomic snapshot
+ * (the equivalent of java.util.concurrent.atomic.LongAdder, which is not available on Android before API 24)
+ */
+public class StripedCounter {
+    // longs per cache line, stripes are this far apart to avoid false sharing
+    static final int PADDING = 8;
+    static final int STRIPES = stripeCount();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long value) {
+        cells.getAndAdd(cellIndex(), value);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++)
+            sum += cells.get(stripe * PADDING);
+        return sum;
+    }
+
+    static int stripeIndex() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    private static int cellIndex() {
+        return stripeIndex() * PADDING;
+    }
+
+    /**
+     * @return the number of processors rounded up to a power of two, between 2 and 32
+     */
+    private static int stripeCount() {
+        int processors = Math.max(2, Math.min(32, Runtime.getRuntime().availableProcessors()));
+        return Integer.highestOneBit(processors - 1) << 1;
+    }
+}
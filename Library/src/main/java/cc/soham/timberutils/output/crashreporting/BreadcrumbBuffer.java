@@ -0,0 +1,239 @@
+package cc.soham.timberutils.output.crashreporting;
+
+import android.support.annotation.NonNull;
+
+import cc.soham.timberutils.filter.LogRules;
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.reporting.Reporting;
+
+/**
+ * Keeps the messages (breadcrumbs) of a {@link CrashReporterSink} in memory and reports them to the
+ * {@link CrashReporter} in batches on a background thread, as per the {@link BreadcrumbPolicy}
+ * - the logging thread only stores the timestamp, priority, tag and message in a ring of parallel arrays
+ * (no object per message, the "timestamp, tag" String is only built when reporting)
+ * - the ring holds the last capacity messages, when the reporter falls behind the oldest ones are
+ * overwritten and counted as dropped
+ * - {@link #flush()} reports the waiting messages on the calling thread, used before an exception is reported
+ * so that the messages leading up to it are not still in the ring
+ */
+public class BreadcrumbBuffer implements Runnable {
+    public static final String THREAD_NAME = "TimberUtils-Breadcrumbs";
+
+    private final CrashReporter crashReporter;
+    private final BreadcrumbPolicy policy;
+
+    // the ring, guarded by this
+    private final long[] timestamps;
+    private final byte[] priorities;
+    private final String[] tags;
+    private final String[] messages;
+    // index of the oldest message waiting
+    private int head;
+    private int size;
+    private long droppedCount;
+    private boolean closed;
+
+    // a batch taken out of the ring, guarded by reportLock so that batches are reported in order
+    private final Object reportLock = new Object();
+    private final long[] batchTimestamps;
+    private final int[] batchPriorities;
+    private final String[] batchTags;
+    private final String[] batchMessages;
+
+    private Thread thread;
+
+    public BreadcrumbBuffer(@NonNull CrashReporter crashReporter, @NonNull BreadcrumbPolicy policy) {
+        if (crashReporter == null)
+            throw new NullPointerException("Null Crash Reporter, could not initialize BreadcrumbBuffer");
+        if (policy.isSynchronous())
+            throw new IllegalArgumentException("A BreadcrumbBuffer needs a BreadcrumbPolicy with a capacity");
+        this.crashReporter = crashReporter;
+        this.policy = policy;
+        int capacity = policy.getCapacity();
+        timestamps = new long[capacity];
+        priorities = new byte[capacity];
+        tags = new String[capacity];
+        messages = new String[capacity];
+        batchTimestamps = new long[capacity];
+        batchPriorities = new int[capacity];
+        batchTags = new String[capacity];
+        batchMessages = new String[capacity];
+    }
+
+    /**
+     * Report messages to a {@link CrashReporter}, in a single call if it is a {@link BulkCrashReporter}
+     *
+     * @param crashReporter
+     * @param count
+     * @param priorities
+     * @param tags
+     * @param messages
+     */
+    public static void report(@NonNull CrashReporter crashReporter, int count, int[] priorities, String[] tags, String[] messages) {
+        if (crashReporter instanceof BulkCrashReporter) {
+            ((BulkCrashReporter) crashReporter).log(count, priorities, tags, messages);
+            return;
+        }
+        for (int i = 0; i < count; i++)
+            crashReporter.log(priorities[i], tags[i], messages[i]);
+    }
+
+    public CrashReporter getCrashReporter() {
+        return crashReporter;
+    }
+
+    public BreadcrumbPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Store a message, reported later on the background thread (started on first use)
+     * Once closed the message is reported right away
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     */
+    public void add(long timestamp, int priority, String tag, String message) {
+        synchronized (this) {
+            if (!closed) {
+                int capacity = timestamps.length;
+                int index = head + size;
+                if (index >= capacity)
+                    index -= capacity;
+                if (size == capacity) {
+                    // overwrite the oldest
+                    head = index + 1 == capacity ? 0 : index + 1;
+                    droppedCount++;
+                    LoggingMetrics.onDropped(LogRules.SINK_CRASH_REPORTER);
+                } else {
+                    size++;
+                }
+                timestamps[index] = timestamp;
+                priorities[index] = (byte) priority;
+                tags[index] = tag;
+                messages[index] = message;
+                if (thread == null) {
+                    thread = new Thread(this, THREAD_NAME);
+                    thread.setDaemon(true);
+                    thread.start();
+                } else if (size == 1 || size == policy.getBatchSize()) {
+                    // the first message starts the delay, a full batch ends it
+                    notifyAll();
+                }
+                return;
+            }
+        }
+        crashReporter.log(priority, Reporting.prefixTimestamp(timestamp, tag), message);
+    }
+
+    /**
+     * Report the waiting messages on the calling thread
+     */
+    public void flush() {
+        synchronized (reportLock) {
+            int count = takeBatch();
+            try {
+                report(crashReporter, count, batchPriorities, batchTags, batchMessages);
+            } finally {
+                for (int i = 0; i < count; i++) {
+                    batchTags[i] = null;
+                    batchMessages[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Report the waiting messages and stop the background thread, messages added afterwards are reported
+     * on the logging thread
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        flush();
+    }
+
+    /**
+     * @return the number of messages waiting to be reported
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of messages overwritten before they could be reported
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                if (!awaitBatch())
+                    return;
+                flush();
+            } catch (InterruptedException exception) {
+                return;
+            } catch (Exception exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Wait until a batch is full or its oldest message has waited long enough
+     *
+     * @return false once closed
+     * @throws InterruptedException
+     */
+    private synchronized boolean awaitBatch() throws InterruptedException {
+        while (!closed) {
+            if (size >= policy.getBatchSize())
+                return true;
+            if (size == 0) {
+                wait();
+            } else {
+                long millisUntilDue = timestamps[head] + policy.getMaxDelayMillis() - System.currentTimeMillis();
+                if (millisUntilDue <= 0)
+                    return true;
+                wait(millisUntilDue);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move the waiting messages into the batch arrays, their "timestamp, tag" tags are built once the
+     * ring is released
+     * Called with reportLock held
+     *
+     * @return the number of messages taken
+     */
+    private int takeBatch() {
+        int count;
+        synchronized (this) {
+            count = size;
+            int capacity = timestamps.length;
+            for (int i = 0; i < count; i++) {
+                batchTimestamps[i] = timestamps[head];
+                batchPriorities[i] = priorities[head];
+                batchTags[i] = tags[head];
+                batchMessages[i] = messages[head];
+                tags[head] = null;
+                messages[head] = null;
+                if (++head == capacity)
+                    head = 0;
+            }
+            size = 0;
+        }
+        for (int i = 0; i < count; i++)
+            batchTags[i] = Reporting.prefixTimestamp(batchTimestamps[i], batchTags[i]);
+        return count;
+    }
+}
@@ -0,0 +1,65 @@
+package cc.soham.timberutils.output.crashreporting;
+
+/**
+ * Decides how a {@link CrashReporterSink} hands messages (breadcrumbs) to its {@link CrashReporter}
+ * - capacity: messages are kept in a {@link BreadcrumbBuffer} ring of this size, once it is full the oldest
+ * message not reported yet is overwritten (and counted as dropped)
+ * - batchSize/maxDelayMillis: a background thread reports them as soon as batchSize messages are waiting or
+ * the oldest one has waited maxDelayMillis, through {@link BulkCrashReporter} if implemented
+ * - exceptions are never buffered, the waiting messages are reported right before them
+ * A capacity of 0 reports every message on the logging thread
+ */
+public class BreadcrumbPolicy {
+    /**
+     * Reports every message on the logging thread (the behaviour before breadcrumb buffers existed)
+     */
+    public static final BreadcrumbPolicy NONE = new BreadcrumbPolicy(0, 0, 0);
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 2000;
+
+    private final int capacity;
+    private final int batchSize;
+    private final long maxDelayMillis;
+
+    /**
+     * @param capacity       messages kept before the oldest ones are overwritten (0 to report synchronously)
+     * @param batchSize      messages reported at once, at most capacity
+     * @param maxDelayMillis longest time a message waits for its batch
+     */
+    public BreadcrumbPolicy(int capacity, int batchSize, long maxDelayMillis) {
+        if (capacity < 0 || batchSize < 0 || maxDelayMillis < 0)
+            throw new IllegalArgumentException("BreadcrumbPolicy limits cannot be negative");
+        if (capacity > 0 && (batchSize == 0 || batchSize > capacity))
+            throw new IllegalArgumentException("BreadcrumbPolicy needs a batch size between 1 and the capacity");
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * A policy using the default capacity, batch size and delay
+     *
+     * @return
+     */
+    public static BreadcrumbPolicy defaults() {
+        return new BreadcrumbPolicy(DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public boolean isSynchronous() {
+        return capacity == 0;
+    }
+}
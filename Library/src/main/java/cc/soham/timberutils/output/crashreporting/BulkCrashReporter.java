@@ -0,0 +1,19 @@
+package cc.soham.timberutils.output.crashreporting;
+
+/**
+ * A {@link CrashReporter} that can take a batch of messages in a single call, e.g. joined into one native call
+ * Used by the {@link BreadcrumbBuffer} when the {@link CrashReporter} implements it, otherwise
+ * {@link CrashReporter#log(int, String, String)} is called for every message of the batch
+ * (see {@link BreadcrumbBuffer#report(CrashReporter, int, int[], String[], String[])})
+ */
+public interface BulkCrashReporter extends CrashReporter {
+    /**
+     * Report messages in the order they were logged, the arrays are reused once this returns
+     *
+     * @param count      number of messages, starting at index 0
+     * @param priorities
+     * @param tags       "timestamp, tag" as in {@link CrashReporter#log(int, String, String)}
+     * @param messages
+     */
+    void log(int count, int[] priorities, String[] tags, String[] messages);
+}
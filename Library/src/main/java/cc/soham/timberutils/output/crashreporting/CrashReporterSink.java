@@ -0,0 +1,114 @@
+package cc.soham.timberutils.output.crashreporting;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import cc.soham.timberutils.callsite.CallSite;
+import cc.soham.timberutils.callsite.CallSiteTagResolver;
+import cc.soham.timberutils.filter.LogRules;
+import cc.soham.timberutils.filter.LogStormSuppressor;
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.record.LogEntry;
+import cc.soham.timberutils.reporting.Reporting;
+import cc.soham.timberutils.sink.LogSink;
+
+/**
+ * {@link LogSink} that outputs to a {@link CrashReporter}
+ * Exceptions are reported as such, messages are logged with a "timestamp, tag:line" tag
+ * An optional {@link LogStormSuppressor} collapses repeats and rate limits tags before they are reported
+ * An optional {@link BreadcrumbBuffer} takes the messages off the logging thread, exceptions are still reported
+ * right away (after the messages waiting in the buffer)
+ */
+public class CrashReporterSink implements LogSink {
+    private final CrashReporter crashReporter;
+    private volatile LogStormSuppressor stormSuppressor;
+    private volatile BreadcrumbBuffer breadcrumbBuffer;
+    private final LogStormSuppressor.Emitter emitter = new LogStormSuppressor.Emitter() {
+        @Override
+        public void emit(long timestamp, int priority, String tag, String message, Throwable t) {
+            report(timestamp, priority, tag, message, t);
+        }
+    };
+
+    public CrashReporterSink(@NonNull final CrashReporter crashReporter) {
+        if (crashReporter == null)
+            throw new NullPointerException("Null Crash Reporter, could not initialize CrashReporterSink");
+        this.crashReporter = crashReporter;
+    }
+
+    public CrashReporter getCrashReporter() {
+        return crashReporter;
+    }
+
+    public LogStormSuppressor getStormSuppressor() {
+        return stormSuppressor;
+    }
+
+    /**
+     * @param stormSuppressor null to report every record
+     */
+    public void setStormSuppressor(@Nullable LogStormSuppressor stormSuppressor) {
+        this.stormSuppressor = stormSuppressor;
+    }
+
+    public BreadcrumbBuffer getBreadcrumbBuffer() {
+        return breadcrumbBuffer;
+    }
+
+    /**
+     * @param breadcrumbBuffer null to report every message on the logging thread
+     */
+    public void setBreadcrumbBuffer(@Nullable BreadcrumbBuffer breadcrumbBuffer) {
+        this.breadcrumbBuffer = breadcrumbBuffer;
+    }
+
+    @Override
+    public void log(@NonNull LogEntry logEntry) {
+        log(logEntry.timestamp, logEntry.priority, logEntry.tagWithLineNumber, logEntry.tag, logEntry.message, logEntry.throwable);
+    }
+
+    /**
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     */
+    public void log(long timestamp, int priority, String tag, String message, Throwable t) {
+        CallSite callSite = CallSiteTagResolver.getResolvedCallSite();
+        log(timestamp, priority, tag, callSite == null ? null : callSite.getTag(), message, t);
+    }
+
+    /**
+     * @param timestamp
+     * @param priority
+     * @param tag       the tag reported, with the line number
+     * @param rateKey   the tag rate limits apply to (OPTIONAL)
+     * @param message
+     * @param t
+     */
+    private void log(long timestamp, int priority, String tag, @Nullable String rateKey, String message, Throwable t) {
+        LoggingMetrics.onAccepted(LogRules.SINK_CRASH_REPORTER);
+        LogStormSuppressor suppressor = stormSuppressor;
+        if (suppressor == null)
+            report(timestamp, priority, tag, message, t);
+        else if (!suppressor.log(timestamp, priority, tag, rateKey, message, t, emitter))
+            LoggingMetrics.onSuppressed(LogRules.SINK_CRASH_REPORTER);
+    }
+
+    private void report(long timestamp, int priority, String tag, String message, Throwable t) {
+        BreadcrumbBuffer buffer = breadcrumbBuffer;
+        if (t != null) {
+            // the messages leading up to the exception go first
+            if (buffer != null)
+                buffer.flush();
+            crashReporter.logException(t);
+        }
+        if (tag != null && message != null) {
+            if (buffer != null)
+                buffer.add(timestamp, priority, tag, message);
+            else
+                crashReporter.log(priority, Reporting.prefixTimestamp(timestamp, tag), message);
+        }
+    }
+}
@@ -1,42 +1,74 @@
 package cc.soham.timberutils.output.crashreporting;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-import timber.log.Timber;
+import cc.soham.timberutils.callsite.CallSiteTimberTree;
+import cc.soham.timberutils.filter.LogRules;
+import cc.soham.timberutils.filter.LogStormSuppressor;
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.record.LogEntry;
 
 /**
  * Created by sohammondal on 27/09/16.
  * Our custom TimberTree that lets us output to a Crash Reporting tool
+ * Writes through {@link CrashReporterSink}
  */
-public class CrashReporterTimberTree extends Timber.DebugTree {
-    private CrashReporter crashReporter;
+public class CrashReporterTimberTree extends CallSiteTimberTree {
+    private CrashReporterSink crashReporterSink;
 
     public CrashReporterTimberTree(@NonNull final CrashReporter crashReporter) {
+        // tags include the line number
+        super(true);
         if (crashReporter == null)
             throw new NullPointerException("Null Crash Reporter, could not initialize CrashReporterTimberTree");
-        this.crashReporter = crashReporter;
+        this.crashReporterSink = new CrashReporterSink(crashReporter);
     }
 
     public CrashReporter getCrashReporter() {
-        return crashReporter;
+        return crashReporterSink.getCrashReporter();
+    }
+
+    public LogStormSuppressor getStormSuppressor() {
+        return crashReporterSink.getStormSuppressor();
+    }
+
+    /**
+     * @param stormSuppressor null to report every record
+     */
+    public void setStormSuppressor(@Nullable LogStormSuppressor stormSuppressor) {
+        crashReporterSink.setStormSuppressor(stormSuppressor);
+    }
+
+    public BreadcrumbBuffer getBreadcrumbBuffer() {
+        return crashReporterSink.getBreadcrumbBuffer();
     }
 
     /**
-     * Overriden so that we can add the line number to the logs!
-     *
-     * @return
+     * @param breadcrumbBuffer null to report every message on the logging thread
      */
+    public void setBreadcrumbBuffer(@Nullable BreadcrumbBuffer breadcrumbBuffer) {
+        crashReporterSink.setBreadcrumbBuffer(breadcrumbBuffer);
+    }
+
+    /**
+     * Filtered through the current {@link LogRules}
+     */
+    @Override
+    protected boolean isLoggable(String tag, int priority) {
+        if (LogRules.getCurrent().isLoggable(LogRules.SINK_CRASH_REPORTER, tag, priority))
+            return true;
+        LoggingMetrics.onFiltered(LogRules.SINK_CRASH_REPORTER);
+        return false;
+    }
+
     @Override
-    protected String createStackElementTag(StackTraceElement element) {
-        return super.createStackElementTag(element) + ":" + element.getLineNumber();
+    protected void onLog(int priority, String tag, String message, Throwable t) {
+        crashReporterSink.log(System.currentTimeMillis(), priority, tag, message, t);
     }
 
     @Override
-    protected void log(int priority, String tag, String message, Throwable t) {
-        if (t != null) {
-            getCrashReporter().logException(t);
-        }
-        if (tag != null && message != null)
-            getCrashReporter().log(priority, System.currentTimeMillis() + ", " + tag, message);
+    protected void onLog(@NonNull LogEntry logEntry) {
+        crashReporterSink.log(logEntry);
     }
 }
@@ -0,0 +1,235 @@
+package cc.soham.timberutils.output.file;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import cc.soham.timberutils.record.LogFields;
+import cc.soham.timberutils.record.LogRecord;
+
+/**
+ * An in-process alternative to {@link TimberService} for writing logs to a file
+ * - loggers only enqueue a pooled {@link LogRecord} into a {@link BoundedLogQueue} (no Intent, no Binder call)
+ * - a single background thread drains the queue into {@link LogFileWriter}/{@link FileWriterWrapper}
+ * and wakes up on its own when buffered lines are due for a flush as per the {@link FlushPolicy}
+ * - when the queue is full the {@link OverflowPolicy} decides what is dropped (and counted), the number
+ * dropped is written as a line of its own once the queue has room again
+ */
+public class AsyncLogWriter implements Runnable {
+    public static final String THREAD_NAME = "TimberUtils-AsyncLogWriter";
+
+    private static AsyncLogWriter asyncLogWriter;
+
+    private final Context context;
+    private final BoundedLogQueue queue = new BoundedLogQueue();
+    // held by the writer thread while it writes a record, so that the file is not closed or sealed in the middle of it
+    static final Object writeLock = new Object();
+    private Thread thread;
+    // used to put a "debuglogger started at _____" message at the top of the log
+    private boolean started = false;
+
+    AsyncLogWriter(@NonNull final Context context) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+    }
+
+    /**
+     * Singleton implementation of AsyncLogWriter, starts the writer thread on first use
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized AsyncLogWriter getAsyncLogWriter(@NonNull final Context context) {
+        if (asyncLogWriter == null) {
+            asyncLogWriter = new AsyncLogWriter(context);
+            asyncLogWriter.start();
+        }
+        return asyncLogWriter;
+    }
+
+    /**
+     * Starts the background writer thread
+     */
+    synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, THREAD_NAME);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Called by a {@link FileTimberTree} to queue a log statement for writing
+     * Only blocks (for a bounded time) with {@link OverflowPolicy#BLOCK}
+     *
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @return true if the record was queued, false if it was dropped
+     */
+    public boolean log(int priority, String tag, String message, Throwable t) {
+        return log(System.currentTimeMillis(), priority, tag, message, t);
+    }
+
+    /**
+     * Queue a log statement whose timestamp was taken by the caller
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @return true if the record was queued, false if it was dropped
+     */
+    public boolean log(long timestamp, int priority, String tag, String message, Throwable t) {
+        return log(timestamp, priority, tag, message, t, null);
+    }
+
+    /**
+     * Queue a log statement with the fields of a {@link cc.soham.timberutils.structured.StructuredLog} statement
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @param fields    (OPTIONAL)
+     * @return true if the record was queued, false if it was dropped
+     */
+    public boolean log(long timestamp, int priority, String tag, String message, Throwable t, @Nullable LogFields fields) {
+        return queue.offer(LogRecord.obtain(timestamp, priority, tag, message, t, fields));
+    }
+
+    /**
+     * Write the queued records on the calling thread, next to the writer thread, e.g. from a
+     * {@link CrashLogHandler} when the writer thread may not get to run again
+     *
+     * @param deadlineNanos {@link System#nanoTime()} after which no more records are written
+     * @return the number of records still queued
+     */
+    public static int drainQueued(long deadlineNanos) {
+        AsyncLogWriter writer = getCurrent();
+        if (writer == null || writer.queue.size() == 0)
+            return 0;
+        return writer.drain(FileWriterWrapper.getFileWriterWrapper(writer.context), deadlineNanos);
+    }
+
+    /**
+     * Write all queued records (of this writer and the {@link TimberService}) and close the log file, e.g. when
+     * file logging is turned off, so that neither reopens the file for records queued before
+     * Waits for the record being written, if any
+     *
+     * @param context
+     * @throws IOException
+     */
+    public static void drainAndCloseFileWriter(@NonNull final Context context) throws IOException {
+        AsyncLogWriter writer = getCurrent();
+        synchronized (writeLock) {
+            synchronized (TimberService.writeLock) {
+                FileWriterWrapper fileWriterWrapper = FileWriterWrapper.getFileWriterWrapper(context);
+                // the queues are bounded, so is the time this takes
+                if (writer != null)
+                    writer.drain(fileWriterWrapper, Long.MAX_VALUE);
+                TimberService.drainQueued(context, Long.MAX_VALUE);
+                fileWriterWrapper.flushAndCloseFileWriter();
+            }
+        }
+    }
+
+    private static AsyncLogWriter getCurrent() {
+        synchronized (AsyncLogWriter.class) {
+            return asyncLogWriter;
+        }
+    }
+
+    /**
+     * Write the queued records on the calling thread
+     *
+     * @param fileWriterWrapper
+     * @param deadlineNanos     {@link System#nanoTime()} after which no more records are written
+     * @return the number of records still queued
+     */
+    private int drain(FileWriterWrapper fileWriterWrapper, long deadlineNanos) {
+        LogRecord record;
+        while (System.nanoTime() < deadlineNanos && (record = queue.poll()) != null) {
+            try {
+                LogFileWriter.write(context, fileWriterWrapper, record.timestamp, record.priority, record.tag, record.message, record.throwable, record.fields);
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            } finally {
+                record.recycle();
+            }
+        }
+        return queue.size();
+    }
+
+    /**
+     * @return the number of records dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+
+    /**
+     * @param priority
+     * @return the number of records of the priority dropped because the queue was full
+     */
+    public long getDroppedCount(int priority) {
+        return queue.getDroppedCount(priority);
+    }
+
+    /**
+     * @return the number of records currently waiting to be written
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public void run() {
+        long millisUntilFlushDue = -1;
+        while (true) {
+            try {
+                // wait no longer than the time limit of the FlushPolicy if lines are pending
+                boolean queued = queue.awaitRecord(millisUntilFlushDue, TimeUnit.MILLISECONDS);
+                synchronized (writeLock) {
+                    // taken under the lock, so that a record is never held here while the segment is sealed
+                    LogRecord record = queued ? queue.poll() : null;
+                    // looked up every time since the writer type can be changed at runtime
+                    FileWriterWrapper fileWriterWrapper = FileWriterWrapper.getFileWriterWrapper(context);
+                    if (record != null) {
+                        try {
+                            write(fileWriterWrapper, record);
+                        } finally {
+                            record.recycle();
+                        }
+                        LogFileWriter.writeDroppedCountIfDue(context, fileWriterWrapper, queue);
+                    }
+                    millisUntilFlushDue = fileWriterWrapper.flushIfDue();
+                }
+            } catch (InterruptedException exception) {
+                return;
+            } catch (Exception exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write a single record on the writer thread
+     *
+     * @param fileWriterWrapper
+     * @param record
+     * @throws IOException
+     */
+    private void write(FileWriterWrapper fileWriterWrapper, LogRecord record) throws IOException {
+        if (!started) {
+            LogFileWriter.writeStartMessage(fileWriterWrapper, context);
+            started = true;
+        }
+        LogFileWriter.write(context, fileWriterWrapper, record.timestamp, record.priority, record.tag, record.message, record.throwable, record.fields);
+    }
+}
@@ -0,0 +1,364 @@
+package cc.soham.timberutils.output.file;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cc.soham.timberutils.filter.LogRules;
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.record.LogRecord;
+
+/**
+ * The queue between the logging threads and the thread writing the log file (the {@link AsyncLogWriter}
+ * thread, or the {@link TimberService} in {@link FileTimberTree#MODE_SERVICE})
+ * - bounded both in records and in characters, what happens beyond that is decided by the {@link OverflowPolicy}
+ * set through {@link #setOverflowPolicy(OverflowPolicy)} (shared by all queues, read on every offer)
+ * - one deque per priority so that the lowest priority can be dropped first, records are taken in the order
+ * they were queued across all of them
+ * - messages longer than a quarter of the character budget are truncated, so that a single record cannot
+ * exhaust it
+ * - dropped records are counted per priority, and reported once as a single line by the writer when the
+ * queue is back to half its size ({@link #takeDroppedCountToReport()})
+ */
+public class BoundedLogQueue {
+    // characters a queued throwable is assumed to hold on to (the stack trace)
+    static final int THROWABLE_CHARS = 2048;
+    // fixed characters per record (fields, deque slot)
+    static final int RECORD_CHARS = 32;
+    private static final String TRUNCATED = "... (truncated)";
+
+    private static volatile OverflowPolicy overflowPolicy = OverflowPolicy.defaults();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // indexed by priority, Log.VERBOSE (2) to Log.ASSERT (7)
+    private final ArrayDeque<LogRecord>[] deques = newDeques(Log.ASSERT + 1);
+    private int size;
+    private long chars;
+    private long nextSequence;
+
+    private final AtomicLongArray droppedCounts = new AtomicLongArray(Log.ASSERT + 1);
+    private final AtomicLong droppedToReport = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<LogRecord>[] newDeques(int count) {
+        ArrayDeque<LogRecord>[] deques = new ArrayDeque[count];
+        for (int i = 0; i < count; i++)
+            deques[i] = new ArrayDeque<>();
+        return deques;
+    }
+
+    public static OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets the {@link OverflowPolicy} of all queues, applies to records queued from now on
+     *
+     * @param policy
+     */
+    public static void setOverflowPolicy(@NonNull OverflowPolicy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException("OverflowPolicy cannot be null");
+        overflowPolicy = policy;
+    }
+
+    /**
+     * Queue a record, or drop it (or others) as per the {@link OverflowPolicy}
+     * The record belongs to the queue afterwards: a dropped record is recycled
+     *
+     * @param record
+     * @return true if the record was queued, false if it was dropped
+     */
+    public boolean offer(@NonNull LogRecord record) {
+        OverflowPolicy policy = overflowPolicy;
+        int priority = clampPriority(record.priority);
+        truncateIfHuge(record, policy);
+        int cost = cost(record);
+        boolean important = priority >= Log.ERROR;
+        lock.lock();
+        try {
+            if (!important && !fits(policy, cost, false)) {
+                switch (policy.getPolicy()) {
+                    case OverflowPolicy.BLOCK:
+                        awaitRoom(policy, cost);
+                        break;
+                    case OverflowPolicy.DROP_OLDEST:
+                        while (!fits(policy, cost, false) && dropOldest(Log.WARN))
+                            ;
+                        break;
+                    case OverflowPolicy.DROP_LOWEST_PRIORITY:
+                        while (!fits(policy, cost, false) && dropLowestPriority(priority))
+                            ;
+                        break;
+                    case OverflowPolicy.DROP_NEWEST:
+                    default:
+                        break;
+                }
+            }
+            // ERROR/ASSERT: use the reserve, then push out anything lower
+            if (important) {
+                while (!fits(policy, cost, true) && dropLowestPriority(Log.WARN))
+                    ;
+            }
+            if (!fits(policy, cost, important)) {
+                drop(record);
+                return false;
+            }
+            record.sequence = nextSequence++;
+            deques[priority].addLast(record);
+            size++;
+            chars += cost;
+            LoggingMetrics.onQueueDepth(size);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the oldest record, null if the queue is empty
+     */
+    @Nullable
+    public LogRecord poll() {
+        lock.lock();
+        try {
+            return size == 0 ? null : removeOldest();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for a record
+     *
+     * @param timeout negative to wait until a record is queued
+     * @param unit
+     * @return the oldest record, null if none was queued in time
+     * @throws InterruptedException
+     */
+    @Nullable
+    public LogRecord poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (timeout < 0) {
+                    notEmpty.await();
+                } else {
+                    if (nanos <= 0)
+                        return null;
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            }
+            return removeOldest();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for a record without taking it, for a writer that takes it with {@link #poll()} under a lock of its own
+     *
+     * @param timeout negative to wait until a record is queued
+     * @param unit
+     * @return true if a record is queued
+     * @throws InterruptedException
+     */
+    public boolean awaitRecord(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (timeout < 0) {
+                    notEmpty.await();
+                } else {
+                    if (nanos <= 0)
+                        return false;
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of records waiting to be written
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the characters held by the records waiting to be written (estimated for throwables)
+     */
+    public long getChars() {
+        lock.lock();
+        try {
+            return chars;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of records dropped so far
+     */
+    public long getDroppedCount() {
+        long total = 0;
+        for (int i = 0; i < droppedCounts.length(); i++)
+            total += droppedCounts.get(i);
+        return total;
+    }
+
+    /**
+     * @param priority
+     * @return the number of records of the priority dropped so far
+     */
+    public long getDroppedCount(int priority) {
+        return droppedCounts.get(clampPriority(priority));
+    }
+
+    /**
+     * Called by the writer after a record, to know whether a "records dropped" line is due
+     *
+     * @return the records dropped since the last report once the queue is back to half its limits, else 0
+     */
+    public long takeDroppedCountToReport() {
+        if (droppedToReport.get() == 0)
+            return 0;
+        OverflowPolicy policy = overflowPolicy;
+        lock.lock();
+        try {
+            if (size > policy.getMaxRecords() / 2 || chars > policy.getMaxChars() / 2)
+                return 0;
+        } finally {
+            lock.unlock();
+        }
+        return droppedToReport.getAndSet(0);
+    }
+
+    /**
+     * @param count
+     * @return the line written for dropped records
+     */
+    public static String createDroppedMessage(long count) {
+        return count + " records dropped, the log queue was full";
+    }
+
+    private boolean fits(OverflowPolicy policy, int cost, boolean important) {
+        int maxRecords = policy.getMaxRecords();
+        long maxChars = policy.getMaxChars();
+        if (important) {
+            maxRecords += Math.max(16, maxRecords / 8);
+            maxChars += maxChars / 8;
+        }
+        return size < maxRecords && chars + cost <= maxChars;
+    }
+
+    private void awaitRoom(OverflowPolicy policy, int cost) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(policy.getBlockTimeoutMillis());
+        try {
+            while (!fits(policy, cost, false) && nanos > 0)
+                nanos = notFull.awaitNanos(nanos);
+        } catch (InterruptedException exception) {
+            // give up waiting, the record is dropped if there is still no room
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drop the oldest record of a priority up to maxPriority
+     */
+    private boolean dropOldest(int maxPriority) {
+        LogRecord oldest = null;
+        for (int priority = 0; priority <= maxPriority; priority++) {
+            LogRecord head = deques[priority].peekFirst();
+            if (head != null && (oldest == null || head.sequence < oldest.sequence))
+                oldest = head;
+        }
+        if (oldest == null)
+            return false;
+        drop(remove(clampPriority(oldest.priority)));
+        return true;
+    }
+
+    /**
+     * Drop the oldest record of the lowest priority present, up to maxPriority
+     */
+    private boolean dropLowestPriority(int maxPriority) {
+        for (int priority = 0; priority <= maxPriority; priority++) {
+            if (!deques[priority].isEmpty()) {
+                drop(remove(priority));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private LogRecord removeOldest() {
+        int oldestPriority = -1;
+        long oldestSequence = Long.MAX_VALUE;
+        for (int priority = 0; priority < deques.length; priority++) {
+            LogRecord head = deques[priority].peekFirst();
+            if (head != null && head.sequence < oldestSequence) {
+                oldestSequence = head.sequence;
+                oldestPriority = priority;
+            }
+        }
+        return remove(oldestPriority);
+    }
+
+    private LogRecord remove(int priority) {
+        LogRecord record = deques[priority].pollFirst();
+        size--;
+        chars -= cost(record);
+        LoggingMetrics.onQueueDepth(size);
+        notFull.signal();
+        return record;
+    }
+
+    private void drop(LogRecord record) {
+        droppedCounts.incrementAndGet(clampPriority(record.priority));
+        droppedToReport.incrementAndGet();
+        LoggingMetrics.onDropped(LogRules.SINK_FILE);
+        record.recycle();
+    }
+
+    private static void truncateIfHuge(LogRecord record, OverflowPolicy policy) {
+        long maxMessageChars = policy.getMaxChars() / 4;
+        if (record.message != null && record.message.length() > maxMessageChars)
+            record.message = record.message.substring(0, (int) Math.max(0, maxMessageChars - TRUNCATED.length())) + TRUNCATED;
+    }
+
+    private static int cost(LogRecord record) {
+        int cost = RECORD_CHARS;
+        if (record.tag != null)
+            cost += record.tag.length();
+        if (record.message != null)
+            cost += record.message.length();
+        if (record.throwable != null)
+            cost += THROWABLE_CHARS;
+        return cost;
+    }
+
+    private static int clampPriority(int priority) {
+        return Math.max(0, Math.min(Log.ASSERT, priority));
+    }
+}
@@ -0,0 +1,199 @@
+package cc.soham.timberutils.output.file;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import cc.soham.timberutils.output.crashreporting.BreadcrumbBuffer;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * A default {@link Thread.UncaughtExceptionHandler} that saves the last lines before a crash
+ * - writes what is still queued for the log file (by the {@link TimberService} or the {@link AsyncLogWriter}),
+ * including the "repeated N times" line of the {@link FileSink}, to the current segment
+ * - then writes the fatal throwable with its full stack trace and syncs the segment to the storage device
+ * - reports what is waiting in the {@link BreadcrumbBuffer} of the crash reporter, if set, so that the
+ * breadcrumbs are with the crash reporter before it sees the throwable
+ * - then hands the throwable to the handler that was installed before
+ * All of this runs on a thread of its own that is given at most the timeout, so that a stuck writer can
+ * never keep the process from dying: whatever is not written by then is lost (and counted in the file if
+ * there is still time for it)
+ */
+public class CrashLogHandler implements Thread.UncaughtExceptionHandler {
+    public static final String THREAD_NAME = "TimberUtils-CrashLogHandler";
+    public static final long DEFAULT_TIMEOUT_MILLIS = 500;
+
+    private final Context context;
+    private final Thread.UncaughtExceptionHandler previousHandler;
+    private volatile long timeoutMillis;
+    private volatile FileSink fileSink;
+    private volatile boolean saveLogFile = true;
+    private volatile BreadcrumbBuffer breadcrumbBuffer;
+    // false once uninstalled while another handler still chains to this one
+    private volatile boolean enabled = true;
+
+    CrashLogHandler(@NonNull final Context context, @Nullable Thread.UncaughtExceptionHandler previousHandler, long timeoutMillis) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.previousHandler = previousHandler;
+        setTimeoutMillis(timeoutMillis);
+    }
+
+    /**
+     * Install a CrashLogHandler as the default handler, chained to the current one
+     * If one is installed already it is reused with the new timeout
+     *
+     * @param context
+     * @param timeoutMillis e.g. {@link #DEFAULT_TIMEOUT_MILLIS}
+     * @return the installed handler
+     */
+    public static synchronized CrashLogHandler install(@NonNull final Context context, long timeoutMillis) {
+        Thread.UncaughtExceptionHandler current = Thread.getDefaultUncaughtExceptionHandler();
+        if (current instanceof CrashLogHandler) {
+            CrashLogHandler handler = (CrashLogHandler) current;
+            handler.setTimeoutMillis(timeoutMillis);
+            handler.enabled = true;
+            return handler;
+        }
+        CrashLogHandler handler = new CrashLogHandler(context, current, timeoutMillis);
+        Thread.setDefaultUncaughtExceptionHandler(handler);
+        return handler;
+    }
+
+    /**
+     * Restore the handler that was installed before, or only disable the CrashLogHandler if another
+     * handler was installed on top of it since
+     *
+     * @param handler the handler returned by {@link #install(Context, long)}
+     */
+    public static synchronized void uninstall(@NonNull CrashLogHandler handler) {
+        handler.enabled = false;
+        if (Thread.getDefaultUncaughtExceptionHandler() == handler)
+            Thread.setDefaultUncaughtExceptionHandler(handler.previousHandler);
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        if (timeoutMillis <= 0)
+            throw new IllegalArgumentException("The timeout must be positive");
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public FileSink getFileSink() {
+        return fileSink;
+    }
+
+    /**
+     * @param fileSink the sink whose suppressed repeats are written out on a crash (OPTIONAL)
+     */
+    public void setFileSink(@Nullable FileSink fileSink) {
+        this.fileSink = fileSink;
+    }
+
+    public boolean isSaveLogFile() {
+        return saveLogFile;
+    }
+
+    /**
+     * @param saveLogFile false to leave the log file alone on a crash, e.g. when only breadcrumbs are saved
+     */
+    public void setSaveLogFile(boolean saveLogFile) {
+        this.saveLogFile = saveLogFile;
+    }
+
+    public BreadcrumbBuffer getBreadcrumbBuffer() {
+        return breadcrumbBuffer;
+    }
+
+    /**
+     * @param breadcrumbBuffer the buffer reported to its crash reporter on a crash (OPTIONAL)
+     */
+    public void setBreadcrumbBuffer(@Nullable BreadcrumbBuffer breadcrumbBuffer) {
+        this.breadcrumbBuffer = breadcrumbBuffer;
+    }
+
+    @Override
+    public void uncaughtException(Thread thread, Throwable throwable) {
+        try {
+            if (enabled)
+                writeCrash(thread, throwable);
+        } catch (Throwable exception) {
+            exception.printStackTrace();
+        } finally {
+            if (previousHandler != null)
+                previousHandler.uncaughtException(thread, throwable);
+        }
+    }
+
+    /**
+     * Report the breadcrumbs, drain, write and sync on a separate thread, waiting for it no longer than the timeout
+     *
+     * @param thread    the thread that crashed
+     * @param throwable
+     * @throws InterruptedException
+     */
+    private void writeCrash(final Thread thread, final Throwable throwable) throws InterruptedException {
+        final long timeoutMillis = this.timeoutMillis;
+        final long start = System.nanoTime();
+        // a quarter of the time is kept for the fatal throwable and the sync
+        final long drainDeadline = start + timeoutMillis * 1000000L * 3 / 4;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                BreadcrumbBuffer buffer = breadcrumbBuffer;
+                if (buffer != null) {
+                    try {
+                        buffer.flush();
+                    } catch (Exception exception) {
+                        exception.printStackTrace();
+                    }
+                }
+                if (!saveLogFile)
+                    return;
+                try {
+                    FileSink sink = fileSink;
+                    if (sink != null)
+                        sink.flushSuppressed();
+                    int remaining = AsyncLogWriter.drainQueued(drainDeadline) + TimberService.drainQueued(context, drainDeadline);
+                    FileWriterWrapper fileWriterWrapper = FileWriterWrapper.getFileWriterWrapper(context);
+                    if (remaining > 0)
+                        LogFileWriter.write(context, fileWriterWrapper, System.currentTimeMillis(), Log.WARN, LogFileWriter.TAG, createUnwrittenMessage(remaining), null);
+                    LogFileWriter.write(context, fileWriterWrapper, System.currentTimeMillis(), Log.ASSERT, LogFileWriter.TAG, createFatalMessage(thread, throwable), null);
+                    fileWriterWrapper.sync();
+                } catch (Exception exception) {
+                    exception.printStackTrace();
+                }
+            }
+        }, THREAD_NAME);
+        writer.setDaemon(true);
+        writer.start();
+        writer.join(timeoutMillis);
+    }
+
+    /**
+     * @param count
+     * @return the line written for records still queued when the time ran out
+     */
+    static String createUnwrittenMessage(int count) {
+        return count + " records could not be written before the crash";
+    }
+
+    /**
+     * @param thread
+     * @param throwable
+     * @return the line written for the fatal throwable, with its full stack trace
+     */
+    static String createFatalMessage(Thread thread, Throwable throwable) {
+        StringWriter stringWriter = new StringWriter(1024);
+        stringWriter.append("FATAL EXCEPTION: ").append(thread.getName()).append('\n');
+        PrintWriter printWriter = new PrintWriter(stringWriter);
+        throwable.printStackTrace(printWriter);
+        printWriter.flush();
+        return stringWriter.toString();
+    }
+}
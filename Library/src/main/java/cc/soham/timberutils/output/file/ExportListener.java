@@ -0,0 +1,23 @@
+package cc.soham.timberutils.output.file;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Callback for exports started through {@link LogExporter#exportAsync(android.content.Context, ExportListener)}
+ * Called on the export thread
+ */
+public interface ExportListener {
+    /**
+     * The archive has been written completely
+     *
+     * @param exportResult
+     */
+    void onExportFinished(@NonNull ExportResult exportResult);
+
+    /**
+     * The archive could not be written, no partial archive is left behind
+     *
+     * @param exception
+     */
+    void onExportFailed(@NonNull Exception exception);
+}
@@ -0,0 +1,86 @@
+package cc.soham.timberutils.output.file;
+
+import java.io.File;
+
+/**
+ * The outcome of an export done by {@link LogExporter}
+ */
+public class ExportResult {
+    private final File archive;
+    private final int segmentCount;
+    private final int missingSegmentCount;
+    private final long sourceBytes;
+    private final long archiveBytes;
+    private final long elapsedMillis;
+
+    ExportResult(File archive, int segmentCount, int missingSegmentCount, long sourceBytes, long archiveBytes, long elapsedMillis) {
+        this.archive = archive;
+        this.segmentCount = segmentCount;
+        this.missingSegmentCount = missingSegmentCount;
+        this.sourceBytes = sourceBytes;
+        this.archiveBytes = archiveBytes;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return the archive that was written, null if it was streamed to an output stream
+     */
+    public File getArchive() {
+        return archive;
+    }
+
+    /**
+     * @return the absolute path of the archive, null if it was streamed to an output stream
+     */
+    public String getPath() {
+        return archive != null ? archive.getAbsolutePath() : null;
+    }
+
+    /**
+     * @return the number of segments written to the archive (read, for an export filtered by a query)
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return the number of segments of the snapshot that were deleted (by the rotation budget) before
+     * they could be read
+     */
+    public int getMissingSegmentCount() {
+        return missingSegmentCount;
+    }
+
+    /**
+     * @return the size of the segments read
+     */
+    public long getSourceBytes() {
+        return sourceBytes;
+    }
+
+    /**
+     * @return the size of the archive
+     */
+    public long getArchiveBytes() {
+        return archiveBytes;
+    }
+
+    /**
+     * @return the time taken from sealing the active segment until the archive was complete
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportResult{" +
+                "path=" + getPath() +
+                ", segmentCount=" + segmentCount +
+                ", missingSegmentCount=" + missingSegmentCount +
+                ", sourceBytes=" + sourceBytes +
+                ", archiveBytes=" + archiveBytes +
+                ", elapsedMillis=" + elapsedMillis +
+                '}';
+    }
+}
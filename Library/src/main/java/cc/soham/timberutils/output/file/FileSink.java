@@ -0,0 +1,172 @@
+package cc.soham.timberutils.output.file;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import cc.soham.timberutils.callsite.CallSite;
+import cc.soham.timberutils.callsite.CallSiteTagResolver;
+import cc.soham.timberutils.filter.LogRules;
+import cc.soham.timberutils.filter.LogStormSuppressor;
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.record.LogEntry;
+import cc.soham.timberutils.record.LogFields;
+import cc.soham.timberutils.sink.LogSink;
+import cc.soham.timberutils.structured.StructuredLog;
+
+/**
+ * {@link LogSink} that outputs to a file via the {@link TimberService} ({@link FileTimberTree#MODE_SERVICE})
+ * or the in-process {@link AsyncLogWriter} ({@link FileTimberTree#MODE_ASYNC})
+ * Tags are written with the line number
+ * An optional {@link LogStormSuppressor} collapses repeats and rate limits tags before anything is queued
+ * The {@link LogFields} of {@link StructuredLog} statements are queued with the record, as they are
+ */
+public class FileSink implements LogSink {
+    // the sinks with a LogStormSuppressor, flushed by LogExporter before it seals the segment
+    private static final Set<FileSink> suppressingSinks = Collections.newSetFromMap(new WeakHashMap<FileSink, Boolean>());
+
+    private final int mode;
+    // only set in MODE_ASYNC
+    private final AsyncLogWriter asyncLogWriter;
+    /**
+     * we have to keep a reference to the application context so that we can launch the service which
+     * writes to the file
+     */
+    private WeakReference<Context> contextWeakReference;
+    private volatile LogStormSuppressor stormSuppressor;
+    private final LogStormSuppressor.FieldsEmitter emitter = new LogStormSuppressor.FieldsEmitter() {
+        @Override
+        public void emit(long timestamp, int priority, String tag, String message, Throwable t) {
+            write(timestamp, priority, tag, message, t, null);
+        }
+
+        @Override
+        public void emit(long timestamp, int priority, String tag, String message, Throwable t, LogFields fields) {
+            write(timestamp, priority, tag, message, t, fields);
+        }
+    };
+
+    public FileSink(@NonNull final Context context, int mode) {
+        setContext(context);
+        this.mode = mode;
+        this.asyncLogWriter = mode == FileTimberTree.MODE_ASYNC ? AsyncLogWriter.getAsyncLogWriter(context) : null;
+    }
+
+    @Override
+    public void log(@NonNull LogEntry logEntry) {
+        log(logEntry.timestamp, logEntry.priority, logEntry.tagWithLineNumber, logEntry.tag, logEntry.message, logEntry.throwable,
+                logEntry.fields);
+    }
+
+    /**
+     * The fields of a {@link StructuredLog} statement are picked up from the calling thread
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     */
+    public void log(long timestamp, int priority, String tag, String message, Throwable t) {
+        CallSite callSite = CallSiteTagResolver.getResolvedCallSite();
+        log(timestamp, priority, tag, callSite == null ? null : callSite.getTag(), message, t, StructuredLog.getCurrentFields());
+    }
+
+    /**
+     * @param timestamp
+     * @param priority
+     * @param tag       the tag written, with the line number
+     * @param rateKey   the tag rate limits apply to (OPTIONAL)
+     * @param message
+     * @param t
+     * @param fields    (OPTIONAL)
+     */
+    private void log(long timestamp, int priority, String tag, @Nullable String rateKey, String message, Throwable t,
+                     @Nullable LogFields fields) {
+        LoggingMetrics.onAccepted(LogRules.SINK_FILE);
+        LogStormSuppressor suppressor = stormSuppressor;
+        if (suppressor == null)
+            write(timestamp, priority, tag, message, t, fields);
+        else if (!suppressor.log(timestamp, priority, tag, rateKey, message, t, fields, emitter))
+            LoggingMetrics.onSuppressed(LogRules.SINK_FILE);
+    }
+
+    private void write(long timestamp, int priority, String tag, String message, Throwable t, LogFields fields) {
+        try {
+            if (asyncLogWriter != null) {
+                asyncLogWriter.log(timestamp, priority, tag, message, t, fields);
+                return;
+            }
+            Context context = getContext();
+            if (context != null)
+                TimberService.log(context, timestamp, priority, tag, message, t, fields);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the "repeated N times" line of a run of repeats still in progress and the number of records
+     * dropped for tags that went quiet
+     */
+    public void flushSuppressed() {
+        LogStormSuppressor suppressor = stormSuppressor;
+        if (suppressor != null)
+            suppressor.flush(emitter);
+    }
+
+    /**
+     * {@link #flushSuppressed()} on every sink with a {@link LogStormSuppressor}
+     */
+    static void flushAllSuppressed() {
+        List<FileSink> sinks;
+        synchronized (suppressingSinks) {
+            sinks = new ArrayList<>(suppressingSinks);
+        }
+        for (FileSink sink : sinks) {
+            sink.flushSuppressed();
+        }
+    }
+
+    public LogStormSuppressor getStormSuppressor() {
+        return stormSuppressor;
+    }
+
+    /**
+     * @param stormSuppressor null to write every record
+     */
+    public void setStormSuppressor(@Nullable LogStormSuppressor stormSuppressor) {
+        this.stormSuppressor = stormSuppressor;
+        synchronized (suppressingSinks) {
+            if (stormSuppressor == null)
+                suppressingSinks.remove(this);
+            else
+                suppressingSinks.add(this);
+        }
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public Context getContext() {
+        return contextWeakReference == null ? null : contextWeakReference.get();
+    }
+
+    public void setContext(@NonNull Context context) {
+        if (context == null)
+            throw new IllegalArgumentException("Context is null when setting Context in TimberWrapper");
+        if (contextWeakReference != null) {
+            contextWeakReference.clear();
+            contextWeakReference = null;
+        }
+        this.contextWeakReference = new WeakReference<>(context);
+    }
+}
@@ -2,58 +2,87 @@ package cc.soham.timberutils.output.file;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-import java.lang.ref.WeakReference;
-
-import timber.log.Timber;
+import cc.soham.timberutils.callsite.CallSiteTimberTree;
+import cc.soham.timberutils.filter.LogRules;
+import cc.soham.timberutils.filter.LogStormSuppressor;
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.record.LogEntry;
 
 /**
  * Created by sohammondal on 17/08/16.
  * Our custom TimberTree that lets us output to a file via an {@link android.app.IntentService}
- * like {@link TimberService}
+ * like {@link TimberService} ({@link #MODE_SERVICE}) or via the in-process {@link AsyncLogWriter}
+ * ({@link #MODE_ASYNC})
+ * Writes through {@link FileSink}
  */
-public class FileTimberTree extends Timber.DebugTree {
-    /**
-     * we have to keep a reference to the application context so that we can launch the service which
-     * writes to the file
-     */
-    private WeakReference<Context> contextWeakReference;
+public class FileTimberTree extends CallSiteTimberTree {
+    // every log statement is sent to the TimberService as an Intent
+    public static final int MODE_SERVICE = 0;
+    // every log statement is queued to the AsyncLogWriter, TimberService is only used for zipping
+    public static final int MODE_ASYNC = 1;
+
+    private final FileSink fileSink;
 
     public FileTimberTree(final Context context) {
-        setContext(context);
+        this(context, MODE_SERVICE);
+    }
+
+    public FileTimberTree(final Context context, int mode) {
+        // tags include the line number
+        super(true);
+        this.fileSink = new FileSink(context, mode);
     }
 
     /**
-     * Overriden so that we can add the line number to the logs!
-     *
-     * @return
+     * Filtered through the current {@link LogRules}
      */
     @Override
-    protected String createStackElementTag(StackTraceElement element) {
-        return super.createStackElementTag(element) + ":" + element.getLineNumber();
+    protected boolean isLoggable(String tag, int priority) {
+        if (LogRules.getCurrent().isLoggable(LogRules.SINK_FILE, tag, priority))
+            return true;
+        LoggingMetrics.onFiltered(LogRules.SINK_FILE);
+        return false;
     }
 
     @Override
-    protected void log(int priority, String tag, String message, Throwable t) {
-        try {
-            if (contextWeakReference != null && contextWeakReference.get() != null)
-                TimberService.log(contextWeakReference.get(), priority, System.currentTimeMillis() + ", " + tag, message, t);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    protected void onLog(int priority, String tag, String message, Throwable t) {
+        fileSink.log(System.currentTimeMillis(), priority, tag, message, t);
+    }
+
+    @Override
+    protected void onLog(@NonNull LogEntry logEntry) {
+        fileSink.log(logEntry);
+    }
+
+    /**
+     * @return the {@link FileSink} this tree writes through
+     */
+    public FileSink getFileSink() {
+        return fileSink;
+    }
+
+    public LogStormSuppressor getStormSuppressor() {
+        return fileSink.getStormSuppressor();
+    }
+
+    /**
+     * @param stormSuppressor null to write every record
+     */
+    public void setStormSuppressor(@Nullable LogStormSuppressor stormSuppressor) {
+        fileSink.setStormSuppressor(stormSuppressor);
+    }
+
+    public int getMode() {
+        return fileSink.getMode();
     }
 
     public Context getContext() {
-        return contextWeakReference == null ? null : contextWeakReference.get();
+        return fileSink.getContext();
     }
 
     public void setContext(@NonNull Context context) {
-        if (context == null)
-            throw new IllegalArgumentException("Context is null when setting Context in TimberWrapper");
-        if (contextWeakReference != null) {
-            contextWeakReference.clear();
-            contextWeakReference = null;
-        }
-        this.contextWeakReference = new WeakReference<>(context);
+        fileSink.setContext(context);
     }
 }
@@ -2,22 +2,121 @@ package cc.soham.timberutils.output.file;
 
 import android.content.Context;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.record.LogFields;
+import cc.soham.timberutils.reporting.BinaryRecordEncoder;
+import cc.soham.timberutils.reporting.Reporting;
+import cc.soham.timberutils.reporting.StackTraceFormatter;
+import cc.soham.timberutils.reporting.StackTracePolicy;
 
 /**
  * Created by sohammondal on 20/08/16.
  * A wrapper on {@link FileWriter} to enable:
  * - management of a singleton {@link FileWriterWrapper}
  * - lifecycle management of {@link FileWriter}
+ * - group commit of lines as per the {@link FlushPolicy}
+ * - rotation of the log file and the disk budget of the log folder as per the {@link RotationPolicy}
+ * - compression of sealed segments in the background, see {@link SegmentCompressor}
+ * - syncing the segment to the storage device on demand ({@link #sync()}), e.g. before the process dies
+ * - writing records as text lines ({@link #FORMAT_TEXT}) or in the compact binary format ({@link #FORMAT_BINARY},
+ * see {@link cc.soham.timberutils.reporting.BinaryRecordFormat}), a segment only ever holds one format
+ * - writing the stack traces of throwables after their record as per the {@link StackTracePolicy}, deduplicated
+ * per segment (see {@link StackTraceFormatter})
+ * - keeping a {@link SegmentIndex} of every segment, saved next to it when it is closed, so that
+ * {@link LogReader} can seek to the records a {@link LogQuery} asks for
+ * Subclasses (like {@link MappedFileWriterWrapper}) can replace the underlying writer by overriding
+ * {@link #openWriter(File)}, {@link #writeLine(char[], int)}, {@link #writeBytes(byte[], int, int)},
+ * {@link #flushWriter()}, {@link #syncWriter()} and {@link #closeWriter()}
  */
 public class FileWriterWrapper {
+    // writes through a java.io.FileWriter
+    public static final int WRITER_TYPE_FILE = 0;
+    // appends to a memory mapped segment, see MappedFileWriterWrapper
+    public static final int WRITER_TYPE_MAPPED = 1;
+    // records are written as text lines through Reporting
+    public static final int FORMAT_TEXT = 0;
+    // records are written with the BinaryRecordEncoder
+    public static final int FORMAT_BINARY = 1;
+    // suffix of segments written in FORMAT_BINARY
+    public static final String BINARY_SUFFIX = ".blog";
+    // line buffers larger than this (long stack traces) are not kept around after use
+    private static final int MAX_REUSED_LINE_CAPACITY = 16 * 1024;
+
     public static FileWriterWrapper fileWriterWrapper;
+    /**
+     * The type of writer created by {@link #getFileWriterWrapper(Context)}
+     */
+    private static int writerType = WRITER_TYPE_FILE;
+    /**
+     * The policy deciding when buffered lines are flushed to disk
+     */
+    private static volatile FlushPolicy flushPolicy = FlushPolicy.FLUSH_EVERY_RECORD;
+    /**
+     * The policy deciding when the log file is rotated and old ones are deleted
+     */
+    private static volatile RotationPolicy rotationPolicy = RotationPolicy.NONE;
+    /**
+     * The format used for segments opened from now on
+     */
+    private static volatile int recordFormat = FORMAT_TEXT;
+    /**
+     * The {@link Deflater} level sealed segments are compressed with, {@link Deflater#NO_COMPRESSION}
+     * leaves them as they are
+     */
+    private static volatile int compressionLevel = Deflater.NO_COMPRESSION;
+    /**
+     * How the stack traces of throwables are written
+     */
+    private static volatile StackTracePolicy stackTracePolicy = StackTracePolicy.NONE;
+    /**
+     * The number of records per block of the {@link SegmentIndex} of segments opened from now on,
+     * 0 for no index
+     */
+    private static volatile int indexInterval = 0;
     /**
      * The object responsbile for writing to disk
      */
     private FileWriter fileWriter;
+    // the file of the open segment, in both formats, kept for syncing
+    private FileOutputStream segmentStream;
+    // used instead of the FileWriter for FORMAT_BINARY segments
+    private OutputStream outputStream;
+    private final BinaryRecordEncoder binaryRecordEncoder = new BinaryRecordEncoder();
+    private final StackTraceFormatter stackTraceFormatter = new StackTraceFormatter();
+    // the trace written after a binary record
+    private StringBuilder traceBuilder = new StringBuilder(256);
+    // room assumed for a trace when deciding whether a mapped segment has to be rotated first
+    private static final int TRACE_ESTIMATE_BYTES = 4096;
+    private int segmentFormat = FORMAT_TEXT;
+    // the index of the open segment, null if indexing is off
+    private SegmentIndex segmentIndex;
+    // text lines are formatted and copied into these, reused for every line
+    private StringBuilder lineBuilder = new StringBuilder(256);
+    private char[] lineChars = new char[256];
+
+    // lines written since the last flush
+    private int pendingRecords;
+    private long pendingBytes;
+    private long firstPendingTime;
+    // the log folder and the file (segment) currently written to
+    private File logFolder;
+    private File currentSegment;
+    // the process this writer names its segments after, see LogProcess
+    private String processLabel = LogProcess.MAIN;
+    private long segmentBytes;
+    private long segmentOpenTime;
+    // counters
+    private long writtenRecords;
+    private long flushCount;
+    private long rotationCount;
 
     /**
      * Singleton implementation of FileWriterWrapper
@@ -25,36 +124,519 @@ public class FileWriterWrapper {
      * @param context
      * @return
      */
-    public static FileWriterWrapper getFileWriterWrapper(final Context context) {
+    public static synchronized FileWriterWrapper getFileWriterWrapper(final Context context) {
         if (fileWriterWrapper == null) {
-            fileWriterWrapper = new FileWriterWrapper();
+            fileWriterWrapper = writerType == WRITER_TYPE_MAPPED ? new MappedFileWriterWrapper() : new FileWriterWrapper();
             fileWriterWrapper.initializeFileWriterIfNotInitialized(context);
         }
         return fileWriterWrapper;
     }
 
+    public static synchronized int getWriterType() {
+        return writerType;
+    }
+
+    /**
+     * Sets the type of writer returned by {@link #getFileWriterWrapper(Context)}
+     * If the current singleton is of a different type it is flushed and closed, the next call to
+     * {@link #getFileWriterWrapper(Context)} creates a writer of the new type
+     *
+     * @param type {@link #WRITER_TYPE_FILE} or {@link #WRITER_TYPE_MAPPED}
+     */
+    public static synchronized void setWriterType(int type) {
+        if (type != WRITER_TYPE_FILE && type != WRITER_TYPE_MAPPED)
+            throw new IllegalArgumentException("Unknown writer type: " + type);
+        writerType = type;
+        if (fileWriterWrapper != null && fileWriterWrapper.getType() != type) {
+            try {
+                fileWriterWrapper.flushAndCloseFileWriter();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            fileWriterWrapper = null;
+        }
+    }
+
+    public static FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    public static void setFlushPolicy(FlushPolicy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException("FlushPolicy cannot be null");
+        flushPolicy = policy;
+    }
+
+    public static RotationPolicy getRotationPolicy() {
+        return rotationPolicy;
+    }
+
+    public static void setRotationPolicy(RotationPolicy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException("RotationPolicy cannot be null");
+        rotationPolicy = policy;
+    }
+
+    public static int getRecordFormat() {
+        return recordFormat;
+    }
+
+    /**
+     * Sets the format of the records, takes effect from the next segment
+     *
+     * @param format {@link #FORMAT_TEXT} or {@link #FORMAT_BINARY}
+     */
+    public static void setRecordFormat(int format) {
+        if (format != FORMAT_TEXT && format != FORMAT_BINARY)
+            throw new IllegalArgumentException("Unknown record format: " + format);
+        recordFormat = format;
+    }
+
+    public static int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the level sealed segments are compressed with from now on
+     *
+     * @param level a {@link Deflater} level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION},
+     *              or {@link Deflater#NO_COMPRESSION} to keep sealed segments uncompressed
+     */
+    public static void setCompressionLevel(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Unknown compression level: " + level);
+        compressionLevel = level;
+    }
+
+    public static StackTracePolicy getStackTracePolicy() {
+        return stackTracePolicy;
+    }
+
+    /**
+     * Sets how the stack traces of throwables are written from now on
+     *
+     * @param policy e.g. {@link StackTracePolicy#defaults()}
+     */
+    public static void setStackTracePolicy(StackTracePolicy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException("StackTracePolicy cannot be null");
+        stackTracePolicy = policy;
+    }
+
+    public static int getIndexInterval() {
+        return indexInterval;
+    }
+
+    /**
+     * Sets the number of records per block of the {@link SegmentIndex}, takes effect from the next segment
+     *
+     * @param interval e.g. {@link SegmentIndex#DEFAULT_INTERVAL}, 0 to stop indexing
+     */
+    public static void setIndexInterval(int interval) {
+        if (interval < 0)
+            throw new IllegalArgumentException("The index interval cannot be negative");
+        indexInterval = interval;
+    }
+
+    /**
+     * @return {@link #WRITER_TYPE_FILE} for this implementation
+     */
+    public int getType() {
+        return WRITER_TYPE_FILE;
+    }
+
     /**
      * Get the stored {@link FileWriter} object
      *
      * @param context
-     * @return
+     * @return null if the segment is not written through a FileWriter ({@link #WRITER_TYPE_MAPPED},
+     * {@link #FORMAT_BINARY})
+     * @deprecated lines must go through {@link #write(Context, String, int)} or {@link #writeRecord}, so that
+     * the {@link FlushPolicy}, rotation and the segment index see them
      */
-    public FileWriter getFileWriter(final Context context) {
+    @Deprecated
+    public synchronized FileWriter getFileWriter(final Context context) {
         initializeFileWriterIfNotInitialized(context);
         return fileWriter;
     }
 
+    /**
+     * Write a line and flush if the {@link FlushPolicy} says so
+     *
+     * @param context
+     * @param line
+     * @param priority priority of the record the line belongs to
+     * @throws IOException
+     */
+    public synchronized void write(final Context context, String line, int priority) throws IOException {
+        long start = System.nanoTime();
+        ensureWriterOpen(context, line.length() * 3L + 8);
+        if (segmentFormat == FORMAT_BINARY) {
+            binaryRecordEncoder.encodeText(line);
+            writeBytes(binaryRecordEncoder.getBuffer(), 0, binaryRecordEncoder.getLength());
+            afterWrite(priority, binaryRecordEncoder.getLength());
+        } else {
+            int length = line.length();
+            line.getChars(0, length, ensureLineChars(length), 0);
+            writeLine(lineChars, length);
+            afterWrite(priority, (int) SegmentIndex.utf8Length(lineChars, length) + 1);
+            releaseLineBuffers(length);
+        }
+        LoggingMetrics.onWriteLatency(System.nanoTime() - start);
+    }
+
+    /**
+     * Write a log statement in the format of the current segment and flush if the {@link FlushPolicy} says so
+     * In {@link #FORMAT_BINARY} no String formatting is involved at all, in {@link #FORMAT_TEXT} the line is
+     * formatted into a reused buffer through the {@link cc.soham.timberutils.reporting.LogFormatter}
+     *
+     * @param context
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @throws IOException
+     */
+    public synchronized void writeRecord(final Context context, long timestamp, int priority, String tag, String message, Throwable t) throws IOException {
+        writeRecord(context, timestamp, priority, tag, message, t, null);
+    }
+
+    /**
+     * Same as {@link #writeRecord(Context, long, int, String, String, Throwable)} with the fields of a
+     * {@link cc.soham.timberutils.structured.StructuredLog} statement, typed values in {@link #FORMAT_BINARY},
+     * a {@link LogFields#LINE_PREFIX} line of JSON after the record in {@link #FORMAT_TEXT}
+     *
+     * @param context
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @param fields    (OPTIONAL)
+     * @throws IOException
+     */
+    public synchronized void writeRecord(final Context context, long timestamp, int priority, String tag, String message, Throwable t,
+                                         LogFields fields) throws IOException {
+        if (fields != null && fields.isEmpty())
+            fields = null;
+        long start = System.nanoTime();
+        StackTracePolicy tracePolicy = t == null ? StackTracePolicy.NONE : stackTracePolicy;
+        // the trace replaces the one Timber appended to the message
+        if (!tracePolicy.isNone())
+            message = StackTraceFormatter.stripTimberStackTrace(message, t);
+        // the text line is only known after formatting, it is checked separately below
+        long estimate = segmentFormat == FORMAT_BINARY ? (length(tag) + length(message) + (t == null ? 0 : length(t.getMessage()))) * 3L + 32
+                + (tracePolicy.isNone() ? 0 : TRACE_ESTIMATE_BYTES) + estimate(fields) : 0;
+        ensureWriterOpen(context, estimate);
+        if (segmentFormat == FORMAT_BINARY) {
+            indexRecord(timestamp, priority);
+            binaryRecordEncoder.encodeRecord(timestamp, priority, tag, message, t, fields);
+            writeBytes(binaryRecordEncoder.getBuffer(), 0, binaryRecordEncoder.getLength());
+            int bytes = binaryRecordEncoder.getLength();
+            // the trace follows as a plain line, read back right after the record
+            if (!tracePolicy.isNone()) {
+                traceBuilder.setLength(0);
+                stackTraceFormatter.append(traceBuilder, t, tracePolicy);
+                binaryRecordEncoder.encodeText(traceBuilder.toString());
+                writeBytes(binaryRecordEncoder.getBuffer(), 0, binaryRecordEncoder.getLength());
+                bytes += binaryRecordEncoder.getLength();
+                if (traceBuilder.length() > MAX_REUSED_LINE_CAPACITY)
+                    traceBuilder = new StringBuilder(256);
+            }
+            afterWrite(priority, bytes);
+        } else {
+            lineBuilder.setLength(0);
+            Reporting.format(lineBuilder, timestamp, priority, tag, message, t);
+            if (fields != null) {
+                lineBuilder.append('\n');
+                fields.appendLine(lineBuilder);
+            }
+            int traceStart = lineBuilder.length();
+            if (!tracePolicy.isNone()) {
+                lineBuilder.append('\n');
+                stackTraceFormatter.append(lineBuilder, t, tracePolicy);
+            }
+            if (shouldRotateBefore(lineBuilder.length() * 3L + 1)) {
+                rotateSegment();
+                // the new segment must not refer to a trace written in the previous one
+                if (!tracePolicy.isNone()) {
+                    lineBuilder.setLength(traceStart);
+                    lineBuilder.append('\n');
+                    stackTraceFormatter.append(lineBuilder, t, tracePolicy);
+                }
+            }
+            int length = lineBuilder.length();
+            lineBuilder.getChars(0, length, ensureLineChars(length), 0);
+            indexRecord(timestamp, priority);
+            writeLine(lineChars, length);
+            afterWrite(priority, (int) SegmentIndex.utf8Length(lineChars, length) + 1);
+            releaseLineBuffers(length);
+        }
+        LoggingMetrics.onWriteLatency(System.nanoTime() - start);
+    }
+
+    /**
+     * Open a segment if none is open, and rotate first if the writer cannot take the next entry
+     *
+     * @param context
+     * @param estimatedBytes upper bound of the bytes the next entry needs
+     * @throws IOException
+     */
+    private void ensureWriterOpen(final Context context, long estimatedBytes) throws IOException {
+        initializeFileWriterIfNotInitialized(context);
+        if (!isWriterOpen())
+            throw new IOException("Could not open a log file in " + LogFileWriter.getLogFolderPath(context));
+        if (estimatedBytes > 0 && shouldRotateBefore(estimatedBytes))
+            rotateSegment();
+    }
+
+    /**
+     * Bookkeeping after every entry, flushes and rotates as per the policies
+     *
+     * @param priority
+     * @param bytes
+     * @throws IOException
+     */
+    private void afterWrite(int priority, int bytes) throws IOException {
+        long now = System.currentTimeMillis();
+        if (pendingRecords == 0)
+            firstPendingTime = now;
+        pendingRecords++;
+        pendingBytes += bytes;
+        segmentBytes += bytes;
+        writtenRecords++;
+        LoggingMetrics.onWritten(bytes);
+        if (flushPolicy.shouldFlush(priority, pendingRecords, pendingBytes, firstPendingTime, now))
+            flush();
+        if (rotationPolicy.shouldRotate(segmentBytes, segmentOpenTime, now))
+            rotateSegment();
+    }
+
+    /**
+     * Add the record about to be written to the index, a new block of a binary segment starts with
+     * a fresh tag dictionary so that it can be decoded on its own
+     *
+     * @param timestamp
+     * @param priority
+     */
+    private void indexRecord(long timestamp, int priority) {
+        if (segmentIndex == null)
+            return;
+        if (segmentIndex.isBlockStart()) {
+            if (segmentFormat == FORMAT_BINARY) {
+                binaryRecordEncoder.resetTags();
+                segmentIndex.startBlock(segmentBytes, binaryRecordEncoder.getLastTimestamp());
+            } else {
+                segmentIndex.startBlock(segmentBytes, 0);
+            }
+        }
+        segmentIndex.onRecord(timestamp, priority);
+    }
+
+    private char[] ensureLineChars(int length) {
+        if (lineChars.length < length)
+            lineChars = new char[Math.max(lineChars.length * 2, length)];
+        return lineChars;
+    }
+
+    /**
+     * Drop buffers that grew for an unusually long line
+     *
+     * @param length
+     */
+    private void releaseLineBuffers(int length) {
+        if (length > MAX_REUSED_LINE_CAPACITY) {
+            lineBuilder = new StringBuilder(256);
+            lineChars = new char[256];
+        }
+    }
+
+    private static int length(String value) {
+        return value == null ? 4 : value.length();
+    }
+
+    /**
+     * @param fields (OPTIONAL)
+     * @return upper bound of the bytes the fields take in {@link #FORMAT_BINARY}
+     */
+    private static long estimate(LogFields fields) {
+        if (fields == null)
+            return 0;
+        long bytes = 10;
+        for (int i = 0; i < fields.size(); i++) {
+            // the key may need a tag entry of its own
+            bytes += length(fields.getKey(i)) * 3L + 32;
+            if (fields.getType(i) == LogFields.TYPE_STRING)
+                bytes += length(fields.getString(i)) * 3L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Seal the current segment, delete the oldest segments that do not fit the budget of the
+     * {@link RotationPolicy} and start a new segment, the sealed one is queued for compression if enabled
+     * Always called on the thread that writes (the {@link AsyncLogWriter} or {@link TimberService}),
+     * never on a thread that logs
+     *
+     * @throws IOException
+     */
+    protected synchronized void rotateSegment() throws IOException {
+        if (!isWriterOpen())
+            return;
+        File sealedSegment = currentSegment;
+        flush();
+        closeSegment();
+        rotationCount++;
+        openSegment(logFolder);
+        LogSegments.enforceBudget(logFolder, processLabel, currentSegment, rotationPolicy);
+        int level = compressionLevel;
+        if (level != Deflater.NO_COMPRESSION)
+            SegmentCompressor.compressAsync(sealedSegment, level);
+    }
+
+    /**
+     * Close the segment currently written to and continue in a new one, so that the closed segment
+     * can be exported while logging goes on
+     *
+     * @return the sealed segment, null if no segment was open
+     * @throws IOException
+     */
+    public synchronized File sealSegment() throws IOException {
+        if (!isWriterOpen())
+            return null;
+        File sealedSegment = currentSegment;
+        rotateSegment();
+        return sealedSegment;
+    }
+
+    /**
+     * Flush the pending lines if the time limit of the {@link FlushPolicy} has been reached
+     *
+     * @return how long until the next flush is due, -1 if nothing is pending
+     * @throws IOException
+     */
+    public synchronized long flushIfDue() throws IOException {
+        long millisUntilFlushDue = flushPolicy.getMillisUntilFlushDue(pendingRecords, firstPendingTime, System.currentTimeMillis());
+        if (millisUntilFlushDue == 0) {
+            flush();
+            return -1;
+        }
+        return millisUntilFlushDue;
+    }
+
+    /**
+     * Flush the contents of the {@link FileWriter} if anything is pending
+     */
+    public synchronized void flush() throws IOException {
+        if (isWriterOpen() && pendingRecords > 0) {
+            long start = System.nanoTime();
+            flushWriter();
+            flushCount++;
+            LoggingMetrics.onFlush(System.nanoTime() - start);
+        }
+        pendingRecords = 0;
+        pendingBytes = 0;
+    }
+
+    /**
+     * Flush the pending lines and wait until the segment is on the storage device (fsync)
+     * Much more expensive than {@link #flush()}, meant for the moments where the lines must survive
+     * the device losing power or the process being killed right after, like a crash
+     *
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        if (!isWriterOpen())
+            return;
+        flush();
+        syncWriter();
+    }
+
     /**
      * Flush the contents of the {@link FileWriter} and close the stream
      */
-    public void flushAndCloseFileWriter() throws IOException {
-        if (fileWriter != null) {
-            fileWriter.flush();
-            fileWriter.close();
-            fileWriter = null;
+    public synchronized void flushAndCloseFileWriter() throws IOException {
+        if (isWriterOpen()) {
+            flush();
+            closeSegment();
         }
     }
 
+    /**
+     * Close the open file and save its index next to it
+     *
+     * @throws IOException
+     */
+    private void closeSegment() throws IOException {
+        SegmentIndex closedIndex = segmentIndex;
+        segmentIndex = null;
+        closeWriter();
+        if (closedIndex != null) {
+            closedIndex.setEndOffset(segmentBytes);
+            try {
+                closedIndex.write(currentSegment);
+            } catch (IOException e) {
+                // the segment is read from the start instead
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return the number of lines written so far
+     */
+    public synchronized long getWrittenRecords() {
+        return writtenRecords;
+    }
+
+    /**
+     * @return the number of flushes done so far
+     */
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * @return the number of times the log file was rotated
+     */
+    public synchronized long getRotationCount() {
+        return rotationCount;
+    }
+
+    /**
+     * @return the file currently written to, null if none is open
+     */
+    public synchronized File getCurrentSegment() {
+        return isWriterOpen() ? currentSegment : null;
+    }
+
+    /**
+     * @return the bytes written to the file currently written to
+     */
+    public synchronized long getSegmentBytes() {
+        return isWriterOpen() ? segmentBytes : 0;
+    }
+
+    /**
+     * @return a snapshot of the index of the file currently written to, null if none is open or
+     * indexing is off
+     */
+    public synchronized SegmentIndex getSegmentIndex() {
+        if (!isWriterOpen() || segmentIndex == null)
+            return null;
+        SegmentIndex snapshot = segmentIndex.snapshot();
+        snapshot.setEndOffset(segmentBytes);
+        return snapshot;
+    }
+
+    /**
+     * @return the number of flushes saved compared to flushing after every line
+     */
+    public synchronized long getSavedFlushCount() {
+        return writtenRecords - flushCount;
+    }
+
     /**
      * Initialize the {@link FileWriter} object, involves:
      * - create the folder (default implementation)
@@ -62,17 +644,205 @@ public class FileWriterWrapper {
      *
      * @param context
      */
-    public void initializeFileWriterIfNotInitialized(Context context) {
-        if (fileWriter == null) {
+    public synchronized void initializeFileWriterIfNotInitialized(Context context) {
+        if (!isWriterOpen()) {
             try {
                 File tempLogDir = new File(LogFileWriter.getLogFolderPath(context));
                 if (!tempLogDir.exists())
                     tempLogDir.mkdir();
-                File file = File.createTempFile(LogFileWriter.FILENAME + "_" + System.currentTimeMillis(), null, tempLogDir);
-                fileWriter = new FileWriter(file, true);
+                boolean firstSegment = logFolder == null;
+                logFolder = tempLogDir;
+                processLabel = LogProcess.getLabel(context);
+                openSegment(tempLogDir);
+                // first file opened by this writer, clean up what earlier runs left behind
+                if (firstSegment) {
+                    int level = compressionLevel;
+                    // the processes that are not running first (e.g. no longer started by the app), their
+                    // segments go before those of this process when the folder is over the budget
+                    if (LogProcess.MAIN.equals(processLabel))
+                        cleanUpStoppedProcesses(tempLogDir, level);
+                    LogSegments.enforceBudget(tempLogDir, processLabel, currentSegment, rotationPolicy);
+                    if (level != Deflater.NO_COMPRESSION)
+                        SegmentCompressor.compressSealedSegmentsAsync(tempLogDir, processLabel, currentSegment, level);
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
+
+    /**
+     * Trim the segments of the processes that are not running to the budget and compress them, nothing
+     * else does once a process is no longer started
+     *
+     * @param logFolder
+     * @param level     the compression level, {@link Deflater#NO_COMPRESSION} to leave them uncompressed
+     */
+    private void cleanUpStoppedProcesses(File logFolder, int level) {
+        for (String stoppedLabel : LogSegments.listStoppedProcesses(logFolder)) {
+            LogSegments.enforceBudget(logFolder, stoppedLabel, null, rotationPolicy);
+            if (level != Deflater.NO_COMPRESSION)
+                SegmentCompressor.compressSealedSegmentsAsync(logFolder, stoppedLabel, null, level);
+        }
+    }
+
+    /**
+     * Open a new segment in the format currently set
+     *
+     * @param logFolder
+     * @throws IOException
+     */
+    private void openSegment(File logFolder) throws IOException {
+        segmentFormat = recordFormat;
+        openWriter(logFolder);
+    }
+
+    /**
+     * @return true if the open segment is written in {@link #FORMAT_BINARY}
+     */
+    protected boolean isBinarySegment() {
+        return segmentFormat == FORMAT_BINARY;
+    }
+
+    /**
+     * Create a new file in the log folder and open the writer on it
+     *
+     * @param logFolder
+     * @throws IOException
+     */
+    protected void openWriter(File logFolder) throws IOException {
+        File file = createSegmentFile(logFolder, isBinarySegment() ? BINARY_SUFFIX : null);
+        segmentStream = new FileOutputStream(file, true);
+        if (isBinarySegment())
+            outputStream = new BufferedOutputStream(segmentStream, 8 * 1024);
+        else
+            fileWriter = new FileWriter(segmentStream.getFD());
+        onSegmentOpened(file);
+    }
+
+    /**
+     * Create a new, empty segment named after the process of this writer
+     *
+     * @param logFolder
+     * @param suffix    null for the default ".tmp"
+     * @return
+     * @throws IOException
+     */
+    protected File createSegmentFile(File logFolder, String suffix) throws IOException {
+        return File.createTempFile(LogSegments.getSegmentPrefix(processLabel, LogProcess.getPid(), System.currentTimeMillis()), suffix, logFolder);
+    }
+
+    /**
+     * @return the label of the process this writer names its segments after, see {@link LogProcess}
+     */
+    public String getProcessLabel() {
+        return processLabel;
+    }
+
+    /**
+     * Must be called by {@link #openWriter(File)} once the new file is open
+     *
+     * @param segment
+     * @throws IOException
+     */
+    protected void onSegmentOpened(File segment) throws IOException {
+        currentSegment = segment;
+        segmentBytes = 0;
+        segmentOpenTime = System.currentTimeMillis();
+        stackTraceFormatter.reset();
+        int interval = indexInterval;
+        segmentIndex = interval > 0 ? new SegmentIndex(segmentFormat, interval) : null;
+        if (isBinarySegment()) {
+            binaryRecordEncoder.reset();
+            binaryRecordEncoder.encodeHeader();
+            writeBytes(binaryRecordEncoder.getBuffer(), 0, binaryRecordEncoder.getLength());
+            segmentBytes += binaryRecordEncoder.getLength();
+        }
+    }
+
+    /**
+     * @return true if a file is currently open for writing
+     */
+    protected boolean isWriterOpen() {
+        return fileWriter != null || outputStream != null;
+    }
+
+    /**
+     * Whether the segment has to be rotated before an entry of the given size is written, so that
+     * entries never span two segments
+     *
+     * @param estimatedBytes
+     * @return
+     */
+    protected boolean shouldRotateBefore(long estimatedBytes) {
+        return false;
+    }
+
+    /**
+     * Write an encoded binary entry to the open file
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    protected void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        outputStream.write(bytes, offset, length);
+    }
+
+    /**
+     * Write a single line followed by a newline to the open file
+     * The array is reused for the next line, it must not be held on to
+     *
+     * @param line
+     * @param length number of chars of the line, starting at 0
+     * @throws IOException
+     */
+    protected void writeLine(char[] line, int length) throws IOException {
+        fileWriter.write(line, 0, length);
+        fileWriter.write('\n');
+    }
+
+    /**
+     * Push buffered lines to the disk
+     *
+     * @throws IOException
+     */
+    protected void flushWriter() throws IOException {
+        if (fileWriter != null)
+            fileWriter.flush();
+        if (outputStream != null)
+            outputStream.flush();
+    }
+
+    /**
+     * Push lines already flushed through {@link #flushWriter()} to the storage device
+     *
+     * @throws IOException
+     */
+    protected void syncWriter() throws IOException {
+        if (segmentStream != null)
+            segmentStream.getFD().sync();
+    }
+
+    /**
+     * Close the open file, the next write opens a new one
+     *
+     * @throws IOException
+     */
+    protected void closeWriter() throws IOException {
+        try {
+            if (fileWriter != null)
+                fileWriter.close();
+            if (outputStream != null)
+                outputStream.close();
+            // already closed with the writer, but not if closing it failed
+            if (segmentStream != null)
+                segmentStream.close();
+        } finally {
+            fileWriter = null;
+            outputStream = null;
+            segmentStream = null;
+        }
+    }
 }
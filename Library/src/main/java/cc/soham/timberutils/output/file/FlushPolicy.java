@@ -0,0 +1,104 @@
+package cc.soham.timberutils.output.file;
+
+import android.util.Log;
+
+/**
+ * Decides when the {@link FileWriterWrapper} flushes the lines buffered in its {@link java.io.FileWriter}
+ * Lines are group-committed: a flush happens when any of the following is true
+ * - maxRecords records are pending
+ * - maxBytes characters are pending
+ * - the oldest pending record is older than maxIntervalMillis
+ * - the record has a priority of immediateFlushPriority or higher (ERROR by default)
+ * A limit of 0 disables that particular trigger
+ */
+public class FlushPolicy {
+    /**
+     * Flushes after every line (the behaviour before flush policies existed)
+     */
+    public static final FlushPolicy FLUSH_EVERY_RECORD = new FlushPolicy(1, 0, 0, Log.VERBOSE);
+
+    public static final int DEFAULT_MAX_RECORDS = 64;
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024;
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = 1000;
+
+    private final int maxRecords;
+    private final long maxBytes;
+    private final long maxIntervalMillis;
+    private final int immediateFlushPriority;
+
+    /**
+     * @param maxRecords             flush once this many records are pending (0 to disable)
+     * @param maxBytes               flush once this many characters are pending (0 to disable)
+     * @param maxIntervalMillis      flush once the oldest pending record is this old (0 to disable)
+     * @param immediateFlushPriority records of this priority or higher are flushed immediately
+     */
+    public FlushPolicy(int maxRecords, long maxBytes, long maxIntervalMillis, int immediateFlushPriority) {
+        if (maxRecords < 0 || maxBytes < 0 || maxIntervalMillis < 0)
+            throw new IllegalArgumentException("FlushPolicy limits cannot be negative");
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.immediateFlushPriority = immediateFlushPriority;
+    }
+
+    /**
+     * A group commit policy using the default limits, ERROR and ASSERT are flushed immediately
+     *
+     * @return
+     */
+    public static FlushPolicy groupCommit() {
+        return new FlushPolicy(DEFAULT_MAX_RECORDS, DEFAULT_MAX_BYTES, DEFAULT_MAX_INTERVAL_MILLIS, Log.ERROR);
+    }
+
+    /**
+     * Whether the pending records need to be flushed right after writing a record
+     *
+     * @param priority         priority of the record that was just written
+     * @param pendingRecords   records written since the last flush (including this one)
+     * @param pendingBytes     characters written since the last flush (including this one)
+     * @param firstPendingTime time at which the oldest pending record was written
+     * @param now
+     * @return
+     */
+    public boolean shouldFlush(int priority, int pendingRecords, long pendingBytes, long firstPendingTime, long now) {
+        if (pendingRecords <= 0)
+            return false;
+        if (priority >= immediateFlushPriority)
+            return true;
+        if (maxRecords > 0 && pendingRecords >= maxRecords)
+            return true;
+        if (maxBytes > 0 && pendingBytes >= maxBytes)
+            return true;
+        return maxIntervalMillis > 0 && now - firstPendingTime >= maxIntervalMillis;
+    }
+
+    /**
+     * How long the writer can wait before the pending records are due for a flush
+     *
+     * @param pendingRecords
+     * @param firstPendingTime
+     * @param now
+     * @return -1 if nothing is pending or there is no time limit, 0 if a flush is already due
+     */
+    public long getMillisUntilFlushDue(int pendingRecords, long firstPendingTime, long now) {
+        if (pendingRecords <= 0 || maxIntervalMillis <= 0)
+            return -1;
+        return Math.max(0, firstPendingTime + maxIntervalMillis - now);
+    }
+
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxIntervalMillis() {
+        return maxIntervalMillis;
+    }
+
+    public int getImmediateFlushPriority() {
+        return immediateFlushPriority;
+    }
+}
@@ -0,0 +1,165 @@
+package cc.soham.timberutils.output.file;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import cc.soham.timberutils.record.LogFields;
+
+/**
+ * Encodes the records read back by the {@link LogReader} as JSON Lines, one object per record:
+ * {"timestamp":1500000000000,"priority":4,"tag":"Main:42","message":"...","fields":{"orderId":42}}
+ * - timestamp and priority are JSON numbers, the fields keep the types they were logged with
+ * (see {@link LogFields#appendJson(StringBuilder)}), "fields" is left out for records without any
+ * - the lines that follow a record (stack traces, multi line messages) are part of the message
+ * - records of binary segments come with their tag, message and {@link LogFields} as decoded, only records
+ * of text segments are split up again
+ * - streams record by record through a reused buffer, nothing is held beyond the current record
+ * Not thread safe, one instance per export
+ */
+public class JsonLinesEncoder {
+    private static final String SEPARATOR = ", ";
+    private static final String NULL_TAG = "null";
+    // buffers that grew beyond this for an unusually long record are shrunk again
+    private static final int MAX_REUSED_CAPACITY = 16 * 1024;
+
+    private final StringBuilder builder = new StringBuilder(256);
+    private final StringBuilder message = new StringBuilder(256);
+
+    /**
+     * Write a record as a line of JSON
+     *
+     * @param timestamp
+     * @param priority
+     * @param record    the record in the text format, as handed out by {@link QueryListener#onRecord(long, int, String)}
+     * @param writer
+     * @throws IOException
+     */
+    public void encode(long timestamp, int priority, @NonNull String record, @NonNull Writer writer) throws IOException {
+        builder.setLength(0);
+        append(builder, timestamp, priority, record);
+        writeLine(writer);
+    }
+
+    /**
+     * Write a record decoded from a binary segment as a line of JSON
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag       (OPTIONAL)
+     * @param message   the message with the lines that follow it
+     * @param fields    (OPTIONAL)
+     * @param writer
+     * @throws IOException
+     */
+    public void encode(long timestamp, int priority, @Nullable String tag, @NonNull CharSequence message, @Nullable LogFields fields,
+                       @NonNull Writer writer) throws IOException {
+        builder.setLength(0);
+        append(builder, timestamp, priority, tag, message, fields);
+        writeLine(writer);
+    }
+
+    private void writeLine(Writer writer) throws IOException {
+        builder.append('\n');
+        writer.append(builder);
+        if (builder.capacity() > MAX_REUSED_CAPACITY) {
+            builder.setLength(0);
+            builder.trimToSize();
+        }
+    }
+
+    /**
+     * Append a record as a JSON object (without a newline)
+     *
+     * @param builder
+     * @param timestamp
+     * @param priority
+     * @param record    the record in the text format
+     */
+    public void append(@NonNull StringBuilder builder, long timestamp, int priority, @NonNull String record) {
+        int lineEnd = record.indexOf('\n');
+        String firstLine = lineEnd < 0 ? record : record.substring(0, lineEnd);
+        // "priority, timestamp, tag, message"
+        String tag = null;
+        message.setLength(0);
+        int tagStart = nthSeparatorEnd(firstLine, 2);
+        if (tagStart < 0) {
+            message.append(firstLine);
+        } else {
+            int tagEnd = firstLine.indexOf(SEPARATOR, tagStart);
+            if (tagEnd < 0) {
+                tag = firstLine.substring(tagStart);
+            } else {
+                tag = firstLine.substring(tagStart, tagEnd);
+                message.append(firstLine, tagEnd + SEPARATOR.length(), firstLine.length());
+            }
+            if (NULL_TAG.equals(tag))
+                tag = null;
+        }
+        String fields = null;
+        while (lineEnd >= 0) {
+            int start = lineEnd + 1;
+            lineEnd = record.indexOf('\n', start);
+            String line = lineEnd < 0 ? record.substring(start) : record.substring(start, lineEnd);
+            if (fields == null && LogFields.isFieldsLine(line))
+                fields = LogFields.getJson(line);
+            else
+                message.append('\n').append(line);
+        }
+        appendStart(builder, timestamp, priority, tag, message);
+        if (fields != null)
+            builder.append(",\"fields\":").append(fields);
+        builder.append('}');
+        if (message.capacity() > MAX_REUSED_CAPACITY) {
+            message.setLength(0);
+            message.trimToSize();
+        }
+    }
+
+    /**
+     * Append a record decoded from a binary segment as a JSON object (without a newline)
+     *
+     * @param builder
+     * @param timestamp
+     * @param priority
+     * @param tag       (OPTIONAL)
+     * @param message   the message with the lines that follow it
+     * @param fields    (OPTIONAL)
+     */
+    public void append(@NonNull StringBuilder builder, long timestamp, int priority, @Nullable String tag, @NonNull CharSequence message,
+                       @Nullable LogFields fields) {
+        appendStart(builder, timestamp, priority, tag, message);
+        if (fields != null) {
+            builder.append(",\"fields\":");
+            fields.appendJson(builder);
+        }
+        builder.append('}');
+    }
+
+    private static void appendStart(StringBuilder builder, long timestamp, int priority, String tag, CharSequence message) {
+        builder.append("{\"timestamp\":").append(timestamp)
+                .append(",\"priority\":").append(priority)
+                .append(",\"tag\":");
+        LogFields.appendJsonString(builder, tag);
+        builder.append(",\"message\":");
+        LogFields.appendJsonString(builder, message);
+    }
+
+    /**
+     * @param line
+     * @param count
+     * @return the index right after the count-th separator, -1 if the line has fewer
+     */
+    private static int nthSeparatorEnd(String line, int count) {
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            int separator = line.indexOf(SEPARATOR, index);
+            if (separator < 0)
+                return -1;
+            index = separator + SEPARATOR.length();
+        }
+        return index;
+    }
+}
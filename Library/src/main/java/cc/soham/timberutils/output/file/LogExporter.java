@@ -0,0 +1,731 @@
+package cc.soham.timberutils.output.file;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.reporting.BinaryRecordDecoder;
+
+/**
+ * Exports the log folder into a zip archive while logging goes on
+ * - the segment currently written to is sealed (logging continues in a new segment) and the list of
+ * sealed segments is snapshotted, both under the lock of the {@link FileWriterWrapper}
+ * - the snapshot is then streamed into a uniquely named archive with large buffers, without holding
+ * any lock, binary segments are decoded back to text on the way
+ * - segments already compressed by the {@link SegmentCompressor} are stored as they are (as .gz entries)
+ * instead of being inflated and deflated again, so only the segments not compressed yet cost deflate time
+ * - the archive is written under a temporary name and renamed once complete
+ * - the result is delivered to {@link ExportListener}s and as a package local
+ * {@link #ACTION_EXPORT_FINISHED} broadcast
+ * The archive can also be streamed straight to an {@link OutputStream} or file descriptor (e.g. the write
+ * end of a pipe returned by a ContentProvider), without a file in the cache folder:
+ * - it starts with the first segment, in constant memory
+ * - with a {@link LogQuery} only the matching records are exported, read through the {@link LogReader}
+ * (so the {@link SegmentIndex} skips what cannot match) into a single text entry
+ * - with {@link #EXPORT_FORMAT_JSON_LINES} the records are written the same way as JSON Lines, with the
+ * typed fields of {@link cc.soham.timberutils.structured.StructuredLog} statements
+ * When the log folder holds the segments of several processes (see {@link LogProcess}) they are merged into
+ * a single text entry ordered by timestamp instead, every record prefixed with the process that wrote it:
+ * the segments of every process are read in order by a {@link RecordCursor} of their own, and the oldest
+ * current record of all the processes is written next (memory stays at one record per process)
+ * Only the segment this process writes to is sealed, those of other processes are read up to what is on disk
+ */
+public class LogExporter {
+    public static final String ACTION_EXPORT_FINISHED = "cc.soham.timberutils.action.EXPORT_FINISHED";
+    public static final String EXTRA_PATH = "extra_path";
+    public static final String EXTRA_SEGMENT_COUNT = "extra_segment_count";
+    public static final String EXTRA_SOURCE_BYTES = "extra_source_bytes";
+    public static final String EXTRA_ARCHIVE_BYTES = "extra_archive_bytes";
+    public static final String EXTRA_ELAPSED_MILLIS = "extra_elapsed_millis";
+
+    public static final String THREAD_NAME = "TimberUtils-LogExporter";
+
+    // formats of the exports streamed to an OutputStream
+    public static final int EXPORT_FORMAT_TEXT = 0;
+    public static final int EXPORT_FORMAT_JSON_LINES = 1;
+
+    static final String ARCHIVE_PREFIX = "logs_";
+    static final String ARCHIVE_SUFFIX = ".zip";
+    // the entry of the records matching a query
+    static final String QUERY_ENTRY_NAME = "logs.txt";
+    // the entry of the records of a JSON Lines export
+    static final String JSON_LINES_ENTRY_NAME = "logs.jsonl";
+    // the entry of the timeline merged from the segments of several processes
+    static final String MERGED_ENTRY_NAME = "timeline.txt";
+
+    /**
+     * Orders the cursors of the merge by the timestamp of their current record
+     */
+    private static final Comparator<RecordCursor> OLDEST_RECORD_FIRST = new Comparator<RecordCursor>() {
+        @Override
+        public int compare(RecordCursor lhs, RecordCursor rhs) {
+            long lhsTimestamp = lhs.getTimestamp();
+            long rhsTimestamp = rhs.getTimestamp();
+            return lhsTimestamp < rhsTimestamp ? -1 : (lhsTimestamp == rhsTimestamp ? 0 : 1);
+        }
+    };
+    // older archives in the cache folder are deleted
+    static final int MAX_ARCHIVES = 3;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final List<ExportListener> exportListeners = new CopyOnWriteArrayList<>();
+    private static ExecutorService executorService;
+
+    /**
+     * Register a listener for the result of every export
+     *
+     * @param exportListener
+     */
+    public static void addExportListener(@NonNull ExportListener exportListener) {
+        exportListeners.add(exportListener);
+    }
+
+    public static void removeExportListener(@NonNull ExportListener exportListener) {
+        exportListeners.remove(exportListener);
+    }
+
+    /**
+     * Export the log folder on the calling thread
+     *
+     * @param context
+     * @return the result of the export
+     * @throws IOException if the archive could not be written
+     */
+    public static ExportResult export(@NonNull final Context context) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        return writeArchive(context, sealAndSnapshot(context), startTime);
+    }
+
+    /**
+     * Seal the active segment on the calling thread (so that everything logged before is part of the
+     * export) and write the archive on the export thread
+     * The result is delivered to the listener, the registered listeners and as a broadcast
+     *
+     * @param context
+     * @param exportListener (OPTIONAL)
+     */
+    public static void exportAsync(@NonNull final Context context, @Nullable final ExportListener exportListener) {
+        final long startTime = SystemClock.elapsedRealtime();
+        final Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        final List<File> segments;
+        try {
+            segments = sealAndSnapshot(applicationContext);
+        } catch (IOException exception) {
+            notifyExportFailed(exportListener, exception);
+            return;
+        }
+        getExecutorService().execute(new Runnable() {
+            @Override
+            public void run() {
+                ExportResult exportResult;
+                try {
+                    exportResult = writeArchive(applicationContext, segments, startTime);
+                } catch (Exception exception) {
+                    notifyExportFailed(exportListener, exception);
+                    return;
+                }
+                notifyExportFinished(applicationContext, exportListener, exportResult);
+            }
+        });
+    }
+
+    /**
+     * Stream the archive to an output stream on the calling thread
+     * The stream is flushed but not closed, if the export fails it is left with a partial archive
+     *
+     * @param context
+     * @param outputStream
+     * @param query        only the matching records are exported if set (OPTIONAL)
+     * @return the result of the export, without an archive file
+     * @throws IOException if the archive could not be written
+     */
+    public static ExportResult export(@NonNull final Context context, @NonNull OutputStream outputStream, @Nullable LogQuery query) throws IOException {
+        return export(context, outputStream, query, EXPORT_FORMAT_TEXT);
+    }
+
+    /**
+     * Stream the archive to an output stream on the calling thread, in the given format
+     * With {@link #EXPORT_FORMAT_JSON_LINES} the archive holds a single entry with a JSON object per record
+     * (see {@link JsonLinesEncoder}), read through the {@link LogReader} like the records matching a query
+     *
+     * @param context
+     * @param outputStream
+     * @param query        only the matching records are exported if set (OPTIONAL)
+     * @param format       {@link #EXPORT_FORMAT_TEXT} or {@link #EXPORT_FORMAT_JSON_LINES}
+     * @return the result of the export, without an archive file
+     * @throws IOException if the archive could not be written
+     */
+    public static ExportResult export(@NonNull final Context context, @NonNull OutputStream outputStream, @Nullable LogQuery query, int format) throws IOException {
+        if (outputStream == null)
+            throw new IllegalArgumentException("OutputStream cannot be null");
+        checkFormat(format);
+        long startTime = SystemClock.elapsedRealtime();
+        if (query != null || format == EXPORT_FORMAT_JSON_LINES)
+            return streamQuery(context, outputStream, query != null ? query : LogQuery.all(), format, startTime);
+        return streamArchive(outputStream, sealAndSnapshot(context), startTime);
+    }
+
+    /**
+     * Stream the archive to a file descriptor on the calling thread, the descriptor is not closed
+     *
+     * @param context
+     * @param fileDescriptor e.g. from ParcelFileDescriptor.getFileDescriptor()
+     * @param query          only the matching records are exported if set (OPTIONAL)
+     * @return the result of the export, without an archive file
+     * @throws IOException if the archive could not be written
+     */
+    public static ExportResult export(@NonNull final Context context, @NonNull FileDescriptor fileDescriptor, @Nullable LogQuery query) throws IOException {
+        return export(context, fileDescriptor, query, EXPORT_FORMAT_TEXT);
+    }
+
+    /**
+     * Stream the archive to a file descriptor on the calling thread in the given format, the descriptor is not closed
+     *
+     * @param context
+     * @param fileDescriptor e.g. from ParcelFileDescriptor.getFileDescriptor()
+     * @param query          only the matching records are exported if set (OPTIONAL)
+     * @param format         {@link #EXPORT_FORMAT_TEXT} or {@link #EXPORT_FORMAT_JSON_LINES}
+     * @return the result of the export, without an archive file
+     * @throws IOException if the archive could not be written
+     */
+    public static ExportResult export(@NonNull final Context context, @NonNull FileDescriptor fileDescriptor, @Nullable LogQuery query, int format) throws IOException {
+        if (fileDescriptor == null)
+            throw new IllegalArgumentException("FileDescriptor cannot be null");
+        return export(context, new FileOutputStream(fileDescriptor), query, format);
+    }
+
+    /**
+     * Stream the archive to an output stream on the export thread, e.g. the write end of a pipe whose
+     * read end is handed out right away
+     * The stream is closed once the export is done (so that the reading side sees its end), failed or not
+     * The result is delivered to the listener only
+     *
+     * @param context
+     * @param outputStream
+     * @param query          only the matching records are exported if set (OPTIONAL)
+     * @param exportListener (OPTIONAL)
+     */
+    public static void exportAsync(@NonNull final Context context, @NonNull final OutputStream outputStream, @Nullable final LogQuery query, @Nullable final ExportListener exportListener) {
+        exportAsync(context, outputStream, query, EXPORT_FORMAT_TEXT, exportListener);
+    }
+
+    /**
+     * Same as {@link #exportAsync(Context, OutputStream, LogQuery, ExportListener)}, in the given format
+     *
+     * @param context
+     * @param outputStream
+     * @param query          only the matching records are exported if set (OPTIONAL)
+     * @param format         {@link #EXPORT_FORMAT_TEXT} or {@link #EXPORT_FORMAT_JSON_LINES}
+     * @param exportListener (OPTIONAL)
+     */
+    public static void exportAsync(@NonNull final Context context, @NonNull final OutputStream outputStream, @Nullable LogQuery query, final int format,
+                                   @Nullable final ExportListener exportListener) {
+        if (outputStream == null)
+            throw new IllegalArgumentException("OutputStream cannot be null");
+        checkFormat(format);
+        final LogQuery streamedQuery = query == null && format == EXPORT_FORMAT_JSON_LINES ? LogQuery.all() : query;
+        final long startTime = SystemClock.elapsedRealtime();
+        final Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        final List<File> segments;
+        try {
+            // as for archives, everything logged before the call is part of the export
+            segments = streamedQuery == null ? sealAndSnapshot(applicationContext) : null;
+        } catch (IOException exception) {
+            closeQuietly(outputStream);
+            notifyStreamFailed(exportListener, exception);
+            return;
+        }
+        getExecutorService().execute(new Runnable() {
+            @Override
+            public void run() {
+                ExportResult exportResult;
+                try {
+                    exportResult = segments != null
+                            ? streamArchive(outputStream, segments, startTime)
+                            : streamQuery(applicationContext, outputStream, streamedQuery, format, startTime);
+                    outputStream.close();
+                } catch (Exception exception) {
+                    closeQuietly(outputStream);
+                    notifyStreamFailed(exportListener, exception);
+                    return;
+                }
+                if (exportListener != null)
+                    exportListener.onExportFinished(exportResult);
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executorService;
+    }
+
+    /**
+     * Write the records still queued for the {@link AsyncLogWriter} or {@link TimberService}, seal the active
+     * segment and list the sealed ones, oldest first
+     * The writers write nothing in the meantime, and the lock of the {@link FileWriterWrapper} is held so that no
+     * rotation happens in between
+     *
+     * @param context
+     * @return
+     * @throws IOException
+     */
+    static List<File> sealAndSnapshot(@NonNull final Context context) throws IOException {
+        File logFolder = new File(LogFileWriter.getLogFolderPath(context));
+        // before the locks, queueing the summary lines may block on a full queue
+        FileSink.flushAllSuppressed();
+        synchronized (AsyncLogWriter.writeLock) {
+            synchronized (TimberService.writeLock) {
+                // the queues are bounded, so is the time this takes
+                AsyncLogWriter.drainQueued(Long.MAX_VALUE);
+                TimberService.drainQueued(context, Long.MAX_VALUE);
+                FileWriterWrapper fileWriterWrapper = FileWriterWrapper.fileWriterWrapper;
+                if (fileWriterWrapper == null) {
+                    // nothing is being written in this process
+                    return withoutDuplicates(LogSegments.listSegments(logFolder), null);
+                }
+                synchronized (fileWriterWrapper) {
+                    fileWriterWrapper.sealSegment();
+                    File activeSegment = fileWriterWrapper.getCurrentSegment();
+                    return withoutDuplicates(LogSegments.listSegments(logFolder), activeSegment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Leave out the active segment, and segments whose compressed copy is already complete (the
+     * {@link SegmentCompressor} deletes them right after)
+     *
+     * @param segments
+     * @param activeSegment
+     * @return
+     */
+    static List<File> withoutDuplicates(List<File> segments, File activeSegment) {
+        List<File> result = new ArrayList<>(segments.size());
+        for (File segment : segments) {
+            if (segment.equals(activeSegment))
+                continue;
+            if (!SegmentCompressor.isCompressed(segment) && segments.contains(SegmentCompressor.getCompressedFile(segment)))
+                continue;
+            result.add(segment);
+        }
+        return result;
+    }
+
+    /**
+     * Stream the segments into a new archive in the cache folder
+     *
+     * @param context
+     * @param segments
+     * @param startTime {@link SystemClock#elapsedRealtime()} when the export started
+     * @return
+     * @throws IOException
+     */
+    static ExportResult writeArchive(@NonNull final Context context, @NonNull List<File> segments, long startTime) throws IOException {
+        if (segments.isEmpty())
+            throw new FileNotFoundException("No log segments to export in " + LogFileWriter.getLogFolderPath(context));
+        File cacheDir = context.getCacheDir();
+        File archive = createArchiveFile(cacheDir);
+        File partial = new File(archive.getPath() + LogSegments.PARTIAL_SUFFIX);
+        FileOutputStream fileOutputStream = new FileOutputStream(partial);
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(fileOutputStream, BUFFER_SIZE));
+        SegmentCounts segmentCounts;
+        boolean complete = false;
+        try {
+            segmentCounts = writeSegments(zipOutputStream, segments);
+            zipOutputStream.close();
+            complete = true;
+        } finally {
+            if (!complete) {
+                // closing the zip stream can fail (e.g. without entries), close the file directly
+                closeQuietly(fileOutputStream);
+                partial.delete();
+            }
+        }
+        if (!partial.renameTo(archive)) {
+            partial.delete();
+            throw new IOException("Could not rename " + partial + " to " + archive);
+        }
+        deleteOldArchives(cacheDir, archive);
+        long elapsedMillis = SystemClock.elapsedRealtime() - startTime;
+        LoggingMetrics.onExport(elapsedMillis);
+        return new ExportResult(archive, segmentCounts.segmentCount, segmentCounts.missingSegmentCount, segmentCounts.sourceBytes, archive.length(), elapsedMillis);
+    }
+
+    /**
+     * Stream the segments as an archive to an output stream, see {@link #writeArchive(Context, List, long)}
+     *
+     * @param outputStream flushed, not closed
+     * @param segments
+     * @param startTime    {@link SystemClock#elapsedRealtime()} when the export started
+     * @return
+     * @throws IOException
+     */
+    static ExportResult streamArchive(@NonNull OutputStream outputStream, @NonNull List<File> segments, long startTime) throws IOException {
+        if (segments.isEmpty())
+            throw new FileNotFoundException("No log segments to export");
+        CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream);
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(countingOutputStream, BUFFER_SIZE));
+        SegmentCounts segmentCounts = writeSegments(zipOutputStream, segments);
+        // finish() instead of close(), the stream belongs to the caller
+        zipOutputStream.finish();
+        zipOutputStream.flush();
+        long elapsedMillis = SystemClock.elapsedRealtime() - startTime;
+        LoggingMetrics.onExport(elapsedMillis);
+        return new ExportResult(null, segmentCounts.segmentCount, segmentCounts.missingSegmentCount, segmentCounts.sourceBytes, countingOutputStream.count, elapsedMillis);
+    }
+
+    /**
+     * Stream the records matching a query as a single entry of an archive to an output stream
+     * The segment currently written to is read up to where the writer is, it is not sealed
+     *
+     * @param context
+     * @param outputStream flushed, not closed
+     * @param query
+     * @param format       {@link #EXPORT_FORMAT_TEXT} or {@link #EXPORT_FORMAT_JSON_LINES}
+     * @param startTime    {@link SystemClock#elapsedRealtime()} when the export started
+     * @return
+     * @throws IOException
+     */
+    static ExportResult streamQuery(@NonNull final Context context, @NonNull OutputStream outputStream, @NonNull LogQuery query, int format, long startTime) throws IOException {
+        boolean jsonLines = format == EXPORT_FORMAT_JSON_LINES;
+        CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream);
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(countingOutputStream, BUFFER_SIZE));
+        zipOutputStream.putNextEntry(new ZipEntry(jsonLines ? JSON_LINES_ENTRY_NAME : QUERY_ENTRY_NAME));
+        // not closed, that would close the zip stream
+        Writer writer = new OutputStreamWriter(zipOutputStream, "UTF-8");
+        LogReader logReader = LogReader.read(context, query, writer, jsonLines ? new JsonLinesEncoder() : null);
+        writer.flush();
+        zipOutputStream.closeEntry();
+        zipOutputStream.finish();
+        zipOutputStream.flush();
+        long elapsedMillis = SystemClock.elapsedRealtime() - startTime;
+        LoggingMetrics.onExport(elapsedMillis);
+        return new ExportResult(null, logReader.getSegmentCount(), 0, logReader.getSourceBytes(), countingOutputStream.count, elapsedMillis);
+    }
+
+    /**
+     * Write the segments as entries of the archive, skipping those deleted since the snapshot
+     * The segments of several processes are merged into a single entry
+     *
+     * @param zipOutputStream
+     * @param segments
+     * @return
+     * @throws IOException if none of the segments could be written
+     */
+    private static SegmentCounts writeSegments(ZipOutputStream zipOutputStream, List<File> segments) throws IOException {
+        Map<String, List<File>> processSegments = LogSegments.groupByProcess(segments);
+        if (processSegments.size() > 1)
+            return writeMergedEntry(zipOutputStream, processSegments);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        SegmentCounts segmentCounts = new SegmentCounts();
+        for (File segment : segments) {
+            try {
+                segmentCounts.sourceBytes += writeSegment(zipOutputStream, segment, buffer);
+                segmentCounts.segmentCount++;
+            } catch (FileNotFoundException exception) {
+                // compressed since the snapshot, or deleted by the rotation budget
+                File compressed = SegmentCompressor.getCompressedFile(segment);
+                try {
+                    if (SegmentCompressor.isCompressed(segment))
+                        throw exception;
+                    segmentCounts.sourceBytes += writeSegment(zipOutputStream, compressed, buffer);
+                    segmentCounts.segmentCount++;
+                } catch (FileNotFoundException missing) {
+                    segmentCounts.missingSegmentCount++;
+                }
+            }
+        }
+        if (segmentCounts.segmentCount == 0)
+            throw new FileNotFoundException("All log segments were deleted before they could be exported");
+        return segmentCounts;
+    }
+
+    /**
+     * Merge the segments of several processes into a single entry, ordered by timestamp
+     *
+     * @param zipOutputStream
+     * @param processSegments the segments of every process, oldest first
+     * @return
+     * @throws IOException if none of the segments could be read
+     */
+    private static SegmentCounts writeMergedEntry(ZipOutputStream zipOutputStream, Map<String, List<File>> processSegments) throws IOException {
+        List<RecordCursor> cursors = new ArrayList<>(processSegments.size());
+        PriorityQueue<RecordCursor> queue = new PriorityQueue<>(processSegments.size(), OLDEST_RECORD_FIRST);
+        try {
+            for (List<File> segments : processSegments.values()) {
+                RecordCursor cursor = new RecordCursor(segments);
+                cursors.add(cursor);
+                if (cursor.next())
+                    queue.add(cursor);
+            }
+            zipOutputStream.putNextEntry(new ZipEntry(MERGED_ENTRY_NAME));
+            // not closed, that would close the zip stream
+            Writer writer = new OutputStreamWriter(zipOutputStream, "UTF-8");
+            RecordCursor cursor;
+            while ((cursor = queue.poll()) != null) {
+                writer.write(cursor.getProcessLabel());
+                if (cursor.getPid() > 0)
+                    writer.append('/').write(Integer.toString(cursor.getPid()));
+                writer.write(", ");
+                writer.append(cursor.getRecord()).write('\n');
+                if (cursor.next())
+                    queue.add(cursor);
+            }
+            writer.flush();
+            zipOutputStream.closeEntry();
+        } finally {
+            for (RecordCursor cursor : cursors)
+                cursor.close();
+        }
+        SegmentCounts segmentCounts = new SegmentCounts();
+        for (RecordCursor cursor : cursors) {
+            segmentCounts.segmentCount += cursor.getSegmentCount();
+            segmentCounts.missingSegmentCount += cursor.getMissingSegmentCount();
+            segmentCounts.sourceBytes += cursor.getSourceBytes();
+        }
+        if (segmentCounts.segmentCount == 0)
+            throw new FileNotFoundException("All log segments were deleted before they could be exported");
+        return segmentCounts;
+    }
+
+    /**
+     * Write a segment as an entry of the archive
+     * - binary segments are decoded back into the text format on the way (compressed or not)
+     * - compressed text segments are stored without compressing them again
+     *
+     * @param zipOutputStream
+     * @param segment
+     * @param buffer
+     * @return the number of bytes read from the segment
+     * @throws IOException
+     */
+    private static long writeSegment(ZipOutputStream zipOutputStream, File segment, byte[] buffer) throws IOException {
+        String name = segment.getName();
+        boolean compressed = SegmentCompressor.isCompressed(segment);
+        if (compressed)
+            name = name.substring(0, name.length() - SegmentCompressor.GZIP_SUFFIX.length());
+        if (compressed && !name.endsWith(FileWriterWrapper.BINARY_SUFFIX))
+            return writeStoredEntry(zipOutputStream, segment, buffer);
+        InputStream inputStream = new FileInputStream(segment);
+        try {
+            if (name.endsWith(FileWriterWrapper.BINARY_SUFFIX)) {
+                long length = segment.length();
+                InputStream binaryInputStream = compressed
+                        ? new GZIPInputStream(inputStream, BUFFER_SIZE)
+                        : new BufferedInputStream(inputStream, BUFFER_SIZE);
+                zipOutputStream.putNextEntry(new ZipEntry(name.substring(0, name.length() - FileWriterWrapper.BINARY_SUFFIX.length()) + ".txt"));
+                // not closed, that would close the zip stream
+                Writer writer = new OutputStreamWriter(zipOutputStream, "UTF-8");
+                BinaryRecordDecoder.decode(binaryInputStream, writer);
+                writer.flush();
+                zipOutputStream.closeEntry();
+                return length;
+            }
+            zipOutputStream.putNextEntry(new ZipEntry(name));
+            long bytes = copy(inputStream, zipOutputStream, buffer);
+            zipOutputStream.closeEntry();
+            return bytes;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Store an already compressed segment as it is
+     * A stored entry needs its size and CRC up front, the CRC pass is far cheaper than deflating
+     *
+     * @param zipOutputStream
+     * @param segment
+     * @param buffer
+     * @return the number of bytes read from the segment
+     * @throws IOException
+     */
+    private static long writeStoredEntry(ZipOutputStream zipOutputStream, File segment, byte[] buffer) throws IOException {
+        FileInputStream inputStream = new FileInputStream(segment);
+        try {
+            CRC32 crc = new CRC32();
+            long size = 0;
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                crc.update(buffer, 0, length);
+                size += length;
+            }
+            ZipEntry zipEntry = new ZipEntry(segment.getName());
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(size);
+            zipEntry.setCompressedSize(size);
+            zipEntry.setCrc(crc.getValue());
+            zipOutputStream.putNextEntry(zipEntry);
+            // the segment is sealed, the second pass reads the same bytes
+            inputStream.getChannel().position(0);
+            if (copy(inputStream, zipOutputStream, buffer) != size)
+                throw new IOException("Segment changed while exporting: " + segment);
+            zipOutputStream.closeEntry();
+            return size;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static long copy(InputStream inputStream, ZipOutputStream zipOutputStream, byte[] buffer) throws IOException {
+        long bytes = 0;
+        int length;
+        while ((length = inputStream.read(buffer)) > 0) {
+            zipOutputStream.write(buffer, 0, length);
+            bytes += length;
+        }
+        return bytes;
+    }
+
+    /**
+     * @param cacheDir
+     * @return a file name in the cache folder not taken by an earlier archive
+     */
+    private static File createArchiveFile(File cacheDir) {
+        long timestamp = System.currentTimeMillis();
+        File archive = new File(cacheDir, ARCHIVE_PREFIX + timestamp + ARCHIVE_SUFFIX);
+        for (int i = 1; archive.exists(); i++)
+            archive = new File(cacheDir, ARCHIVE_PREFIX + timestamp + "_" + i + ARCHIVE_SUFFIX);
+        return archive;
+    }
+
+    /**
+     * Keep only the latest {@link #MAX_ARCHIVES} archives
+     *
+     * @param cacheDir
+     * @param latest
+     */
+    private static void deleteOldArchives(File cacheDir, File latest) {
+        File[] files = cacheDir.listFiles();
+        if (files == null)
+            return;
+        List<File> archives = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(ARCHIVE_PREFIX) && name.endsWith(ARCHIVE_SUFFIX) && !file.equals(latest))
+                archives.add(file);
+        }
+        Collections.sort(archives, LogSegments.OLDEST_FIRST);
+        for (int i = 0; i < archives.size() - (MAX_ARCHIVES - 1); i++)
+            archives.get(i).delete();
+    }
+
+    private static void notifyExportFinished(Context context, @Nullable ExportListener exportListener, ExportResult exportResult) {
+        Intent intent = new Intent(ACTION_EXPORT_FINISHED);
+        intent.setPackage(context.getPackageName());
+        intent.putExtra(EXTRA_PATH, exportResult.getPath());
+        intent.putExtra(EXTRA_SEGMENT_COUNT, exportResult.getSegmentCount());
+        intent.putExtra(EXTRA_SOURCE_BYTES, exportResult.getSourceBytes());
+        intent.putExtra(EXTRA_ARCHIVE_BYTES, exportResult.getArchiveBytes());
+        intent.putExtra(EXTRA_ELAPSED_MILLIS, exportResult.getElapsedMillis());
+        context.sendBroadcast(intent);
+        if (exportListener != null)
+            exportListener.onExportFinished(exportResult);
+        for (ExportListener listener : exportListeners)
+            listener.onExportFinished(exportResult);
+    }
+
+    private static void notifyExportFailed(@Nullable ExportListener exportListener, Exception exception) {
+        exception.printStackTrace();
+        if (exportListener != null)
+            exportListener.onExportFailed(exception);
+        for (ExportListener listener : exportListeners)
+            listener.onExportFailed(exception);
+    }
+
+    private static void notifyStreamFailed(@Nullable ExportListener exportListener, Exception exception) {
+        exception.printStackTrace();
+        if (exportListener != null)
+            exportListener.onExportFailed(exception);
+    }
+
+    private static void checkFormat(int format) {
+        if (format != EXPORT_FORMAT_TEXT && format != EXPORT_FORMAT_JSON_LINES)
+            throw new IllegalArgumentException("Unknown export format " + format);
+    }
+
+    private static void closeQuietly(OutputStream outputStream) {
+        try {
+            outputStream.close();
+        } catch (IOException exception) {
+            // already failing
+        }
+    }
+
+    private static class SegmentCounts {
+        int segmentCount;
+        int missingSegmentCount;
+        long sourceBytes;
+    }
+
+    /**
+     * Counts the bytes written to the stream it wraps
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the stream belongs to the caller
+            flush();
+        }
+    }
+}
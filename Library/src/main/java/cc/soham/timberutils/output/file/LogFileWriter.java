@@ -1,14 +1,11 @@
 package cc.soham.timberutils.output.file;
 
 import android.content.Context;
+import android.util.Log;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
+import cc.soham.timberutils.record.LogFields;
 import cc.soham.timberutils.reporting.Reporting;
 
 /**
@@ -21,7 +18,8 @@ public class LogFileWriter {
 
     static final String FILENAME = "l";
     static final String LOGFOLDER = "logs";
-    static final String ZIPFILENAME = "logs.zip";
+    // tag of the lines written by the library itself
+    static final String TAG = "TimberUtils";
 
     /**
      * Handle writing a log statement
@@ -40,12 +38,53 @@ public class LogFileWriter {
     }
 
     /**
-     * Zips all the files in a given folder
+     * Handle writing a log statement whose timestamp is passed separately from the tag
      *
      * @param timberService
+     * @param fileWriterWrapper
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @throws IOException
+     */
+    public static void handleLog(TimberService timberService, FileWriterWrapper fileWriterWrapper, long timestamp, int priority, String tag, String message, Throwable t) throws IOException {
+        handleLog(timberService, fileWriterWrapper, timestamp, priority, tag, message, t, null);
+    }
+
+    /**
+     * Handle writing a log statement with the fields of a {@link cc.soham.timberutils.structured.StructuredLog} statement
+     *
+     * @param timberService
+     * @param fileWriterWrapper
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @param fields            (OPTIONAL)
+     * @throws IOException
+     */
+    public static void handleLog(TimberService timberService, FileWriterWrapper fileWriterWrapper, long timestamp, int priority, String tag, String message, Throwable t,
+                                 LogFields fields) throws IOException {
+        logStartMessageIfNotDone(timberService, fileWriterWrapper);
+        write(timberService.getApplicationContext(), fileWriterWrapper, timestamp, priority, tag, message, t, fields);
+    }
+
+    /**
+     * Zips all the files in the log folder, see {@link LogExporter}
+     *
+     * @param timberService
+     * @return the path of the zip file, null if it could not be written
      */
     public static String handleZip(TimberService timberService) {
-        return zipFiles(timberService);
+        try {
+            return LogExporter.export(timberService).getPath();
+        } catch (IOException exception) {
+            exception.printStackTrace();
+        }
+        return null;
     }
 
     /**
@@ -57,11 +96,36 @@ public class LogFileWriter {
      */
     public static void logStartMessageIfNotDone(TimberService timberService, FileWriterWrapper fileWriterWrapper) throws IOException {
         if (!timberService.isStarted()) {
-            write(fileWriterWrapper, timberService.getApplicationContext(), DEBUG_LOGGER_HEADER + ":" + System.currentTimeMillis());
+            writeStartMessage(fileWriterWrapper, timberService.getApplicationContext());
             timberService.setStarted(true);
         }
     }
 
+    /**
+     * Write the "debuglogger started at _____" message
+     *
+     * @param fileWriterWrapper
+     * @param context
+     * @throws IOException
+     */
+    public static void writeStartMessage(FileWriterWrapper fileWriterWrapper, final Context context) throws IOException {
+        write(fileWriterWrapper, context, DEBUG_LOGGER_HEADER + ":" + System.currentTimeMillis());
+    }
+
+    /**
+     * Write a "records dropped" line once the {@link BoundedLogQueue} the records come from has room again
+     *
+     * @param context
+     * @param fileWriterWrapper
+     * @param queue
+     * @throws IOException
+     */
+    public static void writeDroppedCountIfDue(final Context context, FileWriterWrapper fileWriterWrapper, BoundedLogQueue queue) throws IOException {
+        long dropped = queue.takeDroppedCountToReport();
+        if (dropped > 0)
+            write(context, fileWriterWrapper, System.currentTimeMillis(), Log.WARN, TAG, BoundedLogQueue.createDroppedMessage(dropped), null);
+    }
+
     /**
      * Writes the typical timber format to a file
      *
@@ -71,103 +135,76 @@ public class LogFileWriter {
      * @param t
      */
     public static void write(final Context context, FileWriterWrapper fileWriterWrapper, int priority, String tag, String message, Throwable t) throws IOException {
-        write(fileWriterWrapper, context, Reporting.format(priority, tag, message, t));
+        write(fileWriterWrapper, context, Reporting.format(priority, tag, message, t), priority);
     }
 
     /**
-     * Write a line to the given {@link FileWriterWrapper}
+     * Writes a log statement in the record format of the {@link FileWriterWrapper}
+     * (the typical timber format with the timestamp before the tag, or the binary format)
      *
-     * @param fileWriterWrapper
      * @param context
-     * @param line
+     * @param fileWriterWrapper
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @throws IOException
      */
-    public static void write(FileWriterWrapper fileWriterWrapper, final Context context, String line) throws IOException {
-        fileWriterWrapper.getFileWriter(context).write(line + "\n");
-        fileWriterWrapper.getFileWriter(context).flush();
+    public static void write(final Context context, FileWriterWrapper fileWriterWrapper, long timestamp, int priority, String tag, String message, Throwable t) throws IOException {
+        write(context, fileWriterWrapper, timestamp, priority, tag, message, t, null);
     }
 
     /**
-     * Get the log folder
+     * Writes a log statement with the fields of a {@link cc.soham.timberutils.structured.StructuredLog} statement
      *
      * @param context
-     * @return
+     * @param fileWriterWrapper
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @param fields            (OPTIONAL)
+     * @throws IOException
      */
-    public static String getLogFolderPath(final Context context) {
-        return context.getCacheDir().getPath() + "/" + LOGFOLDER + "/";
+    public static void write(final Context context, FileWriterWrapper fileWriterWrapper, long timestamp, int priority, String tag, String message, Throwable t,
+                             LogFields fields) throws IOException {
+        fileWriterWrapper.writeRecord(context, timestamp, priority, tag, message, t, fields);
     }
 
     /**
-     * Zip files
+     * Write a line to the given {@link FileWriterWrapper}
      *
-     * @param timberService
-     * @return
+     * @param fileWriterWrapper
+     * @param context
+     * @param line
      */
-    private static String zipFiles(final TimberService timberService) {
-        try {
-            String resultPath = timberService.getCacheDir().getAbsolutePath() + "/" + ZIPFILENAME;
-            FileOutputStream fileOutputStream = new FileOutputStream(resultPath);
-            ZipOutputStream zipOutputStream = new ZipOutputStream(fileOutputStream);
-            File sourceFolder = new File(getLogFolderPath(timberService));
-            if (writeFolderToZipOutputStream(zipOutputStream, sourceFolder)) {
-                zipOutputStream.close();
-            }
-            // close the current File object
-            timberService.getFileWriterWrapper().flushAndCloseFileWriter();
-            return resultPath;
-        } catch (IOException exception) {
-            exception.printStackTrace();
-        } catch (Exception exception) {
-            exception.printStackTrace();
-        }
-        return null;
+    public static void write(FileWriterWrapper fileWriterWrapper, final Context context, String line) throws IOException {
+        write(fileWriterWrapper, context, line, TimberService.PRIORITY_DEFAULT);
     }
 
     /**
-     * Zips all the files in a given folder to a {@link ZipOutputStream}
+     * Write a line to the given {@link FileWriterWrapper}, the line is flushed as per the {@link FlushPolicy}
+     * The {@link FileWriterWrapper} is synchronized since it can be written to by the {@link AsyncLogWriter}
+     * while {@link TimberService} seals the current segment for an export
      *
-     * @param zipOutputStream
-     * @param sourceFolder
-     * @return true if we could zip something, false if the zip operation failed (because of empty folder
-     * etc.)
-     * @throws IOException
-     */
-    private static boolean writeFolderToZipOutputStream(ZipOutputStream zipOutputStream, File sourceFolder) throws IOException {
-        File[] files = sourceFolder.listFiles();
-        if (files != null && files.length > 0) {
-            for (File file : files) {
-                writeFileToZipOutputStream(zipOutputStream, file);
-            }
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    /**
-     * Write a file to a {@link ZipOutputStream}
-     * @param zipOutputStream
-     * @param file
-     * @throws IOException
+     * @param fileWriterWrapper
+     * @param context
+     * @param line
+     * @param priority
      */
-    private static void writeFileToZipOutputStream(ZipOutputStream zipOutputStream, File file) throws IOException {
-        FileInputStream fileInputStream = new FileInputStream(file);
-        zipOutputStream.putNextEntry(new ZipEntry(file.getName()));
-        writeFileInputStreamToZipOutputStream(zipOutputStream, fileInputStream);
-        zipOutputStream.closeEntry();
-        fileInputStream.close();
+    public static void write(FileWriterWrapper fileWriterWrapper, final Context context, String line, int priority) throws IOException {
+        fileWriterWrapper.write(context, line, priority);
     }
 
     /**
-     * Write the {@link java.io.InputStream} data to the zip {@link java.io.OutputStream}
-     * @param zipOutputStream
-     * @param fileInputStream
-     * @throws IOException
+     * Get the log folder
+     *
+     * @param context
+     * @return
      */
-    private static void writeFileInputStreamToZipOutputStream(ZipOutputStream zipOutputStream, FileInputStream fileInputStream) throws IOException {
-        int length;
-        byte[] buffer = new byte[1024];
-        while ((length = fileInputStream.read(buffer)) > 0) {
-            zipOutputStream.write(buffer, 0, length);
-        }
+    public static String getLogFolderPath(final Context context) {
+        return context.getCacheDir().getPath() + "/" + LOGFOLDER + "/";
     }
 }
@@ -0,0 +1,97 @@
+package cc.soham.timberutils.output.file;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Identifies the process writing to the log folder, every process of the app (e.g. ":sync", ":media")
+ * writes segments of its own, see {@link LogSegments#getProcessLabel(java.io.File)}
+ * - the label is the part of the process name after the ':' ("sync" for "com.example:sync"),
+ * {@link #MAIN} for the main process
+ * - only letters, digits and '.' are kept so that the label can be part of a file name
+ */
+public class LogProcess {
+    public static final String MAIN = "main";
+
+    private static String label;
+
+    /**
+     * @param context
+     * @return the label of the calling process, read once per process
+     */
+    public static synchronized String getLabel(@NonNull final Context context) {
+        if (label == null)
+            label = toLabel(readProcessName(), context.getPackageName());
+        return label;
+    }
+
+    /**
+     * @return the pid of the calling process
+     */
+    public static int getPid() {
+        return android.os.Process.myPid();
+    }
+
+    /**
+     * @param pid
+     * @return false if no process of the pid is running (a reused pid of another process counts as running)
+     */
+    public static boolean isRunning(int pid) {
+        return pid > 0 && (pid == getPid() || new File("/proc/" + pid).exists());
+    }
+
+    /**
+     * @param processName (OPTIONAL)
+     * @param packageName
+     * @return the label of a process
+     */
+    static String toLabel(String processName, String packageName) {
+        if (processName == null || processName.length() == 0 || processName.equals(packageName))
+            return MAIN;
+        int colon = processName.lastIndexOf(':');
+        String name = colon >= 0 ? processName.substring(colon + 1) : processName;
+        StringBuilder builder = new StringBuilder(name.length() + 1);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            builder.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' ? c : '.');
+        }
+        // a label never starts like the timestamp of a segment named before processes had their own
+        if (builder.length() == 0 || !Character.isLetter(builder.charAt(0)))
+            builder.insert(0, 'p');
+        return builder.toString();
+    }
+
+    /**
+     * @return the name of the calling process from /proc, null if it could not be read
+     */
+    private static String readProcessName() {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream("/proc/self/cmdline");
+            byte[] buffer = new byte[256];
+            int length = 0;
+            int count;
+            while (length < buffer.length && (count = inputStream.read(buffer, length, buffer.length - length)) > 0)
+                length += count;
+            int end = 0;
+            while (end < length && buffer[end] != 0)
+                end++;
+            return new String(buffer, 0, end, "UTF-8").trim();
+        } catch (IOException exception) {
+            exception.printStackTrace();
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException exception) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package cc.soham.timberutils.output.file;
+
+import android.util.Log;
+
+/**
+ * What {@link LogReader} reads back from the log folder: records within a time range, of a minimum priority,
+ * optionally only of some tags
+ * - all setters return the same object so that options can be chained
+ * - e.g. the errors of the last 10 minutes: LogQuery.last(10 * 60 * 1000).setMinPriority(Log.ERROR)
+ */
+public class LogQuery {
+    private long fromTimestamp = Long.MIN_VALUE;
+    private long toTimestamp = Long.MAX_VALUE;
+    private int minPriority = Log.VERBOSE;
+    private long maxRecords = 0;
+    private String[] tagPrefixes;
+
+    /**
+     * @return a query matching every record
+     */
+    public static LogQuery all() {
+        return new LogQuery();
+    }
+
+    /**
+     * @param fromTimestamp inclusive
+     * @param toTimestamp   inclusive
+     * @return a query matching the records logged in between
+     */
+    public static LogQuery between(long fromTimestamp, long toTimestamp) {
+        return new LogQuery().setTimeRange(fromTimestamp, toTimestamp);
+    }
+
+    /**
+     * @param durationMillis
+     * @return a query matching the records logged in the last durationMillis
+     */
+    public static LogQuery last(long durationMillis) {
+        if (durationMillis < 0)
+            throw new IllegalArgumentException("The duration cannot be negative");
+        return new LogQuery().setTimeRange(System.currentTimeMillis() - durationMillis, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param timestamp
+     * @param windowMillis
+     * @return a query matching the records logged up to windowMillis before or after the timestamp
+     */
+    public static LogQuery around(long timestamp, long windowMillis) {
+        if (windowMillis < 0)
+            throw new IllegalArgumentException("The window cannot be negative");
+        return new LogQuery().setTimeRange(timestamp - windowMillis, timestamp + windowMillis);
+    }
+
+    public long getFromTimestamp() {
+        return fromTimestamp;
+    }
+
+    public long getToTimestamp() {
+        return toTimestamp;
+    }
+
+    /**
+     * @param fromTimestamp inclusive
+     * @param toTimestamp   inclusive
+     * @return
+     */
+    public LogQuery setTimeRange(long fromTimestamp, long toTimestamp) {
+        if (fromTimestamp > toTimestamp)
+            throw new IllegalArgumentException("The time range cannot end before it starts");
+        this.fromTimestamp = fromTimestamp;
+        this.toTimestamp = toTimestamp;
+        return this;
+    }
+
+    public int getMinPriority() {
+        return minPriority;
+    }
+
+    /**
+     * @param minPriority the lowest priority matched, e.g. {@link Log#ERROR}
+     * @return
+     */
+    public LogQuery setMinPriority(int minPriority) {
+        this.minPriority = minPriority;
+        return this;
+    }
+
+    /**
+     * @return the number of records after which the query stops, 0 for no limit
+     */
+    public long getMaxRecords() {
+        return maxRecords;
+    }
+
+    /**
+     * @param maxRecords the number of records after which the query stops (oldest first), 0 for no limit
+     * @return
+     */
+    public LogQuery setMaxRecords(long maxRecords) {
+        if (maxRecords < 0)
+            throw new IllegalArgumentException("The maximum number of records cannot be negative");
+        this.maxRecords = maxRecords;
+        return this;
+    }
+
+    /**
+     * @return the tag prefixes matched, null for every tag
+     */
+    public String[] getTagPrefixes() {
+        return tagPrefixes;
+    }
+
+    /**
+     * @param tagPrefixes only records whose tag starts with one of them are matched, none for every tag
+     * @return
+     */
+    public LogQuery setTagPrefixes(String... tagPrefixes) {
+        if (tagPrefixes != null) {
+            for (String tagPrefix : tagPrefixes) {
+                if (tagPrefix == null)
+                    throw new IllegalArgumentException("A tag prefix cannot be null");
+            }
+        }
+        this.tagPrefixes = tagPrefixes == null || tagPrefixes.length == 0 ? null : tagPrefixes.clone();
+        return this;
+    }
+
+    /**
+     * @return true if the query looks at the tags of the records
+     */
+    public boolean hasTagFilter() {
+        return tagPrefixes != null;
+    }
+
+    /**
+     * @param timestamp
+     * @param priority
+     * @param tag       only looked at with {@link #hasTagFilter()}
+     * @return true if a record matches the query
+     */
+    public boolean matches(long timestamp, int priority, String tag) {
+        if (priority < minPriority || timestamp < fromTimestamp || timestamp > toTimestamp)
+            return false;
+        if (tagPrefixes == null)
+            return true;
+        if (tag == null)
+            return false;
+        for (String tagPrefix : tagPrefixes) {
+            if (tag.startsWith(tagPrefix))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param firstTimestamp
+     * @param lastTimestamp
+     * @return true if records logged between the timestamps can match the query
+     */
+    boolean overlaps(long firstTimestamp, long lastTimestamp) {
+        return firstTimestamp <= toTimestamp && lastTimestamp >= fromTimestamp;
+    }
+}
@@ -0,0 +1,513 @@
+package cc.soham.timberutils.output.file;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import cc.soham.timberutils.record.LogFields;
+import cc.soham.timberutils.reporting.BinaryRecordDecoder;
+
+/**
+ * Reads the records matching a {@link LogQuery} back from the log folder, without exporting it
+ * - segments whose {@link SegmentIndex} rules out the query are not opened at all, in the others only
+ * the blocks that can match are read (a seek for uncompressed segments, inflating up to the block for
+ * compressed ones)
+ * - segments without an index (written before indexing was enabled, or left behind by a killed process)
+ * are read from the start
+ * - the segment currently written to is flushed first and read up to where the writer is
+ * - records of text segments are recognised by their "priority, timestamp, " start as written by the
+ * {@link cc.soham.timberutils.reporting.DefaultLogFormatter}, the lines that follow a record (stack traces,
+ * multi line messages) belong to it; with another {@link cc.soham.timberutils.reporting.LogFormatter} use
+ * {@link FileWriterWrapper#FORMAT_BINARY}
+ * - the fields of {@link cc.soham.timberutils.structured.StructuredLog} statements are part of the record text,
+ * {@link #queryJsonLines(Context, LogQuery, Writer)} writes them as typed JSON instead (as decoded for binary
+ * segments, parsed back from the text for text segments)
+ * Runs on the calling thread, do not call it on the main thread
+ */
+public class LogReader {
+    static final int BUFFER_SIZE = 16 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final LogQuery query;
+    private final QueryListener queryListener;
+    // set if the listener takes the records of binary segments as decoded
+    private final DecodedRecordListener decodedRecordListener;
+    private long matchCount;
+    private int segmentCount;
+    private long sourceBytes;
+    private boolean stopped;
+    // the record being assembled from its lines
+    private boolean hasRecord;
+    private long timestamp;
+    private int priority;
+    private String tag;
+    // the record in the text format, or the message and the lines that follow it for the DecodedRecordListener
+    private final StringBuilder record = new StringBuilder(256);
+    private boolean decoded;
+    private LogFields fields;
+    // the start of the last text line parsed
+    private long lineTimestamp;
+    private int linePriority;
+    private String lineTag;
+
+    /**
+     * A {@link QueryListener} that takes the records of binary segments with their parts as decoded, instead
+     * of in the text format
+     */
+    interface DecodedRecordListener extends QueryListener {
+        /**
+         * @param timestamp
+         * @param priority
+         * @param tag       (OPTIONAL)
+         * @param message   the message (and the message of the throwable) with the lines that follow it, only
+         *                  valid during the call
+         * @param fields    (OPTIONAL)
+         * @return false to stop reading
+         */
+        boolean onRecord(long timestamp, int priority, @Nullable String tag, @NonNull CharSequence message, @Nullable LogFields fields);
+    }
+
+    private LogReader(@NonNull LogQuery query, @NonNull QueryListener queryListener) {
+        this.query = query;
+        this.queryListener = queryListener;
+        this.decodedRecordListener = queryListener instanceof DecodedRecordListener ? (DecodedRecordListener) queryListener : null;
+    }
+
+    /**
+     * Stream the matching records to a listener, oldest segment first
+     *
+     * @param context
+     * @param query
+     * @param queryListener
+     * @return the number of records handed to the listener
+     * @throws IOException
+     */
+    public static long query(@NonNull final Context context, @NonNull LogQuery query, @NonNull QueryListener queryListener) throws IOException {
+        return read(context, query, queryListener).matchCount;
+    }
+
+    /**
+     * @param context
+     * @param query
+     * @param queryListener
+     * @return the reader, once done
+     * @throws IOException
+     */
+    static LogReader read(@NonNull final Context context, @NonNull LogQuery query, @NonNull QueryListener queryListener) throws IOException {
+        if (query == null)
+            throw new IllegalArgumentException("LogQuery cannot be null");
+        if (queryListener == null)
+            throw new IllegalArgumentException("QueryListener cannot be null");
+        File logFolder = new File(LogFileWriter.getLogFolderPath(context));
+        FileWriterWrapper fileWriterWrapper = FileWriterWrapper.fileWriterWrapper;
+        List<File> segments;
+        File activeSegment = null;
+        SegmentIndex activeIndex = null;
+        long activeBytes = 0;
+        if (fileWriterWrapper == null) {
+            // nothing is being written in this process
+            segments = LogExporter.withoutDuplicates(LogSegments.listSegments(logFolder), null);
+        } else {
+            synchronized (fileWriterWrapper) {
+                fileWriterWrapper.flush();
+                activeSegment = fileWriterWrapper.getCurrentSegment();
+                activeIndex = fileWriterWrapper.getSegmentIndex();
+                // flush() leaves the header of a segment without records buffered
+                activeBytes = activeSegment != null ? Math.min(fileWriterWrapper.getSegmentBytes(), activeSegment.length()) : 0;
+                segments = LogExporter.withoutDuplicates(LogSegments.listSegments(logFolder), null);
+            }
+        }
+        return read(segments, activeSegment, activeIndex, activeBytes, query, queryListener);
+    }
+
+    /**
+     * @param segments      oldest first
+     * @param activeSegment the segment currently written to (OPTIONAL)
+     * @param activeIndex   a snapshot of its index (OPTIONAL)
+     * @param activeBytes   the bytes written to it so far
+     * @param query
+     * @param queryListener
+     * @return the reader, once done
+     * @throws IOException
+     */
+    static LogReader read(@NonNull List<File> segments, @Nullable File activeSegment, @Nullable SegmentIndex activeIndex,
+                          long activeBytes, @NonNull LogQuery query, @NonNull QueryListener queryListener) throws IOException {
+        LogReader logReader = new LogReader(query, queryListener);
+        for (File segment : segments) {
+            if (logReader.stopped)
+                break;
+            if (segment.equals(activeSegment))
+                logReader.readSegment(segment, activeIndex, activeBytes);
+            else
+                logReader.readSealedSegment(segment);
+        }
+        return logReader;
+    }
+
+    /**
+     * Write the matching records to a writer, one after the other
+     *
+     * @param context
+     * @param query
+     * @param writer
+     * @return the number of records written
+     * @throws IOException
+     */
+    public static long query(@NonNull final Context context, @NonNull LogQuery query, @NonNull final Writer writer) throws IOException {
+        return read(context, query, writer).matchCount;
+    }
+
+    /**
+     * Write the matching records to a writer as JSON Lines, see {@link JsonLinesEncoder}
+     *
+     * @param context
+     * @param query
+     * @param writer
+     * @return the number of records written
+     * @throws IOException
+     */
+    public static long queryJsonLines(@NonNull final Context context, @NonNull LogQuery query, @NonNull final Writer writer) throws IOException {
+        return read(context, query, writer, new JsonLinesEncoder()).matchCount;
+    }
+
+    /**
+     * @param context
+     * @param query
+     * @param writer
+     * @return the reader, once done
+     * @throws IOException
+     */
+    static LogReader read(@NonNull final Context context, @NonNull LogQuery query, @NonNull final Writer writer) throws IOException {
+        return read(context, query, writer, null);
+    }
+
+    /**
+     * @param context
+     * @param query
+     * @param writer
+     * @param jsonLinesEncoder the records are written in the text format if null (OPTIONAL)
+     * @return the reader, once done
+     * @throws IOException
+     */
+    static LogReader read(@NonNull final Context context, @NonNull LogQuery query, @NonNull final Writer writer,
+                          @Nullable final JsonLinesEncoder jsonLinesEncoder) throws IOException {
+        final IOException[] failure = new IOException[1];
+        QueryListener queryListener;
+        if (jsonLinesEncoder == null) {
+            queryListener = new QueryListener() {
+                @Override
+                public boolean onRecord(long timestamp, int priority, @NonNull String record) {
+                    try {
+                        writer.write(record);
+                        writer.write('\n');
+                        return true;
+                    } catch (IOException exception) {
+                        failure[0] = exception;
+                        return false;
+                    }
+                }
+            };
+        } else {
+            queryListener = new DecodedRecordListener() {
+                @Override
+                public boolean onRecord(long timestamp, int priority, @NonNull String record) {
+                    try {
+                        jsonLinesEncoder.encode(timestamp, priority, record, writer);
+                        return true;
+                    } catch (IOException exception) {
+                        failure[0] = exception;
+                        return false;
+                    }
+                }
+
+                @Override
+                public boolean onRecord(long timestamp, int priority, @Nullable String tag, @NonNull CharSequence message, @Nullable LogFields fields) {
+                    try {
+                        jsonLinesEncoder.encode(timestamp, priority, tag, message, fields, writer);
+                        return true;
+                    } catch (IOException exception) {
+                        failure[0] = exception;
+                        return false;
+                    }
+                }
+            };
+        }
+        LogReader logReader = read(context, query, queryListener);
+        if (failure[0] != null)
+            throw failure[0];
+        return logReader;
+    }
+
+    /**
+     * @return the number of records handed to the listener
+     */
+    long getMatchCount() {
+        return matchCount;
+    }
+
+    /**
+     * @return the number of segments read, segments ruled out by their index are not counted
+     */
+    int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return the number of bytes read from the segments (inflated bytes for compressed ones)
+     */
+    long getSourceBytes() {
+        return sourceBytes;
+    }
+
+    /**
+     * Read a segment that is no longer written to, the rotation budget or the {@link SegmentCompressor}
+     * may have removed it since it was listed
+     *
+     * @param segment
+     * @throws IOException
+     */
+    private void readSealedSegment(File segment) throws IOException {
+        try {
+            readSegment(segment, SegmentIndex.read(segment), -1);
+        } catch (FileNotFoundException exception) {
+            File compressed = SegmentCompressor.getCompressedFile(segment);
+            if (!SegmentCompressor.isCompressed(segment) && compressed.exists())
+                readSegment(compressed, SegmentIndex.read(compressed), -1);
+        }
+    }
+
+    /**
+     * @param segment
+     * @param segmentIndex (OPTIONAL)
+     * @param length       the bytes to read, -1 for the whole segment
+     * @throws IOException
+     */
+    private void readSegment(File segment, SegmentIndex segmentIndex, long length) throws IOException {
+        // nothing written to the active segment yet (e.g. right after it was sealed)
+        if (length == 0 || (segmentIndex != null && !segmentIndex.mayMatch(query)))
+            return;
+        boolean binary = segmentIndex != null
+                ? segmentIndex.getFormat() == FileWriterWrapper.FORMAT_BINARY
+                : isBinarySegment(segment);
+        InputStream inputStream = new FileInputStream(segment);
+        if (SegmentCompressor.isCompressed(segment))
+            inputStream = new GZIPInputStream(inputStream, BUFFER_SIZE);
+        segmentCount++;
+        try {
+            if (segmentIndex == null) {
+                long limit = length < 0 ? Long.MAX_VALUE : length;
+                RangeInputStream rangeInputStream = new RangeInputStream(inputStream, limit);
+                if (binary)
+                    readBinary(new BinaryRecordDecoder(new BufferedInputStream(rangeInputStream, BUFFER_SIZE)));
+                else
+                    readText(rangeInputStream);
+                sourceBytes += limit - rangeInputStream.remaining;
+                return;
+            }
+            int[] blockRanges = segmentIndex.findBlockRanges(query);
+            long position = 0;
+            for (int i = 0; i < blockRanges.length && !stopped; i += 2) {
+                long start = segmentIndex.getBlockOffset(blockRanges[i]);
+                long end = segmentIndex.getBlockEnd(blockRanges[i + 1] - 1);
+                skipFully(inputStream, start - position);
+                RangeInputStream rangeInputStream = new RangeInputStream(inputStream, end - start);
+                if (binary)
+                    readBinary(new BinaryRecordDecoder(new BufferedInputStream(rangeInputStream, BUFFER_SIZE), segmentIndex.getBlockBaseTimestamp(blockRanges[i])));
+                else
+                    readText(rangeInputStream);
+                position = end - rangeInputStream.remaining;
+                sourceBytes += position - start;
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void readBinary(BinaryRecordDecoder decoder) throws IOException {
+        while (!stopped && decoder.next()) {
+            if (decoder.isText()) {
+                // the stack trace of the record before it, or a line that belongs to no record
+                if (hasRecord)
+                    record.append('\n').append(decoder.getMessage());
+                continue;
+            }
+            endRecord();
+            startRecord(decoder.getTimestamp(), decoder.getPriority(), decoder.getTag());
+            if (decodedRecordListener != null) {
+                decoded = true;
+                fields = decoder.getFields();
+                record.append(decoder.getMessage());
+                if (decoder.hasThrowable())
+                    record.append(", ").append(decoder.getThrowableMessage());
+            } else {
+                decoder.appendText(record);
+            }
+        }
+        endRecord();
+    }
+
+    private void readText(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8), BUFFER_SIZE);
+        String line;
+        while (!stopped && (line = reader.readLine()) != null) {
+            // zero padding of a mapped segment
+            if (line.length() > 0 && line.charAt(0) == 0)
+                break;
+            if (parseRecordStart(line)) {
+                endRecord();
+                startRecord(lineTimestamp, linePriority, lineTag);
+                record.append(line);
+            } else if (hasRecord) {
+                record.append('\n').append(line);
+            }
+        }
+        endRecord();
+    }
+
+    /**
+     * Parse "priority, timestamp, " into {@link #linePriority} and {@link #lineTimestamp}, and the tag that
+     * follows into {@link #lineTag} if the query looks at tags
+     *
+     * @param line
+     * @return false if the line does not start a record
+     */
+    private boolean parseRecordStart(String line) {
+        int length = line.length();
+        int index = 0;
+        int parsedPriority = 0;
+        while (index < length && index < 2 && Character.isDigit(line.charAt(index)))
+            parsedPriority = parsedPriority * 10 + line.charAt(index++) - '0';
+        if (index == 0 || !line.startsWith(", ", index))
+            return false;
+        index += 2;
+        int start = index;
+        long parsedTimestamp = 0;
+        while (index < length && index - start < 19 && Character.isDigit(line.charAt(index)))
+            parsedTimestamp = parsedTimestamp * 10 + line.charAt(index++) - '0';
+        if (index == start || !line.startsWith(", ", index))
+            return false;
+        linePriority = parsedPriority;
+        lineTimestamp = parsedTimestamp;
+        if (query.hasTagFilter()) {
+            index += 2;
+            int end = line.indexOf(", ", index);
+            lineTag = line.substring(index, end < 0 ? length : end);
+        }
+        return true;
+    }
+
+    private void startRecord(long timestamp, int priority, String tag) {
+        hasRecord = true;
+        this.timestamp = timestamp;
+        this.priority = priority;
+        this.tag = tag;
+        decoded = false;
+        fields = null;
+        record.setLength(0);
+    }
+
+    /**
+     * Hand the record assembled so far to the listener if it matches
+     */
+    private void endRecord() {
+        if (!hasRecord)
+            return;
+        hasRecord = false;
+        if (stopped || !query.matches(timestamp, priority, tag))
+            return;
+        matchCount++;
+        boolean more = decoded
+                ? decodedRecordListener.onRecord(timestamp, priority, tag, record, fields)
+                : queryListener.onRecord(timestamp, priority, record.toString());
+        if (!more || (query.getMaxRecords() > 0 && matchCount >= query.getMaxRecords()))
+            stopped = true;
+    }
+
+    static boolean isBinarySegment(File segment) {
+        String name = segment.getName();
+        if (SegmentCompressor.isCompressed(segment))
+            name = name.substring(0, name.length() - SegmentCompressor.GZIP_SUFFIX.length());
+        return name.endsWith(FileWriterWrapper.BINARY_SUFFIX);
+    }
+
+    private static void skipFully(InputStream inputStream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0) {
+                // skip() may give up early, a read tells the end of the stream apart
+                if (inputStream.read() < 0)
+                    throw new EOFException("Log segment is shorter than its index");
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Reads at most a given number of bytes of the stream it wraps, and never closes it
+     */
+    private static class RangeInputStream extends FilterInputStream {
+        long remaining;
+
+        RangeInputStream(InputStream inputStream, long remaining) {
+            super(inputStream);
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int b = in.read();
+            if (b >= 0)
+                remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int count = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (count > 0)
+                remaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = in.skip(Math.min(count, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package cc.soham.timberutils.output.file;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Helpers for the files (segments) in the log folder
+ * Segments are named "l_label_pid_timestamp_..." after the process that writes them (see {@link LogProcess}),
+ * segments named "l_timestamp..." before processes had their own count as written by {@link LogProcess#MAIN}
+ * Class will be "functional" in nature (No global state)
+ */
+public class LogSegments {
+    /**
+     * Suffix of files that are still being written (compressed segments, archives), they are not segments yet
+     */
+    public static final String PARTIAL_SUFFIX = ".part";
+
+    /**
+     * Orders files oldest first (by modification time, then by name)
+     */
+    static final Comparator<File> OLDEST_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File lhs, File rhs) {
+            long lhsModified = lhs.lastModified();
+            long rhsModified = rhs.lastModified();
+            if (lhsModified != rhsModified)
+                return lhsModified < rhsModified ? -1 : 1;
+            return lhs.getName().compareTo(rhs.getName());
+        }
+    };
+
+    /**
+     * @param processLabel see {@link LogProcess#getLabel(android.content.Context)}
+     * @param pid
+     * @param timestamp
+     * @return the start of the name of a new segment
+     */
+    static String getSegmentPrefix(@NonNull String processLabel, int pid, long timestamp) {
+        return LogFileWriter.FILENAME + "_" + processLabel + "_" + pid + "_" + timestamp + "_";
+    }
+
+    /**
+     * @param segment also its compressed copy or its {@link SegmentIndex}
+     * @return the label of the process that wrote the segment
+     */
+    public static String getProcessLabel(@NonNull File segment) {
+        String name = segment.getName();
+        int start = LogFileWriter.FILENAME.length() + 1;
+        if (!name.startsWith(LogFileWriter.FILENAME + "_") || name.length() <= start || !Character.isLetter(name.charAt(start)))
+            return LogProcess.MAIN;
+        int end = name.indexOf('_', start);
+        return end < 0 ? LogProcess.MAIN : name.substring(start, end);
+    }
+
+    /**
+     * @param segment also its compressed copy or its {@link SegmentIndex}
+     * @return the pid of the process that wrote the segment, 0 if it is not part of the name
+     */
+    public static int getPid(@NonNull File segment) {
+        String name = segment.getName();
+        int start = LogFileWriter.FILENAME.length() + 1;
+        if (!name.startsWith(LogFileWriter.FILENAME + "_") || name.length() <= start || !Character.isLetter(name.charAt(start)))
+            return 0;
+        start = name.indexOf('_', start) + 1;
+        int end = start > 0 ? name.indexOf('_', start) : -1;
+        if (end < 0)
+            return 0;
+        try {
+            return Integer.parseInt(name.substring(start, end));
+        } catch (NumberFormatException exception) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param segment also its compressed copy or its {@link SegmentIndex}
+     * @return the time the segment was created, 0 if it is not part of the name
+     */
+    static long getCreationTime(@NonNull File segment) {
+        String name = segment.getName();
+        if (getPid(segment) == 0)
+            return 0;
+        int start = name.indexOf('_', name.indexOf('_', LogFileWriter.FILENAME.length() + 1) + 1) + 1;
+        int end = name.indexOf('_', start);
+        if (end < 0)
+            return 0;
+        try {
+            return Long.parseLong(name.substring(start, end));
+        } catch (NumberFormatException exception) {
+            return 0;
+        }
+    }
+
+    /**
+     * Orders the segments of a process by the time they were created (stable, for segments without one)
+     */
+    private static final Comparator<File> CREATED_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File lhs, File rhs) {
+            long lhsCreated = getCreationTime(lhs);
+            long rhsCreated = getCreationTime(rhs);
+            return lhsCreated < rhsCreated ? -1 : (lhsCreated == rhsCreated ? 0 : 1);
+        }
+    };
+
+    /**
+     * Lists all the segments in the log folder (files still being compressed and {@link SegmentIndex} files
+     * are left out), oldest first
+     *
+     * @param logFolder
+     * @return an empty list if the folder does not exist
+     */
+    public static List<File> listSegments(@NonNull File logFolder) {
+        File[] files = logFolder.listFiles();
+        if (files == null || files.length == 0)
+            return Collections.emptyList();
+        List<File> segments = new ArrayList<>(files.length);
+        // other processes keep writing to their segments, the times must not change while sorting
+        final Map<File, Long> lastModified = new HashMap<>(files.length);
+        for (File file : files) {
+            if (!file.getName().endsWith(PARTIAL_SUFFIX) && !SegmentIndex.isIndexFile(file)) {
+                segments.add(file);
+                lastModified.put(file, file.lastModified());
+            }
+        }
+        Collections.sort(segments, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lastModified.get(lhs);
+                long rhsModified = lastModified.get(rhs);
+                if (lhsModified != rhsModified)
+                    return lhsModified < rhsModified ? -1 : 1;
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        });
+        return segments;
+    }
+
+    /**
+     * Lists the segments written by one process (in this or earlier runs), oldest first
+     *
+     * @param logFolder
+     * @param processLabel null for the segments of all processes
+     * @return an empty list if the folder does not exist
+     */
+    public static List<File> listSegments(@NonNull File logFolder, @Nullable String processLabel) {
+        List<File> segments = listSegments(logFolder);
+        if (processLabel == null)
+            return segments;
+        List<File> result = new ArrayList<>(segments.size());
+        for (File segment : segments) {
+            if (processLabel.equals(getProcessLabel(segment)))
+                result.add(segment);
+        }
+        return result;
+    }
+
+    /**
+     * @param segments
+     * @return the segments by the label of the process that wrote them, in the order they were created
+     * within every process (segments named before processes had their own first, in the order of the list)
+     */
+    static Map<String, List<File>> groupByProcess(@NonNull List<File> segments) {
+        Map<String, List<File>> groups = new LinkedHashMap<>();
+        for (File segment : segments) {
+            String processLabel = getProcessLabel(segment);
+            List<File> group = groups.get(processLabel);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(processLabel, group);
+            }
+            group.add(segment);
+        }
+        for (List<File> group : groups.values())
+            Collections.sort(group, CREATED_FIRST);
+        return groups;
+    }
+
+    /**
+     * @param logFolder
+     * @return the labels of the processes none of whose segments was written by a process still running,
+     * their segments are no longer trimmed to the budget by the process itself
+     */
+    public static List<String> listStoppedProcesses(@NonNull File logFolder) {
+        List<String> processLabels = new ArrayList<>();
+        for (Map.Entry<String, List<File>> group : groupByProcess(listSegments(logFolder)).entrySet()) {
+            boolean running = false;
+            for (File segment : group.getValue()) {
+                if (LogProcess.isRunning(getPid(segment))) {
+                    running = true;
+                    break;
+                }
+            }
+            if (!running)
+                processLabels.add(group.getKey());
+        }
+        return processLabels;
+    }
+
+    /**
+     * Deletes the oldest segments of any process until the log folder fits the budget of the {@link RotationPolicy}
+     *
+     * @param logFolder
+     * @param activeSegment  the segment currently being written to (OPTIONAL)
+     * @param rotationPolicy
+     * @return the number of segments deleted
+     * @see #enforceBudget(File, String, File, RotationPolicy)
+     */
+    public static int enforceBudget(@NonNull File logFolder, @Nullable File activeSegment, @NonNull RotationPolicy rotationPolicy) {
+        return enforceBudget(logFolder, null, activeSegment, rotationPolicy);
+    }
+
+    /**
+     * Deletes the oldest segments of a process until the log folder fits the budget of the {@link RotationPolicy}
+     * The budget is for the whole folder, shared by all the processes of the app, but every process deletes only
+     * its own segments, so that none deletes the segment another is writing to (the main process also trims the
+     * segments of processes that are not running, see {@link #listStoppedProcesses(File)})
+     * The segments currently being written to (the latest one of every process still running) count as files but
+     * not towards the bytes (a freshly mapped segment is mostly padding), and are never deleted
+     * The index of a segment goes with it and does not count
+     *
+     * @param logFolder
+     * @param processLabel   null for the segments of all processes
+     * @param activeSegment  the segment currently being written to by this process (OPTIONAL)
+     * @param rotationPolicy
+     * @return the number of segments deleted
+     */
+    public static int enforceBudget(@NonNull File logFolder, @Nullable String processLabel, @Nullable File activeSegment, @NonNull RotationPolicy rotationPolicy) {
+        if (!rotationPolicy.hasBudget())
+            return 0;
+        List<File> segments = listSegments(logFolder);
+        Set<File> activeSegments = findActiveSegments(segments, activeSegment);
+        long totalBytes = 0;
+        for (File segment : segments) {
+            if (!activeSegments.contains(segment))
+                totalBytes += segment.length();
+        }
+        int fileCount = segments.size();
+        int deleted = 0;
+        for (File segment : segments) {
+            if (!isOverBudget(rotationPolicy, totalBytes, fileCount))
+                break;
+            if (activeSegments.contains(segment) || (processLabel != null && !processLabel.equals(getProcessLabel(segment))))
+                continue;
+            long length = segment.length();
+            if (segment.delete()) {
+                SegmentIndex.getIndexFile(segment).delete();
+                totalBytes -= length;
+                fileCount--;
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @param segments      the segments of the log folder
+     * @param activeSegment the segment currently being written to by this process (OPTIONAL)
+     * @return the segment of this process and the latest segment of every other process still running
+     */
+    private static Set<File> findActiveSegments(List<File> segments, @Nullable File activeSegment) {
+        Set<File> activeSegments = new HashSet<>();
+        if (activeSegment != null)
+            activeSegments.add(activeSegment);
+        for (List<File> group : groupByProcess(segments).values()) {
+            File latest = group.get(group.size() - 1);
+            if (!latest.equals(activeSegment) && getPid(latest) != LogProcess.getPid() && LogProcess.isRunning(getPid(latest)))
+                activeSegments.add(latest);
+        }
+        return activeSegments;
+    }
+
+    private static boolean isOverBudget(RotationPolicy rotationPolicy, long totalBytes, int fileCount) {
+        return (rotationPolicy.getMaxTotalBytes() > 0 && totalBytes > rotationPolicy.getMaxTotalBytes())
+                || (rotationPolicy.getMaxFileCount() > 0 && fileCount > rotationPolicy.getMaxFileCount());
+    }
+}
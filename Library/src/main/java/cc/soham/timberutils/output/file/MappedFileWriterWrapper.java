@@ -0,0 +1,232 @@
+package cc.soham.timberutils.output.file;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A {@link FileWriterWrapper} that appends lines into a pre-sized {@link MappedByteBuffer} region of the
+ * log file instead of going through a {@link FileWriter}
+ * - a write is a plain memory copy, the kernel writes the dirty pages back on its own
+ * - lines already written survive the process being killed (they are in the page cache), so a flush
+ * does not need a syscall
+ * - when a region is full the next region of the same file is mapped (the file grows), a line that
+ * could take the file past {@link #MAX_FILE_SIZE} rotates the segment (see {@link RotationPolicy}) instead
+ * - on close the file is truncated to the bytes actually written, text files left behind by a killed
+ * process have their zero padding trimmed the next time a writer is opened (binary segments are read
+ * up to the first zero length entry instead)
+ */
+public class MappedFileWriterWrapper extends FileWriterWrapper {
+    public static final String SUFFIX = ".mlog";
+    public static final int REGION_SIZE = 256 * 1024;
+    public static final long MAX_FILE_SIZE = 4 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // trailing zero padding of unclean files is only trimmed once per process
+    private static boolean recovered = false;
+
+    private final CharsetEncoder encoder = UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // wraps the line array handed to writeLine
+    private CharBuffer lineBuffer;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel fileChannel;
+    private MappedByteBuffer buffer;
+    // offset in the file at which the current region starts
+    private long regionStart;
+
+    @Override
+    public int getType() {
+        return WRITER_TYPE_MAPPED;
+    }
+
+    @Override
+    protected void openWriter(File logFolder) throws IOException {
+        if (!recovered) {
+            recovered = true;
+            trimUncleanFiles(logFolder, getProcessLabel());
+        }
+        File file = createSegmentFile(logFolder, isBinarySegment() ? BINARY_SUFFIX : SUFFIX);
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        fileChannel = randomAccessFile.getChannel();
+        mapRegion(0);
+        onSegmentOpened(file);
+    }
+
+    @Override
+    protected boolean isWriterOpen() {
+        return fileChannel != null;
+    }
+
+    /**
+     * Roll over before an entry rather than splitting it between two files
+     *
+     * @param estimatedBytes
+     * @return
+     */
+    @Override
+    protected boolean shouldRotateBefore(long estimatedBytes) {
+        long position = getPosition();
+        return position > 0 && position + estimatedBytes > MAX_FILE_SIZE;
+    }
+
+    @Override
+    protected void writeLine(char[] line, int length) throws IOException {
+        // the same array is handed in for every line (unless it had to grow), so is the CharBuffer on it
+        if (lineBuffer == null || lineBuffer.array() != line)
+            lineBuffer = CharBuffer.wrap(line);
+        lineBuffer.limit(length).position(0);
+        CharBuffer chars = lineBuffer;
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                nextRegion();
+            } else if (result.isError()) {
+                result.throwException();
+            } else {
+                break;
+            }
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            nextRegion();
+        }
+        if (!buffer.hasRemaining())
+            nextRegion();
+        buffer.put((byte) '\n');
+    }
+
+    @Override
+    protected void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!buffer.hasRemaining())
+                nextRegion();
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Nothing to do, the written bytes are already in the page cache
+     */
+    @Override
+    protected void flushWriter() {
+    }
+
+    /**
+     * Writes the dirty pages of the file back, including those of regions no longer mapped
+     *
+     * @throws IOException
+     */
+    @Override
+    protected void syncWriter() throws IOException {
+        buffer.force();
+        fileChannel.force(false);
+    }
+
+    @Override
+    protected void closeWriter() throws IOException {
+        long length = getPosition();
+        buffer = null;
+        try {
+            fileChannel.truncate(length);
+        } finally {
+            fileChannel.close();
+            randomAccessFile.close();
+            fileChannel = null;
+            randomAccessFile = null;
+        }
+    }
+
+    /**
+     * @return the number of bytes written to the current file
+     */
+    private long getPosition() {
+        return regionStart + (buffer == null ? 0 : buffer.position());
+    }
+
+    /**
+     * The current region is full, map the next one
+     *
+     * @throws IOException
+     */
+    private void nextRegion() throws IOException {
+        mapRegion(getPosition());
+    }
+
+    /**
+     * Map {@link #REGION_SIZE} bytes of the file starting at the given offset
+     *
+     * @param start
+     * @throws IOException
+     */
+    private void mapRegion(long start) throws IOException {
+        regionStart = start;
+        buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE);
+    }
+
+    /**
+     * Trims the zero padding left at the end of mapped files by a process that was killed before it
+     * could close them
+     * Only the files of one process are trimmed, another process may be writing to its own right now
+     *
+     * @param logFolder
+     * @param processLabel
+     */
+    static void trimUncleanFiles(File logFolder, String processLabel) {
+        File[] files = logFolder.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX) && file.length() > 0 && processLabel.equals(LogSegments.getProcessLabel(file))) {
+                try {
+                    trimZeroPadding(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Truncate a file after its last non zero byte
+     *
+     * @param file
+     * @throws IOException
+     */
+    private static void trimZeroPadding(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            byte[] chunk = new byte[8 * 1024];
+            long end = randomAccessFile.length();
+            while (end > 0) {
+                int length = (int) Math.min(chunk.length, end);
+                randomAccessFile.seek(end - length);
+                randomAccessFile.readFully(chunk, 0, length);
+                int index = length - 1;
+                while (index >= 0 && chunk[index] == 0)
+                    index--;
+                if (index >= 0) {
+                    end = end - length + index + 1;
+                    break;
+                }
+                end -= length;
+            }
+            if (end < randomAccessFile.length())
+                randomAccessFile.setLength(end);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package cc.soham.timberutils.output.file;
+
+/**
+ * Decides what a {@link BoundedLogQueue} does with a record once it holds maxRecords records or
+ * maxChars characters
+ * - {@link #BLOCK}: the logging thread waits up to blockTimeoutMillis for room, then the record is dropped
+ * - {@link #DROP_NEWEST}: the record is dropped
+ * - {@link #DROP_OLDEST}: the oldest records below ERROR are dropped to make room
+ * - {@link #DROP_LOWEST_PRIORITY}: the oldest records of the lowest priority (up to the priority of the
+ * record) are dropped to make room
+ * ERROR and ASSERT records are never dropped by the policy: they get a reserve of extra room, and when that
+ * is used up lower priority records make room for them. Only a queue made up entirely of ERROR/ASSERT
+ * records drops one, so that memory stays bounded
+ */
+public class OverflowPolicy {
+    public static final int BLOCK = 0;
+    public static final int DROP_NEWEST = 1;
+    public static final int DROP_OLDEST = 2;
+    public static final int DROP_LOWEST_PRIORITY = 3;
+
+    public static final int DEFAULT_MAX_RECORDS = 1024;
+    public static final long DEFAULT_MAX_CHARS = 1024 * 1024;
+    public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 100;
+
+    private final int policy;
+    private final int maxRecords;
+    private final long maxChars;
+    private final long blockTimeoutMillis;
+
+    /**
+     * @param policy             {@link #BLOCK}, {@link #DROP_NEWEST}, {@link #DROP_OLDEST} or {@link #DROP_LOWEST_PRIORITY}
+     * @param maxRecords         records the queue holds before the policy applies
+     * @param maxChars           characters (messages, tags, an estimate per throwable) the queue holds before
+     *                           the policy applies
+     * @param blockTimeoutMillis longest time a logging thread waits with {@link #BLOCK}
+     */
+    public OverflowPolicy(int policy, int maxRecords, long maxChars, long blockTimeoutMillis) {
+        if (policy < BLOCK || policy > DROP_LOWEST_PRIORITY)
+            throw new IllegalArgumentException("Unknown overflow policy " + policy);
+        if (maxRecords <= 0 || maxChars <= 0 || blockTimeoutMillis < 0)
+            throw new IllegalArgumentException("OverflowPolicy limits have to be positive");
+        this.policy = policy;
+        this.maxRecords = maxRecords;
+        this.maxChars = maxChars;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /**
+     * Drops the newest record once the default limits are reached (the behaviour of the {@link AsyncLogWriter}
+     * before overflow policies existed)
+     *
+     * @return
+     */
+    public static OverflowPolicy defaults() {
+        return new OverflowPolicy(DROP_NEWEST, DEFAULT_MAX_RECORDS, DEFAULT_MAX_CHARS, DEFAULT_BLOCK_TIMEOUT_MILLIS);
+    }
+
+    public int getPolicy() {
+        return policy;
+    }
+
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    public long getMaxChars() {
+        return maxChars;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+}
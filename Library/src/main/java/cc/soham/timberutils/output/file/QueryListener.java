@@ -0,0 +1,19 @@
+package cc.soham.timberutils.output.file;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives the records matching a {@link LogQuery} from {@link LogReader}, oldest segment first
+ * Called on the thread running the query
+ */
+public interface QueryListener {
+    /**
+     * A matching record
+     *
+     * @param timestamp
+     * @param priority
+     * @param record    the record in the text format, followed by its stack trace lines if any
+     * @return false to stop the query
+     */
+    boolean onRecord(long timestamp, int priority, @NonNull String record);
+}
@@ -0,0 +1,337 @@
+package cc.soham.timberutils.output.file;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import cc.soham.timberutils.reporting.BinaryRecordDecoder;
+
+/**
+ * Reads the records of the segments of one process one at a time, in the text format, for the merge done by
+ * {@link LogExporter} when the log folder holds the segments of several processes
+ * - records are recognised as by {@link LogReader}, the lines that follow a record (stack traces) belong to it
+ * - lines that belong to no record (the start message) are handed out with the record that follows them, or
+ * on their own once they add up to {@link #MAX_PENDING_CHARS} (a text segment written by another
+ * {@link cc.soham.timberutils.reporting.LogFormatter} has no line that starts a record)
+ * - the segment another process is still writing to is read up to what is on disk, an entry cut short at
+ * its end is left out
+ */
+class RecordCursor {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    static final int MAX_PENDING_CHARS = 64 * 1024;
+
+    private final List<File> segments;
+    private int segmentPosition;
+    // the open segment, one of the two is set
+    private InputStream inputStream;
+    private BufferedReader reader;
+    private BinaryRecordDecoder decoder;
+    private String processLabel;
+    private int pid;
+    // the start of the next record, already read while looking for the end of the current one
+    private String nextLine;
+    private boolean nextEntry;
+    // lines read that belong to no record yet
+    private final StringBuilder pendingLines = new StringBuilder();
+    // the current record
+    private long timestamp;
+    private int priority;
+    private final StringBuilder record = new StringBuilder(256);
+    private String recordProcessLabel;
+    private int recordPid;
+    // the start of the last text line parsed
+    private long lineTimestamp;
+    private int linePriority;
+    // counters
+    private int segmentCount;
+    private int missingSegmentCount;
+    private long sourceBytes;
+
+    /**
+     * @param segments the segments of one process, oldest first
+     */
+    RecordCursor(@NonNull List<File> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Move to the next record
+     *
+     * @return false once all the segments have been read
+     * @throws IOException
+     */
+    boolean next() throws IOException {
+        while (true) {
+            if (reader == null && decoder == null && !openNextSegment()) {
+                if (pendingLines.length() == 0)
+                    return false;
+                // lines at the very end, after the last record
+                startPendingRecord();
+                return true;
+            }
+            if (decoder != null ? nextBinary() : nextText())
+                return true;
+            closeSegment();
+        }
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the current record in the text format, with the lines that follow it
+     */
+    StringBuilder getRecord() {
+        return record;
+    }
+
+    /**
+     * @return the label of the process that wrote the current record
+     */
+    String getProcessLabel() {
+        return recordProcessLabel;
+    }
+
+    /**
+     * @return the pid of the process that wrote the current record, 0 if unknown
+     */
+    int getPid() {
+        return recordPid;
+    }
+
+    int getSegmentCount() {
+        return segmentCount;
+    }
+
+    int getMissingSegmentCount() {
+        return missingSegmentCount;
+    }
+
+    long getSourceBytes() {
+        return sourceBytes;
+    }
+
+    void close() throws IOException {
+        closeSegment();
+        segmentPosition = segments.size();
+    }
+
+    /**
+     * Open the next segment that still exists, the rotation budget or the {@link SegmentCompressor} of
+     * the process that wrote it may have removed it since it was listed
+     *
+     * @return false if there are no more segments
+     * @throws IOException
+     */
+    private boolean openNextSegment() throws IOException {
+        while (segmentPosition < segments.size()) {
+            File segment = segments.get(segmentPosition++);
+            try {
+                if (openSegment(segment))
+                    return true;
+            } catch (FileNotFoundException exception) {
+                File compressed = SegmentCompressor.getCompressedFile(segment);
+                try {
+                    if (SegmentCompressor.isCompressed(segment))
+                        throw exception;
+                    if (openSegment(compressed))
+                        return true;
+                } catch (FileNotFoundException missing) {
+                    missingSegmentCount++;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param segment
+     * @return false if the segment is empty (just opened by another process)
+     * @throws IOException
+     */
+    private boolean openSegment(File segment) throws IOException {
+        InputStream segmentInputStream = new FileInputStream(segment);
+        long length = segment.length();
+        segmentCount++;
+        if (length == 0) {
+            segmentInputStream.close();
+            return false;
+        }
+        sourceBytes += length;
+        processLabel = LogSegments.getProcessLabel(segment);
+        pid = LogSegments.getPid(segment);
+        inputStream = SegmentCompressor.isCompressed(segment)
+                ? new GZIPInputStream(segmentInputStream, LogReader.BUFFER_SIZE)
+                : new BufferedInputStream(segmentInputStream, LogReader.BUFFER_SIZE);
+        if (LogReader.isBinarySegment(segment))
+            decoder = new BinaryRecordDecoder(inputStream);
+        else
+            reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8), LogReader.BUFFER_SIZE);
+        return true;
+    }
+
+    private void closeSegment() throws IOException {
+        InputStream closing = inputStream;
+        inputStream = null;
+        reader = null;
+        decoder = null;
+        nextLine = null;
+        nextEntry = false;
+        if (closing != null)
+            closing.close();
+    }
+
+    private boolean nextText() throws IOException {
+        String line = nextLine;
+        nextLine = null;
+        while (line == null || !parseRecordStart(line)) {
+            if (line != null && appendPendingLine(line)) {
+                startPendingRecord();
+                return true;
+            }
+            line = readLine();
+            if (line == null)
+                return false;
+        }
+        startRecord(lineTimestamp, linePriority);
+        record.append(line);
+        while ((line = readLine()) != null) {
+            if (parseRecordStart(line)) {
+                nextLine = line;
+                break;
+            }
+            record.append('\n').append(line);
+        }
+        return true;
+    }
+
+    private boolean nextBinary() throws IOException {
+        boolean positioned = nextEntry;
+        nextEntry = false;
+        while (true) {
+            if (!positioned && !nextDecoderEntry())
+                return false;
+            positioned = false;
+            if (!decoder.isText())
+                break;
+            if (appendPendingLine(decoder.getMessage())) {
+                startPendingRecord();
+                return true;
+            }
+        }
+        startRecord(decoder.getTimestamp(), decoder.getPriority());
+        decoder.appendText(record);
+        while (nextDecoderEntry()) {
+            if (!decoder.isText()) {
+                nextEntry = true;
+                break;
+            }
+            record.append('\n').append(decoder.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * @return the next line of the text segment, null at its end
+     * @throws IOException
+     */
+    private String readLine() throws IOException {
+        String line = reader.readLine();
+        // zero padding of a mapped segment
+        if (line != null && line.length() > 0 && line.charAt(0) == 0)
+            return null;
+        return line;
+    }
+
+    /**
+     * @return false at the end of the binary segment
+     * @throws IOException
+     */
+    private boolean nextDecoderEntry() throws IOException {
+        try {
+            return decoder.next();
+        } catch (EOFException exception) {
+            // the segment is still being written to
+            return false;
+        }
+    }
+
+    /**
+     * @param line
+     * @return true once the lines add up to {@link #MAX_PENDING_CHARS}, to be handed out on their own
+     */
+    private boolean appendPendingLine(String line) {
+        if (pendingLines.length() > 0)
+            pendingLines.append('\n');
+        pendingLines.append(line);
+        return pendingLines.length() >= MAX_PENDING_CHARS;
+    }
+
+    /**
+     * Hand out the lines that belong to no record as a record of their own, at the time and priority of
+     * the record before them (0 at the start)
+     */
+    private void startPendingRecord() {
+        recordProcessLabel = processLabel;
+        recordPid = pid;
+        record.setLength(0);
+        record.append(pendingLines);
+        pendingLines.setLength(0);
+    }
+
+    private void startRecord(long timestamp, int priority) {
+        this.timestamp = timestamp;
+        this.priority = priority;
+        recordProcessLabel = processLabel;
+        recordPid = pid;
+        record.setLength(0);
+        if (pendingLines.length() > 0) {
+            record.append(pendingLines);
+            pendingLines.setLength(0);
+            if (reader != null || decoder != null)
+                record.append('\n');
+        }
+    }
+
+    /**
+     * Parse "priority, timestamp, " into {@link #linePriority} and {@link #lineTimestamp}
+     *
+     * @param line
+     * @return false if the line does not start a record
+     */
+    private boolean parseRecordStart(String line) {
+        int length = line.length();
+        int index = 0;
+        int parsedPriority = 0;
+        while (index < length && index < 2 && Character.isDigit(line.charAt(index)))
+            parsedPriority = parsedPriority * 10 + line.charAt(index++) - '0';
+        if (index == 0 || !line.startsWith(", ", index))
+            return false;
+        index += 2;
+        int start = index;
+        long parsedTimestamp = 0;
+        while (index < length && index - start < 19 && Character.isDigit(line.charAt(index)))
+            parsedTimestamp = parsedTimestamp * 10 + line.charAt(index++) - '0';
+        if (index == start || !line.startsWith(", ", index))
+            return false;
+        linePriority = parsedPriority;
+        lineTimestamp = parsedTimestamp;
+        return true;
+    }
+}
@@ -0,0 +1,92 @@
+package cc.soham.timberutils.output.file;
+
+/**
+ * Decides when the {@link FileWriterWrapper} seals the current log file (segment) and starts a new one,
+ * and how much the log folder is allowed to hold
+ * - a segment is rotated once it holds maxSegmentBytes bytes or is older than maxSegmentAgeMillis
+ * - after every rotation the oldest sealed segments are deleted until the folder is within maxTotalBytes
+ * and maxFileCount
+ * The budget is for the folder as a whole, whatever the number of processes writing to it: a process deletes only
+ * its own segments, as many as it takes for the folder to fit (a process writing a lot uses up its own history
+ * first), only the segments being written to at the time can take the folder over the budget
+ * A limit of 0 disables that particular check
+ */
+public class RotationPolicy {
+    /**
+     * Never rotates and never deletes anything (the behaviour before rotation policies existed)
+     */
+    public static final RotationPolicy NONE = new RotationPolicy(0, 0, 0, 0);
+
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 512 * 1024;
+    public static final long DEFAULT_MAX_SEGMENT_AGE_MILLIS = 60 * 60 * 1000;
+    public static final long DEFAULT_MAX_TOTAL_BYTES = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILE_COUNT = 32;
+
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeMillis;
+    private final long maxTotalBytes;
+    private final int maxFileCount;
+
+    /**
+     * @param maxSegmentBytes     rotate once the current segment holds this many bytes (0 to disable)
+     * @param maxSegmentAgeMillis rotate once the current segment is this old (0 to disable)
+     * @param maxTotalBytes       bytes the log folder may hold, oldest segments are deleted first (0 to disable)
+     * @param maxFileCount        files the log folder may hold, oldest segments are deleted first (0 to disable)
+     */
+    public RotationPolicy(long maxSegmentBytes, long maxSegmentAgeMillis, long maxTotalBytes, int maxFileCount) {
+        if (maxSegmentBytes < 0 || maxSegmentAgeMillis < 0 || maxTotalBytes < 0 || maxFileCount < 0)
+            throw new IllegalArgumentException("RotationPolicy limits cannot be negative");
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentAgeMillis = maxSegmentAgeMillis;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxFileCount = maxFileCount;
+    }
+
+    /**
+     * A policy using the default segment size/age and disk budget
+     *
+     * @return
+     */
+    public static RotationPolicy defaults() {
+        return new RotationPolicy(DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_MAX_SEGMENT_AGE_MILLIS, DEFAULT_MAX_TOTAL_BYTES, DEFAULT_MAX_FILE_COUNT);
+    }
+
+    /**
+     * Whether the current segment needs to be sealed
+     *
+     * @param segmentBytes    bytes written to the current segment
+     * @param segmentOpenTime time at which the current segment was opened
+     * @param now
+     * @return
+     */
+    public boolean shouldRotate(long segmentBytes, long segmentOpenTime, long now) {
+        if (segmentBytes <= 0)
+            return false;
+        if (maxSegmentBytes > 0 && segmentBytes >= maxSegmentBytes)
+            return true;
+        return maxSegmentAgeMillis > 0 && now - segmentOpenTime >= maxSegmentAgeMillis;
+    }
+
+    /**
+     * @return true if this policy limits the size of the log folder
+     */
+    public boolean hasBudget() {
+        return maxTotalBytes > 0 || maxFileCount > 0;
+    }
+
+    public long getMaxSegmentBytes() {
+        return maxSegmentBytes;
+    }
+
+    public long getMaxSegmentAgeMillis() {
+        return maxSegmentAgeMillis;
+    }
+
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    public int getMaxFileCount() {
+        return maxFileCount;
+    }
+}
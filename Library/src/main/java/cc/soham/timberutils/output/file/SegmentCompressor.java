@@ -0,0 +1,158 @@
+package cc.soham.timberutils.output.file;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses sealed segments into gzip files on a low priority background thread, so that the
+ * deflate work is spread over the lifetime of the app instead of happening when logs are exported
+ * - "l_123.tmp" becomes "l_123.tmp.gz" with the same modification time (the age order of the segments is kept)
+ * - the gzip file is written under a temporary name and the segment is only deleted once it is complete
+ * - the segment currently written to is never compressed
+ */
+public class SegmentCompressor {
+    public static final String GZIP_SUFFIX = ".gz";
+    public static final String THREAD_NAME = "TimberUtils-SegmentCompressor";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static ExecutorService executorService;
+
+    /**
+     * @param segment
+     * @return true if the segment has been compressed
+     */
+    public static boolean isCompressed(@NonNull File segment) {
+        return segment.getName().endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * @param segment
+     * @return the file the segment is compressed into
+     */
+    public static File getCompressedFile(@NonNull File segment) {
+        return new File(segment.getPath() + GZIP_SUFFIX);
+    }
+
+    /**
+     * Queue a sealed segment for compression
+     *
+     * @param segment
+     * @param level   the {@link java.util.zip.Deflater} level, 1 to 9
+     */
+    public static void compressAsync(@NonNull final File segment, final int level) {
+        getExecutorService().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compress(segment, level);
+                } catch (IOException exception) {
+                    exception.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue all the uncompressed segments of the log folder (left behind by earlier runs) for compression
+     *
+     * @param logFolder
+     * @param activeSegment the segment currently being written to (OPTIONAL)
+     * @param level         the {@link java.util.zip.Deflater} level, 1 to 9
+     */
+    public static void compressSealedSegmentsAsync(@NonNull File logFolder, @Nullable File activeSegment, int level) {
+        compressSealedSegmentsAsync(logFolder, null, activeSegment, level);
+    }
+
+    /**
+     * Queue the uncompressed segments a process left behind in earlier runs for compression, the segments
+     * of other processes are left alone (they may still be writing to them), unless none of them is running
+     * (see {@link LogSegments#listStoppedProcesses(File)})
+     *
+     * @param logFolder
+     * @param processLabel  null for the segments of all processes
+     * @param activeSegment the segment currently being written to (OPTIONAL)
+     * @param level         the {@link java.util.zip.Deflater} level, 1 to 9
+     */
+    public static void compressSealedSegmentsAsync(@NonNull File logFolder, @Nullable String processLabel, @Nullable File activeSegment, int level) {
+        for (File segment : LogSegments.listSegments(logFolder, processLabel)) {
+            if (!isCompressed(segment) && !segment.equals(activeSegment))
+                compressAsync(segment, level);
+        }
+    }
+
+    /**
+     * Compress a sealed segment on the calling thread and delete it
+     *
+     * @param segment
+     * @param level   the {@link java.util.zip.Deflater} level, 1 to 9
+     * @return the compressed file, null if the segment no longer exists
+     * @throws IOException
+     */
+    public static File compress(@NonNull File segment, final int level) throws IOException {
+        long lastModified = segment.lastModified();
+        InputStream inputStream;
+        try {
+            inputStream = new FileInputStream(segment);
+        } catch (FileNotFoundException exception) {
+            // deleted by the rotation budget in the meantime
+            return null;
+        }
+        File compressed = getCompressedFile(segment);
+        File partial = new File(compressed.getPath() + LogSegments.PARTIAL_SUFFIX);
+        boolean complete = false;
+        try {
+            OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(partial), BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int length;
+                while ((length = inputStream.read(buffer)) > 0) {
+                    outputStream.write(buffer, 0, length);
+                }
+            } finally {
+                outputStream.close();
+            }
+            complete = partial.renameTo(compressed);
+        } finally {
+            inputStream.close();
+            if (!complete)
+                partial.delete();
+        }
+        if (!complete)
+            throw new IOException("Could not rename " + partial + " to " + compressed);
+        compressed.setLastModified(lastModified);
+        segment.delete();
+        return compressed;
+    }
+
+    private static synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, THREAD_NAME);
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return executorService;
+    }
+}
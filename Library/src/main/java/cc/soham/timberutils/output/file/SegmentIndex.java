@@ -0,0 +1,382 @@
+package cc.soham.timberutils.output.file;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A small sparse index of a segment, maintained by the {@link FileWriterWrapper} while it writes and
+ * saved next to the segment ("l_123.tmp" gets "l_123.tmp.idx") once the segment is closed
+ * - the earliest and latest timestamp and the number of records of every priority
+ * - the records are split into blocks of {@link #getInterval()} records: for every block the byte offset
+ * it starts at, its earliest and latest timestamp and the priorities it holds (as a bit mask)
+ * - a {@link LogQuery} skips segments and blocks that cannot match and seeks straight to the others
+ * (see {@link LogReader})
+ * Offsets are in the uncompressed segment, a block of a binary segment starts with a fresh tag dictionary
+ * and the index keeps the timestamp its first record is encoded relative to, so that it can be decoded on its own
+ * A segment left behind by a killed process has no index, it is read from the start
+ * Not thread safe: the writer only changes its index under its own lock, readers get a {@link #snapshot()}
+ */
+public class SegmentIndex {
+    public static final String SUFFIX = ".idx";
+    public static final int DEFAULT_INTERVAL = 256;
+
+    // "TIDX"
+    private static final int MAGIC = 0x54494458;
+    private static final int VERSION = 1;
+
+    private final int format;
+    private final int interval;
+    private long recordCount;
+    private long firstTimestamp = Long.MAX_VALUE;
+    private long lastTimestamp = Long.MIN_VALUE;
+    // indexed by priority, Log.VERBOSE (2) to Log.ASSERT (7)
+    private final long[] priorityCounts = new long[Log.ASSERT + 1];
+    // bytes of the segment covered by the index
+    private long endOffset;
+
+    private int blockCount;
+    private long[] blockOffsets = new long[16];
+    private long[] blockFirstTimestamps = new long[16];
+    private long[] blockLastTimestamps = new long[16];
+    private long[] blockBaseTimestamps = new long[16];
+    private int[] blockPriorityMasks = new int[16];
+
+    /**
+     * @param format   {@link FileWriterWrapper#FORMAT_TEXT} or {@link FileWriterWrapper#FORMAT_BINARY}
+     * @param interval the number of records per block
+     */
+    public SegmentIndex(int format, int interval) {
+        if (interval <= 0)
+            throw new IllegalArgumentException("The interval must be positive");
+        this.format = format;
+        this.interval = interval;
+    }
+
+    /**
+     * @param segment a segment, compressed or not
+     * @return the file the index of the segment is saved in
+     */
+    public static File getIndexFile(@NonNull File segment) {
+        String path = segment.getPath();
+        if (SegmentCompressor.isCompressed(segment))
+            path = path.substring(0, path.length() - SegmentCompressor.GZIP_SUFFIX.length());
+        return new File(path + SUFFIX);
+    }
+
+    /**
+     * @param file
+     * @return true if the file is the index of a segment
+     */
+    public static boolean isIndexFile(@NonNull File file) {
+        return file.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * Read the index of a segment
+     *
+     * @param segment a segment, compressed or not
+     * @return null if the segment has no (readable) index
+     */
+    @Nullable
+    public static SegmentIndex read(@NonNull File segment) {
+        DataInputStream inputStream;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile(segment))));
+        } catch (FileNotFoundException exception) {
+            return null;
+        }
+        try {
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION)
+                return null;
+            SegmentIndex index = new SegmentIndex(inputStream.readInt(), inputStream.readInt());
+            index.recordCount = inputStream.readLong();
+            index.firstTimestamp = inputStream.readLong();
+            index.lastTimestamp = inputStream.readLong();
+            index.endOffset = inputStream.readLong();
+            for (int i = 0; i < index.priorityCounts.length; i++)
+                index.priorityCounts[i] = inputStream.readLong();
+            int blockCount = inputStream.readInt();
+            for (int i = 0; i < blockCount; i++)
+                index.addBlock(inputStream.readLong(), inputStream.readLong(), inputStream.readLong(), inputStream.readLong(), inputStream.readInt());
+            return index;
+        } catch (IOException exception) {
+            // written partially, the segment is read from the start instead
+            exception.printStackTrace();
+            return null;
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Save the index next to its segment, under a temporary name first so that a reader never sees
+     * half of it
+     *
+     * @param segment
+     * @throws IOException
+     */
+    public void write(@NonNull File segment) throws IOException {
+        File indexFile = getIndexFile(segment);
+        File partial = new File(indexFile.getPath() + LogSegments.PARTIAL_SUFFIX);
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial)));
+        boolean complete = false;
+        try {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeInt(format);
+            outputStream.writeInt(interval);
+            outputStream.writeLong(recordCount);
+            outputStream.writeLong(firstTimestamp);
+            outputStream.writeLong(lastTimestamp);
+            outputStream.writeLong(endOffset);
+            for (long priorityCount : priorityCounts)
+                outputStream.writeLong(priorityCount);
+            outputStream.writeInt(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                outputStream.writeLong(blockOffsets[i]);
+                outputStream.writeLong(blockFirstTimestamps[i]);
+                outputStream.writeLong(blockLastTimestamps[i]);
+                outputStream.writeLong(blockBaseTimestamps[i]);
+                outputStream.writeInt(blockPriorityMasks[i]);
+            }
+            outputStream.close();
+            complete = partial.renameTo(indexFile);
+        } finally {
+            if (!complete) {
+                outputStream.close();
+                partial.delete();
+            }
+        }
+        if (!complete)
+            throw new IOException("Could not rename " + partial + " to " + indexFile);
+    }
+
+    /**
+     * @return true if the next record starts a new block, the writer then calls {@link #startBlock(long, long)}
+     * before it encodes the record
+     */
+    public boolean isBlockStart() {
+        return recordCount % interval == 0;
+    }
+
+    /**
+     * @param offset        the byte offset the next record starts at
+     * @param baseTimestamp the timestamp a binary record is encoded relative to, 0 for text
+     */
+    public void startBlock(long offset, long baseTimestamp) {
+        addBlock(offset, Long.MAX_VALUE, Long.MIN_VALUE, baseTimestamp, 0);
+    }
+
+    /**
+     * Add a record to the current block, called by the writer for every record
+     *
+     * @param timestamp
+     * @param priority
+     */
+    public void onRecord(long timestamp, int priority) {
+        int block = blockCount - 1;
+        if (timestamp < blockFirstTimestamps[block])
+            blockFirstTimestamps[block] = timestamp;
+        if (timestamp > blockLastTimestamps[block])
+            blockLastTimestamps[block] = timestamp;
+        blockPriorityMasks[block] |= 1 << clampPriority(priority);
+        if (timestamp < firstTimestamp)
+            firstTimestamp = timestamp;
+        if (timestamp > lastTimestamp)
+            lastTimestamp = timestamp;
+        priorityCounts[clampPriority(priority)]++;
+        recordCount++;
+    }
+
+    /**
+     * @param endOffset the bytes written to the segment so far
+     */
+    public void setEndOffset(long endOffset) {
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * @return a copy that the writer no longer changes, for reading the segment being written
+     */
+    public SegmentIndex snapshot() {
+        SegmentIndex copy = new SegmentIndex(format, interval);
+        copy.recordCount = recordCount;
+        copy.firstTimestamp = firstTimestamp;
+        copy.lastTimestamp = lastTimestamp;
+        copy.endOffset = endOffset;
+        System.arraycopy(priorityCounts, 0, copy.priorityCounts, 0, priorityCounts.length);
+        for (int i = 0; i < blockCount; i++)
+            copy.addBlock(blockOffsets[i], blockFirstTimestamps[i], blockLastTimestamps[i], blockBaseTimestamps[i], blockPriorityMasks[i]);
+        return copy;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return the earliest timestamp of the segment, Long.MAX_VALUE if it holds no record
+     */
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * @return the latest timestamp of the segment, Long.MIN_VALUE if it holds no record
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @param priority
+     * @return the number of records of the priority in the segment
+     */
+    public long getPriorityCount(int priority) {
+        return priorityCounts[clampPriority(priority)];
+    }
+
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @param block
+     * @return the byte offset the block starts at
+     */
+    public long getBlockOffset(int block) {
+        return blockOffsets[block];
+    }
+
+    /**
+     * @param block
+     * @return the byte offset the block ends at (exclusive)
+     */
+    public long getBlockEnd(int block) {
+        return block + 1 < blockCount ? blockOffsets[block + 1] : endOffset;
+    }
+
+    /**
+     * @param block
+     * @return the timestamp the first binary record of the block is encoded relative to
+     */
+    public long getBlockBaseTimestamp(int block) {
+        return blockBaseTimestamps[block];
+    }
+
+    /**
+     * @param query
+     * @return false if no record of the segment can match the query
+     */
+    public boolean mayMatch(@NonNull LogQuery query) {
+        if (recordCount == 0 || !query.overlaps(firstTimestamp, lastTimestamp))
+            return false;
+        for (int priority = clampPriority(query.getMinPriority()); priority < priorityCounts.length; priority++) {
+            if (priorityCounts[priority] > 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The blocks that can hold matching records, adjacent blocks are merged into one range
+     *
+     * @param query
+     * @return pairs of first (inclusive) and last (exclusive) block
+     */
+    public int[] findBlockRanges(@NonNull LogQuery query) {
+        int[] ranges = new int[8];
+        int length = 0;
+        int priorityMask = ~((1 << clampPriority(query.getMinPriority())) - 1);
+        for (int i = 0; i < blockCount; i++) {
+            if ((blockPriorityMasks[i] & priorityMask) == 0 || !query.overlaps(blockFirstTimestamps[i], blockLastTimestamps[i]))
+                continue;
+            if (length > 0 && ranges[length - 1] == i) {
+                ranges[length - 1] = i + 1;
+                continue;
+            }
+            if (length + 2 > ranges.length)
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            ranges[length++] = i;
+            ranges[length++] = i + 1;
+        }
+        return Arrays.copyOf(ranges, length);
+    }
+
+    private void addBlock(long offset, long firstTimestamp, long lastTimestamp, long baseTimestamp, int priorityMask) {
+        if (blockCount == blockOffsets.length) {
+            int capacity = blockCount * 2;
+            blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+            blockFirstTimestamps = Arrays.copyOf(blockFirstTimestamps, capacity);
+            blockLastTimestamps = Arrays.copyOf(blockLastTimestamps, capacity);
+            blockBaseTimestamps = Arrays.copyOf(blockBaseTimestamps, capacity);
+            blockPriorityMasks = Arrays.copyOf(blockPriorityMasks, capacity);
+        }
+        blockOffsets[blockCount] = offset;
+        blockFirstTimestamps[blockCount] = firstTimestamp;
+        blockLastTimestamps[blockCount] = lastTimestamp;
+        blockBaseTimestamps[blockCount] = baseTimestamp;
+        blockPriorityMasks[blockCount] = priorityMask;
+        blockCount++;
+    }
+
+    /**
+     * The number of bytes a line takes in UTF-8, as written by the writers (an unpaired surrogate is
+     * replaced by a single '?'), the {@link java.io.FileWriter} uses the default charset which is always
+     * UTF-8 on Android
+     *
+     * @param chars
+     * @param length
+     * @return
+     */
+    static long utf8Length(char[] chars, int length) {
+        long bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 0x80)
+                continue;
+            if (c < 0x800) {
+                bytes++;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+                // 4 bytes for the pair
+                bytes += 2;
+                i++;
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    private static int clampPriority(int priority) {
+        return Math.max(0, Math.min(Log.ASSERT, priority));
+    }
+}
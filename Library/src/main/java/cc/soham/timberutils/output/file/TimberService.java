@@ -3,14 +3,24 @@ package cc.soham.timberutils.output.file;
 import android.app.IntentService;
 import android.content.Context;
 import android.content.Intent;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cc.soham.timberutils.record.LogFields;
+import cc.soham.timberutils.record.LogRecord;
 
 /**
  * Created by sohammondal on 17/08/16.
  * The {@link IntentService} that handles all logging operations
  * This delegates all the tasks to the {@link LogFileWriter}
+ * With {@link FileTimberTree#MODE_ASYNC} log statements are written by the {@link AsyncLogWriter} instead,
+ * and this service is only used for zip/export commands
+ * Log statements are not sent as Intents of their own: they are queued in a {@link BoundedLogQueue} (as per
+ * the {@link OverflowPolicy}) and a single drain Intent is sent whenever the service is not already due to
+ * drain it, so that neither the Intent queue nor Bundles holding throwables can grow without limit
  */
 public class TimberService extends IntentService {
     public static final String NAME = "TimberService";
@@ -18,18 +28,27 @@ public class TimberService extends IntentService {
     public static final String KEY_TAG = "key_tag";
     public static final String KEY_MESSAGE = "key_message";
     public static final String KEY_THROWABLE = "key_throwable";
+    public static final String KEY_TIMESTAMP = "key_timestamp";
 
     public static final String KEY_METHOD = "key_method";
 
     public static final int METHOD_LOG = 0;
     public static final int METHOD_ZIP = 1;
+    public static final int METHOD_DRAIN = 2;
 
     public static final int PRIORITY_INVALID = -1;
     public static final int PRIORITY_DEFAULT = Log.DEBUG;
+    public static final long TIMESTAMP_INVALID = -1;
 
     // used to put a "debuglogger started at _____" message at the top of the log
     private static boolean started = false;
 
+    private static final BoundedLogQueue queue = new BoundedLogQueue();
+    // held by the service while it writes a record, so that the segment is not sealed in the middle of it
+    static final Object writeLock = new Object();
+    // set while a drain Intent is on its way, so that one Intent covers any number of queued records
+    private static final AtomicBoolean drainScheduled = new AtomicBoolean();
+
     public TimberService() {
         super(NAME);
     }
@@ -39,6 +58,21 @@ public class TimberService extends IntentService {
         super.onCreate();
     }
 
+    /**
+     * The service stops once its queue of Intents is empty, make sure lines held back by the
+     * {@link FlushPolicy} reach the disk
+     */
+    @Override
+    public void onDestroy() {
+        try {
+            if (FileWriterWrapper.fileWriterWrapper != null)
+                FileWriterWrapper.fileWriterWrapper.flush();
+        } catch (IOException exception) {
+            exception.printStackTrace();
+        }
+        super.onDestroy();
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
         if (intent != null) {
@@ -46,12 +80,27 @@ public class TimberService extends IntentService {
                 int method = intent.getIntExtra(KEY_METHOD, METHOD_LOG);
                 switch (method) {
                     case METHOD_ZIP:
-                        String zipPath = LogFileWriter.handleZip(this);
-                        // TODO: send broadcast to update that zip files have been generated
-                        // include the zip path in the broadcast
+                        // records queued before the zip request belong in the archive
+                        drain();
+                        // sealed here, in order with the log Intents, the archive is written on the export thread
+                        LogExporter.exportAsync(this, null);
+                        break;
+                    case METHOD_DRAIN:
+                        drain();
                         break;
                     case METHOD_LOG:
                     default:
+                        long timestamp = TimberServiceIntentHelper.getTimestampFromIntent(intent);
+                        if (timestamp != TIMESTAMP_INVALID) {
+                            LogFileWriter.handleLog(this,
+                                    getFileWriterWrapper(),
+                                    timestamp,
+                                    TimberServiceIntentHelper.getPriorityFromIntent(intent),
+                                    TimberServiceIntentHelper.getTagFromIntent(intent),
+                                    TimberServiceIntentHelper.getMessageFromIntent(intent),
+                                    TimberServiceIntentHelper.getThrowableFromIntent(intent));
+                            break;
+                        }
                         LogFileWriter.handleLog(this,
                                 getFileWriterWrapper(),
                                 TimberServiceIntentHelper.getPriorityFromIntent(intent),
@@ -66,6 +115,85 @@ public class TimberService extends IntentService {
         }
     }
 
+    /**
+     * Write all the records queued through {@link #log(Context, long, int, String, String, Throwable)}
+     *
+     * @throws IOException
+     */
+    private void drain() throws IOException {
+        // cleared first: a record queued from now on schedules another drain
+        drainScheduled.set(false);
+        FileWriterWrapper fileWriterWrapper = getFileWriterWrapper();
+        while (true) {
+            // taken under the lock, so that a record is never held here while the segment is sealed
+            synchronized (writeLock) {
+                LogRecord record = queue.poll();
+                if (record == null)
+                    return;
+                try {
+                    if (record.timestamp == TIMESTAMP_INVALID)
+                        LogFileWriter.handleLog(this, fileWriterWrapper, record.priority, record.tag, record.message, record.throwable);
+                    else
+                        LogFileWriter.handleLog(this, fileWriterWrapper, record.timestamp, record.priority, record.tag, record.message, record.throwable, record.fields);
+                } finally {
+                    record.recycle();
+                }
+                LogFileWriter.writeDroppedCountIfDue(this, fileWriterWrapper, queue);
+            }
+        }
+    }
+
+    /**
+     * Write the records queued through {@link #log(Context, long, int, String, String, Throwable)} on the
+     * calling thread, without going through the service, e.g. from a {@link CrashLogHandler} when the
+     * drain Intent would die with the process
+     *
+     * @param context
+     * @param deadlineNanos {@link System#nanoTime()} after which no more records are written
+     * @return the number of records still queued
+     */
+    public static int drainQueued(final Context context, long deadlineNanos) {
+        if (queue.size() == 0)
+            return 0;
+        FileWriterWrapper fileWriterWrapper = FileWriterWrapper.getFileWriterWrapper(context);
+        LogRecord record;
+        while (System.nanoTime() < deadlineNanos && (record = queue.poll()) != null) {
+            try {
+                if (record.timestamp == TIMESTAMP_INVALID)
+                    LogFileWriter.write(context, fileWriterWrapper, record.priority, record.tag, record.message, record.throwable);
+                else
+                    LogFileWriter.write(context, fileWriterWrapper, record.timestamp, record.priority, record.tag, record.message, record.throwable, record.fields);
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            } finally {
+                record.recycle();
+            }
+        }
+        return queue.size();
+    }
+
+    /**
+     * @return the number of records dropped because the queue was full
+     */
+    public static long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+
+    /**
+     * @param priority
+     * @return the number of records of the priority dropped because the queue was full
+     */
+    public static long getDroppedCount(int priority) {
+        return queue.getDroppedCount(priority);
+    }
+
+    /**
+     * @return the number of records waiting to be written
+     */
+    public static int getQueueSize() {
+        return queue.size();
+    }
+
     public FileWriterWrapper getFileWriterWrapper() {
         return FileWriterWrapper.getFileWriterWrapper(this);
     }
@@ -79,7 +207,7 @@ public class TimberService extends IntentService {
     }
 
     /**
-     * Called by a {@link FileTimberTree}
+     * Called by a {@link FileTimberTree} in {@link FileTimberTree#MODE_SERVICE}
      * to write things to a file in a service
      *
      * @param context
@@ -89,24 +217,59 @@ public class TimberService extends IntentService {
      * @param t
      */
     public static void log(final Context context, int priority, String tag, String message, Throwable t) {
-        Intent intent = new Intent(context, TimberService.class);
-        if (priority != PRIORITY_INVALID)
-            intent.putExtra(KEY_PRIROITY, priority);
-        else
-            intent.putExtra(KEY_PRIROITY, PRIORITY_DEFAULT);
-        if (tag != null)
-            intent.putExtra(KEY_TAG, tag);
-        if (message != null)
-            intent.putExtra(KEY_MESSAGE, message);
-        if (t != null)
-            intent.putExtra(KEY_THROWABLE, t);
-        // this is the log method
-        intent.putExtra(KEY_METHOD, METHOD_LOG);
-        context.startService(intent);
+        log(context, TIMESTAMP_INVALID, priority, tag, message, t);
+    }
+
+    /**
+     * Called by a {@link FileTimberTree} in {@link FileTimberTree#MODE_SERVICE}
+     * to write things to a file in a service, the timestamp is kept apart from the tag so that
+     * the service can write it in the current record format
+     *
+     * @param context
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     */
+    public static void log(final Context context, long timestamp, int priority, String tag, String message, Throwable t) {
+        log(context, timestamp, priority, tag, message, t, null);
+    }
+
+    /**
+     * Same as {@link #log(Context, long, int, String, String, Throwable)}, with the fields of a
+     * {@link cc.soham.timberutils.structured.StructuredLog} statement, they stay in the in-process queue
+     *
+     * @param context
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @param fields    (OPTIONAL)
+     */
+    public static void log(final Context context, long timestamp, int priority, String tag, String message, Throwable t,
+                           @Nullable LogFields fields) {
+        if (priority == PRIORITY_INVALID)
+            priority = PRIORITY_DEFAULT;
+        if (queue.offer(LogRecord.obtain(timestamp, priority, tag, message, t, fields)) && drainScheduled.compareAndSet(false, true)) {
+            Intent intent = new Intent(context, TimberService.class);
+            // this is the drain method
+            intent.putExtra(KEY_METHOD, METHOD_DRAIN);
+            try {
+                context.startService(intent);
+            } catch (RuntimeException exception) {
+                // e.g. not allowed to start the service right now, the next record tries again
+                drainScheduled.set(false);
+                throw exception;
+            }
+        }
     }
 
     /**
      * Called to zip all the contents of the log folder into a zip file
+     * The path is delivered as a {@link LogExporter#ACTION_EXPORT_FINISHED} broadcast and to the
+     * {@link ExportListener}s registered with {@link LogExporter#addExportListener(ExportListener)}
      *
      * @param context
      */
@@ -125,6 +288,10 @@ public class TimberService extends IntentService {
             return intent.getIntExtra(KEY_PRIROITY, PRIORITY_DEFAULT);
         }
 
+        public static long getTimestampFromIntent(Intent intent) {
+            return intent.getLongExtra(KEY_TIMESTAMP, TIMESTAMP_INVALID);
+        }
+
         public static String getTagFromIntent(Intent intent) {
             return intent.getStringExtra(KEY_TAG);
         }
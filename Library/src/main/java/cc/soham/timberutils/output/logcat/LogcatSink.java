@@ -0,0 +1,52 @@
+package cc.soham.timberutils.output.logcat;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import cc.soham.timberutils.filter.LogRules;
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.record.LogEntry;
+import cc.soham.timberutils.sink.LogSink;
+
+/**
+ * {@link LogSink} that outputs to logcat, same output as {@link timber.log.Timber.DebugTree}
+ */
+public class LogcatSink implements LogSink {
+    private static final int MAX_LOG_LENGTH = 4000;
+
+    @Override
+    public void log(@NonNull LogEntry logEntry) {
+        print(logEntry.priority, logEntry.tag, logEntry.message);
+    }
+
+    /**
+     * Print to logcat, breaking up messages that are too long for logcat at newlines where possible
+     *
+     * @param priority
+     * @param tag
+     * @param message
+     */
+    public static void print(int priority, String tag, String message) {
+        LoggingMetrics.onAccepted(LogRules.SINK_LOGCAT);
+        if (message.length() < MAX_LOG_LENGTH) {
+            println(priority, tag, message);
+            return;
+        }
+        for (int i = 0, length = message.length(); i < length; i++) {
+            int newline = message.indexOf('\n', i);
+            newline = newline != -1 ? newline : length;
+            do {
+                int end = Math.min(newline, i + MAX_LOG_LENGTH);
+                println(priority, tag, message.substring(i, end));
+                i = end;
+            } while (i < newline);
+        }
+    }
+
+    private static void println(int priority, String tag, String message) {
+        if (priority == Log.ASSERT)
+            Log.wtf(tag, message);
+        else
+            Log.println(priority, tag, message);
+    }
+}
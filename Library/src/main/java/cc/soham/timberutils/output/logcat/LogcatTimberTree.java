@@ -0,0 +1,34 @@
+package cc.soham.timberutils.output.logcat;
+
+import cc.soham.timberutils.callsite.CallSiteTimberTree;
+import cc.soham.timberutils.filter.LogRules;
+import cc.soham.timberutils.metrics.LoggingMetrics;
+
+/**
+ * Our TimberTree that outputs to logcat, same output as {@link timber.log.Timber.DebugTree}
+ * but the tag is resolved through {@link cc.soham.timberutils.callsite.CallSiteTagResolver}
+ * (shared with the other trees) instead of a stack walk of its own
+ * Writes through {@link LogcatSink}
+ */
+public class LogcatTimberTree extends CallSiteTimberTree {
+    public LogcatTimberTree() {
+        // logcat output of DebugTree has no line number in the tag
+        super(false);
+    }
+
+    /**
+     * Filtered through the current {@link LogRules}
+     */
+    @Override
+    protected boolean isLoggable(String tag, int priority) {
+        if (LogRules.getCurrent().isLoggable(LogRules.SINK_LOGCAT, tag, priority))
+            return true;
+        LoggingMetrics.onFiltered(LogRules.SINK_LOGCAT);
+        return false;
+    }
+
+    @Override
+    protected void onLog(int priority, String tag, String message, Throwable t) {
+        LogcatSink.print(priority, tag, message);
+    }
+}
@@ -0,0 +1,244 @@
+package cc.soham.timberutils.output.tail;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import cc.soham.timberutils.filter.LogInterest;
+
+/**
+ * A ring of the last records logged, shared by the {@link TailSubscription}s of an in-app console
+ * - the thread that logs only copies the timestamp, priority, tag and message into parallel arrays under a
+ * short lock, and wakes the subscriptions only if one of them is waiting
+ * - every subscription reads from the ring with a cursor of its own on a thread of its own, a slow listener
+ * never holds up logging or the other listeners: once the ring has wrapped past its cursor it skips ahead
+ * and is told how many of the records it would have taken it missed
+ * - nothing is stored while there are no subscriptions, the ring is cleared once the last one is closed
+ */
+public class LogTail {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final List<TailSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    // the same, for the thread that logs to go through without an iterator, guarded by this
+    private TailSubscription[] subscriptionArray = new TailSubscription[0];
+    private volatile UnsubscribeListener unsubscribeListener;
+    // the lowest priority any subscription takes, LogInterest.NOT_ACTIVE without subscriptions
+    private volatile int minPriority = LogInterest.NOT_ACTIVE;
+
+    // the ring, guarded by this
+    private final long[] timestamps;
+    private final byte[] priorities;
+    private final String[] tags;
+    private final String[] messages;
+    // sequence number of the next record, its slot is sequence % capacity
+    private long nextSequence;
+    // subscriptions waiting for a record
+    private int waitingCount;
+
+    /**
+     * Told when a subscription is closed, e.g. to stop feeding the LogTail after the last one
+     */
+    public interface UnsubscribeListener {
+        /**
+         * Called on the thread that closed the subscription, after it was removed
+         *
+         * @param logTail
+         */
+        void onUnsubscribed(@NonNull LogTail logTail);
+    }
+
+    /**
+     * @param capacity the number of records kept for subscriptions that fall behind
+     */
+    public LogTail(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity must be positive");
+        timestamps = new long[capacity];
+        priorities = new byte[capacity];
+        tags = new String[capacity];
+        messages = new String[capacity];
+    }
+
+    public int getCapacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * @return the lowest priority a subscription takes, {@link LogInterest#NOT_ACTIVE} without subscriptions
+     */
+    public int getMinPriority() {
+        return minPriority;
+    }
+
+    public boolean hasSubscriptions() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * @param unsubscribeListener (OPTIONAL)
+     */
+    public void setUnsubscribeListener(@Nullable UnsubscribeListener unsubscribeListener) {
+        this.unsubscribeListener = unsubscribeListener;
+    }
+
+    /**
+     * Store a record for the subscriptions, called on the thread that logs
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     */
+    public void add(long timestamp, int priority, String tag, String message) {
+        if (priority < minPriority)
+            return;
+        synchronized (this) {
+            // the last subscription may have been closed since
+            if (priority < minPriority)
+                return;
+            int capacity = timestamps.length;
+            int index = (int) (nextSequence % capacity);
+            if (nextSequence >= capacity)
+                countOverwritten(nextSequence - capacity, index);
+            timestamps[index] = timestamp;
+            priorities[index] = (byte) priority;
+            tags[index] = tag;
+            messages[index] = message;
+            nextSequence++;
+            if (waitingCount > 0)
+                notifyAll();
+        }
+    }
+
+    /**
+     * Count the record about to be overwritten as missed for the subscriptions that have not read it
+     * and would have taken it
+     *
+     * @param sequence
+     * @param index
+     */
+    private void countOverwritten(long sequence, int index) {
+        for (TailSubscription subscription : subscriptionArray) {
+            if (subscription.cursor <= sequence && subscription.matches(priorities[index], tags[index]))
+                subscription.pendingMissedCount++;
+        }
+    }
+
+    /**
+     * Start delivering the records logged from now on to a listener
+     *
+     * @param tailListener
+     * @param minPriority  the lowest priority delivered
+     * @param tagPrefix    only records whose tag starts with it are delivered (OPTIONAL)
+     * @return the subscription, to be closed once the listener is done
+     */
+    public TailSubscription subscribe(@NonNull TailListener tailListener, int minPriority, @Nullable String tagPrefix) {
+        TailSubscription subscription = register(tailListener, minPriority, tagPrefix);
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * Add a subscription without starting its thread, {@link #take(TailSubscription)} is left to the caller
+     *
+     * @param tailListener
+     * @param minPriority
+     * @param tagPrefix    (OPTIONAL)
+     * @return the subscription, reading from the next record logged
+     */
+    TailSubscription register(@NonNull TailListener tailListener, int minPriority, @Nullable String tagPrefix) {
+        if (tailListener == null)
+            throw new IllegalArgumentException("TailListener cannot be null");
+        TailSubscription subscription;
+        synchronized (this) {
+            subscription = new TailSubscription(this, tailListener, minPriority, tagPrefix, nextSequence);
+            subscriptions.add(subscription);
+            subscriptionArray = subscriptions.toArray(new TailSubscription[subscriptions.size()]);
+            updateMinPriority();
+        }
+        return subscription;
+    }
+
+    /**
+     * Called by {@link TailSubscription#close()}
+     *
+     * @param subscription
+     */
+    void unsubscribe(@NonNull TailSubscription subscription) {
+        synchronized (this) {
+            subscriptions.remove(subscription);
+            subscriptionArray = subscriptions.toArray(new TailSubscription[subscriptions.size()]);
+            updateMinPriority();
+            if (subscriptions.isEmpty())
+                clear();
+            notifyAll();
+        }
+        UnsubscribeListener listener = unsubscribeListener;
+        if (listener != null)
+            listener.onUnsubscribed(this);
+    }
+
+    /**
+     * Let go of the records of the ring, nothing reads them any more
+     */
+    private void clear() {
+        Arrays.fill(tags, null);
+        Arrays.fill(messages, null);
+    }
+
+    /**
+     * Close all the subscriptions
+     */
+    public void closeAll() {
+        for (TailSubscription subscription : subscriptions)
+            subscription.close();
+    }
+
+    private void updateMinPriority() {
+        int lowest = LogInterest.NOT_ACTIVE;
+        for (TailSubscription subscription : subscriptions)
+            lowest = Math.min(lowest, subscription.getMinPriority());
+        minPriority = lowest;
+    }
+
+    /**
+     * Copy the records of a subscription out of the ring, waiting for one if there is none
+     * Called on the thread of the subscription
+     *
+     * @param subscription
+     * @return the number of records copied into the batch of the subscription, -1 once it is closed
+     * @throws InterruptedException
+     */
+    synchronized int take(@NonNull TailSubscription subscription) throws InterruptedException {
+        while (!subscription.isClosed() && subscription.cursor == nextSequence) {
+            waitingCount++;
+            try {
+                wait();
+            } finally {
+                waitingCount--;
+            }
+        }
+        if (subscription.isClosed())
+            return -1;
+        int capacity = timestamps.length;
+        // the records overwritten in the meantime were counted by add()
+        if (nextSequence - subscription.cursor > capacity)
+            subscription.cursor = nextSequence - capacity;
+        int count = 0;
+        int batchSize = subscription.batchTimestamps.length;
+        while (count < batchSize && subscription.cursor < nextSequence) {
+            int index = (int) (subscription.cursor++ % capacity);
+            if (subscription.matches(priorities[index], tags[index])) {
+                subscription.batchTimestamps[count] = timestamps[index];
+                subscription.batchPriorities[count] = priorities[index];
+                subscription.batchTags[count] = tags[index];
+                subscription.batchMessages[count] = messages[index];
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,28 @@
+package cc.soham.timberutils.output.tail;
+
+import android.support.annotation.NonNull;
+
+import cc.soham.timberutils.record.LogEntry;
+import cc.soham.timberutils.sink.LogSink;
+
+/**
+ * {@link LogSink} that feeds the {@link LogTail} of an in-app console
+ */
+public class LogTailSink implements LogSink {
+    private final LogTail logTail;
+
+    public LogTailSink(@NonNull LogTail logTail) {
+        if (logTail == null)
+            throw new IllegalArgumentException("LogTail cannot be null");
+        this.logTail = logTail;
+    }
+
+    public LogTail getLogTail() {
+        return logTail;
+    }
+
+    @Override
+    public void log(@NonNull LogEntry logEntry) {
+        logTail.add(logEntry.timestamp, logEntry.priority, logEntry.tag, logEntry.message);
+    }
+}
@@ -0,0 +1,41 @@
+package cc.soham.timberutils.output.tail;
+
+import android.support.annotation.NonNull;
+
+import cc.soham.timberutils.callsite.CallSiteTimberTree;
+import cc.soham.timberutils.record.LogEntry;
+
+/**
+ * Our TimberTree that feeds the {@link LogTail} of an in-app console
+ * Nothing is formatted unless a subscription takes the priority
+ */
+public class LogTailTimberTree extends CallSiteTimberTree {
+    private final LogTail logTail;
+
+    public LogTailTimberTree(@NonNull LogTail logTail) {
+        // same tags as the LogTailSink
+        super(false);
+        if (logTail == null)
+            throw new IllegalArgumentException("LogTail cannot be null");
+        this.logTail = logTail;
+    }
+
+    public LogTail getLogTail() {
+        return logTail;
+    }
+
+    @Override
+    protected boolean isLoggable(String tag, int priority) {
+        return priority >= logTail.getMinPriority();
+    }
+
+    @Override
+    protected void onLog(int priority, String tag, String message, Throwable t) {
+        logTail.add(System.currentTimeMillis(), priority, tag, message);
+    }
+
+    @Override
+    protected void onLog(@NonNull LogEntry logEntry) {
+        logTail.add(logEntry.timestamp, logEntry.priority, logEntry.tag, logEntry.message);
+    }
+}
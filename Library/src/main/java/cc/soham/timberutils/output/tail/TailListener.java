@@ -0,0 +1,26 @@
+package cc.soham.timberutils.output.tail;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives the records of a {@link TailSubscription} as they are logged
+ * Called on the thread of the subscription, never on the thread that logs
+ */
+public interface TailListener {
+    /**
+     * A record matching the filter of the subscription
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message   includes the stack trace of a logged throwable
+     */
+    void onRecord(long timestamp, int priority, String tag, @NonNull String message);
+
+    /**
+     * The listener fell behind by more than the {@link LogTail} holds, the oldest records were skipped
+     *
+     * @param count the number of records skipped (only those that would have matched the filter)
+     */
+    void onRecordsMissed(long count);
+}
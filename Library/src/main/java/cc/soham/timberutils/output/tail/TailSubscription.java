@@ -0,0 +1,137 @@
+package cc.soham.timberutils.output.tail;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A listener reading from a {@link LogTail}, see {@link LogTail#subscribe(TailListener, int, String)}
+ * - the filter (minimum priority, tag prefix) is fixed for the life of the subscription
+ * - records are copied out of the ring in batches and handed to the listener on a thread of its own
+ */
+public class TailSubscription implements Runnable {
+    public static final String THREAD_NAME = "TimberUtils-LogTail";
+    static final int BATCH_SIZE = 64;
+
+    private final LogTail logTail;
+    private final TailListener tailListener;
+    private final int minPriority;
+    private final String tagPrefix;
+    private volatile boolean closed;
+    private volatile long deliveredCount;
+    private volatile long missedCount;
+
+    // guarded by the LogTail
+    long cursor;
+    long pendingMissedCount;
+    // the batch copied out of the ring, only used by the thread of the subscription
+    final long[] batchTimestamps = new long[BATCH_SIZE];
+    final int[] batchPriorities = new int[BATCH_SIZE];
+    final String[] batchTags = new String[BATCH_SIZE];
+    final String[] batchMessages = new String[BATCH_SIZE];
+
+    TailSubscription(@NonNull LogTail logTail, @NonNull TailListener tailListener, int minPriority, @Nullable String tagPrefix, long cursor) {
+        this.logTail = logTail;
+        this.tailListener = tailListener;
+        this.minPriority = minPriority;
+        this.tagPrefix = tagPrefix;
+        this.cursor = cursor;
+    }
+
+    void start() {
+        Thread thread = new Thread(this, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public TailListener getTailListener() {
+        return tailListener;
+    }
+
+    public int getMinPriority() {
+        return minPriority;
+    }
+
+    public String getTagPrefix() {
+        return tagPrefix;
+    }
+
+    /**
+     * @return the number of records handed to the listener so far
+     */
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * @return the number of records skipped so far because the listener fell behind
+     */
+    public long getMissedCount() {
+        return missedCount;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stop delivering records, the listener may still get the record it is being handed
+     * Same as {@link cc.soham.timberutils.TimberWrapper#unsubscribe(TailSubscription)} for a subscription of
+     * {@link cc.soham.timberutils.TimberWrapper}
+     */
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        logTail.unsubscribe(this);
+    }
+
+    /**
+     * @param priority
+     * @param tag
+     * @return true if a record passes the filter of the subscription
+     */
+    boolean matches(int priority, String tag) {
+        return priority >= minPriority && (tagPrefix == null || (tag != null && tag.startsWith(tagPrefix)));
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                int count = logTail.take(this);
+                if (count < 0)
+                    return;
+                deliver(count);
+            } catch (InterruptedException exception) {
+                return;
+            } catch (Exception exception) {
+                // a failing listener does not end the subscription
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    private void deliver(int count) {
+        try {
+            // only this thread changes it, under the lock of the LogTail
+            long missed;
+            synchronized (logTail) {
+                missed = pendingMissedCount;
+                pendingMissedCount = 0;
+            }
+            if (missed > 0) {
+                missedCount += missed;
+                tailListener.onRecordsMissed(missed);
+            }
+            for (int i = 0; i < count && !closed; i++) {
+                tailListener.onRecord(batchTimestamps[i], batchPriorities[i], batchTags[i], batchMessages[i]);
+                deliveredCount++;
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                batchTags[i] = null;
+                batchMessages[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package cc.soham.timberutils.record;
+
+import android.support.annotation.Nullable;
+
+import cc.soham.timberutils.callsite.CallSite;
+
+/**
+ * An immutable log statement as built once per Timber call by a {@link cc.soham.timberutils.sink.FanOutTimberTree}
+ * and handed to every {@link cc.soham.timberutils.sink.LogSink}
+ * - the tags come from the {@link CallSite} (no strings are built), or are the explicit tag
+ * - timestamp and thread are captured on the calling thread
+ */
+public class LogEntry {
+    public static final int LINE_NUMBER_UNKNOWN = -1;
+
+    public final long timestamp;
+    public final int priority;
+    // the explicit tag, or the simple class name of the call site
+    public final String tag;
+    // the explicit tag, or the simple class name of the call site followed by ":" and the line number
+    public final String tagWithLineNumber;
+    public final int lineNumber;
+    public final long threadId;
+    public final String threadName;
+    public final String message;
+    public final Throwable throwable;
+    // typed fields of a StructuredLog statement, null for plain Timber calls
+    public final LogFields fields;
+
+    public LogEntry(long timestamp, int priority, String tag, @Nullable CallSite callSite, Thread thread, String message, Throwable throwable) {
+        this(timestamp, priority, tag, callSite, thread, message, throwable, null);
+    }
+
+    public LogEntry(long timestamp, int priority, String tag, @Nullable CallSite callSite, Thread thread, String message, Throwable throwable,
+                    @Nullable LogFields fields) {
+        this.timestamp = timestamp;
+        this.priority = priority;
+        this.tag = tag;
+        this.tagWithLineNumber = callSite != null ? callSite.getTagWithLineNumber() : tag;
+        this.lineNumber = callSite != null ? callSite.getLineNumber() : LINE_NUMBER_UNKNOWN;
+        this.threadId = thread.getId();
+        this.threadName = thread.getName();
+        this.message = message;
+        this.throwable = throwable;
+        this.fields = fields;
+    }
+}
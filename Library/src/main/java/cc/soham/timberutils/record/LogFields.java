@@ -0,0 +1,273 @@
+package cc.soham.timberutils.record;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Typed key value fields attached to a log statement through {@link cc.soham.timberutils.structured.StructuredLog}
+ * - long, double and boolean values are kept as primitives in parallel arrays, nothing is boxed or formatted
+ * on the thread that logs
+ * - all setters return the same object so that fields can be chained, e.g.
+ * {@code new LogFields().put("orderId", 42).put("total", 9.99).put("express", true)}
+ * - logging takes a frozen copy ({@link #freeze()}), which is queued and read later on the thread that writes,
+ * the object passed in can be changed or reused right after
+ * Written as typed values in {@link cc.soham.timberutils.output.file.FileWriterWrapper#FORMAT_BINARY} segments, and as
+ * a JSON object on a line of its own ({@link #LINE_PREFIX}) after the record in the text format
+ */
+public class LogFields {
+    public static final int TYPE_LONG = 1;
+    public static final int TYPE_DOUBLE = 2;
+    public static final int TYPE_BOOLEAN = 3;
+    public static final int TYPE_STRING = 4;
+
+    /**
+     * Start of the line holding the fields of a record in the text format
+     */
+    public static final String LINE_PREFIX = "\t#fields ";
+
+    private String[] keys;
+    private byte[] types;
+    // long values, the bits of double values, 1 or 0 for boolean values
+    private long[] values;
+    private String[] strings;
+    private int size;
+    private boolean frozen;
+
+    public LogFields() {
+        this(4);
+    }
+
+    /**
+     * @param capacity the number of fields expected
+     */
+    public LogFields(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("The capacity cannot be negative");
+        keys = new String[capacity];
+        types = new byte[capacity];
+        values = new long[capacity];
+    }
+
+    public LogFields put(@NonNull String key, long value) {
+        add(key, TYPE_LONG, value);
+        return this;
+    }
+
+    public LogFields put(@NonNull String key, double value) {
+        add(key, TYPE_DOUBLE, Double.doubleToRawLongBits(value));
+        return this;
+    }
+
+    public LogFields put(@NonNull String key, boolean value) {
+        add(key, TYPE_BOOLEAN, value ? 1 : 0);
+        return this;
+    }
+
+    public LogFields put(@NonNull String key, @Nullable String value) {
+        int index = add(key, TYPE_STRING, 0);
+        if (strings == null)
+            strings = new String[keys.length];
+        strings[index] = value;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if this is a frozen copy, see {@link #freeze()}
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * @return a copy of the fields trimmed to their number that cannot be changed (put throws an
+     * {@link IllegalStateException}), this object if it is frozen already
+     */
+    public LogFields freeze() {
+        if (frozen)
+            return this;
+        LogFields copy = new LogFields(0);
+        copy.keys = Arrays.copyOf(keys, size);
+        copy.types = Arrays.copyOf(types, size);
+        copy.values = Arrays.copyOf(values, size);
+        copy.strings = strings == null ? null : Arrays.copyOf(strings, size);
+        copy.size = size;
+        copy.frozen = true;
+        return copy;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String getKey(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    /**
+     * @param index
+     * @return {@link #TYPE_LONG}, {@link #TYPE_DOUBLE}, {@link #TYPE_BOOLEAN} or {@link #TYPE_STRING}
+     */
+    public int getType(int index) {
+        checkIndex(index);
+        return types[index];
+    }
+
+    public long getLong(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    public double getDouble(int index) {
+        checkIndex(index);
+        return Double.longBitsToDouble(values[index]);
+    }
+
+    public boolean getBoolean(int index) {
+        checkIndex(index);
+        return values[index] != 0;
+    }
+
+    public String getString(int index) {
+        checkIndex(index);
+        return strings == null ? null : strings[index];
+    }
+
+    /**
+     * Append the fields as a JSON object, numbers and booleans stay JSON primitives
+     * (NaN and infinite doubles, which JSON has no numbers for, are written as strings)
+     *
+     * @param builder
+     */
+    public void appendJson(@NonNull StringBuilder builder) {
+        builder.append('{');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                builder.append(',');
+            appendJsonString(builder, keys[i]);
+            builder.append(':');
+            switch (types[i]) {
+                case TYPE_LONG:
+                    builder.append(values[i]);
+                    break;
+                case TYPE_DOUBLE:
+                    double value = Double.longBitsToDouble(values[i]);
+                    if (Double.isNaN(value) || Double.isInfinite(value))
+                        appendJsonString(builder, Double.toString(value));
+                    else
+                        builder.append(value);
+                    break;
+                case TYPE_BOOLEAN:
+                    builder.append(values[i] != 0);
+                    break;
+                default:
+                    appendJsonString(builder, strings[i]);
+                    break;
+            }
+        }
+        builder.append('}');
+    }
+
+    /**
+     * Append the line holding the fields in the text format, without a newline
+     *
+     * @param builder
+     */
+    public void appendLine(@NonNull StringBuilder builder) {
+        builder.append(LINE_PREFIX);
+        appendJson(builder);
+    }
+
+    /**
+     * @param line
+     * @return true if the line holds the fields of a record in the text format
+     */
+    public static boolean isFieldsLine(@NonNull String line) {
+        return line.startsWith(LINE_PREFIX);
+    }
+
+    /**
+     * @param line a line for which {@link #isFieldsLine(String)} is true
+     * @return the JSON object held by the line
+     */
+    public static String getJson(@NonNull String line) {
+        return line.substring(LINE_PREFIX.length());
+    }
+
+    /**
+     * Append a value as a JSON string, null as JSON null
+     *
+     * @param builder
+     * @param value   (OPTIONAL)
+     */
+    public static void appendJsonString(@NonNull StringBuilder builder, @Nullable CharSequence value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+        builder.append('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        builder.append("\\u");
+                        String hex = Integer.toHexString(c);
+                        for (int j = hex.length(); j < 4; j++)
+                            builder.append('0');
+                        builder.append(hex);
+                    } else {
+                        builder.append(c);
+                    }
+                    break;
+            }
+        }
+        builder.append('"');
+    }
+
+    private int add(String key, int type, long value) {
+        if (frozen)
+            throw new IllegalStateException("Logged fields cannot be changed");
+        if (key == null)
+            throw new IllegalArgumentException("The key of a field cannot be null");
+        if (size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            values = Arrays.copyOf(values, capacity);
+            if (strings != null)
+                strings = Arrays.copyOf(strings, capacity);
+        }
+        keys[size] = key;
+        types[size] = (byte) type;
+        values[size] = value;
+        return size++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Field " + index + " of " + size);
+    }
+}
@@ -0,0 +1,98 @@
+package cc.soham.timberutils.record;
+
+/**
+ * A single log statement as handed over from a Timber tree to a writer
+ * - timestamp is captured on the calling thread, so that queueing does not skew it
+ * - the tag is the one Timber resolved (including the line number where applicable)
+ * - instances are pooled (like android.os.Message): get one through {@link #obtain(long, int, String, String, Throwable)}
+ * and hand it back through {@link #recycle()} once written, the fields must not be read after that
+ */
+public class LogRecord {
+    // enough to cover a full AsyncLogWriter queue without allocating
+    private static final int MAX_POOL_SIZE = 1024;
+    private static final Object POOL_LOCK = new Object();
+    private static LogRecord pool;
+    private static int poolSize = 0;
+
+    public long timestamp;
+    public int priority;
+    public String tag;
+    public String message;
+    public Throwable throwable;
+    // typed fields of a StructuredLog statement, null for plain Timber calls
+    public LogFields fields;
+    // order in which the record was queued, set by the queue holding it
+    public long sequence;
+    // next free record in the pool
+    private LogRecord next;
+
+    public LogRecord(long timestamp, int priority, String tag, String message, Throwable throwable) {
+        set(timestamp, priority, tag, message, throwable);
+    }
+
+    /**
+     * Get a record from the pool, or a new one if the pool is empty
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param throwable
+     * @return
+     */
+    public static LogRecord obtain(long timestamp, int priority, String tag, String message, Throwable throwable) {
+        LogRecord record = null;
+        synchronized (POOL_LOCK) {
+            if (pool != null) {
+                record = pool;
+                pool = record.next;
+                record.next = null;
+                poolSize--;
+            }
+        }
+        if (record == null)
+            return new LogRecord(timestamp, priority, tag, message, throwable);
+        record.set(timestamp, priority, tag, message, throwable);
+        return record;
+    }
+
+    /**
+     * Get a record from the pool, with the fields of a StructuredLog statement
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param throwable
+     * @param fields    (OPTIONAL)
+     * @return
+     */
+    public static LogRecord obtain(long timestamp, int priority, String tag, String message, Throwable throwable, LogFields fields) {
+        LogRecord record = obtain(timestamp, priority, tag, message, throwable);
+        record.fields = fields;
+        return record;
+    }
+
+    /**
+     * Return the record to the pool, references are cleared so that messages are not kept alive
+     */
+    public void recycle() {
+        set(0, 0, null, null, null);
+        fields = null;
+        synchronized (POOL_LOCK) {
+            if (poolSize < MAX_POOL_SIZE) {
+                next = pool;
+                pool = this;
+                poolSize++;
+            }
+        }
+    }
+
+    private void set(long timestamp, int priority, String tag, String message, Throwable throwable) {
+        this.timestamp = timestamp;
+        this.priority = priority;
+        this.tag = tag;
+        this.message = message;
+        this.throwable = throwable;
+    }
+}
@@ -0,0 +1,326 @@
+package cc.soham.timberutils.reporting;
+
+import android.support.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import cc.soham.timberutils.record.LogFields;
+
+/**
+ * Streaming decoder for segments written in the {@link BinaryRecordFormat}
+ * - {@link #next()} moves to the next record or plain line, tag definitions are consumed on the way
+ * - {@link #decode(InputStream, Writer)} turns a whole segment back into the text format written by
+ * {@link Reporting#format(int, String, String, Throwable)}
+ * - a truncated last entry (process killed mid write) or zero padding (mapped segments) end the stream, so does
+ * a length beyond {@link BinaryRecordFormat#MAX_ENTRY_LENGTH} (corrupt data), nothing that large is allocated
+ */
+public class BinaryRecordDecoder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final InputStream inputStream;
+    private boolean headerRead;
+    private String[] tags = new String[64];
+    private long lastTimestamp;
+    private byte[] body = new byte[256];
+    private int bodyLength;
+    private int position;
+
+    // the current entry
+    private boolean text;
+    private long timestamp;
+    private int priority;
+    private String tag;
+    private String message;
+    private boolean hasThrowable;
+    private String throwableMessage;
+    // reused for every record, only valid while hasFields
+    // a new object for every record, handed out fields are never changed
+    private LogFields fields;
+    private boolean hasFields;
+
+    /**
+     * @param inputStream positioned at the start of a segment, should be buffered
+     */
+    public BinaryRecordDecoder(@NonNull InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Decode from the start of a block of a segment index (see {@link BinaryRecordEncoder#resetTags()})
+     * instead of the start of the segment
+     *
+     * @param inputStream   positioned at the start of the block, should be buffered
+     * @param baseTimestamp the timestamp the first record of the block is encoded relative to
+     */
+    public BinaryRecordDecoder(@NonNull InputStream inputStream, long baseTimestamp) {
+        this.inputStream = inputStream;
+        headerRead = true;
+        lastTimestamp = baseTimestamp;
+    }
+
+    /**
+     * Decode a whole segment into text lines
+     *
+     * @param inputStream
+     * @param writer
+     * @return the number of lines written
+     * @throws IOException
+     */
+    public static long decode(@NonNull InputStream inputStream, @NonNull Writer writer) throws IOException {
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(inputStream);
+        StringBuilder line = new StringBuilder(256);
+        long count = 0;
+        while (decoder.next()) {
+            line.setLength(0);
+            decoder.appendText(line);
+            line.append('\n');
+            writer.append(line);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Move to the next record or plain line
+     *
+     * @return false once the end of the data is reached
+     * @throws IOException if the stream is not a binary segment
+     */
+    public boolean next() throws IOException {
+        if (!headerRead) {
+            readHeader();
+            headerRead = true;
+        }
+        while (readEntry()) {
+            byte type = body[position++];
+            switch (type) {
+                case BinaryRecordFormat.TYPE_TAG:
+                    int id = (int) readVarint();
+                    defineTag(id, readUtf8(bodyLength - position));
+                    break;
+                case BinaryRecordFormat.TYPE_RECORD:
+                    readRecord();
+                    return true;
+                case BinaryRecordFormat.TYPE_TEXT:
+                    text = true;
+                    hasFields = false;
+                    message = readUtf8(bodyLength - position);
+                    return true;
+                default:
+                    // unknown entry type written by a newer version, skip it
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the current entry is a plain line (see {@link #getMessage()}), false for a record
+     */
+    public boolean isText() {
+        return text;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean hasThrowable() {
+        return hasThrowable;
+    }
+
+    public String getThrowableMessage() {
+        return throwableMessage;
+    }
+
+    /**
+     * @return the fields of the current record, null if it has none
+     */
+    public LogFields getFields() {
+        return hasFields ? fields : null;
+    }
+
+    /**
+     * Append the current entry in the text format (without a newline), fields follow on a line of their own
+     * as written by {@link cc.soham.timberutils.output.file.FileWriterWrapper#FORMAT_TEXT}
+     *
+     * @param builder
+     */
+    public void appendText(@NonNull StringBuilder builder) {
+        if (text) {
+            builder.append(message);
+            return;
+        }
+        builder.append(priority).append(", ").append(timestamp).append(", ").append(tag).append(", ").append(message);
+        if (hasThrowable)
+            builder.append(", ").append(throwableMessage);
+        if (hasFields) {
+            builder.append('\n');
+            fields.appendLine(builder);
+        }
+    }
+
+    private void readRecord() throws IOException {
+        text = false;
+        timestamp = lastTimestamp + unZigZag(readVarint());
+        lastTimestamp = timestamp;
+        if (position + 2 > bodyLength)
+            throw new EOFException("Truncated binary log record");
+        priority = body[position++];
+        int flags = body[position++];
+        int tagId = (int) readVarint();
+        tag = tagId > 0 && tagId < tags.length ? tags[tagId] : null;
+        message = readLengthPrefixedUtf8();
+        if ((flags & BinaryRecordFormat.FLAG_MESSAGE_NULL) != 0)
+            message = null;
+        hasThrowable = (flags & BinaryRecordFormat.FLAG_HAS_THROWABLE) != 0;
+        throwableMessage = readLengthPrefixedUtf8();
+        if (!hasThrowable || (flags & BinaryRecordFormat.FLAG_THROWABLE_MESSAGE_NULL) != 0)
+            throwableMessage = null;
+        hasFields = (flags & BinaryRecordFormat.FLAG_HAS_FIELDS) != 0;
+        if (hasFields)
+            readFields();
+    }
+
+    private void readFields() throws IOException {
+        long count = readVarint();
+        fields = new LogFields((int) Math.min(count, 16));
+        for (long i = 0; i < count; i++) {
+            int keyId = (int) readVarint();
+            String key = keyId > 0 && keyId < tags.length && tags[keyId] != null ? tags[keyId] : "?";
+            if (position >= bodyLength)
+                throw new EOFException("Truncated field in binary log entry");
+            int type = body[position++];
+            switch (type) {
+                case BinaryRecordFormat.FIELD_LONG:
+                    fields.put(key, unZigZag(readVarint()));
+                    break;
+                case BinaryRecordFormat.FIELD_DOUBLE:
+                    fields.put(key, Double.longBitsToDouble(readFixed64()));
+                    break;
+                case BinaryRecordFormat.FIELD_BOOLEAN:
+                    if (position >= bodyLength)
+                        throw new EOFException("Truncated field in binary log entry");
+                    fields.put(key, body[position++] != 0);
+                    break;
+                case BinaryRecordFormat.FIELD_STRING:
+                    long length = readVarint();
+                    fields.put(key, length == 0 ? null : readUtf8((int) (length - 1)));
+                    break;
+                default:
+                    // the size of a type written by a newer version is unknown, the other fields are lost
+                    return;
+            }
+        }
+    }
+
+    private void defineTag(int id, String value) {
+        // the encoder starts over before MAX_TAGS, a larger id takes a record with more fields than that, or corrupt data
+        if (id <= 0 || id > BinaryRecordFormat.MAX_TAGS)
+            return;
+        if (id >= tags.length)
+            tags = Arrays.copyOf(tags, Math.max(tags.length * 2, id + 1));
+        tags[id] = value;
+    }
+
+    private void readHeader() throws IOException {
+        for (byte expected : BinaryRecordFormat.MAGIC) {
+            if (inputStream.read() != expected)
+                throw new IOException("Not a binary log segment");
+        }
+        int version = inputStream.read();
+        if (version < 1)
+            throw new IOException("Not a binary log segment");
+    }
+
+    /**
+     * Read the next length prefixed entry into the body buffer
+     *
+     * @return false at the end of the data
+     * @throws IOException
+     */
+    private boolean readEntry() throws IOException {
+        long length = 0;
+        int shift = 0;
+        while (true) {
+            int b = inputStream.read();
+            if (b < 0)
+                return false;
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                break;
+            shift += 7;
+            if (shift > 35)
+                return false;
+        }
+        if (length <= 0 || length > BinaryRecordFormat.MAX_ENTRY_LENGTH)
+            return false;
+        bodyLength = (int) length;
+        if (body.length < bodyLength)
+            body = new byte[Math.max(body.length * 2, bodyLength)];
+        int read = 0;
+        while (read < bodyLength) {
+            int count = inputStream.read(body, read, bodyLength - read);
+            if (count < 0)
+                return false;
+            read += count;
+        }
+        position = 0;
+        return true;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (position < bodyLength) {
+            int b = body[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+            shift += 7;
+        }
+        throw new EOFException("Truncated varint in binary log entry");
+    }
+
+    private long readFixed64() throws IOException {
+        if (position + 8 > bodyLength)
+            throw new EOFException("Truncated field in binary log entry");
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value |= (body[position++] & 0xFFL) << (8 * i);
+        return value;
+    }
+
+    private String readLengthPrefixedUtf8() throws IOException {
+        return readUtf8((int) readVarint());
+    }
+
+    private String readUtf8(int length) throws IOException {
+        if (length < 0 || position + length > bodyLength)
+            throw new EOFException("Truncated string in binary log entry");
+        String value = new String(body, position, length, UTF_8);
+        position += length;
+        return value;
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,323 @@
+package cc.soham.timberutils.reporting;
+
+import java.util.HashMap;
+
+import cc.soham.timberutils.record.LogFields;
+
+/**
+ * Encodes log statements into the compact {@link BinaryRecordFormat}
+ * - one instance per segment (call {@link #reset()} when a new segment is started)
+ * - every encode method leaves a complete entry (or the segment header) in {@link #getBuffer()},
+ * valid until the next call
+ * - not thread safe, it is only used by the thread that writes
+ */
+public class BinaryRecordEncoder {
+    private final HashMap<String, Integer> tagIds = new HashMap<>();
+    private long lastTimestamp;
+    // the entry handed out to the writer
+    private byte[] buffer = new byte[256];
+    private int length;
+    // the body of the entry being built
+    private byte[] body = new byte[256];
+    private int bodyLength;
+    // the key ids of the fields of the record being encoded
+    private int[] keyIds = new int[8];
+
+    /**
+     * Forget the tag dictionary and timestamp base, to be called for every new segment
+     */
+    public void reset() {
+        tagIds.clear();
+        lastTimestamp = 0;
+    }
+
+    /**
+     * Forget the tag dictionary only, so that the entries from here on can be decoded without the ones
+     * before them (given {@link #getLastTimestamp()}), used at the start of every block of a segment index
+     */
+    public void resetTags() {
+        tagIds.clear();
+    }
+
+    /**
+     * @return the timestamp the next record is encoded relative to
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return the encoded bytes, valid from 0 until {@link #getLength()}
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Encode the header every segment starts with
+     */
+    public void encodeHeader() {
+        length = 0;
+        ensureBuffer(BinaryRecordFormat.MAGIC.length + 1);
+        System.arraycopy(BinaryRecordFormat.MAGIC, 0, buffer, 0, BinaryRecordFormat.MAGIC.length);
+        length = BinaryRecordFormat.MAGIC.length;
+        buffer[length++] = BinaryRecordFormat.VERSION;
+    }
+
+    /**
+     * Encode a plain line
+     *
+     * @param line
+     */
+    public void encodeText(String line) {
+        length = 0;
+        bodyLength = 0;
+        putByte(BinaryRecordFormat.TYPE_TEXT);
+        putUtf8(line);
+        appendEntry();
+    }
+
+    /**
+     * Encode a log statement, preceded by a tag definition if the tag was not seen in this segment yet
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     */
+    public void encodeRecord(long timestamp, int priority, String tag, String message, Throwable t) {
+        encodeRecord(timestamp, priority, tag, message, t, null);
+    }
+
+    /**
+     * Encode a log statement with typed fields, the tag and the field keys not seen in this segment yet
+     * are defined first
+     *
+     * @param timestamp
+     * @param priority
+     * @param tag
+     * @param message
+     * @param t
+     * @param fields    (OPTIONAL)
+     */
+    public void encodeRecord(long timestamp, int priority, String tag, String message, Throwable t, LogFields fields) {
+        length = 0;
+        int fieldCount = fields == null ? 0 : fields.size();
+        // cleared up front, so that no id used by this record is redefined while it is encoded
+        if (tagIds.size() + fieldCount + 1 > BinaryRecordFormat.MAX_TAGS)
+            tagIds.clear();
+        int tagId = tag == null ? 0 : internTag(tag);
+        if (fieldCount > 0) {
+            if (keyIds.length < fieldCount)
+                keyIds = new int[Math.max(keyIds.length * 2, fieldCount)];
+            for (int i = 0; i < fieldCount; i++)
+                keyIds[i] = internTag(fields.getKey(i));
+        }
+        String throwableMessage = t == null ? null : t.getMessage();
+        int flags = 0;
+        if (message == null)
+            flags |= BinaryRecordFormat.FLAG_MESSAGE_NULL;
+        if (t != null)
+            flags |= BinaryRecordFormat.FLAG_HAS_THROWABLE;
+        if (t != null && throwableMessage == null)
+            flags |= BinaryRecordFormat.FLAG_THROWABLE_MESSAGE_NULL;
+        if (fieldCount > 0)
+            flags |= BinaryRecordFormat.FLAG_HAS_FIELDS;
+        bodyLength = 0;
+        putByte(BinaryRecordFormat.TYPE_RECORD);
+        putVarint(zigZag(timestamp - lastTimestamp));
+        putByte(priority);
+        putByte(flags);
+        putVarint(tagId);
+        putLengthPrefixedUtf8(message);
+        putLengthPrefixedUtf8(throwableMessage);
+        if (fieldCount > 0)
+            putFields(fields);
+        appendEntry();
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * @param tag
+     * @return the id of the tag, defined through a {@link BinaryRecordFormat#TYPE_TAG} entry if it is new
+     */
+    private int internTag(String tag) {
+        Integer id = tagIds.get(tag);
+        if (id != null)
+            return id;
+        int tagId = tagIds.size() + 1;
+        tagIds.put(tag, tagId);
+        bodyLength = 0;
+        putByte(BinaryRecordFormat.TYPE_TAG);
+        putVarint(tagId);
+        putUtf8(tag);
+        appendEntry();
+        return tagId;
+    }
+
+    private void putFields(LogFields fields) {
+        int count = fields.size();
+        putVarint(count);
+        for (int i = 0; i < count; i++) {
+            putVarint(keyIds[i]);
+            int type = fields.getType(i);
+            putByte(type);
+            switch (type) {
+                case LogFields.TYPE_LONG:
+                    putVarint(zigZag(fields.getLong(i)));
+                    break;
+                case LogFields.TYPE_DOUBLE:
+                    putFixed64(Double.doubleToRawLongBits(fields.getDouble(i)));
+                    break;
+                case LogFields.TYPE_BOOLEAN:
+                    putByte(fields.getBoolean(i) ? 1 : 0);
+                    break;
+                default:
+                    // 0 for null, the UTF-8 length + 1 otherwise
+                    String value = fields.getString(i);
+                    if (value == null) {
+                        putVarint(0);
+                    } else {
+                        putVarint(utf8Length(value) + 1L);
+                        putUtf8(value);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Append the body built so far to the buffer as a length prefixed entry
+     */
+    private void appendEntry() {
+        ensureBuffer(length + 5 + bodyLength);
+        long value = bodyLength;
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+        System.arraycopy(body, 0, buffer, length, bodyLength);
+        length += bodyLength;
+    }
+
+    private void putByte(int value) {
+        ensureBody(1);
+        body[bodyLength++] = (byte) value;
+    }
+
+    private void putVarint(long value) {
+        ensureBody(10);
+        while ((value & ~0x7FL) != 0) {
+            body[bodyLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        body[bodyLength++] = (byte) value;
+    }
+
+    private void putFixed64(long value) {
+        ensureBody(8);
+        for (int i = 0; i < 8; i++) {
+            body[bodyLength++] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private void putLengthPrefixedUtf8(String value) {
+        if (value == null) {
+            putVarint(0);
+            return;
+        }
+        putVarint(utf8Length(value));
+        putUtf8(value);
+    }
+
+    /**
+     * Appends the UTF-8 bytes of a String without going through {@link String#getBytes()}, cut to
+     * {@link BinaryRecordFormat#MAX_STRING_CHARS}
+     *
+     * @param value
+     */
+    private void putUtf8(String value) {
+        int size = Math.min(value.length(), BinaryRecordFormat.MAX_STRING_CHARS);
+        ensureBody(size * 3);
+        for (int i = 0; i < size; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                body[bodyLength++] = (byte) c;
+            } else if (c < 0x800) {
+                body[bodyLength++] = (byte) (0xC0 | (c >> 6));
+                body[bodyLength++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                body[bodyLength++] = (byte) (0xF0 | (codePoint >> 18));
+                body[bodyLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                body[bodyLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                body[bodyLength++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (isSurrogate(c)) {
+                body[bodyLength++] = '?';
+            } else {
+                body[bodyLength++] = (byte) (0xE0 | (c >> 12));
+                body[bodyLength++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                body[bodyLength++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * @param value
+     * @return the number of bytes {@link #putUtf8(String)} writes for the value
+     */
+    static int utf8Length(String value) {
+        int size = Math.min(value.length(), BinaryRecordFormat.MAX_STRING_CHARS);
+        int bytes = 0;
+        for (int i = 0; i < size; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * {@link Character#isSurrogate(char)} is only available from API 19
+     */
+    private static boolean isSurrogate(char c) {
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void ensureBody(int extra) {
+        if (bodyLength + extra > body.length) {
+            byte[] larger = new byte[Math.max(body.length * 2, bodyLength + extra)];
+            System.arraycopy(body, 0, larger, 0, bodyLength);
+            body = larger;
+        }
+    }
+
+    private void ensureBuffer(int size) {
+        if (size > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, size)];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+        }
+    }
+}
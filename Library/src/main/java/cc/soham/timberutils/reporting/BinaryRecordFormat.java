@@ -0,0 +1,52 @@
+package cc.soham.timberutils.reporting;
+
+import cc.soham.timberutils.record.LogFields;
+
+/**
+ * Constants of the compact binary log format written by {@link BinaryRecordEncoder} and read by
+ * {@link BinaryRecordDecoder}
+ * <p>
+ * A segment starts with {@link #MAGIC} followed by a version byte, then a sequence of entries:
+ * [varint length of body][body], where the body starts with a type byte
+ * - {@link #TYPE_TAG}: [varint tag id][UTF-8 tag], defines (or redefines) a tag id for the rest of the segment,
+ * the keys of fields are defined the same way
+ * - {@link #TYPE_RECORD}: [zigzag varint timestamp delta][priority][flags][varint tag id, 0 for no tag]
+ * [varint length][UTF-8 message][varint length][UTF-8 throwable message], followed with
+ * {@link #FLAG_HAS_FIELDS} by [varint field count] and per field [varint key tag id][field type][value]
+ * - field values: {@link #FIELD_LONG} zigzag varint, {@link #FIELD_DOUBLE} 8 bytes little endian,
+ * {@link #FIELD_BOOLEAN} 1 byte, {@link #FIELD_STRING} [varint UTF-8 length + 1, 0 for null][UTF-8]
+ * - {@link #TYPE_TEXT}: [UTF-8 line], a plain line like the "started at" header
+ * Timestamp deltas are relative to the previous record of the segment (the first one is relative to 0)
+ * An entry length of 0 marks the end of the data (mapped segments are padded with zeros), a length above
+ * {@link #MAX_ENTRY_LENGTH} can only be corruption and ends it as well
+ */
+public class BinaryRecordFormat {
+    public static final byte[] MAGIC = {'T', 'B', 'L', 'G'};
+    public static final byte VERSION = 1;
+
+    public static final byte TYPE_TAG = 1;
+    public static final byte TYPE_RECORD = 2;
+    public static final byte TYPE_TEXT = 3;
+
+    // flags of a TYPE_RECORD entry
+    public static final int FLAG_MESSAGE_NULL = 1;
+    public static final int FLAG_HAS_THROWABLE = 1 << 1;
+    public static final int FLAG_THROWABLE_MESSAGE_NULL = 1 << 2;
+    // decoders that predate fields ignore the bytes after the throwable message
+    public static final int FLAG_HAS_FIELDS = 1 << 3;
+
+    // types of the fields of a TYPE_RECORD entry, same values as the LogFields types
+    public static final int FIELD_LONG = LogFields.TYPE_LONG;
+    public static final int FIELD_DOUBLE = LogFields.TYPE_DOUBLE;
+    public static final int FIELD_BOOLEAN = LogFields.TYPE_BOOLEAN;
+    public static final int FIELD_STRING = LogFields.TYPE_STRING;
+
+    // tags are re-interned from scratch once a segment has seen this many distinct tags
+    public static final int MAX_TAGS = 4096;
+
+    // no entry is longer, so that a decoder never allocates more than this for a corrupt length
+    public static final int MAX_ENTRY_LENGTH = 16 * 1024 * 1024;
+    // strings (messages, tags, field values) are cut to this many characters, which keeps records far below
+    // MAX_ENTRY_LENGTH
+    public static final int MAX_STRING_CHARS = 1024 * 1024;
+}
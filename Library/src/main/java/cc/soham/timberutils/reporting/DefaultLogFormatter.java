@@ -0,0 +1,21 @@
+package cc.soham.timberutils.reporting;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The default {@link LogFormatter}: comma separated values
+ * "priority, timestamp, tag, message[, exception message]" (the timestamp is left out if there is none)
+ */
+public class DefaultLogFormatter implements LogFormatter {
+    private static final String SEPARATOR = ", ";
+
+    @Override
+    public void format(@NonNull StringBuilder builder, long timestamp, int priority, String tag, String message, Throwable t) {
+        builder.append(priority).append(SEPARATOR);
+        if (timestamp != Reporting.NO_TIMESTAMP)
+            builder.append(timestamp).append(SEPARATOR);
+        builder.append(tag).append(SEPARATOR).append(message);
+        if (t != null)
+            builder.append(SEPARATOR).append(t.getMessage());
+    }
+}
@@ -0,0 +1,23 @@
+package cc.soham.timberutils.reporting;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Renders a log statement as a single line of text
+ * Implementations append straight into the given {@link StringBuilder} (which is reused by the caller),
+ * so that formatting a record does not need to allocate intermediate Strings
+ * Set a custom implementation through {@link Reporting#setFormatter(LogFormatter)}
+ */
+public interface LogFormatter {
+    /**
+     * Append a log statement to the builder, without a trailing newline
+     *
+     * @param builder   the builder to append to
+     * @param timestamp time of the log statement, or {@link Reporting#NO_TIMESTAMP}
+     * @param priority  Priority of the message
+     * @param tag       TAG, context of the recording
+     * @param message   the actual message
+     * @param t         an optional exception
+     */
+    void format(@NonNull StringBuilder builder, long timestamp, int priority, String tag, String message, Throwable t);
+}
@@ -5,8 +5,55 @@ import android.support.annotation.NonNull;
 /**
  * Created by sohammondal on 16/08/16.
  * Responsible for formatting the log to a string message
+ * The actual rendering is done by a {@link LogFormatter} ({@link DefaultLogFormatter} unless changed)
  */
 public class Reporting {
+    /**
+     * Passed to a {@link LogFormatter} when the log statement has no separate timestamp
+     */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    // builders larger than this are not kept around after use
+    private static final int MAX_REUSED_BUILDER_CAPACITY = 16 * 1024;
+
+    private static volatile LogFormatter formatter = new DefaultLogFormatter();
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    public static LogFormatter getFormatter() {
+        return formatter;
+    }
+
+    /**
+     * Sets the {@link LogFormatter} used for all text output
+     *
+     * @param logFormatter
+     */
+    public static void setFormatter(@NonNull LogFormatter logFormatter) {
+        if (logFormatter == null)
+            throw new IllegalArgumentException("LogFormatter cannot be null");
+        formatter = logFormatter;
+    }
+
+    /**
+     * Appends a set of timestamp/priority/tag/message and throwable to a builder as a single line message
+     *
+     * @param builder
+     * @param timestamp time of the log statement, or {@link #NO_TIMESTAMP}
+     * @param priority  Priority of the message
+     * @param tag       TAG, context of the recording
+     * @param message   the actual message
+     * @param t         an optional exception
+     */
+    public static void format(@NonNull StringBuilder builder, long timestamp, int priority, String tag, String message, Throwable t) {
+        formatter.format(builder, timestamp, priority, tag, message, t);
+    }
+
     /**
      * Converts a set of priority/tag/message and throwable into a single line message
      * Current Implementation: comma separated value
@@ -18,11 +65,9 @@ public class Reporting {
      * @return
      */
     public static String format(int priority, @NonNull String tag, @NonNull String message, Throwable t) {
-        if (t == null) {
-            return format(priority, tag, message);
-        } else {
-            return String.format("%d, %s, %s, %s", priority, tag, message, t.getMessage());
-        }
+        StringBuilder builder = obtainBuilder();
+        format(builder, NO_TIMESTAMP, priority, tag, message, t);
+        return releaseBuilder(builder);
     }
 
     /**
@@ -35,6 +80,40 @@ public class Reporting {
      * @return
      */
     public static String format(int priority, @NonNull String tag, @NonNull String message) {
-        return String.format("%d, %s, %s", priority, tag, message);
+        return format(priority, tag, message, null);
+    }
+
+    /**
+     * Prefixes a tag with a timestamp ("timestamp, tag")
+     *
+     * @param timestamp
+     * @param tag
+     * @return
+     */
+    public static String prefixTimestamp(long timestamp, String tag) {
+        StringBuilder builder = obtainBuilder();
+        builder.append(timestamp).append(", ").append(tag);
+        return releaseBuilder(builder);
+    }
+
+    /**
+     * @return an empty {@link StringBuilder} reused by the calling thread, to be handed back through
+     * {@link #releaseBuilder(StringBuilder)}
+     */
+    public static StringBuilder obtainBuilder() {
+        StringBuilder builder = BUILDER.get();
+        builder.setLength(0);
+        return builder;
+    }
+
+    /**
+     * @param builder obtained through {@link #obtainBuilder()}
+     * @return the contents of the builder
+     */
+    public static String releaseBuilder(@NonNull StringBuilder builder) {
+        String value = builder.toString();
+        if (builder.capacity() > MAX_REUSED_BUILDER_CAPACITY)
+            BUILDER.remove();
+        return value;
     }
 }
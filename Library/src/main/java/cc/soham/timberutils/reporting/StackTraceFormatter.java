@@ -0,0 +1,166 @@
+package cc.soham.timberutils.reporting;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the stack traces of logged throwables as per a {@link StackTracePolicy}
+ * - every trace is fingerprinted by a hash of the class names and frames of its cause chain (messages are
+ * left out, so that the same failure with a different message is still a repeat)
+ * - the first occurrence in a segment is written in full: "#fingerprint Exception: message", its frames,
+ * then "Caused by: ..." for every cause (frames shared with the enclosing trace are left out as "... N more")
+ * - repeats are written as "same as #fingerprint, N occurrences"
+ * - one instance per writer, {@link #reset()} for every new segment so that each segment can be read on its own
+ * - not thread safe, it is only used by the thread that writes
+ */
+public class StackTraceFormatter {
+    private static final String CAUSED_BY = "Caused by: ";
+    // fingerprints remembered per segment, the least recently seen are forgotten first
+    private static final int MAX_FINGERPRINTS = 256;
+
+    private final Map<Integer, int[]> occurrences = new LinkedHashMap<Integer, int[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+            return size() > MAX_FINGERPRINTS;
+        }
+    };
+    private final IdentityHashMap<Throwable, Boolean> seen = new IdentityHashMap<>();
+
+    /**
+     * Forget the traces written so far, to be called for every new segment
+     */
+    public void reset() {
+        occurrences.clear();
+    }
+
+    /**
+     * Append the trace (or the reference to an earlier one) of a throwable, without a trailing newline
+     *
+     * @param builder
+     * @param t
+     * @param policy
+     */
+    public void append(@NonNull StringBuilder builder, @NonNull Throwable t, @NonNull StackTracePolicy policy) {
+        int fingerprint = fingerprint(t, policy.getMaxCauseDepth());
+        if (policy.isDeduplicate()) {
+            int[] count = occurrences.get(fingerprint);
+            if (count != null) {
+                count[0]++;
+                builder.append("same as ");
+                appendFingerprint(builder, fingerprint);
+                builder.append(", ").append(count[0]).append(" occurrences");
+                return;
+            }
+            occurrences.put(fingerprint, new int[]{1});
+        }
+        appendFingerprint(builder, fingerprint);
+        builder.append(' ');
+        StackTraceElement[] enclosing = null;
+        seen.clear();
+        try {
+            Throwable current = t;
+            for (int depth = 0; current != null && depth <= policy.getMaxCauseDepth() && !seen.containsKey(current); depth++) {
+                seen.put(current, Boolean.TRUE);
+                if (depth > 0)
+                    builder.append('\n').append(CAUSED_BY);
+                builder.append(current);
+                StackTraceElement[] frames = current.getStackTrace();
+                appendFrames(builder, frames, enclosing, policy.getMaxFrames());
+                enclosing = frames;
+                current = current.getCause();
+            }
+            if (current != null && !seen.containsKey(current))
+                builder.append("\n\t... more causes trimmed");
+        } finally {
+            seen.clear();
+        }
+    }
+
+    /**
+     * Remove the stack trace Timber appends to the message of a log statement with a throwable
+     * (the message, a newline and the trace as printed by {@link Throwable#printStackTrace()})
+     *
+     * @param message
+     * @param t
+     * @return the message as it was given to Timber, null if there was none
+     */
+    @Nullable
+    public static String stripTimberStackTrace(@Nullable String message, @NonNull Throwable t) {
+        if (message == null)
+            return null;
+        String header = t.toString();
+        // no message given, Timber used the trace alone
+        if (message.startsWith(header) && (message.length() == header.length() || message.charAt(header.length()) == '\n'))
+            return null;
+        // the trace starts with the header line of the throwable, causes start with "Caused by: "
+        int index = message.lastIndexOf("\n" + header);
+        if (index < 0)
+            return message;
+        return message.substring(0, index);
+    }
+
+    /**
+     * @param t
+     * @param maxCauseDepth
+     * @return a hash of the class names and frames of the cause chain
+     */
+    static int fingerprint(Throwable t, int maxCauseDepth) {
+        // FNV-1a over the hash codes of the parts
+        int hash = 0x811c9dc5;
+        Throwable current = t;
+        // causes are bounded by maxCauseDepth, cycles end the chain like in append
+        for (int depth = 0; current != null && depth <= maxCauseDepth; depth++) {
+            hash = mix(hash, current.getClass().getName().hashCode());
+            for (StackTraceElement frame : current.getStackTrace()) {
+                hash = mix(hash, frame.getClassName().hashCode());
+                hash = mix(hash, frame.getMethodName().hashCode());
+                hash = mix(hash, frame.getLineNumber());
+            }
+            Throwable cause = current.getCause();
+            current = cause == current ? null : cause;
+        }
+        return hash;
+    }
+
+    private static int mix(int hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash ^= (value >>> shift) & 0xff;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    private static void appendFingerprint(StringBuilder builder, int fingerprint) {
+        builder.append('#');
+        String hex = Integer.toHexString(fingerprint);
+        for (int i = hex.length(); i < 8; i++)
+            builder.append('0');
+        builder.append(hex);
+    }
+
+    /**
+     * Append the frames not shared with the enclosing trace, at most maxFrames of them
+     */
+    private static void appendFrames(StringBuilder builder, StackTraceElement[] frames, @Nullable StackTraceElement[] enclosing, int maxFrames) {
+        int last = frames.length - 1;
+        if (enclosing != null) {
+            int enclosingLast = enclosing.length - 1;
+            while (last >= 0 && enclosingLast >= 0 && frames[last].equals(enclosing[enclosingLast])) {
+                last--;
+                enclosingLast--;
+            }
+        }
+        int shared = frames.length - 1 - last;
+        int written = Math.min(last + 1, maxFrames);
+        for (int i = 0; i < written; i++)
+            builder.append("\n\tat ").append(frames[i]);
+        if (written < last + 1)
+            builder.append("\n\t... ").append(last + 1 - written).append(" frames trimmed");
+        if (shared > 0)
+            builder.append("\n\t... ").append(shared).append(" more");
+    }
+}
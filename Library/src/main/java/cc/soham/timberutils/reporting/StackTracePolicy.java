@@ -0,0 +1,65 @@
+package cc.soham.timberutils.reporting;
+
+/**
+ * Decides how the stack traces of logged throwables are written to the log file, see {@link StackTraceFormatter}
+ * - the trace of every throwable of the cause chain is written after the record, frames shared with the
+ * enclosing trace are left out ("... N more") and at most maxFrames frames are written per throwable
+ * - the chain is followed for at most maxCauseDepth causes
+ * - deduplicate: a trace already written in the current segment (same frames, whatever the messages) is
+ * written as a reference to its fingerprint instead ("same as #a1b2c3d4, 37 occurrences")
+ * A maxFrames of 0 leaves messages as Timber formats them (the behaviour before stack trace policies existed)
+ */
+public class StackTracePolicy {
+    /**
+     * Messages are written as they are, with the stack trace Timber appended to them
+     */
+    public static final StackTracePolicy NONE = new StackTracePolicy(0, 0, false);
+
+    public static final int DEFAULT_MAX_FRAMES = 64;
+    public static final int DEFAULT_MAX_CAUSE_DEPTH = 16;
+
+    private final int maxFrames;
+    private final int maxCauseDepth;
+    private final boolean deduplicate;
+
+    /**
+     * @param maxFrames     frames written per throwable of the chain (0 to leave messages as they are)
+     * @param maxCauseDepth causes followed after the logged throwable
+     * @param deduplicate   write repeated traces of a segment as a reference
+     */
+    public StackTracePolicy(int maxFrames, int maxCauseDepth, boolean deduplicate) {
+        if (maxFrames < 0 || maxCauseDepth < 0)
+            throw new IllegalArgumentException("StackTracePolicy limits cannot be negative");
+        this.maxFrames = maxFrames;
+        this.maxCauseDepth = maxCauseDepth;
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * A policy writing deduplicated traces with the default limits
+     *
+     * @return
+     */
+    public static StackTracePolicy defaults() {
+        return new StackTracePolicy(DEFAULT_MAX_FRAMES, DEFAULT_MAX_CAUSE_DEPTH, true);
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    public int getMaxCauseDepth() {
+        return maxCauseDepth;
+    }
+
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    /**
+     * @return true if messages are left as they are
+     */
+    public boolean isNone() {
+        return maxFrames == 0;
+    }
+}
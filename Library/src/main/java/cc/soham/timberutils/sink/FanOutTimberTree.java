@@ -0,0 +1,166 @@
+package cc.soham.timberutils.sink;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import cc.soham.timberutils.callsite.CallSiteTagResolver;
+import cc.soham.timberutils.callsite.CallSiteTimberTree;
+import cc.soham.timberutils.filter.LogRules;
+import cc.soham.timberutils.metrics.LoggingMetrics;
+import cc.soham.timberutils.record.LogEntry;
+import cc.soham.timberutils.structured.StructuredLog;
+
+/**
+ * A single TimberTree that replaces one tree per destination
+ * - the priority check, tag resolution and timestamp are done once per call, into one immutable
+ * {@link LogEntry} that is handed to every {@link LogSink} whose minimum priority it meets
+ * - the sinks are held in an immutable {@link SinkSet} that is swapped atomically, so that sinks can be
+ * added, removed or get a new level while other threads log, without uprooting/planting trees
+ * - sinks added with a {@link LogRules} sink are additionally filtered through the current rules
+ */
+public class FanOutTimberTree extends CallSiteTimberTree {
+    private final AtomicReference<SinkSet> sinkSet = new AtomicReference<>(SinkSet.EMPTY);
+
+    public FanOutTimberTree() {
+        // the entry carries both tags, the line number is taken from the resolved call site
+        super(false);
+    }
+
+    /**
+     * Add a sink, or change the minimum priority of a sink already added
+     *
+     * @param sink
+     * @param minPriority the lowest priority (e.g. {@link android.util.Log#INFO}) the sink receives
+     */
+    public void addSink(@NonNull LogSink sink, int minPriority) {
+        addSink(sink, SinkSet.NO_RULES, minPriority);
+    }
+
+    /**
+     * Add a sink filtered through the current {@link LogRules}, or change the level/rules of a sink already added
+     *
+     * @param sink
+     * @param ruleSink    {@link LogRules#SINK_LOGCAT}, {@link LogRules#SINK_FILE} or {@link LogRules#SINK_CRASH_REPORTER}
+     * @param minPriority the lowest priority (e.g. {@link android.util.Log#INFO}) the sink receives
+     */
+    public void addSink(@NonNull LogSink sink, int ruleSink, int minPriority) {
+        if (sink == null)
+            throw new IllegalArgumentException("LogSink cannot be null");
+        while (true) {
+            SinkSet current = sinkSet.get();
+            if (sinkSet.compareAndSet(current, current.with(sink, ruleSink, minPriority)))
+                return;
+        }
+    }
+
+    /**
+     * Remove a sink, it does not receive log statements made after this returns
+     *
+     * @param sink
+     * @return true if the sink had been added
+     */
+    public boolean removeSink(@NonNull LogSink sink) {
+        while (true) {
+            SinkSet current = sinkSet.get();
+            SinkSet updated = current.without(sink);
+            if (updated == current)
+                return false;
+            if (sinkSet.compareAndSet(current, updated))
+                return true;
+        }
+    }
+
+    /**
+     * @param sink
+     * @return the minimum priority of the sink, -1 if it has not been added
+     */
+    public int getMinPriority(@NonNull LogSink sink) {
+        SinkSet current = sinkSet.get();
+        int index = current.indexOf(sink);
+        return index < 0 ? -1 : current.minPriorities[index];
+    }
+
+    /**
+     * @return the sinks currently added
+     */
+    public List<LogSink> getSinks() {
+        return Arrays.asList(sinkSet.get().sinks.clone());
+    }
+
+    public boolean hasSinks() {
+        return sinkSet.get().sinks.length > 0;
+    }
+
+    /**
+     * Nothing is formatted unless at least one sink takes the priority (and the tag, for sinks with rules)
+     */
+    @Override
+    protected boolean isLoggable(String tag, int priority) {
+        SinkSet current = sinkSet.get();
+        if (priority >= current.minPriorityWithoutRules)
+            return true;
+        int[] minPriorities = current.minPriorities;
+        int[] ruleSinks = current.ruleSinks;
+        if (priority >= current.minPriority) {
+            LogRules logRules = LogRules.getCurrent();
+            for (int i = 0; i < ruleSinks.length; i++) {
+                if (priority >= minPriorities[i] && logRules.isLoggable(ruleSinks[i], tag, priority))
+                    return true;
+            }
+        }
+        for (int ruleSink : ruleSinks) {
+            if (ruleSink != SinkSet.NO_RULES)
+                LoggingMetrics.onFiltered(ruleSink);
+        }
+        return false;
+    }
+
+    @Override
+    protected void onLog(int priority, String tag, String message, Throwable t) {
+        SinkSet current = sinkSet.get();
+        if (priority < current.minPriority)
+            return;
+        LogEntry logEntry = new LogEntry(System.currentTimeMillis(), priority, tag, CallSiteTagResolver.getResolvedCallSite(),
+                Thread.currentThread(), message, t, StructuredLog.getCurrentFields());
+        dispatch(current, logEntry);
+    }
+
+    @Override
+    protected void onLog(@NonNull LogEntry logEntry) {
+        SinkSet current = sinkSet.get();
+        if (logEntry.priority < current.minPriority)
+            return;
+        dispatch(current, logEntry);
+    }
+
+    /**
+     * Hand the entry to every sink of the set whose level (and rules) it meets
+     *
+     * @param current
+     * @param logEntry
+     */
+    private static void dispatch(SinkSet current, LogEntry logEntry) {
+        int priority = logEntry.priority;
+        LogRules logRules = LogRules.getCurrent();
+        LogSink[] sinks = current.sinks;
+        int[] minPriorities = current.minPriorities;
+        int[] ruleSinks = current.ruleSinks;
+        for (int i = 0; i < sinks.length; i++) {
+            if (priority < minPriorities[i]
+                    || (ruleSinks[i] != SinkSet.NO_RULES && !logRules.isLoggable(ruleSinks[i], logEntry.tag, priority))) {
+                if (ruleSinks[i] != SinkSet.NO_RULES)
+                    LoggingMetrics.onFiltered(ruleSinks[i]);
+                continue;
+            }
+            try {
+                sinks[i].log(logEntry);
+            } catch (Exception e) {
+                // one failing sink must not keep the others from logging
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package cc.soham.timberutils.sink;
+
+import android.support.annotation.NonNull;
+
+import cc.soham.timberutils.record.LogEntry;
+
+/**
+ * A destination of log statements (logcat, file, crash reporter ...) plugged into a {@link FanOutTimberTree}
+ * Called on the thread that logs, implementations hand expensive work to a thread of their own
+ */
+public interface LogSink {
+    /**
+     * Write a log statement, the entry is shared with the other sinks
+     *
+     * @param logEntry
+     */
+    void log(@NonNull LogEntry logEntry);
+}
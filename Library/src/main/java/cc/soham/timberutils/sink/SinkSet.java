@@ -0,0 +1,90 @@
+package cc.soham.timberutils.sink;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of {@link LogSink}s with their minimum priorities and {@link cc.soham.timberutils.filter.LogRules}
+ * sinks, replaced as a whole by {@link FanOutTimberTree} whenever a sink is added, removed or changes its level
+ */
+class SinkSet {
+    static final SinkSet EMPTY = new SinkSet(new LogSink[0], new int[0], new int[0]);
+
+    final LogSink[] sinks;
+    final int[] minPriorities;
+    // the LogRules sink of every sink, NO_RULES for sinks that are not filtered by rules
+    final int[] ruleSinks;
+    // the lowest priority any sink accepts, Integer.MAX_VALUE when there are no sinks
+    final int minPriority;
+    // the lowest priority a sink without rules accepts, Integer.MAX_VALUE when all sinks have rules
+    final int minPriorityWithoutRules;
+
+    static final int NO_RULES = -1;
+
+    private SinkSet(LogSink[] sinks, int[] minPriorities, int[] ruleSinks) {
+        this.sinks = sinks;
+        this.minPriorities = minPriorities;
+        this.ruleSinks = ruleSinks;
+        int lowest = Integer.MAX_VALUE;
+        int lowestWithoutRules = Integer.MAX_VALUE;
+        for (int i = 0; i < minPriorities.length; i++) {
+            lowest = Math.min(lowest, minPriorities[i]);
+            if (ruleSinks[i] == NO_RULES)
+                lowestWithoutRules = Math.min(lowestWithoutRules, minPriorities[i]);
+        }
+        this.minPriority = lowest;
+        this.minPriorityWithoutRules = lowestWithoutRules;
+    }
+
+    int indexOf(LogSink sink) {
+        for (int i = 0; i < sinks.length; i++) {
+            if (sinks[i] == sink)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return a set with the sink added, or its minimum priority and rules replaced if already present
+     */
+    SinkSet with(LogSink sink, int ruleSink, int minPriority) {
+        int index = indexOf(sink);
+        if (index >= 0) {
+            int[] priorities = minPriorities.clone();
+            int[] rules = ruleSinks.clone();
+            priorities[index] = minPriority;
+            rules[index] = ruleSink;
+            return new SinkSet(sinks, priorities, rules);
+        }
+        LogSink[] newSinks = Arrays.copyOf(sinks, sinks.length + 1);
+        int[] newPriorities = Arrays.copyOf(minPriorities, minPriorities.length + 1);
+        int[] newRuleSinks = Arrays.copyOf(ruleSinks, ruleSinks.length + 1);
+        newSinks[sinks.length] = sink;
+        newPriorities[minPriorities.length] = minPriority;
+        newRuleSinks[ruleSinks.length] = ruleSink;
+        return new SinkSet(newSinks, newPriorities, newRuleSinks);
+    }
+
+    /**
+     * @return a set without the sink, this set if it is not present
+     */
+    SinkSet without(LogSink sink) {
+        int index = indexOf(sink);
+        if (index < 0)
+            return this;
+        return new SinkSet(remove(sinks, new LogSink[sinks.length - 1], index),
+                remove(minPriorities, index), remove(ruleSinks, index));
+    }
+
+    private static LogSink[] remove(LogSink[] source, LogSink[] target, int index) {
+        System.arraycopy(source, 0, target, 0, index);
+        System.arraycopy(source, index + 1, target, index, source.length - index - 1);
+        return target;
+    }
+
+    private static int[] remove(int[] source, int index) {
+        int[] target = new int[source.length - 1];
+        System.arraycopy(source, 0, target, 0, index);
+        System.arraycopy(source, index + 1, target, index, source.length - index - 1);
+        return target;
+    }
+}
@@ -0,0 +1,191 @@
+package cc.soham.timberutils.startup;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+import cc.soham.timberutils.callsite.CallSiteTagResolver;
+import cc.soham.timberutils.callsite.CallSiteTimberTree;
+import cc.soham.timberutils.record.LogEntry;
+import cc.soham.timberutils.structured.StructuredLog;
+import timber.log.Timber;
+
+/**
+ * Our TimberTree that holds on to the log statements made while {@link cc.soham.timberutils.TimberWrapper}
+ * initialises in the background ({@link cc.soham.timberutils.TimberWrapperConfig#INIT_MODE_BACKGROUND})
+ * - every statement is captured as a {@link LogEntry} on the calling thread (timestamp, call site, thread, fields)
+ * - at most capacity entries are kept, the oldest are dropped first, the number dropped is replayed as a WARN line
+ * - {@link #handOff(Handoff)} plants the trees and hands them the entries, in the order they were logged, and closes
+ * the buffer
+ * - statements made during the handoff wait for it to finish, so that none is written ahead of older ones
+ * - statements that reach it after the handoff are handed on to the trees as well: Timber may have handed them out
+ * before the trees were planted, the trees skip those it handed on when Timber hands them to them too
+ * ({@link CallSiteTagResolver#onForward(CallSiteTimberTree[])}, it is planted before them)
+ */
+public class PreInitTimberTree extends CallSiteTimberTree {
+    /**
+     * Creates the trees the buffered statements are handed to
+     */
+    public interface Handoff {
+        /**
+         * Called while statements are held back, the trees are planted by the {@link PreInitTimberTree} right after
+         *
+         * @return the trees to plant (null elements are skipped), not the ones of the app (they got every statement already)
+         */
+        CallSiteTimberTree[] createTrees();
+    }
+
+    public static final int DEFAULT_CAPACITY = 256;
+    private static final String TAG = "TimberUtils";
+    private static final CallSiteTimberTree[] NO_TREES = new CallSiteTimberTree[0];
+
+    private final int capacity;
+    private final ArrayDeque<LogEntry> entries;
+    private long droppedCount;
+    private long firstDroppedTimestamp;
+    private volatile boolean closed;
+    // the trees the entries were handed to, set before closed
+    private CallSiteTimberTree[] trees = NO_TREES;
+
+    /**
+     * @param capacity the number of entries kept, e.g. {@link #DEFAULT_CAPACITY}
+     */
+    public PreInitTimberTree(int capacity) {
+        // the entry carries both tags, the line number is taken from the resolved call site
+        super(false);
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The pre-init buffer capacity must be positive");
+        this.capacity = capacity;
+        this.entries = new ArrayDeque<LogEntry>(Math.min(capacity, 64));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of entries dropped because the buffer was full so far
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Buffered until the buffer is closed (waits during the handoff), handed on to the trees after
+     */
+    @Override
+    protected void onLog(int priority, String tag, String message, Throwable t) {
+        LogEntry logEntry = new LogEntry(System.currentTimeMillis(), priority, tag, CallSiteTagResolver.getResolvedCallSite(),
+                Thread.currentThread(), message, t, StructuredLog.getCurrentFields());
+        if (!closed) {
+            synchronized (this) {
+                if (!closed) {
+                    add(logEntry);
+                    return;
+                }
+            }
+        }
+        // decided under the lock, the statement is in the buffer or the buffer was handed to the trees before it
+        CallSiteTimberTree[] replayTrees = trees;
+        CallSiteTagResolver.onForward(replayTrees);
+        replay(replayTrees, logEntry);
+    }
+
+    @Override
+    protected void onLog(@NonNull LogEntry logEntry) {
+        synchronized (this) {
+            if (!closed)
+                add(logEntry);
+        }
+    }
+
+    /**
+     * Plant the trees, hand them the entries in the order they were logged and close the buffer, statements that
+     * reach this tree from here on are handed on to them
+     * The entries are handed to no tree if the trees cannot be created
+     *
+     * @param handoff
+     */
+    public void handOff(@NonNull Handoff handoff) {
+        synchronized (this) {
+            if (closed)
+                return;
+            try {
+                CallSiteTimberTree[] created = handoff.createTrees();
+                if (created != null)
+                    trees = created;
+                for (CallSiteTimberTree tree : trees) {
+                    if (tree != null)
+                        Timber.plant(tree);
+                }
+            } finally {
+                replayAndClose();
+            }
+        }
+    }
+
+    /**
+     * Hand the entries to trees that are planted already and close the buffer
+     *
+     * @param plantedTrees planted after this tree, null elements are skipped
+     */
+    public void close(@NonNull CallSiteTimberTree[] plantedTrees) {
+        synchronized (this) {
+            if (closed)
+                return;
+            trees = plantedTrees;
+            replayAndClose();
+        }
+    }
+
+    private void replayAndClose() {
+        try {
+            if (droppedCount > 0) {
+                replay(trees, new LogEntry(firstDroppedTimestamp, Log.WARN, TAG, null, Thread.currentThread(),
+                        createDroppedMessage(droppedCount), null));
+            }
+            // polled, a tree that logs while it is replayed to appends to the entries
+            LogEntry logEntry;
+            while ((logEntry = entries.pollFirst()) != null)
+                replay(trees, logEntry);
+        } finally {
+            entries.clear();
+            closed = true;
+        }
+    }
+
+    /**
+     * @param count
+     * @return the line replayed for dropped entries
+     */
+    public static String createDroppedMessage(long count) {
+        return count + " records dropped, logged before logging was initialised";
+    }
+
+    private void add(LogEntry logEntry) {
+        if (entries.size() >= capacity) {
+            LogEntry dropped = entries.pollFirst();
+            if (droppedCount++ == 0)
+                firstDroppedTimestamp = dropped.timestamp;
+        }
+        entries.addLast(logEntry);
+    }
+
+    private static void replay(CallSiteTimberTree[] trees, LogEntry logEntry) {
+        for (CallSiteTimberTree tree : trees) {
+            if (tree == null)
+                continue;
+            try {
+                tree.replay(logEntry);
+            } catch (Exception e) {
+                // one failing tree must not keep the others from logging
+                e.printStackTrace();
+            }
+        }
+    }
+}
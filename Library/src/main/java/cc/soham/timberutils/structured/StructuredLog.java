@@ -0,0 +1,113 @@
+package cc.soham.timberutils.structured;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import cc.soham.timberutils.filter.LogInterest;
+import cc.soham.timberutils.record.LogFields;
+import timber.log.Timber;
+
+/**
+ * Logging through {@link Timber} with typed key value {@link LogFields} next to the message, e.g.
+ * {@code StructuredLog.i("order placed", new LogFields().put("orderId", id).put("total", total))}
+ * - the fields are not formatted into the message, the file sink of {@link cc.soham.timberutils.TimberWrapper}
+ * stores them as typed values and the JSON Lines export ({@link cc.soham.timberutils.output.file.LogExporter#EXPORT_FORMAT_JSON_LINES})
+ * writes them as a JSON object
+ * - trees that do not know about fields (logcat, Crashlytics) only get the message
+ * - nothing is done if {@link LogInterest} says no planted tree takes the priority, like {@link cc.soham.timberutils.lazy.LazyLog}
+ * The fields travel to the trees on the calling thread, see {@link #getCurrentFields()}, the call site is still the
+ * caller of StructuredLog
+ */
+public class StructuredLog {
+    private static final ThreadLocal<LogFields> currentFields = new ThreadLocal<LogFields>();
+
+    private StructuredLog() {
+    }
+
+    public static void v(@NonNull String message, @Nullable LogFields fields) {
+        log(Log.VERBOSE, null, null, message, fields);
+    }
+
+    public static void v(Throwable t, @NonNull String message, @Nullable LogFields fields) {
+        log(Log.VERBOSE, null, t, message, fields);
+    }
+
+    public static void d(@NonNull String message, @Nullable LogFields fields) {
+        log(Log.DEBUG, null, null, message, fields);
+    }
+
+    public static void d(Throwable t, @NonNull String message, @Nullable LogFields fields) {
+        log(Log.DEBUG, null, t, message, fields);
+    }
+
+    public static void i(@NonNull String message, @Nullable LogFields fields) {
+        log(Log.INFO, null, null, message, fields);
+    }
+
+    public static void i(Throwable t, @NonNull String message, @Nullable LogFields fields) {
+        log(Log.INFO, null, t, message, fields);
+    }
+
+    public static void w(@NonNull String message, @Nullable LogFields fields) {
+        log(Log.WARN, null, null, message, fields);
+    }
+
+    public static void w(Throwable t, @NonNull String message, @Nullable LogFields fields) {
+        log(Log.WARN, null, t, message, fields);
+    }
+
+    public static void e(@NonNull String message, @Nullable LogFields fields) {
+        log(Log.ERROR, null, null, message, fields);
+    }
+
+    public static void e(Throwable t, @NonNull String message, @Nullable LogFields fields) {
+        log(Log.ERROR, null, t, message, fields);
+    }
+
+    public static void wtf(@NonNull String message, @Nullable LogFields fields) {
+        log(Log.ASSERT, null, null, message, fields);
+    }
+
+    public static void wtf(Throwable t, @NonNull String message, @Nullable LogFields fields) {
+        log(Log.ASSERT, null, t, message, fields);
+    }
+
+    /**
+     * Log a message with fields
+     *
+     * @param priority
+     * @param tag      explicit tag, null to use the call site
+     * @param t        (OPTIONAL)
+     * @param message  passed to Timber as is, it is not formatted
+     * @param fields   (OPTIONAL) copied, it can be changed or reused afterwards
+     */
+    public static void log(int priority, @Nullable String tag, @Nullable Throwable t, @NonNull String message,
+                           @Nullable LogFields fields) {
+        if (!LogInterest.isInterested(tag, priority))
+            return;
+        if (tag != null)
+            Timber.tag(tag);
+        if (fields == null || fields.isEmpty()) {
+            Timber.log(priority, t, message);
+            return;
+        }
+        LogFields previous = currentFields.get();
+        // the trees queue the fields to be written on another thread
+        currentFields.set(fields.freeze());
+        try {
+            Timber.log(priority, t, message);
+        } finally {
+            currentFields.set(previous);
+        }
+    }
+
+    /**
+     * @return the fields of the statement the trees are being called for on this thread (a frozen copy, see
+     * {@link LogFields#freeze()}), null outside of {@link #log(int, String, Throwable, String, LogFields)}
+     */
+    @Nullable
+    public static LogFields getCurrentFields() {
+        return currentFields.get();
+    }
+}
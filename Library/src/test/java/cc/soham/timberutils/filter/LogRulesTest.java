@@ -0,0 +1,153 @@
+package cc.soham.timberutils.filter;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import cc.soham.timberutils.callsite.CallSiteTagResolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rule lookup order, sink rules over rules for all sinks, the early exits of {@link LogRules} and the text
+ * form of {@link LogRule}
+ */
+public class LogRulesTest {
+    private static final int FILE = LogRules.SINK_FILE;
+    private static final int LOGCAT = LogRules.SINK_LOGCAT;
+
+    @Test
+    public void noRules_acceptEverything() {
+        assertTrue(LogRules.NONE.isLoggable(FILE, "Any", Log.VERBOSE));
+        assertTrue(LogRules.NONE.isLoggableAnywhere("Any", Log.VERBOSE));
+        assertEquals(Log.VERBOSE, LogRules.NONE.getLowestMinPriority(FILE));
+    }
+
+    @Test
+    public void exactRule_winsOverPrefixAndDefault() {
+        LogRules logRules = rules("file:*=5", "file:Net*=4", "file:Network=3");
+        assertTrue(logRules.isLoggable(FILE, "Network", Log.DEBUG));
+        assertFalse(logRules.isLoggable(FILE, "Network", Log.VERBOSE));
+        // the prefix applies to the other tags starting with it
+        assertTrue(logRules.isLoggable(FILE, "NetworkClient", Log.INFO));
+        assertFalse(logRules.isLoggable(FILE, "NetworkClient", Log.DEBUG));
+        // the default to the rest
+        assertFalse(logRules.isLoggable(FILE, "Main", Log.INFO));
+        assertTrue(logRules.isLoggable(FILE, "Main", Log.WARN));
+    }
+
+    @Test
+    public void longestPrefix_wins() {
+        LogRules logRules = rules("file:Ok*=6", "file:OkHttp*=3", "file:OkHttpClient*=5");
+        assertTrue(logRules.isLoggable(FILE, "OkHttpCache", Log.DEBUG));
+        assertFalse(logRules.isLoggable(FILE, "OkHttpClientPool", Log.INFO));
+        assertFalse(logRules.isLoggable(FILE, "Okio", Log.WARN));
+        assertTrue(logRules.isLoggable(FILE, "Okio", Log.ERROR));
+        // no rule matches, no default rule: everything
+        assertTrue(logRules.isLoggable(FILE, "Main", Log.VERBOSE));
+    }
+
+    @Test
+    public void sinkRules_overrideRulesForAllSinks() {
+        LogRules logRules = rules("file:Main=2", "*:Main=5", "*:*=4", "logcat:*=3");
+        // the rule of the sink wins, whatever the order
+        assertTrue(logRules.isLoggable(FILE, "Main", Log.DEBUG));
+        assertFalse(logRules.isLoggable(LOGCAT, "Main", Log.INFO));
+        assertTrue(logRules.isLoggable(LOGCAT, "Other", Log.DEBUG));
+        assertFalse(logRules.isLoggable(FILE, "Other", Log.DEBUG));
+        assertTrue(logRules.isLoggable(FILE, "Other", Log.INFO));
+        assertFalse(logRules.isLoggable(LogRules.SINK_CRASH_REPORTER, "Main", Log.INFO));
+    }
+
+    @Test
+    public void unknownSinks_areIgnored() {
+        LogRules logRules = rules("printer:*=7");
+        for (int sink = 0; sink < LogRules.SINK_COUNT; sink++)
+            assertTrue(logRules.isLoggable(sink, "Main", Log.VERBOSE));
+    }
+
+    @Test
+    public void isLoggableAnywhere_takesTheMostPermissiveSink() {
+        LogRules logRules = rules("*:*=6", "crash:Pay*=3");
+        assertTrue(logRules.isLoggableAnywhere("Payment", Log.DEBUG));
+        assertFalse(logRules.isLoggableAnywhere("Payment", Log.VERBOSE));
+        assertFalse(logRules.isLoggableAnywhere("Main", Log.WARN));
+        assertTrue(logRules.isLoggableAnywhere("Main", Log.ERROR));
+    }
+
+    @Test
+    public void earlyExits_doNotResolveTheCallSite() {
+        LogRules logRules = rules("*:*=4", "file:Net*=3", "file:Db=5");
+        assertEquals(Log.DEBUG, logRules.getLowestMinPriority(FILE));
+        long stackWalks = CallSiteTagResolver.getStackWalkCount();
+        // at or above the highest minimum priority, and below the lowest: decided without a tag
+        assertTrue(logRules.isLoggable(FILE, null, Log.ERROR));
+        assertTrue(logRules.isLoggable(FILE, null, Log.WARN));
+        assertFalse(logRules.isLoggable(FILE, null, Log.VERBOSE));
+        assertFalse(logRules.isLoggableAnywhere(null, Log.VERBOSE));
+        assertTrue(logRules.isLoggableAnywhere(null, Log.ERROR));
+        assertEquals(stackWalks, CallSiteTagResolver.getStackWalkCount());
+    }
+
+    @Test
+    public void decisions_areCachedPerTag() {
+        LogRules logRules = rules("file:Main=5");
+        for (int i = 0; i < 3; i++) {
+            assertFalse(logRules.isLoggable(FILE, "Main", Log.INFO));
+            assertTrue(logRules.isLoggable(FILE, "Main2", Log.INFO));
+        }
+    }
+
+    @Test
+    public void parse_roundTripsToString() {
+        for (String text : Arrays.asList("file:*=4", "crash:OkHttp*=5", "*:MainActivity=3", "logcat:Tag With Spaces=2")) {
+            LogRule rule = LogRule.parse(text);
+            assertEquals(text, rule.toString());
+            assertEquals(text, LogRule.parse(rule.toString()).toString());
+        }
+        LogRule rule = LogRule.parse(" file : OkHttp* = 5 ");
+        assertEquals("file", rule.getSink());
+        assertEquals("OkHttp", rule.getTag());
+        assertTrue(rule.isPrefix());
+        assertFalse(rule.isDefault());
+        assertEquals(5, rule.getMinPriority());
+        assertTrue(LogRule.parse("*:*=2").isDefault());
+        // the last "=" separates the priority
+        assertEquals("a=b", LogRule.parse("file:a=b=3").getTag());
+    }
+
+    @Test
+    public void parse_rejectsMalformedRules() {
+        assertNull(LogRule.parse(""));
+        assertNull(LogRule.parse("file"));
+        assertNull(LogRule.parse(":Main=3"));
+        assertNull(LogRule.parse("file:=3"));
+        assertNull(LogRule.parse("file:Main"));
+        assertNull(LogRule.parse("file:Main=high"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setCurrent_rejectsNull() {
+        LogRules.setCurrent(null);
+    }
+
+    @Test
+    public void getRules_keepsTheRulesAsGiven() {
+        LogRules logRules = new LogRules(Collections.singletonList(new LogRule("file", "Main*", 4)));
+        assertEquals(1, logRules.getRules().size());
+        assertEquals("file:Main*=4", logRules.getRules().get(0).toString());
+    }
+
+    private static LogRules rules(String... rules) {
+        LogRule[] parsed = new LogRule[rules.length];
+        for (int i = 0; i < rules.length; i++)
+            parsed[i] = LogRule.parse(rules[i]);
+        return new LogRules(Arrays.asList(parsed));
+    }
+}
@@ -0,0 +1,230 @@
+package cc.soham.timberutils.filter;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cc.soham.timberutils.record.LogFields;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link LogStormSuppressor} with explicit timestamps: collapsing of repeats, the summary lines written before
+ * the next record and by {@link LogStormSuppressor#flush(LogStormSuppressor.Emitter)}, the token bucket per tag
+ * and the records it never drops
+ */
+public class LogStormSuppressorTest {
+    private static final long BASE_TIME = 1500000000000L;
+    private static final String TAG = "Main";
+
+    private final Collector collector = new Collector();
+
+    @Test
+    public void noPolicy_passesEverything() {
+        LogStormSuppressor suppressor = new LogStormSuppressor(SuppressionPolicy.NONE);
+        for (int i = 0; i < 3; i++)
+            assertTrue(log(suppressor, i, Log.DEBUG, TAG, "same"));
+        assertEquals(Arrays.asList("0 D Main same", "1 D Main same", "2 D Main same"), collector.lines);
+        assertEquals(0, suppressor.getCollapsedCount());
+    }
+
+    @Test
+    public void repeats_areCollapsedUntilADifferentRecord() {
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(true, 0, 0));
+        assertTrue(log(suppressor, 1, Log.INFO, TAG, "tick"));
+        assertFalse(log(suppressor, 2, Log.INFO, TAG, "tick"));
+        assertFalse(log(suppressor, 3, Log.INFO, TAG, "tick"));
+        assertTrue(log(suppressor, 4, Log.WARN, "Other", "tock"));
+        // the summary carries the priority, tag and timestamp of the last repeat
+        assertEquals(Arrays.asList("1 I Main tick", "3 I Main last message repeated 2 times", "4 W Other tock"), collector.lines);
+        assertEquals(2, suppressor.getCollapsedCount());
+    }
+
+    @Test
+    public void repeats_needTheSamePriorityTagAndMessage() {
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(true, 0, 0));
+        assertTrue(log(suppressor, 1, Log.INFO, TAG, "tick"));
+        assertTrue(log(suppressor, 2, Log.DEBUG, TAG, "tick"));
+        assertTrue(log(suppressor, 3, Log.DEBUG, "Other", "tick"));
+        assertTrue(log(suppressor, 4, Log.DEBUG, "Other", "tock"));
+        assertTrue(log(suppressor, 5, Log.DEBUG, null, "tock"));
+        assertFalse(log(suppressor, 6, Log.DEBUG, null, "tock"));
+        assertEquals(1, suppressor.getCollapsedCount());
+    }
+
+    @Test
+    public void recordsWithThrowablesOrFields_areNeverCollapsed() {
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(true, 0, 0));
+        Throwable throwable = new RuntimeException();
+        assertTrue(suppressor.log(BASE_TIME, Log.ERROR, TAG, null, "failed", throwable, collector));
+        assertTrue(suppressor.log(BASE_TIME, Log.ERROR, TAG, null, "failed", throwable, collector));
+        LogFields fields = new LogFields().put("id", 7);
+        assertTrue(suppressor.log(BASE_TIME, Log.INFO, TAG, null, "event", null, fields, collector));
+        assertTrue(suppressor.log(BASE_TIME, Log.INFO, TAG, null, "event", null, fields, collector));
+        // nor is a plain record repeating the message of a record with fields
+        assertTrue(log(suppressor, 0, Log.INFO, TAG, "event"));
+        assertEquals(0, suppressor.getCollapsedCount());
+        assertSame(throwable, collector.throwables.get(0));
+        assertSame(fields, collector.fields.get(2));
+        assertEquals(null, collector.fields.get(4));
+    }
+
+    @Test
+    public void flush_writesTheRunInProgressOnce() {
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(true, 0, 0));
+        log(suppressor, 1, Log.INFO, TAG, "tick");
+        log(suppressor, 2, Log.INFO, TAG, "tick");
+        suppressor.flush(collector);
+        suppressor.flush(collector);
+        // the run ended with the flush, the same message starts a new one
+        assertTrue(log(suppressor, 3, Log.INFO, TAG, "tick"));
+        assertEquals(Arrays.asList("1 I Main tick", "2 I Main last message repeated 1 times", "3 I Main tick"), collector.lines);
+    }
+
+    @Test
+    public void rateLimit_dropsBeyondTheBurstAndReportsTheCount() {
+        // one record a second, two at once
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(false, 1, 2));
+        assertTrue(log(suppressor, 0, Log.DEBUG, TAG, "a"));
+        assertTrue(log(suppressor, 0, Log.DEBUG, TAG, "b"));
+        assertFalse(log(suppressor, 0, Log.DEBUG, TAG, "c"));
+        assertFalse(log(suppressor, 999, Log.DEBUG, TAG, "d"));
+        assertTrue(log(suppressor, 1000, Log.DEBUG, TAG, "e"));
+        assertFalse(log(suppressor, 1000, Log.DEBUG, TAG, "f"));
+        assertTrue(log(suppressor, 2000, Log.DEBUG, TAG, "g"));
+        assertEquals(Arrays.asList("0 D Main a", "0 D Main b",
+                "1000 D Main e (2 earlier records of this tag suppressed)",
+                "2000 D Main g (1 earlier records of this tag suppressed)"), collector.lines);
+        assertEquals(3, suppressor.getRateLimitedCount());
+    }
+
+    @Test
+    public void rateLimit_refillsInThousandthsOfARecord() {
+        // half a record a millisecond
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(false, 500, 1));
+        assertTrue(log(suppressor, 0, Log.DEBUG, TAG, "a"));
+        assertFalse(log(suppressor, 1, Log.DEBUG, TAG, "b"));
+        assertTrue(log(suppressor, 2, Log.DEBUG, TAG, "c"));
+        assertFalse(log(suppressor, 3, Log.DEBUG, TAG, "d"));
+        // a timestamp going back refills nothing
+        assertFalse(log(suppressor, 1, Log.DEBUG, TAG, "e"));
+        assertTrue(log(suppressor, 4, Log.DEBUG, TAG, "f"));
+    }
+
+    @Test
+    public void rateLimit_refillIsClampedToTheBurst() {
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(false, 1000, 3));
+        for (int i = 0; i < 3; i++)
+            assertTrue(log(suppressor, 0, Log.DEBUG, TAG, "a" + i));
+        assertFalse(log(suppressor, 0, Log.DEBUG, TAG, "b"));
+        // elapsed * rate would overflow without the clamp
+        long later = Long.MAX_VALUE / 100 - BASE_TIME;
+        for (int i = 0; i < 3; i++)
+            assertTrue(log(suppressor, later, Log.DEBUG, TAG, "c" + i));
+        assertFalse(log(suppressor, later, Log.DEBUG, TAG, "d"));
+        // two records refilled, one taken
+        assertTrue(log(suppressor, later + 2, Log.DEBUG, TAG, "e"));
+        // a refill short of the clamp stops at the burst as well
+        long refilled = later + 5;
+        for (int i = 0; i < 3; i++)
+            assertTrue(log(suppressor, refilled, Log.DEBUG, TAG, "f" + i));
+        assertFalse(log(suppressor, refilled, Log.DEBUG, TAG, "g"));
+    }
+
+    @Test
+    public void errorAndAssert_areNeverRateLimited() {
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(false, 1, 1));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(log(suppressor, 0, Log.ERROR, TAG, "e" + i));
+            assertTrue(log(suppressor, 0, Log.ASSERT, TAG, "a" + i));
+        }
+        // and they leave the bucket of the tag alone
+        assertTrue(log(suppressor, 0, Log.WARN, TAG, "w"));
+        assertFalse(log(suppressor, 0, Log.WARN, TAG, "w2"));
+        assertEquals(1, suppressor.getRateLimitedCount());
+    }
+
+    @Test
+    public void rateKey_isSharedByTheTagsUsingIt() {
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(false, 1, 1));
+        assertTrue(suppressor.log(BASE_TIME, Log.DEBUG, "Main:12", "Main", "a", null, collector));
+        assertFalse(suppressor.log(BASE_TIME, Log.DEBUG, "Main:40", "Main", "b", null, collector));
+        assertTrue(suppressor.log(BASE_TIME, Log.DEBUG, "Other:40", "Other", "c", null, collector));
+        // without a rate key, the tag is the key
+        assertTrue(suppressor.log(BASE_TIME, Log.DEBUG, "Main:40", null, "d", null, collector));
+    }
+
+    @Test
+    public void droppedRecord_endsTheRun() {
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(true, 1, 1));
+        assertTrue(log(suppressor, 0, Log.DEBUG, TAG, "a"));
+        assertFalse(log(suppressor, 0, Log.DEBUG, TAG, "b"));
+        // not a repeat of the dropped record, rate limited in turn
+        assertFalse(log(suppressor, 0, Log.DEBUG, TAG, "b"));
+        assertEquals(0, suppressor.getCollapsedCount());
+        assertEquals(2, suppressor.getRateLimitedCount());
+    }
+
+    @Test
+    public void flush_reportsTheTagsThatWentQuiet() {
+        LogStormSuppressor suppressor = new LogStormSuppressor(new SuppressionPolicy(false, 1, 1));
+        log(suppressor, 0, Log.DEBUG, "First", "a");
+        log(suppressor, 0, Log.DEBUG, "Second", "a");
+        log(suppressor, 5, Log.DEBUG, "Second", "b");
+        log(suppressor, 6, Log.WARN, "Second", "c");
+        log(suppressor, 7, Log.INFO, "Second", "d");
+        log(suppressor, 3, Log.VERBOSE, "First", "b");
+        collector.lines.clear();
+        suppressor.flush(collector);
+        // oldest first, with the timestamp of the last dropped record and the highest priority dropped
+        assertEquals(Arrays.asList("3 V First 1 records of this tag suppressed", "7 W Second 3 records of this tag suppressed"),
+                collector.lines);
+        // the counts were handed out, the next record through carries none
+        collector.lines.clear();
+        suppressor.flush(collector);
+        assertTrue(log(suppressor, 2000, Log.DEBUG, "Second", "e"));
+        assertEquals(Arrays.asList("2000 D Second e"), collector.lines);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNull() {
+        new LogStormSuppressor(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void policy_rejectsARateWithoutBurst() {
+        new SuppressionPolicy(true, 10, 0);
+    }
+
+    private boolean log(LogStormSuppressor suppressor, long time, int priority, String tag, String message) {
+        return suppressor.log(time, priority, tag, null, message, null, collector);
+    }
+
+    /**
+     * Keeps every record handed out as "timestamp priority tag message"
+     */
+    private static class Collector implements LogStormSuppressor.FieldsEmitter {
+        final List<String> lines = new ArrayList<>();
+        final List<Throwable> throwables = new ArrayList<>();
+        final List<LogFields> fields = new ArrayList<>();
+
+        @Override
+        public void emit(long timestamp, int priority, String tag, String message, Throwable t) {
+            emit(timestamp, priority, tag, message, t, null);
+        }
+
+        @Override
+        public void emit(long timestamp, int priority, String tag, String message, Throwable t, LogFields fields) {
+            lines.add(timestamp + " " + "VDIWEA".charAt(priority - Log.VERBOSE) + " " + tag + " " + message);
+            throwables.add(t);
+            this.fields.add(fields);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package cc.soham.timberutils.output.file;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import cc.soham.timberutils.record.LogRecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link BoundedLogQueue} under each {@link OverflowPolicy}: which record makes way, the reserve of ERROR and
+ * ASSERT records, the character budget and when the "records dropped" line is due
+ */
+public class BoundedLogQueueTest {
+    private static final long BASE_TIME = 1500000000000L;
+    private static final String TAG = "Main";
+    private static final long NO_CHAR_LIMIT = 1024 * 1024;
+
+    @After
+    public void tearDown() {
+        BoundedLogQueue.setOverflowPolicy(OverflowPolicy.defaults());
+    }
+
+    @Test
+    public void dropNewest_dropsTheRecordOffered() {
+        BoundedLogQueue queue = queue(OverflowPolicy.DROP_NEWEST, 4, NO_CHAR_LIMIT);
+        offerAll(queue, Log.DEBUG, "d0", "d1", "d2", "d3");
+        assertFalse(queue.offer(record(Log.WARN, "w4")));
+        assertEquals(Arrays.asList("d0", "d1", "d2", "d3"), drain(queue));
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(1, queue.getDroppedCount(Log.WARN));
+    }
+
+    @Test
+    public void dropOldest_dropsTheOldestRecordBelowError() {
+        BoundedLogQueue queue = queue(OverflowPolicy.DROP_OLDEST, 4, NO_CHAR_LIMIT);
+        assertTrue(queue.offer(record(Log.ERROR, "e0")));
+        assertTrue(queue.offer(record(Log.WARN, "w1")));
+        assertTrue(queue.offer(record(Log.DEBUG, "d2")));
+        assertTrue(queue.offer(record(Log.INFO, "i3")));
+        assertTrue(queue.offer(record(Log.VERBOSE, "v4")));
+        assertEquals(Arrays.asList("e0", "d2", "i3", "v4"), drain(queue));
+        assertEquals(1, queue.getDroppedCount(Log.WARN));
+        assertEquals(0, queue.getDroppedCount(Log.ERROR));
+    }
+
+    @Test
+    public void dropLowestPriority_dropsTheOldestOfTheLowestPriority() {
+        BoundedLogQueue queue = queue(OverflowPolicy.DROP_LOWEST_PRIORITY, 4, NO_CHAR_LIMIT);
+        assertTrue(queue.offer(record(Log.INFO, "i0")));
+        assertTrue(queue.offer(record(Log.DEBUG, "d1")));
+        assertTrue(queue.offer(record(Log.WARN, "w2")));
+        assertTrue(queue.offer(record(Log.DEBUG, "d3")));
+        assertTrue(queue.offer(record(Log.INFO, "i4")));
+        // nothing below VERBOSE to make room: the record itself is dropped
+        assertFalse(queue.offer(record(Log.VERBOSE, "v5")));
+        // records are still taken in the order they were queued
+        assertEquals(Arrays.asList("i0", "w2", "d3", "i4"), drain(queue));
+        assertEquals(1, queue.getDroppedCount(Log.DEBUG));
+        assertEquals(1, queue.getDroppedCount(Log.VERBOSE));
+    }
+
+    @Test
+    public void block_dropsTheRecordAfterTheTimeout() {
+        BoundedLogQueue queue = queue(OverflowPolicy.BLOCK, 2, NO_CHAR_LIMIT, 50);
+        offerAll(queue, Log.DEBUG, "d0", "d1");
+        long start = System.nanoTime();
+        assertFalse(queue.offer(record(Log.DEBUG, "d2")));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void block_waitsForTheWriterToMakeRoom() throws Exception {
+        final BoundedLogQueue queue = queue(OverflowPolicy.BLOCK, 2, NO_CHAR_LIMIT, 10000);
+        offerAll(queue, Log.DEBUG, "d0", "d1");
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                queue.poll();
+            }
+        };
+        writer.start();
+        assertTrue(queue.offer(record(Log.DEBUG, "d2")));
+        writer.join();
+        assertEquals(Arrays.asList("d1", "d2"), drain(queue));
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void errorAndAssert_useTheReserveThenPushOutLowerRecords() {
+        // a reserve of 16 records on top of the 4
+        BoundedLogQueue queue = queue(OverflowPolicy.DROP_NEWEST, 4, NO_CHAR_LIMIT);
+        offerAll(queue, Log.DEBUG, "d0", "d1", "d2", "d3");
+        assertFalse(queue.offer(record(Log.WARN, "w")));
+        for (int i = 0; i < 16; i++)
+            assertTrue(queue.offer(record(i % 2 == 0 ? Log.ERROR : Log.ASSERT, "e" + i)));
+        assertEquals(20, queue.size());
+        assertEquals(0, queue.getDroppedCount(Log.DEBUG));
+        // the reserve is used up, the DEBUG records make room
+        for (int i = 16; i < 20; i++)
+            assertTrue(queue.offer(record(Log.ERROR, "e" + i)));
+        assertEquals(4, queue.getDroppedCount(Log.DEBUG));
+        // only ERROR/ASSERT records left: the queue stays bounded
+        assertFalse(queue.offer(record(Log.ERROR, "e20")));
+        assertEquals(1, queue.getDroppedCount(Log.ERROR));
+        List<String> messages = drain(queue);
+        assertEquals(20, messages.size());
+        assertEquals("e0", messages.get(0));
+        assertEquals("e19", messages.get(19));
+    }
+
+    @Test
+    public void charBudget_countsMessagesTagsAndThrowables() {
+        // 100 characters a record
+        String message = repeat('m', 100 - BoundedLogQueue.RECORD_CHARS - TAG.length());
+        BoundedLogQueue queue = queue(OverflowPolicy.DROP_NEWEST, 100, 400);
+        offerAll(queue, Log.DEBUG, message, message, message, message);
+        assertEquals(400, queue.getChars());
+        assertFalse(queue.offer(record(Log.DEBUG, "")));
+        queue.poll();
+        assertEquals(300, queue.getChars());
+        // a throwable is counted as its estimated stack trace
+        assertFalse(queue.offer(new LogRecord(BASE_TIME, Log.DEBUG, TAG, "", new RuntimeException())));
+        assertTrue(queue.offer(record(Log.DEBUG, "")));
+        assertEquals(300 + BoundedLogQueue.RECORD_CHARS + TAG.length(), queue.getChars());
+    }
+
+    @Test
+    public void hugeMessages_areTruncatedToAQuarterOfTheCharBudget() {
+        BoundedLogQueue queue = queue(OverflowPolicy.DROP_NEWEST, 100, 400);
+        assertTrue(queue.offer(record(Log.DEBUG, repeat('m', 1000))));
+        String message = queue.poll().message;
+        assertEquals(100, message.length());
+        assertTrue(message.endsWith("... (truncated)"));
+        assertEquals(0, queue.getChars());
+    }
+
+    @Test
+    public void droppedCount_isReportedOnceTheQueueIsBackToHalfItsRecords() {
+        BoundedLogQueue queue = queue(OverflowPolicy.DROP_NEWEST, 4, NO_CHAR_LIMIT);
+        assertEquals(0, queue.takeDroppedCountToReport());
+        offerAll(queue, Log.DEBUG, "d0", "d1", "d2", "d3");
+        assertFalse(queue.offer(record(Log.DEBUG, "d4")));
+        assertFalse(queue.offer(record(Log.DEBUG, "d5")));
+        assertEquals(0, queue.takeDroppedCountToReport());
+        queue.poll();
+        assertEquals(0, queue.takeDroppedCountToReport());
+        queue.poll();
+        assertEquals(2, queue.takeDroppedCountToReport());
+        // reported once
+        assertEquals(0, queue.takeDroppedCountToReport());
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals("2 records dropped, the log queue was full", BoundedLogQueue.createDroppedMessage(2));
+    }
+
+    @Test
+    public void droppedCount_isReportedOnceTheQueueIsBackToHalfItsChars() {
+        String message = repeat('m', 100 - BoundedLogQueue.RECORD_CHARS - TAG.length());
+        BoundedLogQueue queue = queue(OverflowPolicy.DROP_NEWEST, 100, 400);
+        offerAll(queue, Log.DEBUG, message, message, message, message);
+        assertFalse(queue.offer(record(Log.DEBUG, message)));
+        queue.poll();
+        assertEquals(0, queue.takeDroppedCountToReport());
+        queue.poll();
+        assertEquals(1, queue.takeDroppedCountToReport());
+    }
+
+    @Test
+    public void poll_returnsNullWhenEmpty() throws Exception {
+        BoundedLogQueue queue = queue(OverflowPolicy.DROP_NEWEST, 4, NO_CHAR_LIMIT);
+        assertNull(queue.poll());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertFalse(queue.awaitRecord(10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(record(Log.INFO, "i0")));
+        assertTrue(queue.awaitRecord(10, TimeUnit.MILLISECONDS));
+        assertEquals("i0", queue.poll(10, TimeUnit.MILLISECONDS).message);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setOverflowPolicy_rejectsNull() {
+        BoundedLogQueue.setOverflowPolicy(null);
+    }
+
+    private static BoundedLogQueue queue(int policy, int maxRecords, long maxChars) {
+        return queue(policy, maxRecords, maxChars, OverflowPolicy.DEFAULT_BLOCK_TIMEOUT_MILLIS);
+    }
+
+    private static BoundedLogQueue queue(int policy, int maxRecords, long maxChars, long blockTimeoutMillis) {
+        BoundedLogQueue.setOverflowPolicy(new OverflowPolicy(policy, maxRecords, maxChars, blockTimeoutMillis));
+        return new BoundedLogQueue();
+    }
+
+    private static LogRecord record(int priority, String message) {
+        return new LogRecord(BASE_TIME, priority, TAG, message, null);
+    }
+
+    private static void offerAll(BoundedLogQueue queue, int priority, String... messages) {
+        for (String message : messages)
+            assertTrue(queue.offer(record(priority, message)));
+    }
+
+    /**
+     * @return the messages of the records left, in the order they are taken
+     */
+    private static List<String> drain(BoundedLogQueue queue) {
+        List<String> messages = new ArrayList<>();
+        LogRecord record;
+        while ((record = queue.poll()) != null)
+            messages.add(record.message);
+        return messages;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,334 @@
+package cc.soham.timberutils.output.file;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import cc.soham.timberutils.reporting.BinaryRecordEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link LogReader} on segments written the way {@link FileWriterWrapper} writes them: text and binary,
+ * indexed or not, compressed, zero padded by the {@link MappedFileWriterWrapper}, and the segment being written
+ */
+public class LogReaderTest {
+    private static final long BASE_TIME = 1500000000000L;
+    private static final int INTERVAL = 4;
+    private static final int RECORD_COUNT = 30;
+
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("log-reader", "");
+        assertTrue(folder.delete());
+        assertTrue(folder.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void textSegment_readsEveryBlockRange() throws Exception {
+        SegmentWriter writer = writeRecords(new SegmentWriter(FileWriterWrapper.FORMAT_TEXT));
+        File segment = writer.save(new File(folder, "l_1.tmp"), true);
+        List<String> expected = expectedRecords(LogQuery.all());
+
+        assertEquals(expected, query(LogQuery.all(), segment));
+        for (LogQuery query : queries()) {
+            assertEquals(expectedRecords(query), query(query, segment));
+        }
+    }
+
+    @Test
+    public void textSegment_seeksPastMultiByteCharacters() throws Exception {
+        SegmentWriter writer = writeRecords(new SegmentWriter(FileWriterWrapper.FORMAT_TEXT));
+        File segment = writer.save(new File(folder, "l_1.tmp"), true);
+        // only the last block, found by its byte offset
+        LogQuery query = LogQuery.between(BASE_TIME + RECORD_COUNT - 2, Long.MAX_VALUE);
+        CollectingListener listener = read(query, segment);
+        assertEquals(expectedRecords(query), listener.records);
+        assertTrue(listener.reader.getSourceBytes() < segment.length() / 4);
+    }
+
+    @Test
+    public void textSegment_withoutIndexIsReadFromTheStart() throws Exception {
+        File segment = writeRecords(new SegmentWriter(FileWriterWrapper.FORMAT_TEXT)).save(new File(folder, "l_1.tmp"), false);
+        for (LogQuery query : queries()) {
+            assertEquals(expectedRecords(query), query(query, segment));
+        }
+    }
+
+    @Test
+    public void compressedTextSegment_inflatesUpToTheBlocks() throws Exception {
+        SegmentWriter writer = writeRecords(new SegmentWriter(FileWriterWrapper.FORMAT_TEXT));
+        File segment = writer.saveCompressed(new File(folder, "l_1.tmp" + SegmentCompressor.GZIP_SUFFIX));
+        for (LogQuery query : queries()) {
+            assertEquals(expectedRecords(query), query(query, segment));
+        }
+    }
+
+    @Test
+    public void binarySegment_decodesBlocksOnTheirOwn() throws Exception {
+        SegmentWriter writer = writeRecords(new SegmentWriter(FileWriterWrapper.FORMAT_BINARY));
+        File indexed = writer.save(new File(folder, "l_1" + FileWriterWrapper.BINARY_SUFFIX), true);
+        File unindexed = writer.save(new File(folder, "l_2" + FileWriterWrapper.BINARY_SUFFIX), false);
+        for (LogQuery query : queries()) {
+            assertEquals(expectedRecords(query), query(query, indexed));
+            assertEquals(expectedRecords(query), query(query, unindexed));
+        }
+        assertEquals(expectedRecords(LogQuery.all()), query(LogQuery.all(), indexed));
+    }
+
+    @Test
+    public void mappedSegment_stopsAtTheZeroPadding() throws Exception {
+        SegmentWriter writer = writeRecords(new SegmentWriter(FileWriterWrapper.FORMAT_TEXT));
+        writer.pad(4096);
+        File indexed = writer.save(new File(folder, "l_1.tmp"), true);
+        File unindexed = writer.save(new File(folder, "l_2.tmp"), false);
+        for (LogQuery query : queries()) {
+            assertEquals(expectedRecords(query), query(query, indexed));
+            assertEquals(expectedRecords(query), query(query, unindexed));
+        }
+    }
+
+    @Test
+    public void activeSegment_isReadUpToTheWriter() throws Exception {
+        SegmentWriter writer = writeRecords(new SegmentWriter(FileWriterWrapper.FORMAT_TEXT));
+        SegmentIndex snapshot = writer.index.snapshot();
+        snapshot.setEndOffset(writer.bytes.size());
+        long activeBytes = writer.bytes.size();
+        // written after the snapshot, e.g. still in the buffer of the writer
+        writer.record(BASE_TIME + 1000, Log.ERROR, "Late", "not flushed yet");
+        File segment = writer.save(new File(folder, "l_1.tmp"), false);
+
+        for (LogQuery query : queries()) {
+            CollectingListener listener = new CollectingListener();
+            LogReader.read(Collections.singletonList(segment), segment, snapshot, activeBytes, query, listener);
+            assertEquals(expectedRecords(query), listener.records);
+            listener = new CollectingListener();
+            LogReader.read(Collections.singletonList(segment), segment, null, activeBytes, query, listener);
+            assertEquals(expectedRecords(query), listener.records);
+        }
+        // nothing written yet
+        CollectingListener listener = new CollectingListener();
+        LogReader.read(Collections.singletonList(segment), segment, null, 0, LogQuery.all(), listener);
+        assertEquals(0, listener.records.size());
+    }
+
+    @Test
+    public void segments_areReadInOrderUpToMaxRecords() throws Exception {
+        File text = writeRecords(new SegmentWriter(FileWriterWrapper.FORMAT_TEXT)).save(new File(folder, "l_1.tmp"), true);
+        File binary = writeRecords(new SegmentWriter(FileWriterWrapper.FORMAT_BINARY)).save(new File(folder, "l_2" + FileWriterWrapper.BINARY_SUFFIX), true);
+        CollectingListener listener = new CollectingListener();
+        LogReader logReader = LogReader.read(Arrays.asList(text, binary), null, null, 0, LogQuery.all().setMaxRecords(RECORD_COUNT + 3), listener);
+        List<String> expected = new ArrayList<>(expectedRecords(LogQuery.all()));
+        expected.addAll(expectedRecords(LogQuery.all()).subList(0, 3));
+        assertEquals(expected, listener.records);
+        assertEquals(2, logReader.getSegmentCount());
+        assertEquals(RECORD_COUNT + 3, logReader.getMatchCount());
+    }
+
+    @Test
+    public void segments_ruledOutByTheirIndexAreNotOpened() throws Exception {
+        File segment = writeRecords(new SegmentWriter(FileWriterWrapper.FORMAT_TEXT)).save(new File(folder, "l_1.tmp"), true);
+        LogReader logReader = read(LogQuery.all().setMinPriority(Log.ASSERT), segment).reader;
+        assertEquals(0, logReader.getSegmentCount());
+        assertEquals(0, logReader.getSourceBytes());
+    }
+
+    /**
+     * @return queries that hit some blocks of the records of {@link #writeRecords(SegmentWriter)} but not others
+     */
+    private static LogQuery[] queries() {
+        return new LogQuery[]{
+                LogQuery.all(),
+                LogQuery.all().setMinPriority(Log.ERROR),
+                LogQuery.between(BASE_TIME + 5, BASE_TIME + 13),
+                LogQuery.between(BASE_TIME + 9, BASE_TIME + 22).setMinPriority(Log.WARN),
+                LogQuery.all().setTagPrefixes("Net"),
+                LogQuery.all().setMaxRecords(7),
+        };
+    }
+
+    /**
+     * Records 1ms apart, an error every 10th with a stack trace, multi-byte characters in every message
+     *
+     * @param writer
+     * @return the writer
+     * @throws IOException
+     */
+    private static SegmentWriter writeRecords(SegmentWriter writer) throws IOException {
+        writer.text("debuglogger started");
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            if (i % 10 == 9)
+                writer.record(BASE_TIME + i, Log.ERROR, tag(i), message(i), "\tat cc.soham.Main.run(Main.java:" + i + ")");
+            else
+                writer.record(BASE_TIME + i, i % 3 == 0 ? Log.WARN : Log.DEBUG, tag(i), message(i));
+        }
+        return writer;
+    }
+
+    private static List<String> expectedRecords(LogQuery query) {
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            int priority = i % 10 == 9 ? Log.ERROR : i % 3 == 0 ? Log.WARN : Log.DEBUG;
+            if (!query.matches(BASE_TIME + i, priority, tag(i)))
+                continue;
+            String record = priority + ", " + (BASE_TIME + i) + ", " + tag(i) + ", " + message(i);
+            if (priority == Log.ERROR)
+                record += "\n\tat cc.soham.Main.run(Main.java:" + i + ")";
+            records.add(record);
+            if (query.getMaxRecords() > 0 && records.size() == query.getMaxRecords())
+                break;
+        }
+        return records;
+    }
+
+    private static String tag(int i) {
+        return (i % 2 == 0 ? "Net" : "Ui") + ":" + i;
+    }
+
+    private static String message(int i) {
+        return "café € 😀 record " + i;
+    }
+
+    private static List<String> query(LogQuery query, File segment) throws IOException {
+        return read(query, segment).records;
+    }
+
+    private static CollectingListener read(LogQuery query, File segment) throws IOException {
+        CollectingListener listener = new CollectingListener();
+        listener.reader = LogReader.read(Collections.singletonList(segment), null, null, 0, query, listener);
+        return listener;
+    }
+
+    private static class CollectingListener implements QueryListener {
+        final List<String> records = new ArrayList<>();
+        LogReader reader;
+
+        @Override
+        public boolean onRecord(long timestamp, int priority, @NonNull String record) {
+            records.add(record);
+            return true;
+        }
+    }
+
+    /**
+     * Writes a segment and its index like {@link FileWriterWrapper} does, offsets of text lines are
+     * counted with {@link SegmentIndex#utf8Length(char[], int)}
+     */
+    private static class SegmentWriter {
+        final int format;
+        final SegmentIndex index;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        long offset;
+
+        SegmentWriter(int format) {
+            this.format = format;
+            this.index = new SegmentIndex(format, INTERVAL);
+            if (format == FileWriterWrapper.FORMAT_BINARY) {
+                encoder.encodeHeader();
+                writeEncoded();
+            }
+        }
+
+        void text(String line) throws IOException {
+            if (format == FileWriterWrapper.FORMAT_BINARY) {
+                encoder.encodeText(line);
+                writeEncoded();
+            } else {
+                writeLine(line);
+            }
+        }
+
+        void record(long timestamp, int priority, String tag, String message, String... lines) throws IOException {
+            if (index.isBlockStart()) {
+                if (format == FileWriterWrapper.FORMAT_BINARY) {
+                    encoder.resetTags();
+                    index.startBlock(offset, encoder.getLastTimestamp());
+                } else {
+                    index.startBlock(offset, 0);
+                }
+            }
+            index.onRecord(timestamp, priority);
+            if (format == FileWriterWrapper.FORMAT_BINARY) {
+                encoder.encodeRecord(timestamp, priority, tag, message, null);
+                writeEncoded();
+            } else {
+                writeLine(priority + ", " + timestamp + ", " + tag + ", " + message);
+            }
+            for (String line : lines)
+                text(line);
+            index.setEndOffset(offset);
+        }
+
+        /**
+         * Zeros after the records, as left by a mapped segment that was not trimmed
+         *
+         * @param length
+         */
+        void pad(int length) {
+            bytes.write(new byte[length], 0, length);
+        }
+
+        File save(File segment, boolean withIndex) throws IOException {
+            OutputStream outputStream = new FileOutputStream(segment);
+            try {
+                bytes.writeTo(outputStream);
+            } finally {
+                outputStream.close();
+            }
+            if (withIndex)
+                index.write(segment);
+            return segment;
+        }
+
+        File saveCompressed(File segment) throws IOException {
+            OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(segment));
+            try {
+                bytes.writeTo(outputStream);
+            } finally {
+                outputStream.close();
+            }
+            index.write(segment);
+            return segment;
+        }
+
+        private void writeLine(String line) throws IOException {
+            char[] chars = line.toCharArray();
+            bytes.write(line.getBytes("UTF-8"));
+            bytes.write('\n');
+            offset += SegmentIndex.utf8Length(chars, chars.length) + 1;
+        }
+
+        private void writeEncoded() {
+            bytes.write(encoder.getBuffer(), 0, encoder.getLength());
+            offset += encoder.getLength();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package cc.soham.timberutils.output.file;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Block bookkeeping, block range merging, saving and the UTF-8 byte counts of {@link SegmentIndex}
+ */
+public class SegmentIndexTest {
+    private static final long BASE_TIME = 1500000000000L;
+
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("segment-index", "");
+        assertTrue(folder.delete());
+        assertTrue(folder.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void onRecord_startsABlockEveryInterval() {
+        SegmentIndex index = new SegmentIndex(FileWriterWrapper.FORMAT_TEXT, 2);
+        long offset = 0;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i % 2 == 0, index.isBlockStart());
+            if (index.isBlockStart())
+                index.startBlock(offset, 0);
+            index.onRecord(BASE_TIME + i, Log.INFO);
+            offset += 10;
+        }
+        index.setEndOffset(offset);
+        assertEquals(3, index.getBlockCount());
+        assertEquals(5, index.getRecordCount());
+        assertEquals(20, index.getBlockOffset(1));
+        assertEquals(40, index.getBlockEnd(1));
+        assertEquals(50, index.getBlockEnd(2));
+        assertEquals(BASE_TIME, index.getFirstTimestamp());
+        assertEquals(BASE_TIME + 4, index.getLastTimestamp());
+        assertEquals(5, index.getPriorityCount(Log.INFO));
+    }
+
+    @Test
+    public void findBlockRanges_mergesAdjacentBlocks() {
+        SegmentIndex index = createIndex(Log.INFO, Log.INFO, Log.ERROR, Log.DEBUG, Log.ERROR);
+
+        assertRanges(index.findBlockRanges(LogQuery.all()), 0, 5);
+        assertRanges(index.findBlockRanges(LogQuery.all().setMinPriority(Log.ERROR)), 2, 3, 4, 5);
+        assertRanges(index.findBlockRanges(LogQuery.all().setMinPriority(Log.INFO)), 0, 3, 4, 5);
+        // the first two blocks hold 0..9 and 10..19
+        assertRanges(index.findBlockRanges(LogQuery.between(BASE_TIME + 5, BASE_TIME + 10)), 0, 2);
+        assertRanges(index.findBlockRanges(LogQuery.between(BASE_TIME + 5, BASE_TIME + 10).setMinPriority(Log.WARN)));
+        assertRanges(index.findBlockRanges(LogQuery.between(BASE_TIME + 100, BASE_TIME + 200)));
+    }
+
+    @Test
+    public void findBlockRanges_growsForManyRanges() {
+        int[] priorities = new int[41];
+        for (int i = 0; i < priorities.length; i++)
+            priorities[i] = i % 2 == 0 ? Log.ERROR : Log.VERBOSE;
+        int[] ranges = createIndex(priorities).findBlockRanges(LogQuery.all().setMinPriority(Log.ERROR));
+        assertEquals(42, ranges.length);
+        for (int i = 0; i < ranges.length; i += 2) {
+            assertEquals(i, ranges[i]);
+            assertEquals(i + 1, ranges[i + 1]);
+        }
+    }
+
+    @Test
+    public void mayMatch_looksAtTimeAndPriority() {
+        SegmentIndex index = createIndex(Log.INFO, Log.WARN);
+        assertTrue(index.mayMatch(LogQuery.all()));
+        assertTrue(index.mayMatch(LogQuery.all().setMinPriority(Log.WARN)));
+        assertFalse(index.mayMatch(LogQuery.all().setMinPriority(Log.ERROR)));
+        assertFalse(index.mayMatch(LogQuery.between(0, BASE_TIME - 1)));
+        assertFalse(new SegmentIndex(FileWriterWrapper.FORMAT_TEXT, 2).mayMatch(LogQuery.all()));
+    }
+
+    @Test
+    public void snapshot_isNotChangedByTheWriter() {
+        SegmentIndex index = createIndex(Log.INFO);
+        SegmentIndex snapshot = index.snapshot();
+        index.startBlock(1000, 0);
+        index.onRecord(BASE_TIME + 1000, Log.ERROR);
+        assertEquals(1, snapshot.getBlockCount());
+        assertEquals(10, snapshot.getRecordCount());
+        assertEquals(0, snapshot.getPriorityCount(Log.ERROR));
+    }
+
+    @Test
+    public void writeAndRead_keepEverything() throws Exception {
+        SegmentIndex index = new SegmentIndex(FileWriterWrapper.FORMAT_BINARY, 2);
+        index.startBlock(4, BASE_TIME - 1);
+        index.onRecord(BASE_TIME, Log.DEBUG);
+        index.onRecord(BASE_TIME + 1, Log.ERROR);
+        index.startBlock(40, BASE_TIME + 1);
+        index.onRecord(BASE_TIME + 2, Log.WARN);
+        index.setEndOffset(60);
+        File segment = new File(folder, "l_1" + FileWriterWrapper.BINARY_SUFFIX);
+        index.write(segment);
+        assertTrue(SegmentIndex.isIndexFile(SegmentIndex.getIndexFile(segment)));
+
+        SegmentIndex read = SegmentIndex.read(segment);
+        assertEquals(FileWriterWrapper.FORMAT_BINARY, read.getFormat());
+        assertEquals(2, read.getInterval());
+        assertEquals(3, read.getRecordCount());
+        assertEquals(BASE_TIME, read.getFirstTimestamp());
+        assertEquals(BASE_TIME + 2, read.getLastTimestamp());
+        assertEquals(60, read.getEndOffset());
+        assertEquals(1, read.getPriorityCount(Log.ERROR));
+        assertEquals(2, read.getBlockCount());
+        assertEquals(40, read.getBlockOffset(1));
+        assertEquals(40, read.getBlockEnd(0));
+        assertEquals(BASE_TIME + 1, read.getBlockBaseTimestamp(1));
+        assertRanges(read.findBlockRanges(LogQuery.all().setMinPriority(Log.WARN)), 0, 2);
+        // a compressed segment shares the index of the segment it was made from
+        SegmentIndex compressed = SegmentIndex.read(new File(segment.getPath() + SegmentCompressor.GZIP_SUFFIX));
+        assertEquals(3, compressed.getRecordCount());
+    }
+
+    @Test
+    public void read_withoutIndexFileReturnsNull() {
+        assertNull(SegmentIndex.read(new File(folder, "l_2.tmp")));
+    }
+
+    @Test
+    public void utf8Length_matchesTheEncodedBytes() throws Exception {
+        String[] lines = {
+                "",
+                "4, 1500000000000, Main:42, plain",
+                "café üß",
+                "€ 20, 中文",
+                "😀 emoji",
+                // unpaired surrogates are written as '?'
+                "a\ud800b",
+                "a\udc00b",
+                "ends with \ud83d",
+                "\ud83d😀",
+        };
+        for (String line : lines) {
+            char[] chars = (line + "padding").toCharArray();
+            assertEquals(line, line.getBytes("UTF-8").length, SegmentIndex.utf8Length(chars, line.length()));
+        }
+    }
+
+    /**
+     * @param blockPriorities the priority of the records of every block, 10 records per block, 1ms apart
+     * @return the index
+     */
+    private static SegmentIndex createIndex(int... blockPriorities) {
+        SegmentIndex index = new SegmentIndex(FileWriterWrapper.FORMAT_TEXT, 10);
+        long timestamp = BASE_TIME;
+        for (int block = 0; block < blockPriorities.length; block++) {
+            index.startBlock(block * 1000L, 0);
+            for (int i = 0; i < 10; i++)
+                index.onRecord(timestamp++, blockPriorities[block]);
+        }
+        index.setEndOffset(blockPriorities.length * 1000L);
+        return index;
+    }
+
+    private static void assertRanges(int[] ranges, int... expected) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(ranges));
+    }
+}
@@ -0,0 +1,211 @@
+package cc.soham.timberutils.output.tail;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cc.soham.timberutils.filter.LogInterest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link LogTail#take(TailSubscription)} driven on the test thread, on subscriptions without a thread of their
+ * own: the ring wrapping, cursors skipping ahead, the missed records counted per filter and the ring being let
+ * go of once the last subscription is closed
+ */
+public class LogTailTest {
+    private static final long BASE_TIME = 1500000000000L;
+
+    private final TailListener tailListener = new TailListener() {
+        @Override
+        public void onRecord(long timestamp, int priority, String tag, @NonNull String message) {
+        }
+
+        @Override
+        public void onRecordsMissed(long count) {
+        }
+    };
+
+    @Test
+    public void take_copiesTheMatchingRecordsInOrder() throws Exception {
+        LogTail logTail = new LogTail(8);
+        TailSubscription subscription = logTail.register(tailListener, Log.INFO, "Net");
+        logTail.add(BASE_TIME, Log.INFO, "Network", "m0");
+        logTail.add(BASE_TIME + 1, Log.INFO, "Main", "m1");
+        logTail.add(BASE_TIME + 2, Log.DEBUG, "Network", "m2");
+        logTail.add(BASE_TIME + 3, Log.ERROR, "NetClient", "m3");
+        assertEquals(2, logTail.take(subscription));
+        assertEquals(Arrays.asList("m0", "m3"), batch(subscription, 2));
+        assertEquals(BASE_TIME + 3, subscription.batchTimestamps[1]);
+        assertEquals(Log.ERROR, subscription.batchPriorities[1]);
+        assertEquals("NetClient", subscription.batchTags[1]);
+        // below the lowest priority of all subscriptions, not even stored
+        assertEquals(3, subscription.cursor);
+    }
+
+    @Test
+    public void take_readsAcrossTheEndOfTheRing() throws Exception {
+        LogTail logTail = new LogTail(4);
+        TailSubscription subscription = logTail.register(tailListener, Log.VERBOSE, null);
+        add(logTail, 0, 3);
+        assertEquals(3, logTail.take(subscription));
+        // slots 3, 0 and 1
+        add(logTail, 3, 6);
+        assertEquals(3, logTail.take(subscription));
+        assertEquals(Arrays.asList("m3", "m4", "m5"), batch(subscription, 3));
+        assertEquals(0, subscription.pendingMissedCount);
+    }
+
+    @Test
+    public void take_stopsAtTheBatchSize() throws Exception {
+        LogTail logTail = new LogTail(TailSubscription.BATCH_SIZE * 2);
+        TailSubscription subscription = logTail.register(tailListener, Log.VERBOSE, null);
+        add(logTail, 0, TailSubscription.BATCH_SIZE + 1);
+        assertEquals(TailSubscription.BATCH_SIZE, logTail.take(subscription));
+        assertEquals(1, logTail.take(subscription));
+        assertEquals(Arrays.asList("m" + TailSubscription.BATCH_SIZE), batch(subscription, 1));
+    }
+
+    @Test
+    public void cursor_skipsAheadOnceTheRingHasWrappedPastIt() throws Exception {
+        LogTail logTail = new LogTail(4);
+        TailSubscription subscription = logTail.register(tailListener, Log.VERBOSE, null);
+        // a full ring behind: nothing lost yet
+        add(logTail, 0, 4);
+        assertEquals(0, subscription.pendingMissedCount);
+        add(logTail, 4, 10);
+        assertEquals(6, subscription.pendingMissedCount);
+        assertEquals(4, logTail.take(subscription));
+        assertEquals(Arrays.asList("m6", "m7", "m8", "m9"), batch(subscription, 4));
+        assertEquals(10, subscription.cursor);
+    }
+
+    @Test
+    public void countOverwritten_countsOnlyTheRecordsEachSubscriptionWouldHaveTaken() throws Exception {
+        LogTail logTail = new LogTail(4);
+        TailSubscription network = logTail.register(tailListener, Log.VERBOSE, "Net");
+        TailSubscription warnings = logTail.register(tailListener, Log.WARN, null);
+        TailSubscription everything = logTail.register(tailListener, Log.VERBOSE, null);
+        TailSubscription upToDate = logTail.register(tailListener, Log.VERBOSE, null);
+        logTail.add(BASE_TIME, Log.DEBUG, "Network", "m0");
+        logTail.add(BASE_TIME, Log.WARN, "Main", "m1");
+        logTail.add(BASE_TIME, Log.ERROR, "Network", "m2");
+        logTail.add(BASE_TIME, Log.INFO, "Main", "m3");
+        // read before being overwritten, never missed
+        assertEquals(4, logTail.take(upToDate));
+        add(logTail, 4, 8);
+        assertEquals(2, network.pendingMissedCount);
+        assertEquals(2, warnings.pendingMissedCount);
+        assertEquals(4, everything.pendingMissedCount);
+        assertEquals(0, upToDate.pendingMissedCount);
+        assertEquals(4, logTail.take(upToDate));
+        assertEquals(0, upToDate.pendingMissedCount);
+    }
+
+    @Test
+    public void take_returnsMinusOneOnceClosed() throws Exception {
+        LogTail logTail = new LogTail(4);
+        final TailSubscription subscription = logTail.register(tailListener, Log.VERBOSE, null);
+        Thread closer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                subscription.close();
+            }
+        };
+        closer.start();
+        // waits for a record until the subscription is closed
+        assertEquals(-1, logTail.take(subscription));
+        closer.join();
+    }
+
+    @Test
+    public void take_waitsForARecord() throws Exception {
+        final LogTail logTail = new LogTail(4);
+        TailSubscription subscription = logTail.register(tailListener, Log.VERBOSE, null);
+        Thread logger = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                logTail.add(BASE_TIME, Log.INFO, "Main", "m0");
+            }
+        };
+        logger.start();
+        assertEquals(1, logTail.take(subscription));
+        assertEquals("m0", subscription.batchMessages[0]);
+        logger.join();
+    }
+
+    @Test
+    public void lastUnsubscribe_clearsTheRingAndStopsStoring() throws Exception {
+        LogTail logTail = new LogTail(4);
+        final List<LogTail> unsubscribed = new ArrayList<>();
+        logTail.setUnsubscribeListener(new LogTail.UnsubscribeListener() {
+            @Override
+            public void onUnsubscribed(@NonNull LogTail logTail) {
+                unsubscribed.add(logTail);
+            }
+        });
+        TailSubscription first = logTail.register(tailListener, Log.VERBOSE, null);
+        TailSubscription second = logTail.register(tailListener, Log.WARN, null);
+        add(logTail, 0, 3);
+        first.close();
+        // the other subscription still reads the ring
+        assertEquals(1, unsubscribed.size());
+        assertEquals(Log.WARN, logTail.getMinPriority());
+        assertEquals(0, logTail.take(second));
+        second.close();
+        assertEquals(2, unsubscribed.size());
+        assertSame(logTail, unsubscribed.get(1));
+        assertFalse(logTail.hasSubscriptions());
+        assertEquals(LogInterest.NOT_ACTIVE, logTail.getMinPriority());
+        assertEquals(-1, logTail.take(second));
+        // nothing is stored without subscriptions
+        logTail.add(BASE_TIME, Log.ASSERT, "Main", "dropped");
+        // a subscription rewound over the old records finds them cleared
+        TailSubscription third = logTail.register(tailListener, Log.VERBOSE, null);
+        assertEquals(3, third.cursor);
+        third.cursor = 0;
+        logTail.add(BASE_TIME, Log.INFO, "Main", "m3");
+        assertEquals(4, logTail.take(third));
+        assertNull(third.batchMessages[0]);
+        assertNull(third.batchTags[2]);
+        assertEquals("m3", third.batchMessages[3]);
+        // closing twice tells the listener once
+        third.close();
+        third.close();
+        assertEquals(3, unsubscribed.size());
+        assertTrue(third.isClosed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsAnEmptyRing() {
+        new LogTail(0);
+    }
+
+    private static void add(LogTail logTail, int from, int to) {
+        for (int i = from; i < to; i++)
+            logTail.add(BASE_TIME + i, Log.INFO, "Main", "m" + i);
+    }
+
+    private static List<String> batch(TailSubscription subscription, int count) {
+        return Arrays.asList(Arrays.copyOf(subscription.batchMessages, count));
+    }
+}
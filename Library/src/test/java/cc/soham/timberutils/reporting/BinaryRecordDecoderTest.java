@@ -0,0 +1,316 @@
+package cc.soham.timberutils.reporting;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import cc.soham.timberutils.record.LogFields;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips through {@link BinaryRecordEncoder} and {@link BinaryRecordDecoder}, and decoding of truncated
+ * and corrupt segments
+ */
+public class BinaryRecordDecoderTest {
+    private static final long BASE_TIME = 1500000000000L;
+
+    @Test
+    public void roundTrip_keepsEveryPart() throws Exception {
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        append(segment, encoder, -1, null);
+        encoder.encodeText("debuglogger started at 12:00");
+        segment.write(encoder.getBuffer(), 0, encoder.getLength());
+        LogFields fields = new LogFields().put("orderId", 42L).put("ratio", 0.5).put("paid", true)
+                .put("note", "a, b").put("none", (String) null);
+        encoder.encodeRecord(BASE_TIME, Log.INFO, "Main:42", "order placed", null, fields);
+        segment.write(encoder.getBuffer(), 0, encoder.getLength());
+        // earlier than the record before, a negative delta
+        encoder.encodeRecord(BASE_TIME - 5, Log.ERROR, "Main:42", null, new IllegalStateException("boom"));
+        segment.write(encoder.getBuffer(), 0, encoder.getLength());
+        encoder.encodeRecord(BASE_TIME + 7, Log.WARN, null, "café 😀", new RuntimeException());
+        segment.write(encoder.getBuffer(), 0, encoder.getLength());
+
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(new ByteArrayInputStream(segment.toByteArray()));
+        assertTrue(decoder.next());
+        assertTrue(decoder.isText());
+        assertEquals("debuglogger started at 12:00", decoder.getMessage());
+
+        assertTrue(decoder.next());
+        assertFalse(decoder.isText());
+        assertEquals(BASE_TIME, decoder.getTimestamp());
+        assertEquals(Log.INFO, decoder.getPriority());
+        assertEquals("Main:42", decoder.getTag());
+        assertEquals("order placed", decoder.getMessage());
+        assertFalse(decoder.hasThrowable());
+        LogFields decoded = decoder.getFields();
+        assertEquals(5, decoded.size());
+        assertEquals("orderId", decoded.getKey(0));
+        assertEquals(42L, decoded.getLong(0));
+        assertEquals(0.5, decoded.getDouble(1), 0);
+        assertTrue(decoded.getBoolean(2));
+        assertEquals("a, b", decoded.getString(3));
+        assertNull(decoded.getString(4));
+
+        assertTrue(decoder.next());
+        assertEquals(BASE_TIME - 5, decoder.getTimestamp());
+        assertEquals(Log.ERROR, decoder.getPriority());
+        assertNull(decoder.getMessage());
+        assertTrue(decoder.hasThrowable());
+        assertEquals("boom", decoder.getThrowableMessage());
+        assertNull(decoder.getFields());
+
+        assertTrue(decoder.next());
+        assertEquals(BASE_TIME + 7, decoder.getTimestamp());
+        assertNull(decoder.getTag());
+        assertEquals("café 😀", decoder.getMessage());
+        assertTrue(decoder.hasThrowable());
+        assertNull(decoder.getThrowableMessage());
+
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void roundTrip_tagsAreReinternedAfterMaxTags() throws Exception {
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        append(segment, encoder, -1, null);
+        int count = BinaryRecordFormat.MAX_TAGS * 2 + 10;
+        for (int i = 0; i < count; i++)
+            append(segment, encoder, i, "Tag" + (i % (BinaryRecordFormat.MAX_TAGS + 3)));
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(new ByteArrayInputStream(segment.toByteArray()));
+        for (int i = 0; i < count; i++) {
+            assertTrue(decoder.next());
+            assertEquals("Tag" + (i % (BinaryRecordFormat.MAX_TAGS + 3)), decoder.getTag());
+            assertEquals("message " + i, decoder.getMessage());
+        }
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void encode_cutsHugeMessages() throws Exception {
+        char[] chars = new char[BinaryRecordFormat.MAX_STRING_CHARS + 100];
+        Arrays.fill(chars, '€');
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        append(segment, encoder, -1, null);
+        encoder.encodeRecord(BASE_TIME, Log.DEBUG, "Tag", new String(chars), null);
+        segment.write(encoder.getBuffer(), 0, encoder.getLength());
+        append(segment, encoder, 1, "Tag");
+        assertTrue(encoder.getLength() <= BinaryRecordFormat.MAX_ENTRY_LENGTH);
+
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(new ByteArrayInputStream(segment.toByteArray()));
+        assertTrue(decoder.next());
+        assertEquals(BinaryRecordFormat.MAX_STRING_CHARS, decoder.getMessage().length());
+        assertTrue(decoder.next());
+        assertEquals("message 1", decoder.getMessage());
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void decode_writesTheTextFormat() throws Exception {
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        append(segment, encoder, -1, null);
+        append(segment, encoder, 0, "Main:1");
+        encoder.encodeRecord(BASE_TIME + 1, Log.ERROR, "Main:2", "failed", new IllegalStateException("boom"),
+                new LogFields().put("id", 7L));
+        segment.write(encoder.getBuffer(), 0, encoder.getLength());
+
+        StringWriter writer = new StringWriter();
+        long lines = BinaryRecordDecoder.decode(new ByteArrayInputStream(segment.toByteArray()), writer);
+        assertEquals(2, lines);
+        StringBuilder fieldsLine = new StringBuilder();
+        new LogFields().put("id", 7L).appendLine(fieldsLine);
+        assertEquals(Log.INFO + ", " + BASE_TIME + ", Main:1, message 0\n"
+                + Log.ERROR + ", " + (BASE_TIME + 1) + ", Main:2, failed, boom\n" + fieldsLine + "\n", writer.toString());
+    }
+
+    @Test
+    public void decode_blockFromBaseTimestamp() throws Exception {
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        append(segment, encoder, -1, null);
+        append(segment, encoder, 0, "Main:1");
+        append(segment, encoder, 1, "Main:1");
+        // a new block of a segment index starts here
+        encoder.resetTags();
+        long baseTimestamp = encoder.getLastTimestamp();
+        int blockStart = segment.size();
+        append(segment, encoder, 2, "Main:1");
+        append(segment, encoder, 3, "Other");
+
+        byte[] bytes = segment.toByteArray();
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(
+                new ByteArrayInputStream(bytes, blockStart, bytes.length - blockStart), baseTimestamp);
+        assertTrue(decoder.next());
+        assertEquals(BASE_TIME + 2, decoder.getTimestamp());
+        assertEquals("Main:1", decoder.getTag());
+        assertTrue(decoder.next());
+        assertEquals("Other", decoder.getTag());
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void decode_truncatedSegmentEndsAtTheLastCompleteEntry() throws Exception {
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        append(segment, encoder, -1, null);
+        List<Integer> recordEnds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            append(segment, encoder, i, "Tag" + (i % 2));
+            recordEnds.add(segment.size());
+        }
+        byte[] bytes = segment.toByteArray();
+        for (int cut = BinaryRecordFormat.MAGIC.length + 1; cut <= bytes.length; cut++) {
+            int expected = 0;
+            while (expected < recordEnds.size() && recordEnds.get(expected) <= cut)
+                expected++;
+            assertEquals("cut at " + cut, expected, countRecords(Arrays.copyOf(bytes, cut)));
+        }
+    }
+
+    @Test
+    public void decode_zeroPaddingEndsTheSegment() throws Exception {
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        append(segment, encoder, -1, null);
+        append(segment, encoder, 0, "Tag");
+        append(segment, encoder, 1, "Tag");
+        segment.write(new byte[4096]);
+        append(segment, encoder, 2, "Tag");
+        assertEquals(2, countRecords(segment.toByteArray()));
+    }
+
+    @Test
+    public void decode_corruptLengthIsNotAllocated() throws Exception {
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        append(segment, encoder, -1, null);
+        append(segment, encoder, 0, "Tag");
+        // varint 0x7FFFFFFF, then far less data than that
+        segment.write(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+        segment.write(new byte[1024]);
+        assertEquals(1, countRecords(segment.toByteArray()));
+
+        segment.reset();
+        encoder.reset();
+        append(segment, encoder, -1, null);
+        writeVarint(segment, BinaryRecordFormat.MAX_ENTRY_LENGTH + 1L);
+        segment.write(BinaryRecordFormat.TYPE_TEXT);
+        assertEquals(0, countRecords(segment.toByteArray()));
+    }
+
+    @Test
+    public void decode_corruptTagIdIsIgnored() throws Exception {
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        append(segment, encoder, -1, null);
+        // a tag definition with the id Integer.MAX_VALUE
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(BinaryRecordFormat.TYPE_TAG);
+        writeVarint(body, Integer.MAX_VALUE);
+        body.write("Tag".getBytes("UTF-8"));
+        writeVarint(segment, body.size());
+        body.writeTo(segment);
+        append(segment, encoder, 0, "Tag");
+        assertEquals(1, countRecords(segment.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsATextSegment() throws Exception {
+        countRecords("1, 1500000000000, Main:1, message\n".getBytes("UTF-8"));
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsAStringLongerThanTheEntry() throws Exception {
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        append(segment, new BinaryRecordEncoder(), -1, null);
+        // record: timestamp delta 0, priority, flags, no tag, a message of 100 bytes that is not there
+        byte[] body = {BinaryRecordFormat.TYPE_RECORD, 0, Log.INFO, 0, 0, 100, 'a'};
+        writeVarint(segment, body.length);
+        segment.write(body);
+        countRecords(segment.toByteArray());
+    }
+
+    @Test
+    public void decode_randomCorruptionEndsOrFailsCleanly() throws Exception {
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        append(segment, encoder, -1, null);
+        for (int i = 0; i < 50; i++) {
+            encoder.encodeRecord(BASE_TIME + i, Log.VERBOSE + i % 6, "Tag" + i % 7, "message " + i,
+                    i % 5 == 0 ? new RuntimeException("e" + i) : null,
+                    i % 3 == 0 ? new LogFields().put("i", (long) i).put("s", "v" + i).put("d", i / 2.0).put("b", i % 2 == 0) : null);
+            segment.write(encoder.getBuffer(), 0, encoder.getLength());
+        }
+        byte[] valid = segment.toByteArray();
+        Random random = new Random(42);
+        for (int run = 0; run < 2000; run++) {
+            byte[] bytes = valid.clone();
+            int flips = 1 + random.nextInt(8);
+            for (int i = 0; i < flips; i++)
+                bytes[BinaryRecordFormat.MAGIC.length + 1 + random.nextInt(bytes.length - BinaryRecordFormat.MAGIC.length - 1)] = (byte) random.nextInt();
+            decodeAll(bytes);
+        }
+        for (int run = 0; run < 200; run++) {
+            byte[] bytes = new byte[BinaryRecordFormat.MAGIC.length + 1 + random.nextInt(512)];
+            random.nextBytes(bytes);
+            System.arraycopy(valid, 0, bytes, 0, BinaryRecordFormat.MAGIC.length + 1);
+            decodeAll(bytes);
+        }
+    }
+
+    /**
+     * Encode a record (or the header for a negative index) and append it to the segment
+     */
+    private static void append(ByteArrayOutputStream segment, BinaryRecordEncoder encoder, int index, String tag) {
+        if (index < 0)
+            encoder.encodeHeader();
+        else
+            encoder.encodeRecord(BASE_TIME + index, Log.INFO, tag, "message " + index, null);
+        segment.write(encoder.getBuffer(), 0, encoder.getLength());
+    }
+
+    private static int countRecords(byte[] bytes) throws IOException {
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(new ByteArrayInputStream(bytes));
+        int count = 0;
+        while (decoder.next()) {
+            if (!decoder.isText())
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Decode everything, an IOException is a clean failure, anything else is not
+     */
+    private static void decodeAll(byte[] bytes) {
+        try {
+            BinaryRecordDecoder.decode(new ByteArrayInputStream(bytes), new StringWriter());
+        } catch (IOException expected) {
+            // corruption detected
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -1,6 +1,7 @@
 package cc.soham.timberutilssample;
 
 import com.crashlytics.android.Crashlytics;
+import cc.soham.timberutils.output.crashreporting.BulkCrashReporter;
 import cc.soham.timberutils.output.crashreporting.CrashReporter;
 
 /**
@@ -9,8 +10,9 @@ import cc.soham.timberutils.output.crashreporting.CrashReporter;
  * We must initialize {@link Crashlytics} before creating an instance of this to make sure
  * crashlytics is initialized before we start logging!
  * {@link CrashlyticsCrashReporter}
+ * Batches of breadcrumbs are joined into a single {@link Crashlytics#log(String)} call
  */
-public class CrashlyticsCrashReporter implements CrashReporter {
+public class CrashlyticsCrashReporter implements BulkCrashReporter {
     @Override
     public void logException(Exception exception) {
         Crashlytics.logException(exception);
@@ -21,6 +23,19 @@ public class CrashlyticsCrashReporter implements CrashReporter {
         Crashlytics.log(msg);
     }
 
+    @Override
+    public void log(int count, int[] priorities, String[] tags, String[] messages) {
+        if (count == 0)
+            return;
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                builder.append('\n');
+            builder.append(messages[i]);
+        }
+        Crashlytics.log(builder.toString());
+    }
+
     @Override
     public void logException(Throwable throwable) {
         Crashlytics.logException(throwable);